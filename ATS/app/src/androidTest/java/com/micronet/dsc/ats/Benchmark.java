@@ -0,0 +1,94 @@
+/////////////////////////////////////////////////////////////
+// Benchmark
+//  runs an operation many times and reports how fast it is (ops/s) and how much it allocates (bytes/op)
+//  results are written to the log with the tag ATS-Benchmark, so they can be compared before/after a change
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+import android.os.Debug;
+
+
+public class Benchmark {
+
+    public static final String TAG = "ATS-Benchmark";
+
+    public static final int DEFAULT_WARMUP_OPS = 2000; // let the JIT settle before measuring
+    public static final int DEFAULT_MEASURE_MS = 1000; // measure for at least this long
+
+    static final int BATCH_OPS = 100; // check the clock after this many ops
+
+
+    public interface Op {
+        void run(int i); // i is the number of the op, can be used to vary the input
+    }
+
+
+    public static class Result {
+        String name;
+        long ops;
+        double opsPerSecond;
+        double bytesPerOp; // -1 if allocations could not be counted
+
+        @Override
+        public String toString() {
+            return String.format("%-32s %12.0f ops/s %10.1f bytes/op (%d ops)", name, opsPerSecond, bytesPerOp, ops);
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // run()
+    //  warms up, then runs the op in batches until at least measure_ms has passed
+    ////////////////////////////////////////////////////////////////////
+    public static Result run(String name, int warmup_ops, int measure_ms, Op op) {
+
+        for (int i = 0; i < warmup_ops; i++) {
+            op.run(i);
+        }
+
+        // count the bytes allocated by this thread while measuring
+        boolean counting = false;
+        try {
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            counting = true;
+        } catch (Exception e) {
+            // not supported on this runtime
+        }
+
+        long ops = 0;
+        long start = System.nanoTime();
+        long end = start + measure_ms * 1000000L;
+        long now;
+        do {
+            for (int i = 0; i < BATCH_OPS; i++) {
+                op.run((int) ops + i);
+            }
+            ops += BATCH_OPS;
+            now = System.nanoTime();
+        } while (now < end);
+
+        Result result = new Result();
+        result.name = name;
+        result.ops = ops;
+        result.opsPerSecond = ops * 1000000000.0 / (now - start);
+        result.bytesPerOp = -1;
+
+        if (counting) {
+            Debug.stopAllocCounting();
+            result.bytesPerOp = (double) Debug.getThreadAllocSize() / ops;
+        }
+
+        android.util.Log.i(TAG, result.toString());
+        return result;
+    } // run()
+
+
+    public static Result run(String name, Op op) {
+        return run(name, DEFAULT_WARMUP_OPS, DEFAULT_MEASURE_MS, op);
+    }
+
+
+} // Benchmark
@@ -0,0 +1,144 @@
+package com.micronet.dsc.ats;
+
+import android.telephony.TelephonyManager;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+
+/**
+ * Measures the speed (ops/s) and allocations (bytes/op) of the hot paths that need Android (Codec, Engine, Config).
+ * Results are in the log under ATS-Benchmark. These only check that the code runs, not how fast it is.
+ * The bus protocol code is benchmarked with JMH in the protocol module (protocol/src/jmh).
+ */
+public class BenchmarkTest extends AndroidTestCase {
+
+    private MainService service;
+    private Codec codec;
+
+    public void setUp() {
+        RenamingDelegatingContext context
+                = new RenamingDelegatingContext(getContext(), "test_");
+
+        Config config = new Config(context);
+        State state = new State(context);
+
+        // clear config and state info to the default before init'ing IO
+        config.open();
+        config.clearAll();
+        state.clearAll();
+
+        CodeMap codeMap = new CodeMap(context);
+        codeMap.open();
+        codeMap.clearAll();
+
+        service = new MainService(context);
+
+        codec = new Codec(service);
+
+        service.queue.clearAll();
+        service.clearEventSequenceIdNow();
+
+    } // setup
+
+
+    public void test_codecEncodeMessage() {
+
+        final Codec.ConnectInfo connectInfo = new Codec.ConnectInfo();
+        connectInfo.networkOperator = "246824";
+        connectInfo.networkType = TelephonyManager.NETWORK_TYPE_LTE;
+        connectInfo.signalStrength = -93;
+
+        final QueueItem queueItem = new QueueItem();
+        queueItem.carrier_id = 246824;
+        queueItem.trigger_dt = 1425063620L;
+        queueItem.sequence_id = 377;
+        queueItem.event_type_id = EventType.EVENT_TYPE_HEARTBEAT;
+        queueItem.latitude = 36.12345;
+        queueItem.longitude = -117.56789;
+        queueItem.odometer = 539131044L;
+
+        Benchmark.Result result = Benchmark.run("Codec.encodeMessage", new Benchmark.Op() {
+            @Override
+            public void run(int i) {
+                codec.encodeMessage(queueItem, connectInfo);
+            }
+        });
+        assertTrue(result.ops > 0);
+
+    } // test_codecEncodeMessage()
+
+
+    public void test_codecDecodeMessage() {
+
+        byte[] messageData = {
+                8,                // length of device ID
+                48, 48, 48, 48, 48, 48, 48, 48,  // device ID
+                (byte) 0x80,                // requires an ACK
+                0x79, 0x01,       // sequence number 377
+                100,                 // Config Write
+                4, 0,                // data length
+                18,               // Idling
+                0x33, 0x32, 0x31 // new value: 321
+        };
+
+        final Codec.IncomingMessage message = new Codec.IncomingMessage();
+        System.arraycopy(messageData, 0, message.data, 0, messageData.length);
+        message.length = messageData.length;
+
+        Benchmark.Result result = Benchmark.run("Codec.decodeMessage", new Benchmark.Op() {
+            @Override
+            public void run(int i) {
+                codec.decodeMessage(message);
+            }
+        });
+        assertTrue(result.ops > 0);
+
+    } // test_codecDecodeMessage()
+
+
+    public void test_engineCheckDtcs() {
+
+        final Engine engine = service.engine;
+        final int count = 200;
+
+        final long[] dtcs = new long[count];
+        final int[] sources = new int[count];
+        for (int i = 0; i < count; i++) {
+            dtcs[i] = 0x00010000L + (i << 8) + 3; // different SPNs, FMI 3
+            sources[i] = i & 0x07;
+        }
+
+        // all codes become active once, then every report is the same (the normal case on a truck with faults)
+        engine.current_dtcs.clear();
+        engine.updateDtcs(Engine.BUS_TYPE_J1939, Engine.DTC_REPORTER_ALL, dtcs, sources, count, 0, 1000);
+        assertEquals(count, engine.current_dtcs.size());
+        service.queue.clearAll();
+
+        Benchmark.Result result = Benchmark.run("Engine.checkDtcs (" + count + " DTCs)", new Benchmark.Op() {
+            @Override
+            public void run(int i) {
+                engine.updateDtcs(Engine.BUS_TYPE_J1939, Engine.DTC_REPORTER_ALL, dtcs, sources, count, 0, 2000 + i);
+            }
+        });
+        assertTrue(result.ops > 0);
+        assertEquals(count, engine.current_dtcs.size());
+
+    } // test_engineCheckDtcs()
+
+
+    public void test_configReadParameterInt() {
+
+        final Config config = service.config;
+
+        Benchmark.Result result = Benchmark.run("Config.readParameterInt", new Benchmark.Op() {
+            @Override
+            public void run(int i) {
+                config.readParameterInt(Config.SETTING_FAULT_CODE_OPTIONS, Config.PARAMETER_FAULT_CODE_OPTIONS_MISSED_WINDOW_MS);
+            }
+        });
+        assertTrue(result.ops > 0);
+
+    } // test_configReadParameterInt()
+
+
+} // class BenchmarkTest
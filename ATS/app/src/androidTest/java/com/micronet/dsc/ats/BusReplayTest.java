@@ -0,0 +1,190 @@
+package com.micronet.dsc.ats;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class BusReplayTest extends AndroidTestCase {
+
+    private MainService service;
+    private J1939 j1939;
+    private J1587 j1587;
+
+    public void setUp() {
+        RenamingDelegatingContext context
+                = new RenamingDelegatingContext(getContext(), "test_");
+
+        Config config = new Config(context);
+        State state = new State(context);
+
+        // clear config and state info to the default before init'ing IO
+        config.open();
+        config.clearAll();
+        state.clearAll();
+
+        service = new MainService(context);
+
+        j1939 = new J1939(service.engine, true, 123456);
+        j1587 = new J1587(service.engine, true);
+
+        j1939.start();
+        j1939.myAddress = 0xBB; // just some random address
+        j1587.start();
+
+        service.queue.clearAll();
+        service.clearEventSequenceIdNow();
+
+    } // setup
+
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+
+    /////////////////////////////////////////////////////////
+    // Capture file writing (same format as VBS)
+    /////////////////////////////////////////////////////////
+
+    static void writeHeader(DataOutputStream out, long start_realtime) throws Exception {
+        out.writeInt(BusReplay.FORMAT_MAGIC);
+        out.writeShort(BusReplay.FORMAT_VERSION);
+        out.writeLong(start_realtime);
+        out.writeLong(0); // wall clock
+    }
+
+    static void writeRecord(DataOutputStream out, int bus, int offset_ms, int id, int priority, byte[] data) throws Exception {
+        out.writeByte(bus);
+        out.writeInt(offset_ms);
+        out.writeInt(id);
+        out.writeByte(priority);
+        out.writeByte(data.length);
+        out.write(data);
+    }
+
+    // Hi-Res Vehicle Distance is PGN FEC1, Bytes 1- 4: Total Distance 5 m/bit gain
+    static byte[] hiResOdometer(int value) {
+        return new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24), 0, 0, 0, 0};
+    }
+
+
+    public void test_replayAll() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        writeHeader(out, 100000);
+        writeRecord(out, BusReplay.BUS_CAN, 0, 0x14FEC1CC, 0, hiResOdometer(0x1000));
+        writeRecord(out, BusReplay.BUS_J1708, 10, 0x80, 5,
+                new byte[] {(byte) J1587.PID_FUEL_CONSUMPTION, 4, (byte) 0xFF, 0x30, 0x40, (byte) 0x80});
+        writeRecord(out, BusReplay.BUS_CAN, 20, 0x14FEC1CC, 0, hiResOdometer(0x2000));
+        writeRecord(out, 9, 30, 0x01, 0, new byte[] {1, 2}); // unknown bus
+        out.write(new byte[] {BusReplay.BUS_CAN, 0, 0}); // cut off in the middle of a record
+        out.flush();
+
+        BusReplay replay = new BusReplay(j1939, j1587);
+        assertTrue(replay.open(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(replay.isReplaying());
+
+        assertEquals(3, replay.replayAll());
+        assertFalse(replay.isReplaying());
+        assertEquals(2, replay.canFrames);
+        assertEquals(1, replay.j1708Frames);
+        assertEquals(1, replay.skippedFrames);
+
+        // frames were decoded in order
+        assertEquals(0x2000L * 5, service.engine.status.odometer_m);
+        assertEquals(0x804030FFL * 473, service.engine.status.fuel_mL);
+
+    } // test_replayAll()
+
+
+    public void test_skipBus() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        writeHeader(out, 0);
+        writeRecord(out, BusReplay.BUS_CAN, 0, 0x14FEC1CC, 0, hiResOdometer(0x1000));
+        writeRecord(out, BusReplay.BUS_J1708, 10, 0x80, 5,
+                new byte[] {(byte) J1587.PID_FUEL_CONSUMPTION, 4, (byte) 0xFF, 0x30, 0x40, (byte) 0x80});
+        out.flush();
+
+        // only J1708
+        BusReplay replay = new BusReplay(null, j1587);
+        assertTrue(replay.open(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1, replay.replayAll());
+        assertEquals(1, replay.skippedFrames);
+        assertEquals(0, replay.canFrames);
+
+    } // test_skipBus()
+
+
+    public void test_badFile() throws Exception {
+
+        BusReplay replay = new BusReplay(j1939, j1587);
+
+        // wrong magic
+        assertFalse(replay.open(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0})));
+        assertFalse(replay.isReplaying());
+
+        // header but no frames
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, 0);
+        out.flush();
+        assertFalse(replay.open(new ByteArrayInputStream(bytes.toByteArray())));
+
+    } // test_badFile()
+
+
+    public void test_directory() throws Exception {
+
+        File directory = new File(getContext().getCacheDir(), "test_replay");
+        directory.mkdirs();
+        for (File f : directory.listFiles()) f.delete();
+
+        // two files, the second captured after the first
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(directory, "bus_00001.cap")));
+        writeHeader(out, 50000);
+        writeRecord(out, BusReplay.BUS_CAN, 0, 0x14FEC1CC, 0, hiResOdometer(0x3000));
+        out.close();
+
+        out = new DataOutputStream(new FileOutputStream(new File(directory, "bus_00000.cap")));
+        writeHeader(out, 10000);
+        writeRecord(out, BusReplay.BUS_CAN, 0, 0x14FEC1CC, 0, hiResOdometer(0x1000));
+        writeRecord(out, BusReplay.BUS_CAN, 5, 0x14FEC1CC, 0, hiResOdometer(0x2000));
+        out.close();
+
+        // not a capture file
+        out = new DataOutputStream(new FileOutputStream(new File(directory, "notes.txt")));
+        out.writeBytes("hello");
+        out.close();
+
+        BusReplay replay = new BusReplay(j1939, j1587);
+        assertTrue(replay.open(directory));
+
+        // the frames are due at their spacing from the first one
+        replay.speed = 1;
+        replay.startTime = 0;
+        assertEquals(0, replay.getDueTime());
+
+        assertTrue(replay.deliverNext());
+        assertEquals(0x1000L * 5, service.engine.status.odometer_m);
+        assertEquals(5, replay.getDueTime());
+
+        replay.speed = 5;
+        assertEquals(1, replay.getDueTime());
+
+        assertEquals(2, replay.replayAll());
+        assertEquals(0x3000L * 5, service.engine.status.odometer_m); // the later file was last
+
+    } // test_directory()
+
+
+} // class BusReplayTest
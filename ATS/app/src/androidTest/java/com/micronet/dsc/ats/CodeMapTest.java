@@ -0,0 +1,78 @@
+package com.micronet.dsc.ats;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+public class CodeMapTest extends AndroidTestCase {
+
+    CodeMap codemap;
+    RenamingDelegatingContext context;
+
+    public void setUp() {
+        context = new RenamingDelegatingContext(getContext(), "test_");
+        codemap = new CodeMap(context);
+        codemap.open();
+        codemap.clearAll();
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+
+    public void test_singleEntry() {
+
+        assertEquals(10, codemap.mapMoEventCode(10)); // not mapped
+
+        codemap.writeMoEventCode(10, 0x99);
+        assertEquals(0x99, codemap.mapMoEventCode(10));
+
+        codemap.writeMtEventCode(0x98, 100);
+        assertEquals(100, codemap.mapMtEventCode(0x98));
+        assertEquals(0x97, codemap.mapMtEventCode(0x97));
+
+        // signed and unsigned bytes are the same code
+        assertEquals(100, codemap.mapMtEventCode((byte) 0x98));
+
+        codemap.clearAllMO();
+        assertEquals(10, codemap.mapMoEventCode(10));
+        assertEquals(100, codemap.mapMtEventCode(0x98));
+
+    } // test_singleEntry()
+
+
+    public void test_bulkWrite() {
+
+        codemap.writeMoEventCode(1, 101);
+
+        assertTrue(codemap.writeMoEventCodes(new int[] {10, 11, 12}, new int[] {110, 111, 112}, false));
+        assertEquals(101, codemap.mapMoEventCode(1)); // kept
+        assertEquals(110, codemap.mapMoEventCode(10));
+        assertEquals(112, codemap.mapMoEventCode(12));
+
+        assertTrue(codemap.writeMoEventCodes(new int[] {20}, new int[] {120}, true));
+        assertEquals(1, codemap.mapMoEventCode(1)); // replaced
+        assertEquals(10, codemap.mapMoEventCode(10));
+        assertEquals(120, codemap.mapMoEventCode(20));
+
+        // nothing is written if any entry is bad
+        assertFalse(codemap.writeMoEventCodes(new int[] {30, 300}, new int[] {130, 131}, false));
+        assertFalse(codemap.writeMoEventCodes(new int[] {30}, new int[] {130, 131}, false));
+        assertEquals(30, codemap.mapMoEventCode(30));
+
+    } // test_bulkWrite()
+
+
+    public void test_sharedBetweenObjects() {
+
+        // BindingService has its own CodeMap, a write through it must be seen by the service's
+        CodeMap other = new CodeMap(context);
+        other.open();
+
+        assertTrue(other.writeMtEventCodes(new int[] {0x98}, new int[] {100}, false));
+        assertEquals(100, codemap.mapMtEventCode(0x98));
+
+    } // test_sharedBetweenObjects()
+
+
+} // class CodeMapTest
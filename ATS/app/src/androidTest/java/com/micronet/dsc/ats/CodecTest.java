@@ -51,8 +51,8 @@ public class CodecTest extends AndroidTestCase {
 
 
 
-    private Ota.ConnectInfo setupDefaultConnectInfo() {
-        Ota.ConnectInfo connectInfo = new Ota.ConnectInfo();
+    private Codec.ConnectInfo setupDefaultConnectInfo() {
+        Codec.ConnectInfo connectInfo = new Codec.ConnectInfo();
 
         connectInfo.isRoaming = false;
         connectInfo.networkOperator = "246824";
@@ -65,7 +65,7 @@ public class CodecTest extends AndroidTestCase {
 
     }
 
-    private QueueItem setupDefaultQueueItem(Ota.ConnectInfo connectInfo) {
+    private QueueItem setupDefaultQueueItem(Codec.ConnectInfo connectInfo) {
         QueueItem queueItem = new QueueItem();
 
         queueItem.signal_strength = (byte) connectInfo.signalStrength;
@@ -126,7 +126,7 @@ public class CodecTest extends AndroidTestCase {
         Codec.OutgoingMessage message;
 
         //setup
-        Ota.ConnectInfo connectInfo = setupDefaultConnectInfo();
+        Codec.ConnectInfo connectInfo = setupDefaultConnectInfo();
         QueueItem queueItem = setupDefaultQueueItem(connectInfo);
 
         ////////////////////////////////////
@@ -175,7 +175,7 @@ public class CodecTest extends AndroidTestCase {
 
         queueItem.event_type_id = EventType.EVENT_TYPE_RESTART;
         codec = new Codec(service);
-        queueItem.additional_data_bytes = codec.dataForServiceRestart("unknown"); // boot_reason
+        queueItem.additional_data_bytes = Codec.dataForServiceRestart(BuildConfig.VERSION_CODE, "unknown"); // boot_reason
 
         message = codec.encodeMessage(queueItem, connectInfo);
 
@@ -3,6 +3,8 @@ package com.micronet.dsc.ats;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 
+import java.util.ArrayList;
+
 public class ConfigTest  extends AndroidTestCase {
 
     Config cf;
@@ -145,4 +147,135 @@ public class ConfigTest  extends AndroidTestCase {
 
         assertEquals(0, bad_int);
     }
+
+
+    public void testWriteSeenByOtherInstance() {
+
+        // BindingService has its own Config, a write through either one must be seen by both
+        Config other = new Config(new RenamingDelegatingContext(getContext(), "test_"));
+        other.open();
+
+        assertEquals(9999, cf.readParameterInt(Config.SETTING_SERVER_ADDRESS, Config.PARAMETER_SERVER_ADDRESS_PORT));
+
+        other.writeSetting(Config.SETTING_SERVER_ADDRESS, "1.1.1.1|2222");
+        assertEquals(2222, cf.readParameterInt(Config.SETTING_SERVER_ADDRESS, Config.PARAMETER_SERVER_ADDRESS_PORT));
+
+        other.clearSetting(Config.SETTING_SERVER_ADDRESS);
+        assertEquals(9999, cf.readParameterInt(Config.SETTING_SERVER_ADDRESS, Config.PARAMETER_SERVER_ADDRESS_PORT));
+    }
+
+
+    public void testMissingParameterUsesDefault() {
+
+        // a saved setting with fewer parameters than the default takes the rest from the default
+        cf.writeSetting(Config.SETTING_SERVER_ADDRESS, "1.1.1.1");
+
+        assertEquals("1.1.1.1", cf.readParameter(Config.SETTING_SERVER_ADDRESS, Config.PARAMETER_SERVER_ADDRESS_IP));
+        assertEquals("9999", cf.readParameter(Config.SETTING_SERVER_ADDRESS, Config.PARAMETER_SERVER_ADDRESS_PORT));
+        assertEquals(9999, cf.readParameterInt(Config.SETTING_SERVER_ADDRESS, Config.PARAMETER_SERVER_ADDRESS_PORT));
+        assertNull(cf.readParameter(Config.SETTING_SERVER_ADDRESS, 5));
+
+        // the array is only what was saved, and changing it doesn't change the setting
+        String[] array = cf.readParameterArray(Config.SETTING_SERVER_ADDRESS);
+        assertEquals(1, array.length);
+        array[0] = "2.2.2.2";
+        assertEquals("1.1.1.1", cf.readSetting(Config.SETTING_SERVER_ADDRESS));
+    }
+
+
+    public void testEventRoute() {
+
+        // the messages parameter decides if the ignition messages are sent
+        cf.writeSetting(Config.SETTING_INPUT_IGNITION, "10|" + Config.MESSAGES_BF_ON);
+        assertTrue(cf.shouldSendOTA(EventType.EVENT_TYPE_IGNITION_KEY_ON));
+        assertFalse(cf.shouldSendOTA(EventType.EVENT_TYPE_IGNITION_KEY_OFF));
+
+        // the table is rebuilt when the setting changes
+        cf.writeSetting(Config.SETTING_INPUT_IGNITION, "10|" + Config.MESSAGES_BF_OFF);
+        assertFalse(cf.shouldSendOTA(EventType.EVENT_TYPE_IGNITION_KEY_ON));
+        assertTrue(cf.shouldSendOTA(EventType.EVENT_TYPE_IGNITION_KEY_OFF));
+
+        // events without a setting are always sent, and only device and vehicle events are sent locally
+        assertTrue(cf.shouldSendOTA(EventType.EVENT_TYPE_HEARTBEAT));
+        assertEquals(Config.EVENT_ROUTE_LOCAL, cf.getEventRoute(EventType.EVENT_TYPE_IGNITION_KEY_ON));
+        assertEquals(Config.EVENT_ROUTE_OTA, cf.getEventRoute(EventType.EVENT_TYPE_HEARTBEAT));
+    }
+
+
+    public void testChangeListener() {
+
+        final ArrayList<Integer> heard = new ArrayList<Integer>();
+        Config.ChangeListener listener = new Config.ChangeListener() {
+            @Override
+            public void onSettingsChanged(int[] setting_ids) {
+                for (int setting_id : setting_ids) heard.add(setting_id);
+            }
+        };
+
+        Config.addChangeListener(listener, new int[] {Config.SETTING_SPEEDING, Config.SETTING_BRAKING});
+        try {
+            // only settings that were asked for
+            cf.writeSetting(Config.SETTING_SPEEDING, "2000|5");
+            cf.writeSetting(Config.SETTING_IDLING, "60|2");
+            assertEquals(1, heard.size());
+            assertEquals(Config.SETTING_SPEEDING, (int) heard.get(0));
+
+            // the same value again is not a change
+            cf.writeSetting(Config.SETTING_SPEEDING, "2000|5");
+            assertEquals(1, heard.size());
+
+            // changes through another Config object are heard too
+            Config other = new Config(new RenamingDelegatingContext(getContext(), "test_"));
+            other.open();
+            other.clearSetting(Config.SETTING_SPEEDING);
+            assertEquals(2, heard.size());
+            assertEquals(Config.SETTING_SPEEDING, (int) heard.get(1));
+
+            // clearing everything only reports what actually changed
+            cf.writeSetting(Config.SETTING_BRAKING, "100|5");
+            heard.clear();
+            cf.clearAll();
+            assertEquals(1, heard.size());
+            assertEquals(Config.SETTING_BRAKING, (int) heard.get(0));
+        } finally {
+            Config.removeChangeListener(listener);
+        }
+
+        cf.writeSetting(Config.SETTING_BRAKING, "200|5");
+        assertEquals(1, heard.size());
+    }
+
+
+    public void testWriteSettings() {
+
+        final ArrayList<int[]> calls = new ArrayList<int[]>();
+        Config.ChangeListener listener = new Config.ChangeListener() {
+            @Override
+            public void onSettingsChanged(int[] setting_ids) {
+                calls.add(setting_ids);
+            }
+        };
+
+        cf.writeSetting(Config.SETTING_BRAKING, "100|5");
+
+        Config.addChangeListener(listener, new int[] {Config.SETTING_SPEEDING, Config.SETTING_IDLING, Config.SETTING_BRAKING});
+        try {
+            // nothing is written if one of the settings doesn't exist
+            assertFalse(cf.writeSettings(new int[] {Config.SETTING_SPEEDING, 200}, new String[] {"2000|5", "1"}));
+            assertEquals(Config.SETTING_DEFAULTS[Config.SETTING_SPEEDING], cf.readSetting(Config.SETTING_SPEEDING));
+            assertFalse(cf.writeSettings(new int[] {Config.SETTING_SPEEDING}, new String[] {"2000|5", "1"}));
+            assertEquals(0, calls.size());
+
+            // all are written, a null clears, and the listener is told once
+            assertTrue(cf.writeSettings(new int[] {Config.SETTING_SPEEDING, Config.SETTING_IDLING, Config.SETTING_BRAKING},
+                    new String[] {"2000|5", "60|2", null}));
+            assertEquals("2000|5", cf.readSetting(Config.SETTING_SPEEDING));
+            assertEquals("60|2", cf.readSetting(Config.SETTING_IDLING));
+            assertEquals(Config.SETTING_DEFAULTS[Config.SETTING_BRAKING], cf.readSetting(Config.SETTING_BRAKING));
+            assertEquals(1, calls.size());
+            assertEquals(3, calls.get(0).length);
+        } finally {
+            Config.removeChangeListener(listener);
+        }
+    }
 }
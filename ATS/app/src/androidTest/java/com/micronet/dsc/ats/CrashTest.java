@@ -37,32 +37,27 @@ public class CrashTest extends AndroidTestCase {
 
 
         cr.edit();
-        cr.editor.putLong("SaveTime", SystemClock.elapsedRealtime() - Crash.MAX_ELAPSED_RESTORE_TIME_MS); // to far in past
-        cr.editor.commit();
+        cr.commit(SystemClock.elapsedRealtime() - Crash.MAX_ELAPSED_RESTORE_TIME_MS, Crash.getAppVersion()); // to far in past
 
         assertFalse(cr.isRestoreable());
 
         cr.edit();
-        cr.editor.putLong("SaveTime", SystemClock.elapsedRealtime() + 1000); // one second in future
-        cr.editor.commit();
+        cr.commit(SystemClock.elapsedRealtime() + 1000, Crash.getAppVersion()); // one second in future
 
         assertFalse(cr.isRestoreable());
 
         cr.edit();
-        cr.editor.putLong("SaveTime", SystemClock.elapsedRealtime()); // just right
-        cr.editor.commit();
+        cr.commit(SystemClock.elapsedRealtime(), Crash.getAppVersion()); // just right
 
         assertTrue(cr.isRestoreable());
 
         cr.edit();
-        cr.editor.putString("Version", "XXX"); // wrong version
-        cr.editor.commit();
+        cr.commit(SystemClock.elapsedRealtime(), "XXX".hashCode()); // wrong version
 
         assertFalse(cr.isRestoreable());
 
         cr.edit();
-        cr.editor.putString("Version", BuildConfig.VERSION_NAME); // right version
-        cr.editor.commit();
+        cr.commit(SystemClock.elapsedRealtime(), Crash.getAppVersion()); // right version
 
 
         assertTrue(cr.isRestoreable());
@@ -83,16 +78,19 @@ public class CrashTest extends AndroidTestCase {
         int[] iarr = {20,30,40};
 
         cr.edit();
-        cr.writeStateArrayInt(1, iarr);
+        cr.writeStateArrayInt(Crash.DEBOUNCE_GP_INPUTS_ARRAY, iarr);
         cr.commit();
 
 
-        String sarr[] = cr.readStateArray(1);
+        int arr[] = cr.readStateArrayInt(Crash.DEBOUNCE_GP_INPUTS_ARRAY);
 
-        assertEquals(sarr.length, 3);
-        assertTrue(sarr[0].equals("20"));
-        assertTrue(sarr[1].equals("30"));
-        assertTrue(sarr[2].equals("40"));
+        assertEquals(arr.length, 3);
+        assertEquals(20, arr[0]);
+        assertEquals(30, arr[1]);
+        assertEquals(40, arr[2]);
+
+        // not saved
+        assertEquals(0, cr.readStateArrayInt(Crash.RESET_GP_INPUTS_ARRAY).length);
 
 
     } // testWriteArrayInt()
@@ -105,20 +103,61 @@ public class CrashTest extends AndroidTestCase {
         long[] larr = {20,30, 5000000000L};
 
         cr.edit();
-        cr.writeStateArrayLong(1, larr);
+        cr.writeStateArrayLong(Crash.WAKELOCK_ELAPSED_GP_INPUTS_ARRAY, larr);
         cr.commit();
 
 
-        String sarr[] = cr.readStateArray(1);
+        long arr[] = cr.readStateArrayLong(Crash.WAKELOCK_ELAPSED_GP_INPUTS_ARRAY);
 
-        assertEquals(sarr.length, 3);
-        assertTrue(sarr[0].equals("20"));
-        assertTrue(sarr[1].equals("30"));
-        assertTrue(sarr[2].equals("5000000000"));
+        assertEquals(arr.length, 3);
+        assertEquals(20, arr[0]);
+        assertEquals(30, arr[1]);
+        assertEquals(5000000000L, arr[2]);
 
 
     } // testWriteArrayLong()
 
 
 
+    public void testReopen() {
+
+        cr.edit();
+        cr.writeStateInt(Crash.DEBOUNCE_IDLING, 12);
+        cr.writeStateBool(Crash.FLAG_IDLE_STATUS, true);
+        cr.writeStateLong(Crash.WAKELOCK_ELAPSED_HEARTBEAT, 5000000000L);
+        cr.commit();
+
+        // the next process reads the file
+        Crash reopened = new Crash(new RenamingDelegatingContext(getContext(), "test_"));
+        assertTrue(reopened.isRestoreable());
+        assertEquals(12, reopened.readStateInt(Crash.DEBOUNCE_IDLING));
+        assertTrue(reopened.readStateBool(Crash.FLAG_IDLE_STATUS));
+        assertEquals(5000000000L, reopened.readStateLong(Crash.WAKELOCK_ELAPSED_HEARTBEAT));
+        assertEquals(0, reopened.readStateInt(Crash.DEBOUNCE_SPEEDING)); // not saved
+
+    } // testReopen()
+
+
+    public void testDamagedSlot() {
+
+        cr.edit();
+        cr.writeStateInt(Crash.DEBOUNCE_IDLING, 1);
+        cr.commit();
+
+        cr.edit();
+        cr.writeStateInt(Crash.DEBOUNCE_IDLING, 2);
+        cr.commit();
+
+        // killed in the middle of writing the newest slot: the one before it is used
+        int newest = cr.savedSlot;
+        cr.mapped.put(newest * Crash.SLOT_SIZE + Crash.HEADER_SIZE + 8, (byte) 0x55);
+
+        Crash reopened = new Crash(new RenamingDelegatingContext(getContext(), "test_"));
+        assertTrue(reopened.isRestoreable());
+        assertEquals(1 - newest, reopened.savedSlot);
+        assertEquals(1, reopened.readStateInt(Crash.DEBOUNCE_IDLING));
+
+    } // testDamagedSlot()
+
+
 } // class
@@ -105,6 +105,66 @@ public class EngineTest extends AndroidTestCase {
     } // test_checkParkingBrake()
 
 
+    public void test_rawForwarding() {
+
+        service.config.writeSetting(Config.SETTING_FORWARD_RAW_BUS, "J1939|65262|P|10|J1587|84|P|5");
+        engine.loadRawForwardRequests();
+
+        // something not requested is ignored
+        engine.checkRawForwarding(Engine.BUS_TYPE_J1939, 65263, 0x00, 0x0807060504030201L, 8);
+        assertEquals(0, engine.pendingRawResultCount);
+
+        // first frame creates the result
+        engine.checkRawForwarding(Engine.BUS_TYPE_J1939, 65262, 0x00, 0x0807060504030201L, 8);
+        assertEquals(1, engine.pendingRawResultCount);
+        Engine.RawForwardResult rfr = engine.rawForwardResultMap.get(Engine.rawForwardKey(Engine.BUS_TYPE_J1939, 65262, 0x00));
+        assertNotNull(rfr);
+
+        // same source again just replaces the data
+        engine.checkRawForwarding(Engine.BUS_TYPE_J1939, 65262, 0x00, 0x1817161514131211L, 8);
+        assertEquals(1, engine.pendingRawResultCount);
+        assertEquals(8, rfr.data_length);
+        assertEquals(0x11, rfr.data[0]);
+        assertEquals(0x18, rfr.data[7]);
+
+        // a different source gets its own result, and so does the other bus
+        engine.checkRawForwarding(Engine.BUS_TYPE_J1939, 65262, 0x17, 0x0807060504030201L, 8);
+        engine.checkRawForwarding(Engine.BUS_TYPE_J1587, 84, 128, new byte[] {(byte) 128, 84, 100});
+        assertEquals(3, engine.pendingRawResultCount);
+
+        Engine.RawForwardResult rfr1587 = engine.rawForwardResultMap.get(Engine.rawForwardKey(Engine.BUS_TYPE_J1587, 84, 128));
+        assertNotNull(rfr1587);
+        assertEquals(3, rfr1587.data_length);
+        assertEquals(100, rfr1587.data[2]);
+
+        // forwarding (batched) clears the pending list, but keeps the results to be re-used
+        service.config.writeSetting(Config.SETTING_FORWARD_RAW_BUS_OPTIONS, "1");
+        engine.forwardRawResults();
+        assertEquals(0, engine.pendingRawResultCount);
+        assertFalse(rfr.pending);
+
+        engine.checkRawForwarding(Engine.BUS_TYPE_J1939, 65262, 0x00, 0x0807060504030201L, 8);
+        assertEquals(1, engine.pendingRawResultCount);
+        assertSame(rfr, engine.rawForwardResultMap.get(Engine.rawForwardKey(Engine.BUS_TYPE_J1939, 65262, 0x00)));
+
+        // and one broadcast per result also clears it
+        service.config.writeSetting(Config.SETTING_FORWARD_RAW_BUS_OPTIONS, "0");
+        engine.forwardRawResults();
+        assertEquals(0, engine.pendingRawResultCount);
+        assertNotNull(rfr.send_data);
+        assertEquals(8, rfr.send_data.length);
+        assertEquals(0x01, rfr.send_data[0]);
+
+        // the next broadcast for the same result re-uses its array
+        byte[] send_data = rfr.send_data;
+        engine.checkRawForwarding(Engine.BUS_TYPE_J1939, 65262, 0x00, 0x1817161514131211L, 8);
+        engine.forwardRawResults();
+        assertSame(send_data, rfr.send_data);
+        assertEquals(0x11, rfr.send_data[0]);
+
+    } // test_rawForwarding()
+
+
     void test_checkDTCs() {
 
         // there should be no outstanding DTCs to start
@@ -239,5 +299,93 @@ public class EngineTest extends AndroidTestCase {
     } // check DTCs
 
 
+    public void test_checkSourceDtcs() {
+
+        service.queue.clearAll();
+        service.config.writeSetting(Config.SETTING_FAULT_CODES, "3"); // messages
+        service.config.writeSetting(Config.SETTING_FAULT_CODE_OPTIONS, "500"); // missed window
+
+        engine.current_dtcs.clear();
+
+        long[] dtcs_a = new long[] { 0x12345678, 0xABCDEF01};
+        int[] sources_a = new int[] { 0x00, 0x00 };
+        long[] dtcs_b = new long[] { 0x00272829 };
+        int[] sources_b = new int[] { 0x17 };
+        long[] none = new long[] {};
+        int[] none_sources = new int[] {};
+
+        // each node's codes are added as soon as it reports them
+        assertEquals(0x0200, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x00, dtcs_a, sources_a, 2, 0, 1000));
+        assertEquals(2, service.queue.getAllItems().size());
+        assertEquals(EventType.EVENT_TYPE_FAULTCODE_ON, service.queue.getFirstItem(Queue.SERVER_ID_PRIMARY).event_type_id);
+
+        assertEquals(0x0100, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x17, dtcs_b, sources_b, 1, 0, 1100));
+        assertEquals(3, engine.current_dtcs.size());
+        assertNotNull(engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x17, 0x00272829));
+
+        // the same report again does nothing
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x00, dtcs_a, sources_a, 2, 0, 1200));
+
+        // node 0x17 stops reporting its code, this does not affect the codes from node 0x00
+        service.queue.clearAll();
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x17, none, none_sources, 0, 0, 2000));
+        assertEquals(1, engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x17, 0x00272829).removal_count);
+
+        // reports within the missed window only count once
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x17, none, none_sources, 0, 0, 2100));
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x17, none, none_sources, 0, 0, 2200));
+        assertEquals(1, engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x17, 0x00272829).removal_count);
+
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x17, none, none_sources, 0, 0, 3000));
+        assertEquals(0x0001, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x17, none, none_sources, 0, 0, 4000));
+
+        assertEquals(2, engine.current_dtcs.size());
+        assertNull(engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x17, 0x00272829));
+        assertEquals(1, service.queue.getAllItems().size());
+        assertEquals(EventType.EVENT_TYPE_FAULTCODE_OFF, service.queue.getFirstItem(Queue.SERVER_ID_PRIMARY).event_type_id);
+
+        // reporting the code again resets the count
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x00, dtcs_b, sources_b, 0, 0, 5000));
+        assertEquals(1, engine.current_dtcs.get(0).removal_count);
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x00, dtcs_a, sources_a, 2, 0, 6000));
+        assertEquals(0, engine.current_dtcs.get(0).removal_count);
+
+    } // test_checkSourceDtcs()
+
+
+    public void test_checkSourceAndAllDtcs() {
+        // the whole-bus report only counts codes from nodes that stopped reporting
+
+        service.queue.clearAll();
+        service.config.writeSetting(Config.SETTING_FAULT_CODES, "3"); // messages
+        service.config.writeSetting(Config.SETTING_FAULT_CODE_OPTIONS, "500"); // missed window
+
+        engine.current_dtcs.clear();
+
+        long[] dtcs = new long[] { 0x12345678, 0x00272829};
+        int[] sources = new int[] { 0x00, 0x17 };
+        long[] none = new long[] {};
+        int[] none_sources = new int[] {};
+
+        assertEquals(0x0200, engine.updateDtcs(Engine.BUS_TYPE_J1939, Engine.DTC_REPORTER_ALL, dtcs, sources, 2, 0, 1000));
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, Engine.DTC_REPORTER_ALL, dtcs, sources, 2, 0, 2000));
+
+        // node 0x00 still reports, but without its code, node 0x17 goes silent
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, 0x00, none, none_sources, 0, 0, 3000));
+        assertEquals(1, engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x00, 0x12345678).removal_count);
+
+        // the whole-bus report (after the missed window) does not count node 0x00's code again, but counts node 0x17's
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, Engine.DTC_REPORTER_ALL, none, none_sources, 0, 0, 4000));
+        assertEquals(1, engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x00, 0x12345678).removal_count);
+        assertEquals(1, engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x17, 0x00272829).removal_count);
+
+        // node 0x00 stops reporting too, so the next whole-bus report counts its code
+        assertEquals(0, engine.updateDtcs(Engine.BUS_TYPE_J1939, Engine.DTC_REPORTER_ALL, none, none_sources, 0, 0, 5000));
+        assertEquals(2, engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x00, 0x12345678).removal_count);
+        assertEquals(2, engine.current_dtcs.find(Engine.BUS_TYPE_J1939, 0x17, 0x00272829).removal_count);
+
+    } // test_checkSourceAndAllDtcs()
+
+
 
 } // class EngineTest
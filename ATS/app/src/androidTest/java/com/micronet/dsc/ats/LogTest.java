@@ -0,0 +1,74 @@
+package com.micronet.dsc.ats;
+
+import android.test.AndroidTestCase;
+
+public class LogTest extends AndroidTestCase {
+
+    String[] savedTags;
+    boolean savedVerbose, savedVerboseVerbose;
+
+    public void setUp() {
+        savedTags = Log.logTags;
+        savedVerbose = Log.LOGLEVEL_VERBOSE;
+        savedVerboseVerbose = Log.LOGLEVEL_VERBOSE_VERBOSE;
+    }
+
+    public void tearDown() throws Exception {
+        Log.setLogTags(savedTags);
+        Log.LOGLEVEL_VERBOSE = savedVerbose;
+        Log.LOGLEVEL_VERBOSE_VERBOSE = savedVerboseVerbose;
+        super.tearDown();
+    }
+
+
+    public void test_tagId() {
+
+        int a = Log.tagId("TEST-LogA");
+        int b = Log.tagId("TEST-LogB");
+
+        assertTrue(a != b);
+        assertEquals(a, Log.tagId("TEST-LogA"));
+        assertEquals(a, Log.tagId("test-loga")); // tags are not case sensitive
+    }
+
+
+    public void test_isEnabledLevels() {
+
+        int a = Log.tagId("TEST-LogA");
+        Log.setLogTags(new String[] {"*"});
+
+        Log.LOGLEVEL_VERBOSE = true;
+        Log.LOGLEVEL_VERBOSE_VERBOSE = false;
+        assertTrue(Log.isEnabled(a, Log.LEVEL_VERBOSE));
+        assertFalse(Log.isEnabled(a, Log.LEVEL_VERBOSE_VERBOSE));
+
+        Log.LOGLEVEL_VERBOSE = false;
+        assertFalse(Log.isEnabled(a, Log.LEVEL_VERBOSE));
+        assertFalse(Log.isEnabled("TEST-LogA", Log.LEVEL_VERBOSE));
+
+        // these are always recorded
+        assertTrue(Log.isEnabled(a, Log.LEVEL_INFO));
+        assertTrue(Log.isEnabled(a, Log.LEVEL_ERROR));
+    }
+
+
+    public void test_isEnabledTags() {
+
+        int a = Log.tagId("TEST-LogA");
+        int b = Log.tagId("TEST-LogB");
+
+        Log.setLogTags(new String[] {"TEST-LogB"});
+        assertFalse(Log.isEnabled(a, Log.LEVEL_ERROR));
+        assertTrue(Log.isEnabled(b, Log.LEVEL_ERROR));
+        assertFalse(Log.isEnabled("TEST-LogA", Log.LEVEL_ERROR));
+        assertTrue(Log.isEnabled("TEST-LogB", Log.LEVEL_ERROR));
+
+        // a tag first seen after the tags were set is also checked
+        int c = Log.tagId("TEST-LogC");
+        assertFalse(Log.isEnabled(c, Log.LEVEL_ERROR));
+
+        Log.setLogTags(new String[] {"*"});
+        assertTrue(Log.isEnabled(a, Log.LEVEL_ERROR));
+        assertTrue(Log.isEnabled(c, Log.LEVEL_ERROR));
+    }
+}
@@ -0,0 +1,155 @@
+package com.micronet.dsc.ats;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class SequenceAllocatorTest extends AndroidTestCase {
+
+    private RenamingDelegatingContext context;
+    private State state;
+
+    public void setUp() {
+        context = new RenamingDelegatingContext(getContext(), "test_");
+        state = new State(context);
+        state.clearAll();
+    } // setup
+
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+
+    public void test_reserveBlocks() {
+
+        SequenceAllocator sequence = new SequenceAllocator(state);
+        sequence.reset();
+
+        // first ID after a reset is 0, same as before
+        assertEquals(0, sequence.next());
+        assertEquals(SequenceAllocator.BLOCK_SIZE, state.readState(State.COUNTER_MESSAGE_SEQUENCE_INDEX));
+
+        for (int i = 1; i < SequenceAllocator.BLOCK_SIZE; i++) {
+            assertEquals(i, sequence.next());
+        }
+        assertEquals(SequenceAllocator.BLOCK_SIZE, state.readState(State.COUNTER_MESSAGE_SEQUENCE_INDEX));
+
+        // next block
+        assertEquals(SequenceAllocator.BLOCK_SIZE, sequence.next());
+        assertEquals(SequenceAllocator.BLOCK_SIZE * 2, state.readState(State.COUNTER_MESSAGE_SEQUENCE_INDEX));
+
+        // the reservation is on disk, not just in memory
+        assertFalse(state.store.isDirty());
+
+    } // test_reserveBlocks()
+
+
+    public void test_restart() {
+
+        SequenceAllocator sequence = new SequenceAllocator(state);
+        sequence.reset();
+        sequence.next();
+        int last = sequence.next();
+
+        // crash and restart: no ID may be used twice
+        SequenceAllocator restarted = new SequenceAllocator(new State(context));
+        int first = restarted.next();
+        assertTrue(first > last);
+        assertEquals(SequenceAllocator.BLOCK_SIZE, first);
+
+    } // test_restart()
+
+
+    public void test_skipMaskedZero() {
+
+        // start just before the low 16 bits roll over
+        state.writeState(State.COUNTER_MESSAGE_SEQUENCE_INDEX, 0x1FFFE);
+        SequenceAllocator sequence = new SequenceAllocator(state);
+
+        assertEquals(0x1FFFE, sequence.next());
+        assertEquals(0x1FFFF, sequence.next());
+        assertEquals(0x20001, sequence.next()); // 0x20000 is skipped
+
+        // also when starting from a saved value that is all 0 in the mask
+        state.writeState(State.COUNTER_MESSAGE_SEQUENCE_INDEX, 0x30000);
+        sequence = new SequenceAllocator(state);
+        assertEquals(0x30001, sequence.next());
+
+    } // test_skipMaskedZero()
+
+
+    public void test_rollOver() {
+
+        state.writeState(State.COUNTER_MESSAGE_SEQUENCE_INDEX, 0xFFFFFFFE);
+        SequenceAllocator sequence = new SequenceAllocator(state);
+
+        assertEquals(0xFFFFFFFE, sequence.next());
+        assertEquals(0xFFFFFFFF, sequence.next());
+        assertEquals(1, sequence.next()); // 0 is skipped
+        assertEquals(2, sequence.next());
+
+    } // test_rollOver()
+
+
+    public void test_failedFlush() {
+
+        SequenceAllocator sequence = new SequenceAllocator(state);
+        sequence.reset();
+        for (int i = 0; i < SequenceAllocator.BLOCK_SIZE; i++) {
+            sequence.next();
+        }
+
+        // the state file can't be written (a directory is in the way of the temporary file)
+        File temp = context.getFileStreamPath("state.dat" + StateStore.TEMP_SUFFIX);
+        assertTrue(temp.mkdir());
+
+        try {
+            sequence.next();
+            fail("an ID was handed out from a block that is not on disk");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(SequenceAllocator.BLOCK_SIZE, sequence.blockEnd);
+
+        // once it can be written again, we continue where we were
+        assertTrue(temp.delete());
+        assertEquals(SequenceAllocator.BLOCK_SIZE, sequence.next());
+        assertEquals(SequenceAllocator.BLOCK_SIZE * 2, sequence.blockEnd);
+        assertEquals(SequenceAllocator.BLOCK_SIZE * 2, state.readState(State.COUNTER_MESSAGE_SEQUENCE_INDEX));
+
+    } // test_failedFlush()
+
+
+    public void test_damagedFile() throws Exception {
+
+        SequenceAllocator sequence = new SequenceAllocator(state);
+        sequence.reset();
+        int last = sequence.next();
+
+        // the state file and its backup are damaged (e.g. by a bad power loss)
+        context.getFileStreamPath("state.dat" + StateStore.BACKUP_SUFFIX).delete();
+        RandomAccessFile file = new RandomAccessFile(context.getFileStreamPath("state.dat"), "rw");
+        file.seek(12);
+        file.write(0x55);
+        file.close();
+
+        // restart: we don't know what was used, so don't start over from 0
+        StateStore.stores.clear();
+        long now = System.currentTimeMillis();
+        State reloaded = new State(context);
+        assertTrue(reloaded.isStateLost());
+
+        SequenceAllocator restarted = new SequenceAllocator(reloaded);
+        int first = restarted.next();
+        assertTrue(first > last);
+        assertTrue(first - SequenceAllocator.safeStart(0, now) >= 0);
+
+        StateStore.stores.clear();
+
+    } // test_damagedFile()
+
+
+} // class SequenceAllocatorTest
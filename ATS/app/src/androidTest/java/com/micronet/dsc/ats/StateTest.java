@@ -1,16 +1,20 @@
 package com.micronet.dsc.ats;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 
+import java.io.RandomAccessFile;
+
 public class StateTest extends AndroidTestCase {
 
     State st;
+    RenamingDelegatingContext context;
 
     public void setUp(){
 
-        RenamingDelegatingContext context
-                = new RenamingDelegatingContext(getContext(), "test_");
+        context = new RenamingDelegatingContext(getContext(), "test_");
         st = new State(context);
         st.clearAll();
 
@@ -67,4 +71,122 @@ public class StateTest extends AndroidTestCase {
     }
 
 
-    } // class StateTest
+    public void testFlushAndReload() {
+
+        st.writeState(State.FLAG_ENGINE_STATUS, 1);
+        st.writeStateLong(State.VIRTUAL_ODOMETER, 12345678901L);
+        st.writeStateString(State.STRING_VIN, "TEST123456");
+        assertTrue(st.store.isDirty());
+
+        st.flush();
+        assertFalse(st.store.isDirty());
+
+        // read the file the way the next process would
+        StateStore reloaded = new StateStore(context.getFileStreamPath("state.dat"));
+        assertTrue(reloaded.load());
+        assertEquals(1, reloaded.get(State.FLAG_ENGINE_STATUS));
+        assertEquals(12345678901L, reloaded.get(State.VIRTUAL_ODOMETER));
+        assertEquals("TEST123456", reloaded.get(State.STRING_VIN));
+
+    } // testFlushAndReload()
+
+
+    public void testSharedBetweenObjects() {
+
+        State other = new State(context);
+        other.writeState(State.FLAG_ENGINE_STATUS, 1);
+        assertEquals(1, st.readState(State.FLAG_ENGINE_STATUS));
+
+    } // testSharedBetweenObjects()
+
+
+    public void testUnchangedWrite() {
+
+        st.writeState(State.FLAG_ENGINE_STATUS, 1);
+        st.flush();
+        int flushes = st.store.flushCount;
+
+        // writing the same value again doesn't need the file to be written
+        st.writeState(State.FLAG_ENGINE_STATUS, 1);
+        assertFalse(st.store.isDirty());
+        st.flush();
+        assertEquals(flushes, st.store.flushCount);
+
+    } // testUnchangedWrite()
+
+
+    public void testDamagedFile() throws Exception {
+
+        st.writeState(State.FLAG_ENGINE_STATUS, 1);
+        st.flush();
+        context.getFileStreamPath("state.dat" + StateStore.BACKUP_SUFFIX).delete(); // nothing to recover from
+
+        damageFile("state.dat");
+
+        StateStore reloaded = new StateStore(context.getFileStreamPath("state.dat"));
+        assertFalse(reloaded.load()); // checksum fails, so nothing is trusted (and the caller can recover)
+        assertNull(reloaded.get(State.FLAG_ENGINE_STATUS));
+
+        // the damaged file was kept, but moved out of the way
+        assertFalse(context.getFileStreamPath("state.dat").exists());
+        assertTrue(context.getFileStreamPath("state.dat" + StateStore.BAD_SUFFIX).exists());
+
+    } // testDamagedFile()
+
+
+    public void testRecoverFromBackup() throws Exception {
+
+        st.writeState(State.FLAG_ENGINE_STATUS, 1);
+        st.flush();
+        st.writeState(State.FLAG_ENGINE_STATUS, 2);
+        st.flush();
+
+        damageFile("state.dat");
+
+        // the values from before the last write are recovered, but they may be old
+        StateStore reloaded = new StateStore(context.getFileStreamPath("state.dat"));
+        assertTrue(reloaded.load());
+        assertEquals(1, reloaded.get(State.FLAG_ENGINE_STATUS));
+        assertTrue(reloaded.isStateLost());
+
+    } // testRecoverFromBackup()
+
+
+    public void testLostStateNotImported() throws Exception {
+
+        st.writeState(State.FLAG_ENGINE_STATUS, 1);
+        st.flush();
+
+        // old preferences that were imported a long time ago
+        SharedPreferences prefs = context.getSharedPreferences("state", Context.MODE_PRIVATE);
+        prefs.edit().putInt("" + State.FLAG_ENGINE_STATUS, 5).commit();
+
+        context.getFileStreamPath("state.dat" + StateStore.BACKUP_SUFFIX).delete();
+        damageFile("state.dat");
+
+        // open the file the way the next process would
+        StateStore.stores.clear();
+        StateStore reopened = StateStore.open(context, "state.dat", "state");
+        assertNull(reopened.get(State.FLAG_ENGINE_STATUS)); // not the old preferences
+        assertTrue(reopened.isStateLost());
+
+        prefs.edit().clear().commit();
+        StateStore.stores.clear();
+        st = new State(context);
+
+    } // testLostStateNotImported()
+
+
+    /////////////////////////////////////////////////////////
+    // damageFile()
+    //  changes a byte in the middle of the file
+    /////////////////////////////////////////////////////////
+    void damageFile(String name) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(context.getFileStreamPath(name), "rw");
+        file.seek(12);
+        file.write(0x55);
+        file.close();
+    } // damageFile()
+
+
+} // class StateTest
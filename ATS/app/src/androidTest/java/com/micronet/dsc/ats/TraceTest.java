@@ -0,0 +1,85 @@
+package com.micronet.dsc.ats;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+public class TraceTest extends AndroidTestCase {
+
+    String decodeAll(int[] count) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Trace.write(out, Trace.REASON_REQUEST);
+        out.flush();
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        count[0] = TraceDecoder.decode(new ByteArrayInputStream(bytes.toByteArray()), new PrintStream(text, true));
+        return text.toString();
+    }
+
+
+    public void test_recordAndDecode() throws Exception {
+
+        Trace.record(Trace.CODE_EVENT_QUEUED, 1234, 5678);
+        Trace.record(Trace.CODE_UDP_TX, 9999, 8888, new byte[] {0x01, 0x02, (byte) 0xAB}, 0, 3);
+
+        int[] count = new int[1];
+        String text = decodeAll(count);
+
+        assertTrue(count[0] >= 2);
+        assertTrue(text.contains("EVENT type 1234 seq 5678"));
+        assertTrue(text.contains("UDP --> port 9999 to 8888 3 bytes : 0102AB"));
+    }
+
+
+    public void test_longDataIsCut() throws Exception {
+
+        byte[] data = new byte[Trace.MAX_DATA + 10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) 0x11;
+        }
+        Trace.record(Trace.CODE_UDP_RX, 7777, 0, data, 0, data.length);
+
+        int[] count = new int[1];
+        String text = decodeAll(count);
+
+        StringBuilder stored = new StringBuilder();
+        for (int i = 0; i < Trace.MAX_DATA; i++) {
+            stored.append("11");
+        }
+        assertTrue(text.contains("UDP <-- port 7777 " + data.length + " bytes : " + stored + " .."));
+    }
+
+
+    public void test_wrapAround() throws Exception {
+
+        // fill the ring more than once, only the newest entries are kept
+        for (int i = 0; i < Trace.SLOTS + 100; i++) {
+            Trace.record(Trace.CODE_EVENT_QUEUED, 4242, i);
+        }
+
+        int[] count = new int[1];
+        String text = decodeAll(count);
+
+        assertEquals(Trace.SLOTS, count[0]);
+        assertFalse(text.contains("EVENT type 4242 seq 99\n"));
+        assertTrue(text.contains("EVENT type 4242 seq 100\n"));
+        assertTrue(text.contains("EVENT type 4242 seq " + (Trace.SLOTS + 99) + "\n"));
+    }
+
+
+    public void test_dump() throws Exception {
+
+        Trace.setDirectory(getContext().getCacheDir());
+
+        File file = Trace.dump(Trace.REASON_REQUEST);
+        assertNotNull(file);
+        assertTrue(file.exists());
+        assertEquals("trace-request.dat", file.getName());
+        file.delete();
+    }
+}
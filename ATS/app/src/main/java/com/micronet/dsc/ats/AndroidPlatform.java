@@ -0,0 +1,293 @@
+/////////////////////////////////////////////////////////////
+// AndroidPlatform:
+//  The Android implementations of the Clock, TaskScheduler, BusOutput, BusLink and Log output interfaces,
+//      which keep the bus protocol code itself (the protocol module) free of Android classes.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+
+public class AndroidPlatform {
+
+
+    public static final Clock CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    }; // CLOCK
+
+
+    public static final Log.LogOutput LOG_OUTPUT = new Log.LogOutput() {
+        @Override
+        public void println(int level, String tag, String text, Throwable e) {
+            switch (level) {
+                case Log.LEVEL_VERBOSE_VERBOSE:
+                case Log.LEVEL_VERBOSE:
+                    android.util.Log.v(tag, text);
+                    break;
+                case Log.LEVEL_DEBUG:
+                    android.util.Log.d(tag, text);
+                    break;
+                case Log.LEVEL_INFO:
+                    android.util.Log.i(tag, text);
+                    break;
+                case Log.LEVEL_WARN:
+                    android.util.Log.w(tag, text);
+                    break;
+                default:
+                    if (e != null)
+                        android.util.Log.e(tag, text, e);
+                    else
+                        android.util.Log.e(tag, text);
+                    break;
+            }
+        }
+    }; // LOG_OUTPUT
+
+
+    ////////////////////////////////////////////////////////////////////
+    // newMainScheduler()
+    //  returns a scheduler that runs tasks on the main thread
+    ////////////////////////////////////////////////////////////////////
+    public static TaskScheduler newMainScheduler() {
+        return new HandlerScheduler(new Handler(Looper.getMainLooper()));
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // HandlerScheduler
+    //  runs the tasks on a Handler
+    ////////////////////////////////////////////////////////////////////
+    public static class HandlerScheduler implements TaskScheduler {
+
+        Handler handler;
+
+        public HandlerScheduler(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean post(Runnable task) {
+            return handler.post(task);
+        }
+
+        @Override
+        public boolean postDelayed(Runnable task, long delay_ms) {
+            return handler.postDelayed(task, delay_ms);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+    } // HandlerScheduler
+
+
+    ////////////////////////////////////////////////////////////////////
+    // VbsBusOutput
+    //  sends frames to the Vehicle Bus Service to be transmitted
+    ////////////////////////////////////////////////////////////////////
+    public static class VbsBusOutput implements BusOutput {
+
+        Context context;
+
+        public VbsBusOutput(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void sendCANFrame(int id, byte[] data) {
+
+            Intent ibroadcast = new Intent();
+            ibroadcast.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
+            ibroadcast.setAction(VehicleBusConstants.BROADCAST_CAN_TX);
+
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_ID, id);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_DATA, data);
+
+            context.sendBroadcast(ibroadcast);
+        } // sendCANFrame()
+
+        @Override
+        public void sendJ1708Frame(int id, int priority, byte[] data) {
+
+            Intent ibroadcast = new Intent();
+            ibroadcast.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
+            ibroadcast.setAction(VehicleBusConstants.BROADCAST_J1708_TX);
+
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_ID, id);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_PRIORITY, priority);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_DATA, data);
+
+            context.sendBroadcast(ibroadcast);
+        } // sendJ1708Frame()
+    } // VbsBusOutput
+
+
+    ////////////////////////////////////////////////////////////////////
+    // VbsBusLink
+    //  asks the Vehicle Bus Service to start and stop the buses, and receives the frames it broadcasts
+    //  (the receivers are registered without a handler, so frames are delivered on the main thread)
+    ////////////////////////////////////////////////////////////////////
+    public static class VbsBusLink implements BusLink {
+
+        private static final String TAG = "ATS-BusLink";
+
+        Context context;
+        CanRxReceiver canRxReceiver;
+        J1708RxReceiver j1708RxReceiver;
+
+        public VbsBusLink(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void startCAN(int bitrate, boolean skipVerify, boolean autoDetect, int[] ids, int[] masks, CanReceiver receiver) {
+
+            unregister(canRxReceiver); // we may be restarting with new filters
+            canRxReceiver = new CanRxReceiver(receiver);
+            register(canRxReceiver, VehicleBusConstants.BROADCAST_CAN_RX);
+
+            Intent serviceIntent = new Intent();
+            serviceIntent.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
+            serviceIntent.setAction(VehicleBusConstants.SERVICE_ACTION_START);
+
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BUS, "CAN");
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BITRATE, bitrate);
+            //serviceIntent.putExtra("listenOnly", listenOnly);
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_SKIPVERIFY, skipVerify);
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_AUTODETECT, autoDetect);
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_HARDWAREFILTER_IDS, ids);
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_HARDWAREFILTER_MASKS, masks);
+
+            context.startService(serviceIntent);
+        } // startCAN()
+
+        @Override
+        public void stopCAN() {
+
+            unregister(canRxReceiver);
+            canRxReceiver = null;
+
+            Intent serviceIntent = new Intent();
+            serviceIntent.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
+            serviceIntent.setAction(VehicleBusConstants.SERVICE_ACTION_STOP);
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BUS, "CAN");
+
+            context.startService(serviceIntent);
+        } // stopCAN()
+
+        @Override
+        public void startJ1708(J1708Receiver receiver) {
+
+            unregister(j1708RxReceiver);
+            j1708RxReceiver = new J1708RxReceiver(receiver);
+            register(j1708RxReceiver, VehicleBusConstants.BROADCAST_J1708_RX);
+
+            Intent serviceIntent = new Intent();
+            serviceIntent.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
+            serviceIntent.setAction(VehicleBusConstants.SERVICE_ACTION_START);
+
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BUS, "J1708");
+            context.startService(serviceIntent);
+        } // startJ1708()
+
+        @Override
+        public void stopJ1708() {
+
+            unregister(j1708RxReceiver);
+            j1708RxReceiver = null;
+
+            Intent serviceIntent = new Intent();
+            serviceIntent.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
+            serviceIntent.setAction(VehicleBusConstants.SERVICE_ACTION_STOP);
+            serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BUS, "J1708");
+
+            context.startService(serviceIntent);
+        } // stopJ1708()
+
+
+        void register(BroadcastReceiver receiver, String action) {
+            try {
+                IntentFilter intentFilter = new IntentFilter();
+                intentFilter.addAction(action);
+                context.registerReceiver(receiver, intentFilter, VehicleBusConstants.PERMISSION_VBS_TXRX, null);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not register " + action + " receiver");
+            }
+        } // register()
+
+        void unregister(BroadcastReceiver receiver) {
+            if (receiver == null) return;
+            try {
+                context.unregisterReceiver(receiver);
+            } catch(Exception e) {
+                // don't do anything
+            }
+        } // unregister()
+
+
+        static class CanRxReceiver extends BroadcastReceiver {
+
+            CanReceiver receiver;
+
+            CanRxReceiver(CanReceiver receiver) {
+                this.receiver = receiver;
+            }
+
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                try {
+                    int id = intent.getIntExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_ID, -1);
+
+                    if (intent.hasExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_PAYLOAD)) {
+                        // newer VBS versions also send the data already packed, so we don't need the byte array
+                        long payload = intent.getLongExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_PAYLOAD, EngineBus.PAYLOAD_NOT_AVAILABLE);
+                        int dlc = intent.getIntExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_DLC, 8);
+                        receiver.onCANFrame(id, payload, dlc);
+                    } else {
+                        byte[] data = intent.getByteArrayExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_DATA);
+                        if (data == null) return;
+                        receiver.onCANFrame(id, EngineBus.bytes2Payload(data, data.length), data.length);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, ".CanRxReceiver Exception : " + e.toString(), e);
+                }
+            }
+        } // CanRxReceiver
+
+
+        static class J1708RxReceiver extends BroadcastReceiver {
+
+            J1708Receiver receiver;
+
+            J1708RxReceiver(J1708Receiver receiver) {
+                this.receiver = receiver;
+            }
+
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                try {
+                    int priority = intent.getIntExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_PRIORITY, -1);
+                    int id = intent.getIntExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_ID, -1);
+                    byte[] data = intent.getByteArrayExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_DATA);
+
+                    receiver.onJ1708Frame(id, priority, data);
+                } catch (Exception e) {
+                    Log.e(TAG, ".J1708RxReceiver Exception : " + e.toString(), e);
+                }
+            }
+        } // J1708RxReceiver
+    } // VbsBusLink
+
+
+} // class AndroidPlatform
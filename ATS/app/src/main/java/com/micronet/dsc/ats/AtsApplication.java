@@ -26,13 +26,44 @@ public class AtsApplication extends Application {
 
 
 
+        Log.output = AndroidPlatform.LOG_OUTPUT;
         Log.i(TAG, "Created: ATS version " + BuildConfig.VERSION_NAME);
 
+        Trace.setDirectory(getFilesDir());
+
         // if they exist we need to move the alternate configuration files to the primary location here
         //  before anything else in the application tries to access them
 
         copyAlternateConfigFiles();
 
+        saveStateOnCrash();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////
+    // saveStateOnCrash()
+    //      state changes are written in the background, so make sure they are written if we crash
+    //      also keep the trace of what happened just before
+    public void saveStateOnCrash() {
+
+        final Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex) {
+                try {
+                    StateStore.flushAll();
+                } catch (Throwable e) {
+                    // Do Nothing, we are already crashing
+                }
+                try {
+                    Trace.dump(Trace.REASON_CRASH); // what led up to this
+                } catch (Throwable e) {
+                    // Do Nothing, we are already crashing
+                }
+                if (defaultHandler != null) defaultHandler.uncaughtException(thread, ex);
+            }
+        });
     }
 
 
@@ -43,6 +74,7 @@ public class AtsApplication extends Application {
 
         int config_files_updated = Config.init();
         int eventcode_files_updated = CodeMap.init();
+        config_files_updated |= Config.initSignals();
 
         // now, if we did something, we should remember this in the state file so that we can
         //  generate a message the next time the ATS service starts (which could be right away if that is how we got here)
@@ -50,6 +82,7 @@ public class AtsApplication extends Application {
         if ((config_files_updated | eventcode_files_updated) != 0) {
             State state = new State(getApplicationContext());
             state.setFlags(State.PRECHANGED_CONFIG_FILES_BF, config_files_updated | eventcode_files_updated);
+            state.flush();
         }
     }
 
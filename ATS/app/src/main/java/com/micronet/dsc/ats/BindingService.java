@@ -134,6 +134,7 @@ public class BindingService extends Service {
 
             // add these changed files to what -- if anything -- we have previously recorded
             state.setFlags(State.PRECHANGED_CONFIG_FILES_BF, files_changed);
+            state.flush(); // the service isn't running to do it
         }
 
         return true;
@@ -199,6 +200,27 @@ public class BindingService extends Service {
         }
 
 
+        ////////////////////////////////////////////////
+        //  configWriteSettings()
+        //  writes many config settings at once (a null value clears that setting)
+        //  nothing is written if any of the settings does not exist
+        ////////////////////////////////////////////////
+        @Override
+        public int configWriteSettings(int[] setting_ids, String[] values) throws RemoteException {
+
+            if (!hasPermission()) return ATS_ACTION_ERROR_PERMISSION;
+
+            boolean result = config.writeSettings(setting_ids, values);
+
+            if (!result) return ATS_ACTION_ERROR_SETTING; // a setting does not exist (or the arrays don't match)
+
+            // one event for the whole batch instead of one per setting
+            generateEvent(EventType.EVENT_TYPE_CONFIGURATION_REPLACED, EventType.CONFIG_FILE_SETTINGS);
+
+            return ATS_ACTION_SUCCESS; // success
+        }
+
+
         ////////////////////////////////////////////////
         //  configReadSetting()
         //  reads a config setting
@@ -266,6 +288,21 @@ public class BindingService extends Service {
             return codemap.mapMoEventCode(internal_eventcode);
         } // read a current map entry
 
+        ////////////////////////////////////////////////
+        @Override
+        public int configWriteMOMappings(int[] internal_eventcodes, int[] external_eventcodes, boolean replace_all) {
+            if (!hasPermission()) return ATS_ACTION_ERROR_PERMISSION;
+
+            boolean result = codemap.writeMoEventCodes(internal_eventcodes, external_eventcodes, replace_all);
+
+            if (!result) return ATS_ACTION_ERROR;
+
+            // one event for the whole table instead of one per entry
+            generateEvent(EventType.EVENT_TYPE_CONFIGURATION_REPLACED, EventType.CONFIG_FILE_MOMAP);
+
+            return ATS_ACTION_SUCCESS;
+        } // write many map entries at once
+
         ////////////////////////////////////////////////
         @Override
         public int configClearAllMTMap() {
@@ -302,6 +339,21 @@ public class BindingService extends Service {
             return codemap.mapMtEventCode(external_eventcode);
         }
 
+        ////////////////////////////////////////////////
+        @Override
+        public int configWriteMTMappings(int[] external_eventcodes, int[] internal_eventcodes, boolean replace_all) {
+            if (!hasPermission()) return ATS_ACTION_ERROR_PERMISSION;
+
+            boolean result = codemap.writeMtEventCodes(external_eventcodes, internal_eventcodes, replace_all);
+
+            if (!result) return ATS_ACTION_ERROR;
+
+            // one event for the whole table instead of one per entry
+            generateEvent(EventType.EVENT_TYPE_CONFIGURATION_REPLACED, EventType.CONFIG_FILE_MTMAP);
+
+            return ATS_ACTION_SUCCESS;
+        } // write many map entries at once
+
 
 
 
@@ -357,6 +409,21 @@ public class BindingService extends Service {
         }
 
 
+        ////////////////////////////////////////////////
+        //  traceDump()
+        //  writes the recent trace of ATS (and asks VBS to write its trace) to files
+        ////////////////////////////////////////////////
+        @Override
+        public int traceDump() throws RemoteException {
+
+            if (!hasPermission()) return ATS_ACTION_ERROR_PERMISSION;
+
+            if (Trace.dumpWithVbs(context, Trace.REASON_REQUEST) == null) return ATS_ACTION_ERROR;
+
+            return ATS_ACTION_SUCCESS;
+        }
+
+
     };
 
 
@@ -0,0 +1,363 @@
+/////////////////////////////////////////////////////////////
+// BusReplay:
+//  Feeds frames from a VBS bus capture (see VBS BusCapture) into the J1939 and J1587 decoders,
+//      as if they had just been received from the bus.
+//  This lets decoders be checked and timed off-vehicle with real traffic.
+//
+//  Frames are always delivered in the order they were captured, so the same capture gives the same results:
+//      SPEED_MAX : delivered all at once on the calling thread (use for throughput measurement)
+//      1, 2, .. N : delivered on the scheduler at N times the speed they were captured
+//
+//  File format (all values big-endian, must match VBS BusCapture):
+//      header:  magic (4 bytes "VBSC"), version (2), realtime of file start (8), wall clock of file start (8)
+//      records: bus (1), ms since file start (4), id (4), priority (1), length (1), data (length)
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+public class BusReplay {
+
+    private static final String TAG = "ATS-Replay";
+
+    public static final int FORMAT_MAGIC = 0x56425343; // "VBSC"
+    public static final int FORMAT_VERSION = 1;
+
+    // bus types in each record
+    public static final int BUS_CAN = 1;
+    public static final int BUS_J1708 = 2;
+
+    public static final String FILE_SUFFIX = ".cap"; // used when replaying a whole directory
+
+    public static final int SPEED_MAX = 0; // as fast as possible
+
+    static final int MAX_FRAMES_PER_RUN = 100; // when replaying on a scheduler, give other work a chance after this many
+    static final int MAX_DATA_LENGTH = 255;
+
+
+    J1939 j1939; // may be null to skip CAN frames
+    J1587 j1587; // may be null to skip J1708 frames
+
+    File[] files = null; // files still to be read after the current one (when replaying files)
+    int fileIndex = 0;
+    DataInputStream inStream = null;
+    long fileStartRealtime; // from the header of the current file
+
+    // the next record to deliver (read ahead so we know when it is due)
+    boolean hasNext = false;
+    int nextBus;
+    long nextRealtime; // when it was captured
+    int nextId;
+    int nextPriority;
+    int nextLength;
+    byte[] nextData = new byte[MAX_DATA_LENGTH];
+
+    long firstRealtime = -1; // capture time of the first frame
+
+    // timed replays
+    Clock clock = AndroidPlatform.CLOCK;
+    TaskScheduler scheduler = null;
+    int speed = SPEED_MAX;
+    long startTime; // when the replay was started
+    Runnable finishedTask = null; // run on the scheduler when a timed replay reaches the end
+
+    // results
+    int canFrames = 0;
+    int j1708Frames = 0;
+    int skippedFrames = 0; // not delivered (no decoder for that bus)
+    long decodeNanos = 0; // time spent in the decoders
+
+
+    public BusReplay(J1939 j1939, J1587 j1587) {
+        this.j1939 = j1939;
+        this.j1587 = j1587;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // open()
+    //  opens a capture file, or a directory of capture files (replayed in order of their names)
+    //  returns true if there is something to replay
+    ////////////////////////////////////////////////////////////////////
+    public boolean open(File file) {
+
+        close();
+
+        if (file.isDirectory()) {
+            files = file.listFiles();
+            if (files == null) files = new File[0];
+
+            int count = 0;
+            for (File f : files) {
+                if (f.getName().endsWith(FILE_SUFFIX)) files[count++] = f;
+            }
+            files = Arrays.copyOf(files, count);
+            Arrays.sort(files); // capture files are numbered so they sort in order
+        } else {
+            files = new File[] {file};
+        }
+
+        fileIndex = 0;
+        if (!openNextFile()) return false;
+
+        return readNext();
+    } // open()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // open()
+    //  opens a single capture from a stream
+    //  returns true if there is something to replay
+    ////////////////////////////////////////////////////////////////////
+    public boolean open(InputStream stream) {
+
+        close();
+
+        files = null;
+        if (!openStream(stream)) return false;
+
+        return readNext();
+    } // open()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // close()
+    //  stops any timed replay and closes the capture
+    ////////////////////////////////////////////////////////////////////
+    public void close() {
+
+        if (scheduler != null) {
+            scheduler.removeCallbacks(replayTask);
+            scheduler = null;
+        }
+
+        closeStream();
+        hasNext = false;
+        firstRealtime = -1;
+
+    } // close()
+
+
+    public boolean isReplaying() {
+        return hasNext;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // replayAll()
+    //  delivers every remaining frame right now, on this thread
+    //  returns the number of frames that were delivered
+    ////////////////////////////////////////////////////////////////////
+    public int replayAll() {
+
+        int count = 0;
+        while (hasNext) {
+            if (deliverNext()) count++;
+        }
+
+        logResults();
+        return count;
+    } // replayAll()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // start()
+    //  delivers the frames on the scheduler with the same spacing they were captured, divided by the speed
+    ////////////////////////////////////////////////////////////////////
+    public void start(TaskScheduler scheduler, int speed) {
+
+        if (!hasNext) return;
+
+        if (speed <= SPEED_MAX) speed = 1;
+
+        this.scheduler = scheduler;
+        this.speed = speed;
+        startTime = clock.elapsedRealtime();
+
+        Log.i(TAG, "Starting replay at " + speed + "x speed");
+        scheduler.post(replayTask);
+    } // start()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // getDueTime()
+    //  when the next frame should be delivered in a timed replay
+    ////////////////////////////////////////////////////////////////////
+    long getDueTime() {
+        return startTime + (nextRealtime - firstRealtime) / speed;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // replayTask()
+    //  delivers all frames that are due, and then waits for the next one
+    ////////////////////////////////////////////////////////////////////
+    Runnable replayTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                TaskScheduler s = scheduler;
+                if (s == null) return; // we were stopped
+
+                long now = clock.elapsedRealtime();
+                int count = 0;
+                while ((hasNext) && (getDueTime() <= now) && (count < MAX_FRAMES_PER_RUN)) {
+                    deliverNext();
+                    count++;
+                }
+
+                if (!hasNext) {
+                    logResults();
+                    close();
+                    if (finishedTask != null) finishedTask.run();
+                    return;
+                }
+
+                long delay = getDueTime() - clock.elapsedRealtime();
+                s.postDelayed(replayTask, (delay > 0 ? delay : 0));
+            } catch (Exception e) {
+                Log.e(TAG + ".replayTask", "Exception: " + e.toString(), e);
+            }
+        }
+    }; // replayTask()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // deliverNext()
+    //  gives the next frame to its decoder, and reads the one after it
+    //  returns true if the frame was delivered
+    ////////////////////////////////////////////////////////////////////
+    boolean deliverNext() {
+
+        boolean delivered = false;
+        long start = System.nanoTime();
+
+        if ((nextBus == BUS_CAN) && (j1939 != null)) {
+            j1939.receiveCANFrame(nextId, EngineBus.bytes2Payload(nextData, nextLength), nextLength);
+            canFrames++;
+            delivered = true;
+        } else
+        if ((nextBus == BUS_J1708) && (j1587 != null)) {
+            j1587.receiveJ1708Frame(nextId, nextPriority, nextData, nextLength);
+            j1708Frames++;
+            delivered = true;
+        } else {
+            skippedFrames++;
+        }
+
+        decodeNanos += System.nanoTime() - start;
+
+        readNext();
+        return delivered;
+    } // deliverNext()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // readNext()
+    //  reads the next record (moving on to the next file at the end of each file)
+    //  returns false if there are no more
+    ////////////////////////////////////////////////////////////////////
+    boolean readNext() {
+
+        hasNext = false;
+
+        while (inStream != null) {
+            try {
+                nextBus = inStream.readUnsignedByte();
+                long offset = inStream.readInt() & 0xFFFFFFFFL;
+                nextId = inStream.readInt();
+                nextPriority = inStream.readUnsignedByte();
+                nextLength = inStream.readUnsignedByte();
+                inStream.readFully(nextData, 0, nextLength);
+
+                nextRealtime = fileStartRealtime + offset;
+                if (firstRealtime < 0) firstRealtime = nextRealtime;
+
+                hasNext = true;
+                return true;
+            } catch (EOFException e) {
+                // end of this file (a partial record at the end is ignored, the capture was cut off)
+            } catch (Exception e) {
+                Log.e(TAG, "Exception reading capture: " + e.toString());
+            }
+
+            closeStream();
+            openNextFile();
+        }
+
+        return false;
+    } // readNext()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // openNextFile()
+    //  opens the next file that has a valid header
+    ////////////////////////////////////////////////////////////////////
+    boolean openNextFile() {
+
+        while ((files != null) && (fileIndex < files.length)) {
+            File file = files[fileIndex++];
+            try {
+                if (openStream(new FileInputStream(file))) return true;
+            } catch (Exception e) {
+                Log.e(TAG, "Unable to open capture file " + file.getAbsolutePath() + "; " + e.toString());
+            }
+        }
+        return false;
+    } // openNextFile()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // openStream()
+    //  reads the header of the capture
+    ////////////////////////////////////////////////////////////////////
+    boolean openStream(InputStream stream) {
+
+        inStream = new DataInputStream(new BufferedInputStream(stream));
+
+        try {
+            int magic = inStream.readInt();
+            int version = inStream.readUnsignedShort();
+            if ((magic != FORMAT_MAGIC) || (version != FORMAT_VERSION)) {
+                Log.e(TAG, "Not a capture file (or unknown version " + version + ")");
+                closeStream();
+                return false;
+            }
+            fileStartRealtime = inStream.readLong();
+            inStream.readLong(); // wall clock time, just for information
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to read capture header: " + e.toString());
+            closeStream();
+            return false;
+        }
+
+        return true;
+    } // openStream()
+
+
+    void closeStream() {
+        if (inStream == null) return;
+        try {
+            inStream.close();
+        } catch (Exception e) {
+            // Do Nothing
+        }
+        inStream = null;
+    } // closeStream()
+
+
+    void logResults() {
+        Log.i(TAG, "Replayed " + canFrames + " CAN frames, " + j1708Frames + " J1708 frames (" + skippedFrames + " skipped) in " +
+                (decodeNanos / 1000000) + " ms of decoding");
+    } // logResults()
+
+
+} // class BusReplay
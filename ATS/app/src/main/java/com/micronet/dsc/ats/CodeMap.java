@@ -2,6 +2,9 @@
 // CodeMap
 //  Re-Maps event codes from internal to external
 //  contains two files that store the mo and mt mappings, respectively.
+//
+//  Event codes are one byte, so each map is also kept as a 256 entry array (indexed by the code & 0xFF)
+//      that is looked up for every message. The arrays are replaced as a whole after every change to the files.
 ////////////////////////////////////////////////////////////////////
 
 package com.micronet.dsc.ats;
@@ -9,6 +12,8 @@ package com.micronet.dsc.ats;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.Map;
+
 public class CodeMap {
 
     private static final String TAG = "ATS-Codemapper";
@@ -22,6 +27,36 @@ public class CodeMap {
 
 
 
+    static final int TABLE_SIZE = 256; // event codes are one byte
+
+    // A map loaded from its file
+    static class Table {
+        final SharedPreferences prefs; // the file this was read from
+        final int[] codes; // mapped code for each event code, 0 if it is not mapped
+
+        Table(SharedPreferences prefs) {
+            this.prefs = prefs;
+            codes = new int[TABLE_SIZE];
+
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                try {
+                    int code = Integer.parseInt(entry.getKey());
+                    Object value = entry.getValue();
+                    if ((isValidCode(code)) && (value instanceof Integer)) {
+                        codes[code & 0xFF] = (Integer) value;
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, "Ignoring map entry " + entry.getKey());
+                }
+            }
+        }
+    } // Table
+
+    // shared by all CodeMap objects in the process (e.g. the one in BindingService) so they all see every change
+    static volatile Table moTable = null;
+    static volatile Table mtTable = null;
+
+
     Context context;
     SharedPreferences mtSharedPref;
     SharedPreferences moSharedPref;
@@ -82,23 +117,67 @@ public class CodeMap {
 
     public void clearAllMT() {
 
-        SharedPreferences.Editor mtEditor = mtSharedPref.edit();
-        mtEditor.clear().commit();
+        synchronized (CodeMap.class) {
+            SharedPreferences.Editor mtEditor = mtSharedPref.edit();
+            mtEditor.clear().commit();
+            mtTable = new Table(mtSharedPref);
+        }
     } // clearSetting()
 
     public void clearAllMO() {
 
-        SharedPreferences.Editor moEditor = moSharedPref.edit();
-        moEditor.clear().commit();
+        synchronized (CodeMap.class) {
+            SharedPreferences.Editor moEditor = moSharedPref.edit();
+            moEditor.clear().commit();
+            moTable = new Table(moSharedPref);
+        }
     } // clearSetting()
 
 
+    ///////////////////////////////////////////////////
+    // isValidCode()
+    //  event codes are one byte, either signed or unsigned (both are the same code)
+    ///////////////////////////////////////////////////
+    static boolean isValidCode(int event_code) {
+        return ((event_code >= -128) && (event_code < TABLE_SIZE));
+    }
+
+
+    Table getMoTable() {
+        Table t = moTable;
+        if ((t != null) && (t.prefs == moSharedPref)) return t;
+        synchronized (CodeMap.class) {
+            t = moTable;
+            if ((t == null) || (t.prefs != moSharedPref)) {
+                t = new Table(moSharedPref);
+                moTable = t;
+            }
+            return t;
+        }
+    } // getMoTable()
+
+    Table getMtTable() {
+        Table t = mtTable;
+        if ((t != null) && (t.prefs == mtSharedPref)) return t;
+        synchronized (CodeMap.class) {
+            t = mtTable;
+            if ((t == null) || (t.prefs != mtSharedPref)) {
+                t = new Table(mtSharedPref);
+                mtTable = t;
+            }
+            return t;
+        }
+    } // getMtTable()
+
+
     ///////////////////////////////////////////////////
     // mapMtEventCode()
     //  returns an internal event code from the UDP event code
     ///////////////////////////////////////////////////
     public int mapMtEventCode(int external_event_code) {
-        int internal = mtSharedPref.getInt(Integer.toString(external_event_code), 0);
+        if (!isValidCode(external_event_code)) return external_event_code;
+
+        int internal = getMtTable().codes[external_event_code & 0xFF];
 
         if (internal == 0) return external_event_code; // no map entry
         return internal;
@@ -110,7 +189,9 @@ public class CodeMap {
     //  returns a UDP event code from the internal event code
     ///////////////////////////////////////////////////
     public int mapMoEventCode(int internal_event_code) {
-        int external =  moSharedPref.getInt(Integer.toString(internal_event_code), 0);
+        if (!isValidCode(internal_event_code)) return internal_event_code;
+
+        int external = getMoTable().codes[internal_event_code & 0xFF];
 
         if (external == 0) return internal_event_code; // no map entry
         return external;
@@ -124,12 +205,7 @@ public class CodeMap {
     ///////////////////////////////////////////////////
     public boolean writeMoEventCode(final int internal_event_code, final int external_event_code) {
 
-        SharedPreferences.Editor editor = moSharedPref.edit();
-
-        editor.putInt(Integer.toString(internal_event_code), external_event_code);
-        editor.commit();
-
-        return true; // OK
+        return writeMoEventCodes(new int[] {internal_event_code}, new int[] {external_event_code}, false);
     }
 
 
@@ -140,14 +216,72 @@ public class CodeMap {
     ///////////////////////////////////////////////////
     public boolean writeMtEventCode(final int external_event_code , final int internal_event_code) {
 
-        SharedPreferences.Editor editor = mtSharedPref.edit();
+        return writeMtEventCodes(new int[] {external_event_code}, new int[] {internal_event_code}, false);
+    }
 
-        editor.putInt(Integer.toString(external_event_code), internal_event_code);
-        editor.commit();
 
+    ///////////////////////////////////////////////////
+    // writeMoEventCodes()
+    //   writes many map entries to the file at once
+    //  internal_event_codes, external_event_codes: each internal code is mapped to the external code at the same index
+    //  replace_all: true to remove all other entries first
+    //  returns : true if it was written, false if it was not (nothing is written if any code is invalid)
+    ///////////////////////////////////////////////////
+    public boolean writeMoEventCodes(final int[] internal_event_codes, final int[] external_event_codes, boolean replace_all) {
+
+        synchronized (CodeMap.class) {
+            if (!writeMap(moSharedPref, internal_event_codes, external_event_codes, replace_all)) return false;
+            moTable = new Table(moSharedPref);
+        }
+        return true; // OK
+    }
+
+
+    ///////////////////////////////////////////////////
+    // writeMtEventCodes()
+    //   writes many map entries to the file at once
+    //  external_event_codes, internal_event_codes: each external code is mapped to the internal code at the same index
+    //  replace_all: true to remove all other entries first
+    //  returns : true if it was written, false if it was not (nothing is written if any code is invalid)
+    ///////////////////////////////////////////////////
+    public boolean writeMtEventCodes(final int[] external_event_codes, final int[] internal_event_codes, boolean replace_all) {
+
+        synchronized (CodeMap.class) {
+            if (!writeMap(mtSharedPref, external_event_codes, internal_event_codes, replace_all)) return false;
+            mtTable = new Table(mtSharedPref);
+        }
         return true; // OK
     }
 
+
+    ///////////////////////////////////////////////////
+    // writeMap()
+    //  writes the entries to the file with a single commit
+    ///////////////////////////////////////////////////
+    static boolean writeMap(SharedPreferences prefs, int[] from_codes, int[] to_codes, boolean replace_all) {
+
+        if ((from_codes == null) || (to_codes == null) || (from_codes.length != to_codes.length)) return false;
+
+        for (int i = 0; i < from_codes.length; i++) {
+            if ((!isValidCode(from_codes[i])) || (!isValidCode(to_codes[i]))) {
+                Log.w(TAG, "Not writing map: invalid event code " + from_codes[i] + " -> " + to_codes[i]);
+                return false;
+            }
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        if (replace_all) editor.clear();
+
+        for (int i = 0; i < from_codes.length; i++) {
+            // a signed and an unsigned byte are the same code, so always save the unsigned one
+            int from = from_codes[i] & 0xFF;
+            editor.remove(Integer.toString((byte) from)); // in case it was saved as signed by an older version
+            editor.putInt(Integer.toString(from), to_codes[i] & 0xFF);
+        }
+
+        return editor.commit();
+    } // writeMap()
+
     ///////////////////////////////////////////////////
     // writeFakeMoEventCode()
     //   writes a fake ID to the file in order to make sure the file exists
@@ -1,6 +1,13 @@
 /////////////////////////////////////////////////////////////
 // Config:
 //  contains saved configuration parameters
+//
+//  All settings are parsed once into a Snapshot (parameters split, defaults filled in, numbers parsed)
+//      which is replaced whenever a setting is written or cleared, so reads don't touch the file or allocate.
+//  The snapshot also holds where each event type goes (see getEventRoute()), worked out from the settings.
+//
+//  Subsystems that keep something worked out from the settings register a ChangeListener for the settings
+//      they use, and are told when one of them changes so they can re-apply it without restarting the service.
 /////////////////////////////////////////////////////////////
 
 package com.micronet.dsc.ats;
@@ -33,6 +40,7 @@ public class Config {
         };
 
     public static final String FILENAME_STANDARD_PATH = "/data/data/" + BuildConfig.APPLICATION_ID + "/shared_prefs";
+    public static final String SIGNALS_STANDARD_PATH = "/data/data/" + BuildConfig.APPLICATION_ID + "/files"; // SignalTable.FILENAME
 
     // Units are seconds or meters unless otherwise indicated
 
@@ -134,12 +142,19 @@ public class Config {
     public static final int SETTING_VEHICLECOMMUNICATION = 35; //
         public static final int PARAMETER_VEHICLECOMMUNICATION_J1939_SPEED_KBS = 0;
         public static final int PARAMETER_VEHICLECOMMUNICATION_J1708_ENABLED = 1;
+    public static final int SETTING_FORWARD_RAW_BUS_OPTIONS = 36; // how forwarded raw bus data is delivered
+        public static final int PARAMETER_FORWARD_RAW_BUS_OPTIONS_BATCH = 0; // boolean, set to pack all results from one poll into a single broadcast
+    public static final int SETTING_J1939_TRANSPORT = 37; // J1939 transport protocol (multi-packet messages)
+        public static final int PARAMETER_J1939_TRANSPORT_FRAMES_PER_BURST = 0; // max packets we ask for in each CTS
+        public static final int PARAMETER_J1939_TRANSPORT_CONNECTIONS = 1; // max simultaneous connections (RTS/CTS + BAM)
+    public static final int SETTING_FAULT_CODE_OPTIONS = 38; // how fault codes are tracked
+        public static final int PARAMETER_FAULT_CODE_OPTIONS_MISSED_WINDOW_MS = 0; // reports from the same source within this time count as one towards removing a code (does not delay fault code messages)
 
 
 
 
 
-    public static final int NUM_SETTINGS = 35;
+    public static final int NUM_SETTINGS = 38;
 
     public static final String[] SETTING_DEFAULTS = {
             "", // Reserved
@@ -177,7 +192,10 @@ public class Config {
             "3", // reverse gear messages
             "3|1", // parking brake messages: All messages On, in case of conflicting data treat it as On
             "1", // fault code messages
-            "Off|Off" // J1939 speed+enable, J1708 enabled
+            "Off|Off", // J1939 speed+enable, J1708 enabled
+            "0", // forward raw bus options: 0 = one broadcast per result, 1 = batched broadcast
+            "16|16", // J1939 transport: packets per CTS, simultaneous connections
+            "500" // fault code options: window (ms) in which missing reports of a code count as one towards removing it
 
     };
 
@@ -206,6 +224,13 @@ public class Config {
 
     SharedPreferences sharedPref;
 
+    // The parsed settings, shared by all Config objects in the process (e.g. the one in BindingService)
+    //  so a write through any of them is seen by all. Replaced as a whole, never changed.
+    static volatile Snapshot snapshot = null;
+
+    // Who to tell about changes, also shared by all Config objects. Replaced as a whole, never changed.
+    static volatile ListenerEntry[] listeners = new ListenerEntry[0];
+
     Context context;
     public Config(Context c) {
         context = c;
@@ -226,6 +251,16 @@ public class Config {
     }
 
 
+    /////////////////////////////////////////////////////////////////
+    // initSignals()
+    //  attempt copy the signal definition file from alternate location before it is loaded
+    /////////////////////////////////////////////////////////////////
+    public static int initSignals() {
+        boolean copied = copyFile(FILENAME_ALTERNATE_PATHS, SIGNALS_STANDARD_PATH, SignalTable.FILENAME);
+        return (copied ? EventType.CONFIG_FILE_SIGNALS : 0);
+    }
+
+
     /////////////////////////////////////////////////////////////////
     //  open():
     //      opens the config file
@@ -254,19 +289,19 @@ public class Config {
     //  deletes ALL configuration settings and restores factory default
     ///////////////////////////////////////////////////
     public void clearAll() {
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.clear().commit();
+        Snapshot before, after;
+        synchronized (Config.class) {
+            before = getSnapshot();
+            SharedPreferences.Editor editor = sharedPref.edit();
+            editor.clear().commit();
+            after = reloadSnapshot();
+        }
+        notifyChanged(before, after);
     }
 
 
     public boolean clearSetting(int setting_id) {
-        if (!settingExists(setting_id)) return false;
-
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.remove(Integer.toString(setting_id));
-        editor.commit();
-
-        return true; // OK
+        return writeSettings(new int[] {setting_id}, new String[] {null});
     } // clearSetting()
 
 
@@ -278,9 +313,12 @@ public class Config {
 
         int setting_id = 0;
         String new_value = "";
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putString(Integer.toString(setting_id), new_value);
-        editor.commit();
+        synchronized (Config.class) {
+            SharedPreferences.Editor editor = sharedPref.edit();
+            editor.putString(Integer.toString(setting_id), new_value);
+            editor.commit();
+            reloadSnapshot();
+        }
 
         return true; // OK
     }
@@ -292,16 +330,237 @@ public class Config {
     //  returns : true if it was written, false if it was not
     ///////////////////////////////////////////////////
     public boolean writeSetting(int setting_id, String new_value) {
+        return writeSettings(new int[] {setting_id}, new String[] {new_value});
+    }
+
 
-        if (!settingExists(setting_id)) return false;
+    ///////////////////////////////////////////////////
+    // writeSettings()
+    //   writes (or clears) many settings at once: one file write, and listeners are told once
+    //  new_values: the value for each setting in setting_ids, or null to clear that setting back to the default
+    //  returns : true if they were all written, false if nothing was written (e.g. one of the settings does not exist)
+    ///////////////////////////////////////////////////
+    public boolean writeSettings(int[] setting_ids, String[] new_values) {
 
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putString(Integer.toString(setting_id), new_value);
-        editor.commit();
+        if ((setting_ids == null) || (new_values == null) || (setting_ids.length != new_values.length)) return false;
+
+        // check the whole batch before writing any of it
+        for (int setting_id : setting_ids) {
+            if (!settingExists(setting_id)) return false;
+        }
+
+        Snapshot before, after;
+        synchronized (Config.class) {
+            before = getSnapshot();
+            SharedPreferences.Editor editor = sharedPref.edit();
+            for (int i = 0; i < setting_ids.length; i++) {
+                if (new_values[i] == null) {
+                    editor.remove(Integer.toString(setting_ids[i]));
+                } else {
+                    editor.putString(Integer.toString(setting_ids[i]), new_values[i]);
+                }
+            }
+            editor.commit();
+            after = reloadSnapshot();
+        }
+        notifyChanged(before, after);
 
         return true; // OK
+    } // writeSettings()
+
+
+    ///////////////////////////////////////////////////
+    // Snapshot
+    //  all settings, parsed
+    ///////////////////////////////////////////////////
+    static class Snapshot {
+
+        final SharedPreferences prefs; // the file this was read from
+
+        // indexed by setting ID, null for settings that don't exist
+        final String[] settings; // the whole setting, or the default if none was saved
+        final String[][] arrays; // the setting split into its parameters
+        final String[][] parameters; // each parameter, taken from the default if it is missing from the saved setting
+        final int[][] ints; // each parameter as a number, 0 if it is not a number
+
+        final byte[] routes; // EVENT_ROUTE_ flags for each event type
+
+        Snapshot(Config config, SharedPreferences prefs) {
+
+            this.prefs = prefs;
+
+            int count = SETTING_DEFAULTS.length;
+            settings = new String[count];
+            arrays = new String[count][];
+            parameters = new String[count][];
+            ints = new int[count][];
+
+            for (int setting_id = 0; setting_id < count; setting_id++) {
+                if (!config.settingExists(setting_id)) continue;
+
+                String defaultValue = config.getDefaultValue(setting_id);
+                String value = prefs.getString(Integer.toString(setting_id), null);
+                if (value == null) value = defaultValue;
+
+                settings[setting_id] = value;
+                arrays[setting_id] = value.split("\\|");
+
+                String[] defaults = defaultValue.split("\\|");
+                String[] params = new String[Math.max(arrays[setting_id].length, defaults.length)];
+                int[] values = new int[params.length];
+                for (int i = 0; i < params.length; i++) {
+                    params[i] = (i < arrays[setting_id].length ? arrays[setting_id][i] : defaults[i]);
+                    try {
+                        values[i] = Integer.parseInt(params[i]);
+                    } catch (Exception e) {
+                        values[i] = 0; // not a number (many parameters are not meant to be)
+                    }
+                }
+                parameters[setting_id] = params;
+                ints[setting_id] = values;
+            }
+
+            routes = new byte[EVENT_ROUTE_TABLE_SIZE];
+            for (int event_type_id = 0; event_type_id < EVENT_ROUTE_TABLE_SIZE; event_type_id++) {
+                routes[event_type_id] = (byte) config.findEventRoute(event_type_id, ints);
+            }
+        } // Snapshot()
+    } // Snapshot
+
+
+    ///////////////////////////////////////////////////
+    // getSnapshot()
+    //  returns the parsed settings, parsing them first if needed
+    ///////////////////////////////////////////////////
+    Snapshot getSnapshot() {
+        Snapshot s = snapshot;
+        if ((s != null) && (s.prefs == sharedPref)) return s;
+
+        synchronized (Config.class) {
+            s = snapshot;
+            if ((s != null) && (s.prefs == sharedPref)) return s; // someone else just did it
+            return reloadSnapshot();
+        }
+    } // getSnapshot()
+
+
+    ///////////////////////////////////////////////////
+    // reloadSnapshot()
+    //  re-parses all settings from the file, call this (holding the Config.class lock) after every change
+    ///////////////////////////////////////////////////
+    Snapshot reloadSnapshot() {
+        Snapshot s = new Snapshot(this, sharedPref);
+        snapshot = s;
+        return s;
+    } // reloadSnapshot()
+
+
+    ///////////////////////////////////////////////////
+    // ChangeListener
+    //  told when settings it asked for were changed (through any Config object in the process,
+    //      e.g. by a client over AIDL or by the server), so it can re-apply just those
+    //  Called on the thread that made the change, after the new values can be read.
+    //      Anything that must run on a particular thread should post itself there.
+    ///////////////////////////////////////////////////
+    public interface ChangeListener {
+        void onSettingsChanged(int[] setting_ids); // only the settings it asked for that have a different value now
     }
 
+    static class ListenerEntry {
+        final ChangeListener listener;
+        final boolean[] wanted; // indexed by setting ID
+
+        ListenerEntry(ChangeListener listener, int[] setting_ids) {
+            this.listener = listener;
+            wanted = new boolean[SETTING_DEFAULTS.length];
+            for (int setting_id : setting_ids) {
+                if ((setting_id >= 0) && (setting_id < wanted.length)) wanted[setting_id] = true;
+            }
+        }
+    } // ListenerEntry
+
+
+    ///////////////////////////////////////////////////
+    // addChangeListener()
+    //  starts telling the listener when any of these settings change
+    ///////////////////////////////////////////////////
+    public static void addChangeListener(ChangeListener listener, int[] setting_ids) {
+        synchronized (Config.class) {
+            ListenerEntry[] old_list = listeners;
+            ListenerEntry[] new_list = new ListenerEntry[old_list.length + 1];
+            System.arraycopy(old_list, 0, new_list, 0, old_list.length);
+            new_list[old_list.length] = new ListenerEntry(listener, setting_ids);
+            listeners = new_list;
+        }
+    } // addChangeListener()
+
+
+    ///////////////////////////////////////////////////
+    // removeChangeListener()
+    //  stops telling the listener about changes (safe to call if it was never added)
+    ///////////////////////////////////////////////////
+    public static void removeChangeListener(ChangeListener listener) {
+        synchronized (Config.class) {
+            ListenerEntry[] old_list = listeners;
+            int count = 0;
+            for (ListenerEntry entry : old_list) {
+                if (entry.listener != listener) count++;
+            }
+            if (count == old_list.length) return; // not there
+
+            ListenerEntry[] new_list = new ListenerEntry[count];
+            count = 0;
+            for (ListenerEntry entry : old_list) {
+                if (entry.listener != listener) new_list[count++] = entry;
+            }
+            listeners = new_list;
+        }
+    } // removeChangeListener()
+
+
+    ///////////////////////////////////////////////////
+    // notifyChanged()
+    //  tells each listener which of its settings are different in the new snapshot
+    //  call this after the change, and without holding the Config.class lock (listeners may read or write settings)
+    ///////////////////////////////////////////////////
+    static void notifyChanged(Snapshot before, Snapshot after) {
+
+        int count = SETTING_DEFAULTS.length;
+        boolean[] changed = new boolean[count];
+        boolean any = false;
+        for (int setting_id = 0; setting_id < count; setting_id++) {
+            String old_value = before.settings[setting_id];
+            String new_value = after.settings[setting_id];
+            if ((old_value == null) ? (new_value != null) : (!old_value.equals(new_value))) {
+                changed[setting_id] = true;
+                any = true;
+            }
+        }
+        if (!any) return; // written with the same value
+
+        for (ListenerEntry entry : listeners) {
+
+            int matches = 0;
+            for (int setting_id = 0; setting_id < count; setting_id++) {
+                if ((changed[setting_id]) && (entry.wanted[setting_id])) matches++;
+            }
+            if (matches == 0) continue;
+
+            int[] setting_ids = new int[matches];
+            matches = 0;
+            for (int setting_id = 0; setting_id < count; setting_id++) {
+                if ((changed[setting_id]) && (entry.wanted[setting_id])) setting_ids[matches++] = setting_id;
+            }
+
+            try {
+                entry.listener.onSettingsChanged(setting_ids);
+            } catch (Exception e) {
+                // the setting is saved either way
+                Log.e(TAG, "Exception: notifyChanged() " + e.toString(), e);
+            }
+        }
+    } // notifyChanged()
+
 
     ///////////////////////////////////////////////////
     // readSetting()
@@ -309,16 +568,9 @@ public class Config {
     ///////////////////////////////////////////////////
     public String readSetting(int setting_id) {
 
-        if (!settingExists(setting_id)) return null;
-
-        String defaultValue = getDefaultValue(setting_id);
-        String s = sharedPref.getString(Integer.toString(setting_id), null);
+        if ((setting_id < 0) || (setting_id >= SETTING_DEFAULTS.length)) return null;
 
-        if (s == null) {
-            Log.i(TAG,"Using default value for setting " + setting_id + " = " + defaultValue);
-            return defaultValue;
-        }
-        return s;
+        return getSnapshot().settings[setting_id];
     }
 
 /*
@@ -361,35 +613,12 @@ public class Config {
     public String readParameter(int setting_id, int param_number) {
         try {
 
-            String featureval = readSetting(setting_id);
-
-            if (featureval == null) return null; // No feature means there can be no parameter
+            if ((setting_id < 0) || (setting_id >= SETTING_DEFAULTS.length)) return null;
             if (param_number < 0) return null; // impossible parameter number
 
-/*
-
-            // Use parseParameter() to get the parameter.
-
-            String result;
-            result = parseParameter(featureval, param_number);
+            String[] parameters = getSnapshot().parameters[setting_id];
 
-            if (result == null) { // Parameter does not exist
-                String defaultval = getDefaultValue(setting_id);
-                result = parseParameter(defaultval, param_number);
-            }
-            return result;
-*/
-
-            // use split() to get the parameter.
-            String[] parameters = featureval.split("\\|");
-
-            if (parameters.length > param_number)
-                return parameters[param_number];
-
-            // Hmm. this parameter does not exist, look for the parameter in the defaults
-
-            String defaultval = getDefaultValue(setting_id);
-            parameters = defaultval.split("\\|");
+            if (parameters == null) return null; // No feature means there can be no parameter
 
             if (parameters.length > param_number)
                 return parameters[param_number];
@@ -415,19 +644,21 @@ public class Config {
     ///////////////////////////////////////////////////
     public int readParameterInt(int setting_id, int param_number) {
 
-        String strval = readParameter(setting_id, param_number);
-
-        if (strval == null) return 0;
+        if ((setting_id < 0) || (setting_id >= SETTING_DEFAULTS.length)) return 0;
+        if (param_number < 0) return 0;
 
-        int retval = 0;
+        int[] values;
         try {
-            retval = Integer.parseInt(strval);
+            values = getSnapshot().ints[setting_id];
         } catch (Exception e) {
-            // hmm, parameter exists but is not a number, just return 0.
-            Log.w(TAG, "Config Parameter " + setting_id + "-" + param_number + " is not a number (= '" + strval + "')");
+            Log.e(TAG, "Exception: readParameterInt(): " + e.toString(), e);
+            return 0;
         }
 
-        return retval;
+        if ((values == null) || (param_number >= values.length)) return 0;
+
+        // a parameter that exists but is not a number is also 0
+        return values[param_number];
     } // readParameterInt
 
 
@@ -436,13 +667,14 @@ public class Config {
     //  returns a setting like an array of parameters
     ///////////////////////////////////////////////////
     public String[] readParameterArray(int setting_id) {
-        String featureval = readSetting(setting_id);
 
-        if (featureval == null) return null; // No feature means there can be no parameter
+        if ((setting_id < 0) || (setting_id >= SETTING_DEFAULTS.length)) return null;
+
+        String[] parameters = getSnapshot().arrays[setting_id];
 
-        String[] parameters = featureval.split("\\|");
+        if (parameters == null) return null; // No feature means there can be no parameter
 
-        return parameters;
+        return parameters.clone(); // callers may change it
 
     } // readParameterArray
 
@@ -616,6 +848,14 @@ public class Config {
     //      determines whether or not the event will get sent over the air
     //////////////////////////////////////////////////////////////////////
 
+    // Where an event goes (see getEventRoute())
+    public static final int EVENT_ROUTE_LOCAL = 1; // broadcast to local apps (device and vehicle events)
+    public static final int EVENT_ROUTE_OTA = 2; // queued for the servers
+    public static final int EVENT_ROUTE_DISABLED = 4; // never queued
+
+    static final int EVENT_ROUTE_TABLE_SIZE = 256; // event codes are one byte
+
+
     static class ECR { // Event-Config Record
         int event_type_id;
         int config_setting_id;
@@ -683,24 +923,64 @@ public class Config {
 //Log.v(TAG, "Queing Item " + event_type_id);
 //return false;
 
-        int messages_bf;
+        return ((getEventRoute(event_type_id) & EVENT_ROUTE_OTA) != 0);
+
+    } // shouldSendOTA()
+
+
+    ///////////////////////////////////////////////////
+    // getEventRoute()
+    //  returns where an event of this type should go (EVENT_ROUTE_ flags)
+    ///////////////////////////////////////////////////
+    public int getEventRoute(int event_type_id) {
+
+        if ((event_type_id >= 0) && (event_type_id < EVENT_ROUTE_TABLE_SIZE)) {
+            return getSnapshot().routes[event_type_id];
+        }
+
+        return findEventRoute(event_type_id, getSnapshot().ints); // not in the table (not a valid event code)
+    } // getEventRoute()
+
+
+    ///////////////////////////////////////////////////
+    // findEventRoute()
+    //  works out where an event of this type should go from the settings and the event lists
+    //  ints: the settings parameters as numbers (from the snapshot being built)
+    ///////////////////////////////////////////////////
+    int findEventRoute(int event_type_id, int[][] ints) {
+
+        int route = EVENT_ROUTE_OTA; // default is OTA if no record found for the event and it is an ota event
+
+        // only device and vehicle events are broadcast to local apps (see LocalMessage.sendChangeMessage())
+        if (((event_type_id >= EventType.EVENT_TYPES_DEVICE_START) && (event_type_id <= EventType.EVENT_TYPES_DEVICE_END)) ||
+                ((event_type_id >= EventType.EVENT_TYPES_VEHICLE_START) && (event_type_id <= EventType.EVENT_TYPES_VEHICLE_END))) {
+            route |= EVENT_ROUTE_LOCAL;
+        }
+
+        // Check the list of non-ota events
+        for (int nonota_event_type_id : EventType.NONOTA_EVENTS) {
+            if (nonota_event_type_id == event_type_id) route &= ~EVENT_ROUTE_OTA;
+        }
+
+        // the configuration decides for these
         for (ECR ecr : eventConfigOtaRecords) {
             if (ecr.event_type_id == event_type_id) {
-                messages_bf = readParameterInt(ecr.config_setting_id, ecr.config_parameter_id);
+                int[] values = ints[ecr.config_setting_id];
+                int messages_bf = (((values != null) && (ecr.config_parameter_id < values.length)) ? values[ecr.config_parameter_id] : 0);
                 if ((messages_bf & ecr.config_parameter_bitvalue) > 0)
-                    return true;
+                    route |= EVENT_ROUTE_OTA;
                 else
-                    return false;
+                    route &= ~EVENT_ROUTE_OTA;
+                break;
             }
         }
 
-        // Check the list of non-ota events
-        for (int nonota_event_type_id : EventType.NONOTA_EVENTS) {
-            if (nonota_event_type_id == event_type_id) return false;
+        // disabled events are never queued
+        for (int disabled_event_type_id : EventType.DISABLED_EVENTS) {
+            if (disabled_event_type_id == event_type_id) route = (route & ~EVENT_ROUTE_OTA) | EVENT_ROUTE_DISABLED;
         }
 
-        return true; // default is true if no record found for the event and it is an ota event
-
-    } // shouldSendOTA()
+        return route;
+    } // findEventRoute()
 
 } // Class Config
@@ -2,20 +2,36 @@
 // Crash:
 //  contains saved state-information flags for just before a crash/restart
 //      e.g. flags that have short reset periods and are not normally written unless we know a restart is imminent
+//
+//  The values are kept in a small memory-mapped file with a fixed layout (see LAYOUT), so saving is just
+//      some stores into a buffer, one copy into the file and one sync, and restoring is one read.
+//  The file has two slots. Each save goes into the slot that was not used last, with a generation number and
+//      a checksum, so if we are killed in the middle of a save the previous save is still there.
+//
+//  Slot format (big-endian):
+//      header: magic (4 bytes "ATSC"), layout version (4), generation (4), app version (4, hash of the name),
+//              save time (8, elapsed realtime), CRC32 of the slot with this field as 0 (4), unused (4)
+//      fields: in the order of LAYOUT, each is a count (4) then max elements of 8 bytes (count 0 = not saved)
 /////////////////////////////////////////////////////////////
 
 package com.micronet.dsc.ats;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.SystemClock;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
 
 public class Crash {
 
     private static final String TAG = "ATS-Crash";
 
-    private static final String FILENAMEKEY = "crash";
+    private static final String FILENAME = "crash.dat";
 
     static final long MAX_ELAPSED_RESTORE_TIME_MS = 10000; // if data is older than 10 seconds, don't restore it
 
@@ -49,15 +65,140 @@ public class Crash {
     public static final int WAKELOCK_ELAPSED_SCHEDULED_WAKEUP = 4003;
 
 
+    // Where each value is in the slot: {id, max number of elements}
+    //  Change LAYOUT_VERSION whenever this changes.
+    static final int[][] LAYOUT = {
+            {CONTINUOUS_IDLING_SECONDS, 1},
+            {LAST_PING_DATA_ARRAY, 8},
+
+            {FLAG_IDLE_STATUS, 1},
+            {FLAG_SPEEDING_STATUS, 1},
+            {FLAG_ACCELERATING_STATUS, 1},
+            {FLAG_BRAKING_STATUS, 1},
+            {FLAG_CORNERING_STATUS, 1},
+
+            {DEBOUNCE_BAD_ALTERNATOR, 1},
+            {DEBOUNCE_BAD_LOW_BATTERY, 1},
+            {DEBOUNCE_GP_INPUTS_ARRAY, Io.MAX_GP_INPUTS_SUPPORTED},
+            {RESET_GP_INPUTS_ARRAY, Io.MAX_GP_INPUTS_SUPPORTED},
+
+            {DEBOUNCE_IDLING, 1},
+            {DEBOUNCE_SPEEDING, 1},
+            {DEBOUNCE_ACCELERATING, 1},
+            {DEBOUNCE_BRAKING, 1},
+            {DEBOUNCE_CORNERING, 1},
+
+            {WAKELOCK_ELAPSED_IGNITION, 1},
+            {WAKELOCK_ELAPSED_GP_INPUTS_ARRAY, Io.MAX_GP_INPUTS_SUPPORTED},
+            {WAKELOCK_ELAPSED_HEARTBEAT, 1},
+            {WAKELOCK_ELAPSED_SCHEDULED_WAKEUP, 1},
+    };
+
+    static final int FORMAT_MAGIC = 0x41545343; // "ATSC"
+    static final int LAYOUT_VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_LAYOUT_VERSION = 4;
+    static final int OFFSET_GENERATION = 8;
+    static final int OFFSET_APP_VERSION = 12;
+    static final int OFFSET_SAVE_TIME = 16;
+    static final int OFFSET_CRC = 24;
+
+    static final int[] FIELD_OFFSETS = new int[LAYOUT.length];
+    static final int SLOT_SIZE;
+    static {
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < LAYOUT.length; i++) {
+            FIELD_OFFSETS[i] = offset;
+            offset += 4 + 8 * LAYOUT[i][1];
+        }
+        SLOT_SIZE = offset;
+    }
+
+    static final int SLOT_COUNT = 2;
+
+
     Context context;
-    SharedPreferences sharedPref;
-    SharedPreferences.Editor editor;
+    MappedByteBuffer mapped = null; // the whole file, null if it could not be opened
+
+    // the newest valid saved slot
+    int savedSlot = -1; // -1 if there is none
+    ByteBuffer saved = null;
+
+    // the slot being written (between edit() and commit())
+    ByteBuffer editing = null;
 
     public Crash(Context context) {
         this.context = context;
-        sharedPref = context.getSharedPreferences(
-                FILENAMEKEY, Context.MODE_PRIVATE);
 
+        File file = context.getFileStreamPath(FILENAME);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() != SLOT_SIZE * SLOT_COUNT) raf.setLength(SLOT_SIZE * SLOT_COUNT); // new, or a different layout
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SLOT_SIZE * SLOT_COUNT);
+        } catch (Exception e) {
+            Log.e(TAG, "Exception: unable to open " + file.getName() + " " + e.toString(), e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close(); // the mapping stays valid
+                } catch (Exception e) {
+                    // Do Nothing
+                }
+            }
+        }
+
+        load();
+    }
+
+
+    ///////////////////////////////////////////////////
+    // load()
+    //  reads both slots and keeps the newest one that is valid
+    ///////////////////////////////////////////////////
+    void load() {
+
+        savedSlot = -1;
+        saved = null;
+        if (mapped == null) return;
+
+        int best_generation = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            byte[] contents = new byte[SLOT_SIZE];
+            mapped.position(slot * SLOT_SIZE);
+            mapped.get(contents);
+
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            if (buffer.getInt(OFFSET_MAGIC) != FORMAT_MAGIC) continue;
+            if (buffer.getInt(OFFSET_LAYOUT_VERSION) != LAYOUT_VERSION) continue;
+
+            int crc = buffer.getInt(OFFSET_CRC);
+            buffer.putInt(OFFSET_CRC, 0);
+            if (crc != calculateCrc(contents)) {
+                Log.w(TAG, "Crash data slot " + slot + " is damaged, ignoring it");
+                continue;
+            }
+
+            int generation = buffer.getInt(OFFSET_GENERATION);
+            if ((savedSlot < 0) || (generation - best_generation > 0)) {
+                savedSlot = slot;
+                saved = buffer;
+                best_generation = generation;
+            }
+        }
+    } // load()
+
+
+    static int calculateCrc(byte[] contents) {
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        return (int) crc.getValue();
+    }
+
+    static int getAppVersion() {
+        return BuildConfig.VERSION_NAME.hashCode();
     }
 
 
@@ -68,26 +209,25 @@ public class Crash {
     ///////////////////////////////////////////////////
     public boolean isRestoreable() {
 
+        if (saved == null) {
+            Log.v(TAG, "No saved crash data found");
+            return false;
+        }
 
-        String version = sharedPref.getString("Version", "");
-        long saved = sharedPref.getLong("SaveTime", 0);
+        int version = saved.getInt(OFFSET_APP_VERSION);
         long now = SystemClock.elapsedRealtime();
+        long save_time = saved.getLong(OFFSET_SAVE_TIME);
 
-        if (saved == 0) {
-            Log.v(TAG, "No saved crash data found");
-        } else {
-            Log.v(TAG, "Saved data is for " + version + " @ " + saved + " ms; (now=" + now + " ms)");
-        }
+        Log.v(TAG, "Saved data is for version " + (version == getAppVersion() ? "(this version)" : "(other version)") + " @ " + save_time + " ms; (now=" + now + " ms)");
 
         // if data is not for our version, it is not restoreable
-        if (!version.equals(BuildConfig.VERSION_NAME)) return false;
+        if (version != getAppVersion()) return false;
 
         // if data was saved too long ago in the past, it is not restoreable
 
-        if ((saved > 0) &&
-            (saved <= now) &&
-            //(saved + MAX_ELAPSED_RESTORE_TIME_MS >  SystemClock.elapsedRealtime())) {
-                (saved + MAX_ELAPSED_RESTORE_TIME_MS >  now)) {
+        if ((save_time > 0) &&
+            (save_time <= now) &&
+                (save_time + MAX_ELAPSED_RESTORE_TIME_MS >  now)) {
             return true;
         }
 
@@ -97,26 +237,45 @@ public class Crash {
 
     ///////////////////////////////////////////////////
     // commit()
-    //  commits the file and sets the save time
+    //  writes the slot to the file and sets the save time
     ///////////////////////////////////////////////////
     public boolean commit() {
+        return commit(SystemClock.elapsedRealtime(), getAppVersion());
+    }
+
+    boolean commit(long save_time, int app_version) {
+        if ((mapped == null) || (editing == null)) return false;
+
         try {
-            editor.putString("Version", BuildConfig.VERSION_NAME);
-            editor.putLong("SaveTime", SystemClock.elapsedRealtime());
-            editor.commit();
+            int slot = (savedSlot == 0 ? 1 : 0); // never overwrite the last good save
+            int generation = (saved == null ? 1 : saved.getInt(OFFSET_GENERATION) + 1);
+
+            editing.putInt(OFFSET_MAGIC, FORMAT_MAGIC);
+            editing.putInt(OFFSET_LAYOUT_VERSION, LAYOUT_VERSION);
+            editing.putInt(OFFSET_GENERATION, generation);
+            editing.putInt(OFFSET_APP_VERSION, app_version);
+            editing.putLong(OFFSET_SAVE_TIME, save_time);
+            editing.putInt(OFFSET_CRC, 0);
+            editing.putInt(OFFSET_CRC, calculateCrc(editing.array()));
+
+            mapped.position(slot * SLOT_SIZE);
+            mapped.put(editing.array());
+            mapped.force();
+
+            editing.putInt(OFFSET_CRC, 0); // as load() leaves it
+            savedSlot = slot;
+            saved = editing;
+            editing = null;
         } catch (Exception e) {
             Log.e(TAG, "Exception: commit() " + e.toString(), e );
+            return false;
         }
         return true;
     }
 
     // edit: you must call edit before calling any write functions
     public boolean edit() {
-        try {
-            editor = sharedPref.edit();
-        } catch (Exception e) {
-            Log.e(TAG, "Exception: edit() " + e.toString(), e );
-        }
+        editing = ByteBuffer.allocate(SLOT_SIZE);
         return true;
     }
 
@@ -127,8 +286,37 @@ public class Crash {
     //  deletes ALL crash values
     ///////////////////////////////////////////////////
     public void clearAll() {
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.clear().commit();
+        savedSlot = -1;
+        saved = null;
+        if (mapped == null) return;
+
+        try {
+            mapped.position(0);
+            mapped.put(new byte[SLOT_SIZE * SLOT_COUNT]);
+            mapped.force();
+        } catch (Exception e) {
+            Log.e(TAG, "Exception: clearAll() " + e.toString(), e );
+        }
+    }
+
+
+    ///////////////////////////////////////////////////
+    // getFieldOffset()
+    //  returns where the value is in the slot, or -1 if the value is not in the layout
+    ///////////////////////////////////////////////////
+    static int getFieldOffset(int state_id) {
+        for (int i = 0; i < LAYOUT.length; i++) {
+            if (LAYOUT[i][0] == state_id) return FIELD_OFFSETS[i];
+        }
+        Log.e(TAG, "Crash value " + state_id + " is not in the layout");
+        return -1;
+    }
+
+    static int getFieldMaxCount(int state_id) {
+        for (int i = 0; i < LAYOUT.length; i++) {
+            if (LAYOUT[i][0] == state_id) return LAYOUT[i][1];
+        }
+        return 0;
     }
 
 
@@ -138,13 +326,7 @@ public class Crash {
     //  returns : true if it was written, false if it was not
     ///////////////////////////////////////////////////
     public boolean writeStateInt(final int state_id, final int new_value) {
-
-        try {
-            editor.putInt(Integer.toString(state_id), new_value);
-        } catch (Exception e) {
-            Log.e(TAG, "Exception: writeState() " + e.toString(), e );
-        }
-        return true; // OK
+        return writeStateLong(state_id, new_value);
     }
 
     public boolean writeStateBool(final int state_id, final boolean new_value) {
@@ -153,34 +335,28 @@ public class Crash {
 
     public boolean writeStateLong(final int state_id, final long new_value) {
 
-        try {
+        int offset = getFieldOffset(state_id);
+        if ((offset < 0) || (editing == null)) return false;
 
-            editor.putLong(Integer.toString(state_id), new_value);
-
-        } catch (Exception e) {
-            Log.e(TAG, "Exception: writeStateLong() " + e.toString(), e );
-        }
+        editing.putInt(offset, 1);
+        editing.putLong(offset + 4, new_value);
 
         return true; // OK
     }
 
     ///////////////////////////////////////////////////
     // writeStateArrayLong()
-    //  returns a setting like an array of parameters
+    //  writes an array of values (extra elements that do not fit in the layout are dropped)
     ///////////////////////////////////////////////////
     public boolean writeStateArrayLong(final int state_id, final long[] new_value) {
-        try {
-            int i;
-            String new_value_str = "";
-            for (i=0; i < new_value.length; i++) {
-                if (i !=0) new_value_str += '|';
-                new_value_str += Long.toString(new_value[i]);
-            }
 
-            editor.putString(Integer.toString(state_id), new_value_str);
+        int offset = getFieldOffset(state_id);
+        if ((offset < 0) || (editing == null)) return false;
 
-        } catch (Exception e) {
-            Log.e(TAG, "Exception: writeStateArrayLong() " + e.toString(), e );
+        int count = Math.min(new_value.length, getFieldMaxCount(state_id));
+        editing.putInt(offset, count);
+        for (int i = 0; i < count; i++) {
+            editing.putLong(offset + 4 + 8 * i, new_value[i]);
         }
 
         return true; // OK
@@ -189,21 +365,17 @@ public class Crash {
 
     ///////////////////////////////////////////////////
     // writeStateArrayInt()
-    //  returns a setting like an array of parameters
+    //  writes an array of values (extra elements that do not fit in the layout are dropped)
     ///////////////////////////////////////////////////
     public boolean writeStateArrayInt(final int state_id, final int[] new_value) {
-        try {
-            int i;
-            String new_value_str = "";
-            for (i=0; i < new_value.length; i++) {
-                if (i !=0) new_value_str += '|';
-                new_value_str += Integer.toString(new_value[i]);
-            }
 
-            editor.putString(Integer.toString(state_id), new_value_str);
+        int offset = getFieldOffset(state_id);
+        if ((offset < 0) || (editing == null)) return false;
 
-        } catch (Exception e) {
-            Log.e(TAG, "Exception: writeStateArrayInt() " + e.toString(), e );
+        int count = Math.min(new_value.length, getFieldMaxCount(state_id));
+        editing.putInt(offset, count);
+        for (int i = 0; i < count; i++) {
+            editing.putLong(offset + 4 + 8 * i, new_value[i]);
         }
 
         return true; // OK
@@ -215,38 +387,53 @@ public class Crash {
     //  returns a value for a particular state
     ///////////////////////////////////////////////////
     public int readStateInt(int state_id) {
-        return sharedPref.getInt(Integer.toString(state_id), 0);
+        return (int) readStateLong(state_id);
     }
 
     // readStateLong(): get the state info but return a long instead of int
     public long readStateLong(int state_id) {
-        return sharedPref.getLong(Integer.toString(state_id), 0);
+        int offset = getFieldOffset(state_id);
+        if ((offset < 0) || (saved == null)) return 0;
+        if (saved.getInt(offset) == 0) return 0; // not saved
+        return saved.getLong(offset + 4);
     }
 
     // readStateBool(): get the state info but return a bool instead of int
     public boolean readStateBool(int state_id) {
-        int value = sharedPref.getInt(Integer.toString(state_id), 0);
+        int value = readStateInt(state_id);
         if (value ==0) return false;
         return true;
     }
 
     ///////////////////////////////////////////////////
-    // readStateArray()
-    //  returns a setting like an array of parameters
+    // readStateArrayLong()
+    //  returns the saved array (empty if nothing was saved)
     ///////////////////////////////////////////////////
-    public String[] readStateArray(int state_id) {
-        String valstring = sharedPref.getString(Integer.toString(state_id), null);
-
-        if (valstring == null) return null;
+    public long[] readStateArrayLong(int state_id) {
+        int offset = getFieldOffset(state_id);
+        if ((offset < 0) || (saved == null)) return new long[0];
 
-        String[] val_array = valstring.split("\\|");
+        int count = Math.min(saved.getInt(offset), getFieldMaxCount(state_id));
+        if (count < 0) count = 0;
 
-        return val_array;
-
-    } // readParameterArray
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = saved.getLong(offset + 4 + 8 * i);
+        }
+        return values;
+    } // readStateArrayLong()
+
+    // readStateArrayInt(): get the saved array but return ints instead of longs
+    public int[] readStateArrayInt(int state_id) {
+        long[] values = readStateArrayLong(state_id);
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = (int) values[i];
+        }
+        return ints;
+    } // readStateArrayInt()
 
 
 
 
 } // Class Crash
-
@@ -9,21 +9,23 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.Handler;
-import android.os.Looper;
 import android.os.SystemClock;
 
 
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 
-public class Engine {
+public class Engine implements BusHost {
 
     private static final String TAG = "ATS-Engine"; // for logging
     MainService service; // just a reference to the service context
-    Handler mainHandler = null;
+    TaskScheduler mainHandler = null;
+
+    // platform services for the bus protocol code (Android versions, unless replaced for testing)
+    Clock clock = AndroidPlatform.CLOCK;
+    BusOutput busOutput;
+    BusLink busLink;
 
     boolean isStarted;
     boolean isEnabled; // this can be disabled in config
@@ -33,12 +35,7 @@ public class Engine {
     J1587 j1587; // a SAE J1587 bus connection
 
 
-    public static final int BUS_TYPE_NONE = 0; // the default
-    public static final int BUS_TYPE_J1939_250K = 1;
-    public static final int BUS_TYPE_J1939_500K = 2;
-
-    public static final int BUS_TYPE_J1939 = BUS_TYPE_J1939_250K; // for generic J1939, use the same ID as 250
-    public static final int BUS_TYPE_J1587 = 4;
+    // (the BUS_TYPE_ constants are in BusHost)
 
     // make sure there is a name for each bus
     public static final String[] BUS_NAMES = new String[] {
@@ -77,6 +74,11 @@ public class Engine {
 
     Status status = new Status();
 
+    SignalTable signals = new SignalTable(); // latest values of the signals (SPNs) from the signal definition file
+    J1587PidTable pidValues = new J1587PidTable(); // latest values of the J1587 parameters (PIDs)
+
+    ReplayHost replay = null; // a bus capture being replayed (into separate decoders, on its own thread)
+
 
     int bus_type_parking_brake = BUS_TYPE_NONE; // which bus did this come from ?
     int bus_type_reverse_gear = BUS_TYPE_NONE; // which bus did this come from ?
@@ -89,70 +91,12 @@ public class Engine {
     public static final int ENGINE_DTC_REMOVAL_COUNT = 3; // how many times must a code not appear on bus before it is considered gone
                                              // this is needed to hedge against us losing communication
 
-    static final int DTC_SOURCE_ADDRESS_UNKNOWN = 0xFF; // value indicating we don't know the source address of a DTC
-
-    public static class EngineDtc {
-
-        long dtc_value; // The value that is sent to the server, meaning can depend on bus type and vehicle
-        int bus_type = BUS_TYPE_NONE;
-        int source_address = DTC_SOURCE_ADDRESS_UNKNOWN ; // address that reported this DTC
-        int removal_count = 0; // if a code does not appear on the bus, this count is incremented until it is removed
-
-        // For conversion between the structure and an array of bytes
-        //  each item is 6 bytes (one byte for the bus and then the 4 byte DTC and 1 byte for the source address)
-        static final int DTC_ARRAY_ENTRY_SIZE = 6;
-
-        static void convertToBytes(EngineDtc dtc, byte[] output, int start_index) {
-            output[0 + start_index] = (byte) dtc.bus_type;
-            output[1 + start_index] = (byte) (dtc.dtc_value & 0xFF);
-            output[2 + start_index] = (byte) ((dtc.dtc_value >> 8) & 0xFF);
-            output[3 + start_index] = (byte) ((dtc.dtc_value >> 16) & 0xFF);
-            output[4 + start_index] = (byte) ((dtc.dtc_value >> 24) & 0xFF);
-            output[5 + start_index] = (byte) (dtc.source_address & 0xFF);
-
-        } // convertToBytes
+    static final int DTC_SOURCE_ADDRESS_UNKNOWN = EngineDtc.SOURCE_ADDRESS_UNKNOWN; // value indicating we don't know the source address of a DTC
 
-        static EngineDtc convertFromBytes(byte[] input, int start_index) {
-            EngineDtc dtc = new EngineDtc();
-            dtc.bus_type = (input[start_index] & 0xFF);
-            dtc.source_address = (input[start_index + 5] & 0xFF);
+    DtcSet current_dtcs = new DtcSet();
+    int dtcReportStamp = 0; // incremented for each DTC report, to mark which codes appeared in it
 
-            dtc.dtc_value = (input[start_index + 4] & 0xFF);
-            dtc.dtc_value <<= 8;
-            dtc.dtc_value |= (input[start_index+3] & 0xFF);
-            dtc.dtc_value <<= 8;
-            dtc.dtc_value |= (input[start_index+2] & 0xFF);
-            dtc.dtc_value <<= 8;
-            dtc.dtc_value |= (input[start_index+1] & 0xFF);
-            return dtc;
-        } // convertFromBytes
-
-
-        // In ATS 2p5 and earlier, each item was only 5 bytes and did not contain a source address
-        static final int DTC_ARRAY_ENTRY_SIZE_5BYTES_ATS2P5 = 5;
-
-        // convertFromBytes_5BYTES_ATS2P5()
-        //  convert from the ATS 2.5 5-byte format
-        static EngineDtc convertFromBytes_5BYTES_ATS2P5(byte[] input, int start_index) {
-            EngineDtc dtc = new EngineDtc();
-            dtc.bus_type = (input[start_index] & 0xFF);
-            dtc.source_address = DTC_SOURCE_ADDRESS_UNKNOWN;
-
-            dtc.dtc_value = (input[start_index + 4] & 0xFF);
-            dtc.dtc_value <<= 8;
-            dtc.dtc_value |= (input[start_index+3] & 0xFF);
-            dtc.dtc_value <<= 8;
-            dtc.dtc_value |= (input[start_index+2] & 0xFF);
-            dtc.dtc_value <<= 8;
-            dtc.dtc_value |= (input[start_index+1] & 0xFF);
-            return dtc;
-        } // convertFromBytes
-
-
-
-    } // EngineDtc
-
-    List<EngineDtc> current_dtcs = (List<EngineDtc>) new ArrayList<EngineDtc>();
+    static final int DTC_REPORTER_ALL = -1; // the DTC report contains the codes from every node on the bus
 
 
 
@@ -164,6 +108,8 @@ public class Engine {
 
     public Engine(MainService service) {
         this.service = service;
+        busOutput = new AndroidPlatform.VbsBusOutput(service.context);
+        busLink = new AndroidPlatform.VbsBusLink(service.context);
 
         status.flagReverseGear = service.state.readStateBool(State.FLAG_REVERSE_GEAR_STATUS);
         status.flagParkingBrake = service.state.readStateBool(State.FLAG_PARKING_BRAKE_STATUS);
@@ -354,7 +300,7 @@ public class Engine {
 
         last_device_serial = device_serial; // used if this needs to be restarted
 
-        mainHandler  = new Handler(Looper.getMainLooper());
+        mainHandler  = createScheduler();
 
         if (warmStart) {
             j1939_vinAttemptsRemaining = 0; // do not attempt to re-get the VIN
@@ -380,6 +326,9 @@ public class Engine {
         // load into memory any requests in configuration to forward raw bus data for a specific message.
         loadRawForwardRequests();
 
+        // load the definitions of any other signals (SPNs) we should decode
+        signals.loadFile(new File(Config.SIGNALS_STANDARD_PATH, SignalTable.FILENAME));
+
 
         try {
             IntentFilter intentFilter = new IntentFilter();
@@ -393,6 +342,7 @@ public class Engine {
         j1939 = new J1939(this, warmStart, device_serial_int);
         if (j1939_enabled) {
             j1939.setAdditionalPGNs(getRawForwardPGNs());
+            j1939.setSignalPgns(signals.getPgns());
             j1939.start();
         } else {
             // since ATS may have previously turned j1939 on if ATS was configured differently, we need to tell VBS to turn it off
@@ -416,8 +366,14 @@ public class Engine {
 
         initBusService(); // prepare bus service for starting (for the monitor)
 
+        scheduleRequests();
+
+        // re-apply the raw forward setting if it changes while we are running
+        Config.addChangeListener(configListener, new int[] {Config.SETTING_FORWARD_RAW_BUS});
+
         isStarted = true;
         mainHandler.postDelayed(pollTimer, POLL_TIME_MS); // once per second
+        mainHandler.postDelayed(requestTimer, RequestScheduler.TICK_MS);
 
 
     } // start();
@@ -432,14 +388,24 @@ public class Engine {
 
         isStarted = false;
 
+        Config.removeChangeListener(configListener);
+
         stopFuelUpdates();
 
         //Log.v(TAG, "stopping poll callback");
         if (mainHandler != null) {
             mainHandler.removeCallbacks(pollTimer);
+            mainHandler.removeCallbacks(requestTimer);
             mainHandler = null;
         }
 
+        requestTracker.cancelAll(clock.elapsedRealtime()); // nobody will answer these now
+
+        if (replay != null) {
+            replay.stop();
+            replay = null;
+        }
+
         //Log.v(TAG, "stopping -- writestates()");
         // save the latest info for quick changing items that aren't saved on change
 
@@ -518,6 +484,94 @@ public class Engine {
     } // restoreCrashData
 
 
+    ////////////////////////////////////////////////////////////////////
+    // createScheduler()
+    //  returns the scheduler that the engine and the buses run their timers on
+    ////////////////////////////////////////////////////////////////////
+    public TaskScheduler createScheduler() {
+        return AndroidPlatform.newMainScheduler();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // BusHost: what the bus protocol code (J1939, J1587) gets from the engine
+    ////////////////////////////////////////////////////////////////////
+    public Clock getClock() { return clock; }
+    public BusOutput getBusOutput() { return busOutput; }
+    public BusLink getBusLink() { return busLink; }
+    public boolean isUnitTesting() { return service.isUnitTesting; }
+
+    public SignalTable getSignals() { return signals; }
+    public J1587PidTable getPidValues() { return pidValues; }
+    public RequestTracker getRequestTracker() { return requestTracker; }
+
+    public String getVin() { return vin; }
+    public int getVinBusType() { return bus_type_vin; }
+
+    public int getParkingBrakeConflictState() {
+        return service.config.readParameterInt(Config.SETTING_PARKING_BRAKE, Config.PARAMETER_PARKING_BRAKE_CONFLICT_STATE);
+    }
+
+    public int getJ1939FramesPerBurst() {
+        return service.config.readParameterInt(Config.SETTING_J1939_TRANSPORT, Config.PARAMETER_J1939_TRANSPORT_FRAMES_PER_BURST);
+    }
+
+    public int getJ1939Connections() {
+        return service.config.readParameterInt(Config.SETTING_J1939_TRANSPORT, Config.PARAMETER_J1939_TRANSPORT_CONNECTIONS);
+    }
+
+    public int getJ1939SpeedKbs() {
+        String bus_speed_str = service.config.readParameterString(Config.SETTING_VEHICLECOMMUNICATION, Config.PARAMETER_VEHICLECOMMUNICATION_J1939_SPEED_KBS);
+        if (bus_speed_str.toUpperCase().equals("AUTO")) return 0;
+        return service.config.readParameterInt(Config.SETTING_VEHICLECOMMUNICATION, Config.PARAMETER_VEHICLECOMMUNICATION_J1939_SPEED_KBS);
+    }
+
+    public boolean isJ1939BusVerified() { return service.state.readStateBool(State.J1939_BUS_VERIFIED); }
+    public int getJ1939BusType() { return service.state.readState(State.J1939_BUS_TYPE); }
+    public int getJ1939BusAddress() { return service.state.readState(State.J1939_BUS_ADDRESS); }
+    public String getJ1939BitrateHistory() { return service.state.readStateString(State.STRING_J1939_BITRATE_HISTORY); }
+
+    public void rememberJ1939BusType(int bus_type) {
+        service.state.writeState(State.J1939_BUS_TYPE, bus_type);
+        service.state.writeState(State.J1939_BUS_VERIFIED, 1);
+    }
+
+    public void rememberJ1939BusAddress(int address) {
+        service.state.writeState(State.J1939_BUS_ADDRESS, address);
+    }
+
+    public void setJ1939BitrateHistory(String history) {
+        service.state.writeStateString(State.STRING_J1939_BITRATE_HISTORY, history);
+    }
+
+    public void reportNoAddressAvailable() {
+        service.addEventWithExtra(EventType.EVENT_TYPE_ERROR, EventType.ERROR_J1939_NOADDRESSAVAILABLE);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // startReplay()
+    //  replays a VBS bus capture (a file or a directory of files) into a separate set of decoders on their own thread,
+    //      so the replay does not change anything in the engine or hold up the main thread (see ReplayHost)
+    //  speed: BusReplay.SPEED_MAX to replay everything as fast as possible, or N to replay at N times the captured speed
+    //  Returns true if the replay was started
+    ////////////////////////////////////////////////////////////////////
+    public boolean startReplay(String path, int speed) {
+
+        if (!isStarted) {
+            Log.w(TAG, "Cannot replay " + path + ": engine module not started");
+            return false;
+        }
+
+        if (replay != null) replay.stop();
+
+        replay = new ReplayHost(this);
+        replay.start(path, speed);
+
+        return true;
+    } // startReplay()
+
+
     ////////////////////////////////////////////////////////////////////
     // getStatus()
     //  called everytime we need a status snapshot of relevant parameters (like for a local broadcast)
@@ -829,6 +883,10 @@ public class Engine {
         // We don't need to do this again until we cold start
         setWarmStart(true);
 
+        if (j1939 != null) {
+            j1939.checkVinBitrate(newVin); // the VIN may tell us the CAN bitrate (or we can remember it for next time)
+        }
+
         if (newVin.equals(vin)) {
             Log.d(TAG, "VIN confirmed as " + vin);
             return vin;
@@ -858,114 +916,129 @@ public class Engine {
     /////////////////////////////////////////////////////
     public int checkDtcs(int bus_type, long[] newDtcs, int[] newSourceAddresses, int newLampStatus) {
 
-        // compare everything in tempDtcs to the real list of DTCs
-        // indicate this came from the J1939 bus
+        return updateDtcs(bus_type, DTC_REPORTER_ALL, newDtcs, newSourceAddresses, newDtcs.length, newLampStatus,
+                clock.elapsedRealtime());
 
+    } // checkDtcs()
 
-        int num_added=0, num_deleted = 0;
-        boolean found;
-        int i = 0;
 
-        // Check for deletions (items in current list that are not in new list)
-        Iterator<EngineDtc> current_iter = current_dtcs.iterator();
-        while (current_iter.hasNext()) {
-            EngineDtc current_dtc = current_iter.next();
-
-            if (current_dtc.bus_type == bus_type) { // only check codes that are for the same bus type
-                // we will only consider removing codes that are for the same bus type
-                found = false;
-                i = 0;
-                for (long dtc_value : newDtcs) {
-                    if (dtc_value == current_dtc.dtc_value) {
-
-                        // set unknown source addresses (older ATS versions did not record the source address)
-                        if (current_dtc.source_address == DTC_SOURCE_ADDRESS_UNKNOWN) {
-                            current_dtc.source_address = newSourceAddresses[i];
-                            Log.d(TAG, "updating " + getBusName(bus_type) + " DTC " + String.format("x%08X", current_dtc.dtc_value) + " source addr to " + String.format("x%02X", current_dtc.source_address));
-                        }
+    /////////////////////////////////////////////////////
+    // checkSourceDtcs()
+    //  Takes the list of DTCs that one node just reported (e.g. in a single DM1) and compares it against the current
+    //      codes from that node. New codes are reported right away.
+    //  reporter: source address (J1939) or MID (J1587) of the node
+    // Returns:
+    //  0xAADD where AA = num added, DD = num_deleted
+    /////////////////////////////////////////////////////
+    public int checkSourceDtcs(int bus_type, int reporter, long[] newDtcs, int[] newSourceAddresses, int count, int newLampStatus) {
 
-                        if (current_dtc.source_address == newSourceAddresses[i]) { // current address is the same as new address
-                            found = true; // this current DTC still exists in the new list
-                            break;
-                        }
-                    }
-                    i += 1;
-                }
+        return updateDtcs(bus_type, reporter, newDtcs, newSourceAddresses, count, newLampStatus,
+                clock.elapsedRealtime());
 
-                if (!found) {
-                    // maybe this code should be removed?
-                    current_dtc.removal_count++;
-                    if (current_dtc.removal_count >= ENGINE_DTC_REMOVAL_COUNT) {
-                        // removal count is high enough ... remove this code
-                        Log.d(TAG, "removing " + getBusName(bus_type) + " Addr " + String.format("x%02X", current_dtc.source_address) + " DTC " + String.format("x%08X", current_dtc.dtc_value) + " from current DTCs");
+    } // checkSourceDtcs()
 
 
+    /////////////////////////////////////////////////////
+    // getDtcReporter()
+    //  returns the node that reports this code: J1587 codes contain the MID, otherwise it is the source address
+    /////////////////////////////////////////////////////
+    static int getDtcReporter(EngineDtc dtc) {
+        if (dtc.bus_type == BUS_TYPE_J1587)
+            return (int) ((dtc.dtc_value >> 8) & 0xFF);
+        return dtc.source_address;
+    } // getDtcReporter()
 
-                        byte data[] = new byte[7];
-                        data[0] = (byte) current_dtc.bus_type;
-                        data[1] = (byte) (current_dtc.dtc_value & 0xFF);
-                        data[2] = (byte) ((current_dtc.dtc_value >> 8) & 0xFF);
-                        data[3] = (byte) ((current_dtc.dtc_value >> 16) & 0xFF);
-                        data[4] = (byte) ((current_dtc.dtc_value >> 24) & 0xFF);
-                        data[5] = (byte) current_dtc.source_address;
-                        // add lamp status at the end
-                        data[6] = (byte) (newLampStatus & 0xFF);
 
+    /////////////////////////////////////////////////////
+    // updateDtcs()
+    //  adds the codes in the report that are not active yet, and counts the active ones that were not in the report
+    //      towards removing them. A code is only counted once per missed window (see Config), so that several reports
+    //      that arrive together (e.g. a broadcast DM1 and a response to our request) don't remove it early.
+    //      The window only affects removal: fault code on/off messages are still sent as soon as a code is added or removed.
+    //  reporter: only codes from this node are checked for removal, or DTC_REPORTER_ALL for the whole bus
+    //      Codes from nodes that sent their own report since the last whole-bus report were already counted by that
+    //      report, so the whole-bus report only counts codes from nodes that have gone silent.
+    // Returns:
+    //  0xAADD where AA = num added, DD = num_deleted
+    /////////////////////////////////////////////////////
+    int updateDtcs(int bus_type, int reporter, long[] newDtcs, int[] newSourceAddresses, int count, int newLampStatus, long now) {
 
+        int num_added=0, num_deleted = 0;
+        int stamp = ++dtcReportStamp;
 
-                        service.addEventWithData(EventType.EVENT_TYPE_FAULTCODE_OFF, data);
+        // Check for additions (items in new list that are not in current list)
 
+        for (int i = 0; i < count; i++) {
 
-                        current_iter.remove();
-                        num_deleted++;
+            EngineDtc dtc = current_dtcs.find(bus_type, newSourceAddresses[i], newDtcs[i]);
 
-                    }   // remove this code
-                } // existing code not found in new list
-            } // code is for correct bus type
-        } // each current code
+            if ((dtc == null) && (newSourceAddresses[i] != DTC_SOURCE_ADDRESS_UNKNOWN)) {
+                // set unknown source addresses (older ATS versions did not record the source address)
+                dtc = current_dtcs.find(bus_type, DTC_SOURCE_ADDRESS_UNKNOWN, newDtcs[i]);
+                if (dtc != null) {
+                    current_dtcs.changeSourceAddress(dtc, newSourceAddresses[i]);
+                    Log.d(TAG, "updating " + getBusName(bus_type) + " DTC " + String.format("x%08X", dtc.dtc_value) + " source addr to " + String.format("x%02X", dtc.source_address));
+                }
+            }
 
-        // Check for additions (items in new list that are not in current list)
+            if (dtc != null) {
+                // new DTC already exists in current list, update it accordingly
+                dtc.removal_count = 0; // we should not remove it anytime soon
+                dtc.seen_stamp = stamp;
+                continue;
+            }
 
-        for (i =0 ; i < newDtcs.length; i++) {
+            // add this item to the list of DTCs!
+            dtc = new EngineDtc();
+            dtc.dtc_value = newDtcs[i];
+            dtc.source_address = newSourceAddresses[i];
+            dtc.bus_type = bus_type;
+            dtc.removal_count = 0;
+            dtc.seen_stamp = stamp;
 
-            EngineDtc newDtc = new EngineDtc();
-            newDtc.dtc_value = newDtcs[i];
-            newDtc.source_address = newSourceAddresses[i];
-            newDtc.bus_type = bus_type;
-            newDtc.removal_count = 0;
+            Log.d(TAG, "adding " + getBusName(bus_type) + " Addr " + String.format("x%02X", dtc.source_address) + " DTC " + String.format("x%08X", dtc.dtc_value) + " to current DTCs");
 
-            found = false;
-            for (EngineDtc currentDtc : current_dtcs) {
-                if ((currentDtc.dtc_value == newDtc.dtc_value) &&
-                    (currentDtc.bus_type == newDtc.bus_type) &&
-                    (currentDtc.source_address == newDtc.source_address)) {
+            addDtcEvent(EventType.EVENT_TYPE_FAULTCODE_ON, dtc, newLampStatus);
 
-                    // new DTC already exists in current list, update it accordingly
-                    currentDtc.removal_count = 0; // we should not remove it anytime soon
-                    found = true;
-                    break;
-                }
+            current_dtcs.add(dtc);
+            num_added++;
+        }
+
+
+        // Check for deletions (items in current list that were not in this report)
+
+        int missed_window_ms = service.config.readParameterInt(Config.SETTING_FAULT_CODE_OPTIONS, Config.PARAMETER_FAULT_CODE_OPTIONS_MISSED_WINDOW_MS);
+
+        for (int i = 0; i < current_dtcs.size(); i++) {
+            EngineDtc dtc = current_dtcs.get(i);
+
+            if (dtc.bus_type != bus_type) continue; // only check codes that are for the same bus type
+
+            if (reporter == DTC_REPORTER_ALL) {
+                boolean source_reported = dtc.source_reported;
+                dtc.source_reported = false; // start over for the next whole-bus report
+                if (source_reported) continue; // its node is still reporting, and its own reports count it
+            } else {
+                if (getDtcReporter(dtc) != reporter) continue; // some other node's code
+                dtc.source_reported = true;
             }
 
-            if (!found) {
-                // add this item to the list of DTCs!
-                Log.d(TAG, "adding " + getBusName(bus_type) + " Addr " + String.format("x%02X", newDtc.source_address) + " DTC " + String.format("x%08X", newDtc.dtc_value) + " to current DTCs");
+            if (dtc.seen_stamp == stamp) continue; // it was in this report
 
-                byte data[] = new byte[7];
-                data[0] = (byte) newDtc.bus_type;
-                data[1] = (byte) (newDtc.dtc_value & 0xFF);
-                data[2] = (byte) ((newDtc.dtc_value >> 8) & 0xFF);
-                data[3] = (byte) ((newDtc.dtc_value >> 16) & 0xFF);
-                data[4] = (byte) ((newDtc.dtc_value >> 24) & 0xFF);
-                data[5] = (byte) newDtc.source_address;
+            if ((dtc.removal_count > 0) && (now - dtc.last_missed_ms < missed_window_ms)) continue; // already counted
 
-                // add current lamp status at the end
-                data[6] = (byte) (newLampStatus & 0xFF);
+            // maybe this code should be removed?
+            dtc.removal_count++;
+            dtc.last_missed_ms = now;
+            if (dtc.removal_count >= ENGINE_DTC_REMOVAL_COUNT) {
+                // removal count is high enough ... remove this code
+                Log.d(TAG, "removing " + getBusName(bus_type) + " Addr " + String.format("x%02X", dtc.source_address) + " DTC " + String.format("x%08X", dtc.dtc_value) + " from current DTCs");
 
-                service.addEventWithData(EventType.EVENT_TYPE_FAULTCODE_ON, data);
+                addDtcEvent(EventType.EVENT_TYPE_FAULTCODE_OFF, dtc, newLampStatus);
 
-                current_dtcs.add(newDtc);
-                num_added++;
+                current_dtcs.removeAt(i);
+                i--;
+                num_deleted++;
             }
         }
 
@@ -978,7 +1051,28 @@ public class Engine {
         }
 
         return ((num_added & 0xFF) << 8) | (num_deleted & 0xFF);
-    } // checkDtcs()
+    } // updateDtcs()
+
+
+    /////////////////////////////////////////////////////
+    // addDtcEvent()
+    //  adds a fault code event (on or off) for the DTC, along with the current lamp status
+    /////////////////////////////////////////////////////
+    void addDtcEvent(int event_type, EngineDtc dtc, int lamp_status) {
+
+        byte data[] = new byte[7];
+        data[0] = (byte) dtc.bus_type;
+        data[1] = (byte) (dtc.dtc_value & 0xFF);
+        data[2] = (byte) ((dtc.dtc_value >> 8) & 0xFF);
+        data[3] = (byte) ((dtc.dtc_value >> 16) & 0xFF);
+        data[4] = (byte) ((dtc.dtc_value >> 24) & 0xFF);
+        data[5] = (byte) dtc.source_address;
+        // add lamp status at the end
+        data[6] = (byte) (lamp_status & 0xFF);
+
+        service.addEventWithData(event_type, data);
+
+    } // addDtcEvent()
 
 
 
@@ -999,19 +1093,46 @@ public class Engine {
     } // RawForwardRequest
 
     RawForwardRequest[] rawForwardRequests = null;
+    // same requests, indexed by rawForwardKey(bus_type, message_type, 0) so received frames can be matched without a scan
+    IntMap<RawForwardRequest> rawForwardRequestMap = new IntMap<RawForwardRequest>();
 
     // results for forwarding (received data that matches)
+    //  One of these exists for each (bus, message type, source) that has been seen, and it is re-used
+    //      each time new data arrives, so steady-state forwarding does not allocate.
     class RawForwardResult  {
         int bus_type;
         int message_type; // PGN or PID
         long time_ms; // realtime last time this was received/processed
         int source; // who sent this message (maybe we get the same info from multiple sources ?
-        byte[] data;
+        byte[] data; // buffer, may be larger than the data
+        int data_length; // number of valid bytes in data
+        byte[] send_data; // copy of the valid bytes for a single broadcast, re-used while the length stays the same
+        boolean pending; // set if this has new data that has not been forwarded yet
     }
 
-    ArrayList<RawForwardResult> rawForwardResults = new ArrayList<RawForwardResult>() ;
+    // all results that have been seen, indexed by rawForwardKey(bus_type, message_type, source)
+    IntMap<RawForwardResult> rawForwardResultMap = new IntMap<RawForwardResult>();
 
+    // results with new data waiting for the next forwardRawResults() (first pendingRawResultCount entries are valid)
+    RawForwardResult[] pendingRawResults = new RawForwardResult[16];
+    int pendingRawResultCount = 0;
 
+    // scratch arrays for packing a batched broadcast, grown as needed and re-used every poll
+    int[] rawBatchBusTypes = new int[0];
+    int[] rawBatchMessageTypes = new int[0];
+    int[] rawBatchSources = new int[0];
+    int[] rawBatchLengths = new int[0];
+    long[] rawBatchTimes = new long[0];
+    byte[] rawBatchData = new byte[0];
+
+
+    ////////////////////////////////////////////////////////////////////
+    // rawForwardKey()
+    //  combines the bus type (4 bits), message type (PGN or PID, 20 bits) and source address (8 bits) into one key
+    ////////////////////////////////////////////////////////////////////
+    static int rawForwardKey(int bus_type, int message_type, int source) {
+        return ((bus_type & 0x0F) << 28) | ((message_type & 0xFFFFF) << 8) | (source & 0xFF);
+    } // rawForwardKey()
 
 
     ////////////////////////////////////////////////////////////////////
@@ -1085,133 +1206,241 @@ public class Engine {
         rawForwardRequests = new RawForwardRequest[resultList.size()];
         rawForwardRequests = resultList.toArray(rawForwardRequests);
 
+        // re-build the indexes, anything that was pending for the old requests is dropped
+        rawForwardRequestMap.clear();
+        for (RawForwardRequest rfr : rawForwardRequests) {
+            if (rfr.bus_type == BUS_TYPE_NONE) continue;
+            int key = rawForwardKey(rfr.bus_type, rfr.message_type, 0);
+            if (!rawForwardRequestMap.containsKey(key)) // duplicates only need to match once
+                rawForwardRequestMap.put(key, rfr);
+        }
+
+        rawForwardResultMap.clear();
+        for (int j = 0; j < pendingRawResultCount; j++) pendingRawResults[j] = null;
+        pendingRawResultCount = 0;
+
     } // loadRawForwardRequests()
 
+
     ////////////////////////////////////////////////////////////////////
-    // getRawForwardPGNs()
-    //      gets the J1939 pgns out of the loaded raw forward requests
+    // configListener
+    //  called (on whichever thread wrote the setting) when settings we use change
     ////////////////////////////////////////////////////////////////////
-    int[] getRawForwardPGNs() {
-        ArrayList<Integer> resultList = new ArrayList<Integer>();
-        resultList.clear();
+    Config.ChangeListener configListener = new Config.ChangeListener() {
+        @Override
+        public void onSettingsChanged(int[] setting_ids) {
+            // the buses and their timers all run on the main scheduler
+            TaskScheduler handler = mainHandler;
+            if (handler != null) handler.post(reloadRawForwardTask);
+        }
+    }; // configListener
 
-        for (RawForwardRequest rfr : rawForwardRequests ) {
-            if (rfr.bus_type == Engine.BUS_TYPE_J1939) {
-                resultList.add(new Integer(rfr.message_type));
+
+    Runnable reloadRawForwardTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                reloadRawForwardRequests();
+            } catch (Exception e) {
+                Log.e(TAG + ".reloadRawForwardTask", "Exception: " + e.toString(), e);
             }
         }
-        int[] resultArray = new int[resultList.size()];
-        int i = 0;
-        for (Integer n : resultList) {
-            resultArray[i++] = n;
-        }
+    }; // reloadRawForwardTask()
 
-        return resultArray;
-    } // getRawForwardPGNs()
 
     ////////////////////////////////////////////////////////////////////
-    // getRawForwardActiveRequests()
-    //      returns a list of the pgns or pids that need to be actively sent over the vehicle bus
-    //  Parameters:
-    //      rf_bus_type : Engine.BUS_TYPE_J1939 or BUS_TYPE_J1587
-    //  Returns:
-    //      array of integers representing the message IDs to request
+    // reloadRawForwardRequests()
+    //      re-applies the raw forward setting while running: the requests, the J1939 hardware filters,
+    //      and the periodic requests for "active" entries
     ////////////////////////////////////////////////////////////////////
-    int[] getRawForwardActiveRequests(int rf_bus_type) {
-        ArrayList<Integer> resultList = new ArrayList<Integer>();
-        resultList.clear();
+    void reloadRawForwardRequests() {
+
+        if (!isStarted) return;
 
-        long now = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Raw forward setting changed, reloading");
 
+        loadRawForwardRequests();
+
+        if (j1939 != null) {
+            j1939.setAdditionalPGNs(getRawForwardPGNs());
+            j1939.updateFilters();
+        }
+
+        scheduleRequests();
+    } // reloadRawForwardRequests()
+
+    ////////////////////////////////////////////////////////////////////
+    // getRawForwardPGNs()
+    //      gets the J1939 pgns out of the loaded raw forward requests
+    ////////////////////////////////////////////////////////////////////
+    int[] getRawForwardPGNs() {
+
+        int count = 0;
         for (RawForwardRequest rfr : rawForwardRequests ) {
-            if ((rfr.bus_type == rf_bus_type) &&
-                (rfr.active) &&
-                (rfr.last_sent_realtime_ms + rfr.period_seconds*1000 < now))
-            {
-                resultList.add(new Integer(rfr.message_type));
-                rfr.last_sent_realtime_ms = now;
-            }
+            if (rfr.bus_type == Engine.BUS_TYPE_J1939) count++;
         }
-        int[] resultArray = new int[resultList.size()];
+
+        int[] resultArray = new int[count];
         int i = 0;
-        for (Integer n : resultList) {
-            resultArray[i++] = n;
+        for (RawForwardRequest rfr : rawForwardRequests ) {
+            if (rfr.bus_type == Engine.BUS_TYPE_J1939) {
+                resultArray[i++] = rfr.message_type;
+            }
         }
 
         return resultArray;
-    } // getRawForwardActiveRequests()
+    } // getRawForwardPGNs()
 
     ////////////////////////////////////////////////////////////////////////////
-    // addOrReplaceResult()
-    //  returns: true if it was added, false if it was replaced
+    // getRawForwardResult()
+    //  returns the re-usable result slot for this bus/message/source, or null if this is not being forwarded
+    //  The slot is created the first time a source is seen and marked pending with no data yet.
     ////////////////////////////////////////////////////////////////////////////
-    boolean addOrReplaceResult(RawForwardResult rfresult) {
-
-        // if found, then replace it
-        for (RawForwardResult rfr : rawForwardResults) {
-            if ((rfr.bus_type == rfresult.bus_type) &&
-                    (rfr.message_type == rfresult.message_type) &&
-                    (rfr.source == rfresult.source)) {
-                Log.vv(TAG, "Matched result for bus " + rfr.bus_type + " pgn/pid " + rfr.message_type + " source " + rfr.source);
-                rfr.data = rfresult.data;
-                rfr.time_ms = rfresult.time_ms;
-                return false;
-            }
+    RawForwardResult getRawForwardResult(int bus_type, int message_type, int source, int data_length) {
+
+        if (rawForwardRequestMap.isEmpty()) return null; // nothing to raw-forward
+        if (!rawForwardRequestMap.containsKey(rawForwardKey(bus_type, message_type, 0))) return null; // not requested
+
+        int key = rawForwardKey(bus_type, message_type, source);
+        RawForwardResult rfr = rawForwardResultMap.get(key);
+        if (rfr == null) {
+            rfr = new RawForwardResult();
+            rfr.bus_type = bus_type;
+            rfr.message_type = message_type;
+            rfr.source = source;
+            rawForwardResultMap.put(key, rfr);
+        } else {
+            Log.vv(TAG, "Matched result for bus " + bus_type + " pgn/pid " + message_type + " source " + source);
         }
 
-        // was not found, add it
-        rawForwardResults.add(rfresult);
-        return true;
+        if ((rfr.data == null) || (rfr.data.length < data_length))
+            rfr.data = new byte[data_length];
+        rfr.data_length = data_length;
+        rfr.time_ms = clock.elapsedRealtime();
+
+        if (!rfr.pending) {
+            // add it to the list of things to send at next poll
+            rfr.pending = true;
+            if (pendingRawResultCount == pendingRawResults.length) {
+                RawForwardResult[] bigger = new RawForwardResult[pendingRawResults.length * 2];
+                System.arraycopy(pendingRawResults, 0, bigger, 0, pendingRawResultCount);
+                pendingRawResults = bigger;
+            }
+            pendingRawResults[pendingRawResultCount++] = rfr;
+        }
 
-    } // addOrReplaceResult()
+        return rfr;
+    } // getRawForwardResult()
 
 
     ////////////////////////////////////////////////////////////////////////////
     // checkRawForwarding()
     //  checks received raw data from the vehicle bus to see if it needs to be forwarded to local broadcasts
-    //  If so, adds it to our results list so it can be forwarded later
+    //  If so, copies it into the result for that source so it can be forwarded later
     ////////////////////////////////////////////////////////////////////////////
     public void checkRawForwarding(int bus_type, int message_type, int source, byte[] data) {
+        checkRawForwarding(bus_type, message_type, source, data, data.length);
+    } // checkRawForwarding()
 
-        if (rawForwardRequests == null) return; // nothing to raw-forward
 
-        for (RawForwardRequest rawForwardRequest : rawForwardRequests) {
+    ////////////////////////////////////////////////////////////////////////////
+    // checkRawForwarding()
+    //  same as above, but only the first data_length bytes of data are forwarded (e.g. a re-used TP buffer)
+    ////////////////////////////////////////////////////////////////////////////
+    public void checkRawForwarding(int bus_type, int message_type, int source, byte[] data, int data_length) {
 
-            if ((bus_type == rawForwardRequest.bus_type) &&
-                    (message_type == rawForwardRequest.message_type)) {
+        RawForwardResult rfr = getRawForwardResult(bus_type, message_type, source, data_length);
+        if (rfr == null) return;
 
-                // Yes this should be, add or replace this result
+        System.arraycopy(data, 0, rfr.data, 0, data_length);
 
-                RawForwardResult rfresult = new RawForwardResult();
+    } // checkRawForwarding()
 
-                rfresult.bus_type = rawForwardRequest.bus_type;
-                rfresult.message_type = rawForwardRequest.message_type;
-                rfresult.time_ms = SystemClock.elapsedRealtime();
-                rfresult.source = source;
-                rfresult.data = data;
 
-                addOrReplaceResult(rfresult);
-            }
-        } // each thing to raw-forward
+    ////////////////////////////////////////////////////////////////////////////
+    // checkRawForwarding()
+    //  same as above, but for a single frame whose data is packed into a long (see EngineBus.bytes2Payload())
+    ////////////////////////////////////////////////////////////////////////////
+    public void checkRawForwarding(int bus_type, int message_type, int source, long payload, int dlc) {
+
+        RawForwardResult rfr = getRawForwardResult(bus_type, message_type, source, dlc);
+        if (rfr == null) return;
+
+        EngineBus.payload2Bytes(payload, rfr.data, dlc);
 
     } // checkRawForwarding()
 
 
     ////////////////////////////////////////////////////////////////////////////
     // forwardRawResults()
-    //  forwards any raw results to the local broadcaster, removing them from the results list
+    //  forwards any pending raw results to the local broadcaster
+    //  Depending on configuration, this is either one broadcast per result, or all results packed into one broadcast
     ////////////////////////////////////////////////////////////////////////////
     void forwardRawResults() {
-        Log.vv(TAG, "Forwarding Raw Results");
 
-        for (int i=rawForwardResults.size()-1;i>=0;i--) {
-            // Do something
-            RawForwardResult rfresult = rawForwardResults.get(i);
-            rawForwardResults.remove(i);
+        if (pendingRawResultCount == 0) return; // nothing new
+
+        Log.vv(TAG, "Forwarding Raw Results (" + pendingRawResultCount + ")");
+
+        boolean batch = (service.config.readParameterInt(Config.SETTING_FORWARD_RAW_BUS_OPTIONS, Config.PARAMETER_FORWARD_RAW_BUS_OPTIONS_BATCH) != 0);
+
+        if (!batch) {
+            for (int i = 0; i < pendingRawResultCount; i++) {
+                RawForwardResult rfresult = pendingRawResults[i];
+                // the broadcast needs an array of exactly the data length. It is parcelled before sendBroadcast() returns,
+                //  so the same array can be used again next time.
+                byte[] data = rfresult.send_data;
+                if ((data == null) || (data.length != rfresult.data_length)) {
+                    data = new byte[rfresult.data_length];
+                    rfresult.send_data = data;
+                }
+                System.arraycopy(rfresult.data, 0, data, 0, rfresult.data_length);
+                service.local.sendRawBusMessage(rfresult.bus_type, rfresult.message_type, rfresult.time_ms, rfresult.source, data);
+                rfresult.pending = false;
+                pendingRawResults[i] = null;
+            }
+            pendingRawResultCount = 0;
+            return;
+        }
+
+        // pack everything into the scratch arrays
 
-            service.local.sendRawBusMessage(rfresult.bus_type, rfresult.message_type, rfresult.time_ms, rfresult.source, rfresult.data);
+        int count = pendingRawResultCount;
+        int total_length = 0;
+        for (int i = 0; i < count; i++) {
+            total_length += pendingRawResults[i].data_length;
+        }
 
+        if (rawBatchBusTypes.length < count) {
+            int size = Math.max(count, rawBatchBusTypes.length * 2);
+            rawBatchBusTypes = new int[size];
+            rawBatchMessageTypes = new int[size];
+            rawBatchSources = new int[size];
+            rawBatchLengths = new int[size];
+            rawBatchTimes = new long[size];
         }
+        if (rawBatchData.length < total_length) {
+            rawBatchData = new byte[Math.max(total_length, rawBatchData.length * 2)];
+        }
+
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            RawForwardResult rfresult = pendingRawResults[i];
+            rawBatchBusTypes[i] = rfresult.bus_type;
+            rawBatchMessageTypes[i] = rfresult.message_type;
+            rawBatchSources[i] = rfresult.source;
+            rawBatchTimes[i] = rfresult.time_ms;
+            rawBatchLengths[i] = rfresult.data_length;
+            System.arraycopy(rfresult.data, 0, rawBatchData, offset, rfresult.data_length);
+            offset += rfresult.data_length;
+
+            rfresult.pending = false;
+            pendingRawResults[i] = null;
+        }
+        pendingRawResultCount = 0;
+
+        service.local.sendRawBusMessages(count, rawBatchBusTypes, rawBatchMessageTypes, rawBatchTimes, rawBatchSources, rawBatchLengths, rawBatchData, total_length);
+
     } // forwardRawResults()
 
 
@@ -1229,8 +1458,6 @@ public class Engine {
     ////////////////////////////////////////////////////////////////////////////
     Runnable pollTimer = new Runnable() {
 
-        int everyother = 0;
-
         @Override
         public void run() {
             try {
@@ -1239,11 +1466,8 @@ public class Engine {
                 // verify that the service is running
                 verifyBusService();
 
-                // send anything we need to the bus
-                pollBuses(everyother);
-
-                // just toggle
-                everyother ^=1; // toggle
+                // log status and forward anything we received
+                pollBuses();
 
             } catch (Exception e) {
                 Log.e(TAG + ".pollTimer", "Exception: " + e.toString(), e);
@@ -1263,9 +1487,9 @@ public class Engine {
 
     ////////////////////////////////////////////////////////////////////////////
     // pollBuses()
-    //  perform the various polls required to the various buses
+    //  regular status logging for the buses, and forwarding of raw results
     ////////////////////////////////////////////////////////////////////////////
-    void pollBuses(int everyother) {
+    void pollBuses() {
 
         if (!isEnabled) return; // we don't need to do anything if engine isn't enabled
 
@@ -1288,55 +1512,205 @@ public class Engine {
 
 
 
-        if ((j1939 != null) && (j1939.isCommunicating())) {
+        // (requests are sent by the requestScheduler, see requestTimer)
 
+        if ((j1939 != null) && (j1939.isCommunicating())) {
             j1939.logStatus();
+        }
+
+        if ((j1587 != null) && (j1587.isCommunicating())) {
+            j1587.logStatus();
+        }
+
+
+        // now forward any raw packets that we received that need to be forwarded locally.
+        forwardRawResults();
+
+
+    } // pollBuses
+
+
+
+    ////////////////////////////////////////////////////////////////
+    ////////////////////////////////////////////////////////////////
+    // Request Scheduling
+    //  Requests for data over the buses are sent when each one is due (see RequestScheduler)
+    ////////////////////////////////////////////////////////////////
+    ////////////////////////////////////////////////////////////////
+
+    public static final int VIN_REQUEST_PERIOD_MS = 2000; // time between attempts to get the VIN
+    public static final int STATUS_REQUEST_PERIOD_MS = 1000; // time between requests for odometer, fuel, DTCs
+    public static final int REQUEST_JITTER_MS = 200; // up to this much is added to each period, so requests spread out
+    public static final int REQUEST_DESTINATION_GLOBAL = 0xFF; // our requests are sent to everyone (the tracker counts each against the ECU that answers it)
 
-            if ((j1939_vinAttemptsRemaining > 0) &&   // we have attempts remaining to get the VIN
-               (bus_type_vin == BUS_TYPE_NONE)) // we have not yet retrieved a VIN
-            {
-                if ((everyother & 1) == 0) { // only do this every 2 seconds, instead of every one
-                    j1939.sendRequestVIN();
+    ////////////////////////////////////////////////////////////////////////////
+    // requestSender
+    //  called by the scheduler when a request is due, decides whether it is needed right now and hands it
+    //      to the tracker (which sends it once the ECU has room, and waits for the response)
+    ////////////////////////////////////////////////////////////////////////////
+    RequestScheduler.Sender requestSender = new RequestScheduler.Sender() {
+        @Override
+        public boolean sendRequest(RequestScheduler.Request r) {
+
+            // somebody already asked for this and is waiting for the response, don't ask twice
+            if (requestTracker.isInFlight(r.bus_type, r.message_type, r.destination)) return false;
+
+            if (r.bus_type == BUS_TYPE_J1939) {
+                if ((j1939 == null) || (!j1939.isCommunicating())) return false;
+
+                boolean vin_pending = ((j1939_vinAttemptsRemaining > 0) && (bus_type_vin == BUS_TYPE_NONE));
+
+                if (r.message_type == J1939.PGN_VIN) {
+                    if (!vin_pending) {
+                        r.attempts_remaining = 0; // we have it (or gave up), this request is finished
+                        return false;
+                    }
+                    if (!isHandled(j1939.sendRequestVIN())) return false;
                     j1939_vinAttemptsRemaining--; // remember this attempt
+                    return true;
                 }
-            } else {
-                // This is our normal routine
-                // if we don't have a hi-res odometer, try to get a low-res one.
-                if (!j1939.isHighResOdometerPresent())
-                    j1939.sendRequestOdometerLoRes();
-                j1939.sendRequestTotalFuel();
 
-                j1939.sendRequestCustom(getRawForwardActiveRequests(BUS_TYPE_J1939));
+                if (vin_pending) return false; // try to get the VIN before anything else
 
+                // if we have a hi-res odometer, we don't need the low-res one.
+                if ((r.message_type == J1939.PGN_ODOMETER_LORES) && (j1939.isHighResOdometerPresent())) return false;
+
+                return isHandled(j1939.sendRequestAsync(r.message_type, r.destination, null));
             }
-        } // j1939
 
-        if ((j1587 != null) && (j1587.isCommunicating())) {
+            if (r.bus_type == BUS_TYPE_J1587) {
+                if ((j1587 == null) || (!j1587.isCommunicating())) return false;
 
-            j1587.logStatus();
+                boolean vin_pending = ((j1587_vinAttemptsRemaining > 0) && (bus_type_vin == BUS_TYPE_NONE));
 
-            if ((j1587_vinAttemptsRemaining > 0) &&   // we have attempts remaining to get the VIN
-                    (bus_type_vin == BUS_TYPE_NONE)) // we have not yet retrieved a VIN
-            {
-                if ((everyother & 1) == 0) { // only do this every 2 seconds, instead of every one
-                    j1587.sendRequestVIN();
+                if (r.message_type == J1587.PID_VIN) {
+                    if (!vin_pending) {
+                        r.attempts_remaining = 0; // we have it (or gave up), this request is finished
+                        return false;
+                    }
+                    if (!isHandled(j1587.sendRequestVIN())) return false;
                     j1587_vinAttemptsRemaining--; // remember this attempt
+                    return true;
                 }
-            } else {
-                // This is our normal routine
-                j1587.sendRequestTotalFuel();
-                j1587.sendRequestDTC();
 
-                j1587.sendRequestCustom(getRawForwardActiveRequests(BUS_TYPE_J1587));
+                if (vin_pending) return false; // try to get the VIN before anything else
+
+                return isHandled(j1587.sendRequestAsync(r.message_type, null));
             }
-        } // j1939
 
+            return false;
+        }
 
-        // now forward any raw packets that we received that need to be forwarded locally.
-        forwardRawResults();
+        // the tracker took the request (it was sent, or will be as soon as the ECU has room)
+        boolean isHandled(RequestTracker.Handle handle) {
+            return (handle.getState() == RequestTracker.STATE_SENT) || (handle.getState() == RequestTracker.STATE_QUEUED);
+        }
+    }; // requestSender
 
+    RequestScheduler requestScheduler = new RequestScheduler(requestSender);
 
-    } // pollBuses
+
+    ////////////////////////////////////////////////////////////////////////////
+    // trackerSender
+    //  called by the tracker to put a request on the bus (see J1939.sendRequestAsync(), J1587.sendRequestAsync())
+    ////////////////////////////////////////////////////////////////////////////
+    RequestTracker.Sender trackerSender = new RequestTracker.Sender() {
+        @Override
+        public boolean sendRequest(int bus_type, int message_type, int destination) {
+
+            if (bus_type == BUS_TYPE_J1939) {
+                if (j1939 == null) return false;
+                return j1939.sendRequestPGN(message_type, destination);
+            }
+
+            if (bus_type == BUS_TYPE_J1587) {
+                if (j1587 == null) return false;
+                j1587.requestPid(message_type);
+                return true;
+            }
+
+            return false;
+        }
+    }; // trackerSender
+
+    RequestTracker requestTracker = new RequestTracker(trackerSender);
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // scheduleRequests()
+    //  sets up all the periodic requests for the buses that were started
+    ////////////////////////////////////////////////////////////////////////////
+    void scheduleRequests() {
+
+        long now = clock.elapsedRealtime();
+        requestScheduler.clear();
+
+        if (j1939 != null) {
+            if (j1939_vinAttemptsRemaining > 0)
+                requestScheduler.add(BUS_TYPE_J1939, J1939.PGN_VIN, REQUEST_DESTINATION_GLOBAL, VIN_REQUEST_PERIOD_MS, REQUEST_JITTER_MS, RequestScheduler.ATTEMPTS_UNLIMITED, now);
+            requestScheduler.add(BUS_TYPE_J1939, J1939.PGN_ODOMETER_LORES, REQUEST_DESTINATION_GLOBAL, STATUS_REQUEST_PERIOD_MS, REQUEST_JITTER_MS, RequestScheduler.ATTEMPTS_UNLIMITED, now);
+            requestScheduler.add(BUS_TYPE_J1939, J1939.PGN_FUEL_CONSUMPTION, REQUEST_DESTINATION_GLOBAL, STATUS_REQUEST_PERIOD_MS, REQUEST_JITTER_MS, RequestScheduler.ATTEMPTS_UNLIMITED, now);
+        }
+
+        if (j1587 != null) {
+            if (j1587_vinAttemptsRemaining > 0)
+                requestScheduler.add(BUS_TYPE_J1587, J1587.PID_VIN, REQUEST_DESTINATION_GLOBAL, VIN_REQUEST_PERIOD_MS, REQUEST_JITTER_MS, RequestScheduler.ATTEMPTS_UNLIMITED, now);
+            requestScheduler.add(BUS_TYPE_J1587, J1587.PID_FUEL_CONSUMPTION, REQUEST_DESTINATION_GLOBAL, STATUS_REQUEST_PERIOD_MS, REQUEST_JITTER_MS, RequestScheduler.ATTEMPTS_UNLIMITED, now);
+            requestScheduler.add(BUS_TYPE_J1587, J1587.PID_DIAGNOSTICS, REQUEST_DESTINATION_GLOBAL, STATUS_REQUEST_PERIOD_MS, REQUEST_JITTER_MS, RequestScheduler.ATTEMPTS_UNLIMITED, now);
+        }
+
+        // the "active" raw forwarding requests
+        if (rawForwardRequests != null) {
+            for (RawForwardRequest rfr : rawForwardRequests) {
+                if (!rfr.active) continue;
+                if (((rfr.bus_type == BUS_TYPE_J1939) && (j1939 != null)) ||
+                    ((rfr.bus_type == BUS_TYPE_J1587) && (j1587 != null))) {
+                    requestScheduler.add(rfr.bus_type, rfr.message_type, REQUEST_DESTINATION_GLOBAL, rfr.period_seconds * 1000, REQUEST_JITTER_MS, RequestScheduler.ATTEMPTS_UNLIMITED, now);
+                }
+            }
+        }
+
+    } // scheduleRequests()
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // markReceived()
+    //  called by the buses for every message they receive (after parsing it), so we don't request things that
+    //      we already have, and so that anybody waiting for it is told
+    //  source: the address (J1939) or MID (J1587) that sent it
+    ////////////////////////////////////////////////////////////////////////////
+    public void markReceived(int bus_type, int message_type, int source) {
+        long now = clock.elapsedRealtime();
+        requestScheduler.markReceived(bus_type, message_type, now);
+        requestTracker.markReceived(bus_type, message_type, source, now);
+    } // markReceived()
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // requestTimer()
+    //  sends any requests that are due
+    ////////////////////////////////////////////////////////////////////////////
+    Runnable requestTimer = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                long now = clock.elapsedRealtime();
+                requestTracker.tick(now); // always time these out, even if we are not sending new ones
+                if (isEnabled)
+                    requestScheduler.tick(now);
+            } catch (Exception e) {
+                Log.e(TAG + ".requestTimer", "Exception: " + e.toString(), e);
+            }
+            try {
+                if (mainHandler != null) {
+                    mainHandler.postDelayed(requestTimer, RequestScheduler.TICK_MS);
+                }
+            } catch (Exception e) {
+                Log.e(TAG + ".requestTimer", "mainHandler Exception: " + e.toString(), e);
+            }
+        } // run()
+    }; // requestTimer()
 
 
 
@@ -339,16 +339,16 @@ public class Io {
     public void restoreCrashData(Crash crash) {
         debounceBadAlternator= crash.readStateInt(Crash.DEBOUNCE_BAD_ALTERNATOR);
         debounceLowBattery= crash.readStateInt(Crash.DEBOUNCE_BAD_LOW_BATTERY);
-        String[] debounces, resets;
-        debounces = crash.readStateArray(Crash.DEBOUNCE_GP_INPUTS_ARRAY);
-        resets = crash.readStateArray(Crash.RESET_GP_INPUTS_ARRAY);
+        int[] debounces, resets;
+        debounces = crash.readStateArrayInt(Crash.DEBOUNCE_GP_INPUTS_ARRAY);
+        resets = crash.readStateArrayInt(Crash.RESET_GP_INPUTS_ARRAY);
 
         int i;
         for (i = 0 ; i < MAX_GP_INPUTS_SUPPORTED && i < debounces.length; i++) {
-            gpInputDebounces[i] = Integer.parseInt(debounces[i]);
+            gpInputDebounces[i] = debounces[i];
         }
         for (i = 0 ; i < MAX_GP_INPUTS_SUPPORTED && i < resets.length; i++) {
-            gpInputResets[i] = Integer.parseInt(resets[i]);
+            gpInputResets[i] = resets[i];
         }
 
         long now = SystemClock.elapsedRealtime() / 1000;
@@ -363,10 +363,10 @@ public class Io {
             ignitionWakeLock = service.power.changeWakeLock(WAKELOCK_IGNITION_NAME, ignitionWakeLock, (int) (l - now));
         }
 
-        String[] gpwakes;
-        gpwakes = crash.readStateArray(Crash.WAKELOCK_ELAPSED_GP_INPUTS_ARRAY);
+        long[] gpwakes;
+        gpwakes = crash.readStateArrayLong(Crash.WAKELOCK_ELAPSED_GP_INPUTS_ARRAY);
         for (i = 0 ; i < MAX_GP_INPUTS_SUPPORTED && i < gpwakes.length; i++) {
-            l = Long.parseLong(gpwakes[i]);
+            l = gpwakes[i];
             confirm = service.config.readParameterInt(Config.SETTING_INPUT_GP1 + i, Config.PARAMETER_INPUT_GP_SECONDS_WAKE);
             if (l == 0) {
                 gpInputWakelocks[i] = service.power.changeWakeLock(WAKELOCK_INPUT_NAME + (i+1), gpInputWakelocks[i], 0);
@@ -11,6 +11,8 @@ import android.content.Intent;
 import android.os.Handler;
 import android.os.SystemClock;
 
+import java.util.Arrays;
+
 public class LocalMessage {
 
     public static final String TAG = "ATS-LocalM";
@@ -26,6 +28,8 @@ public class LocalMessage {
 
     // Raw Bus messages are sent when raw bus data matches the filters
     public static final String BROADCAST_MESSAGE_RAWBUS = "com.micronet.dsc.ats.vehicle.raw";
+    // Batched Raw Bus messages contain every raw result from one poll (if configured instead of one message per result)
+    public static final String BROADCAST_MESSAGE_RAWBUS_BATCH = "com.micronet.dsc.ats.vehicle.raw.batch";
 
 
     public static final int PERIODIC_TIMER_MS = 1000; // broadcast once per second
@@ -75,6 +79,32 @@ public class LocalMessage {
     } // sendRawBusMessage
 
 
+    ////////////////////////////////////////////////////////////////////
+    // sendRawBusMessages()
+    //  sends several raw bus results in a single broadcast
+    //  Each extra is an array with one entry per result (first count entries of the parameters are used),
+    //      except rawData, which holds the data for every result back-to-back (rawDataLength says how much is in each)
+    ////////////////////////////////////////////////////////////////////
+    public void sendRawBusMessages(int count, int[] bus_types, int[] message_types, long[] elapsedRealtimes, int[] sources, int[] data_lengths, byte[] data, int total_data_length) {
+
+        Log.v(TAG, "Sending Raw Bus Messages (" + count + ")");
+
+        // send a local message:
+        Intent ibroadcast = new Intent();
+        ibroadcast.setAction(BROADCAST_MESSAGE_RAWBUS_BATCH);
+        ibroadcast.putExtra("count", count);
+        ibroadcast.putExtra("elapsedRealtime", Arrays.copyOf(elapsedRealtimes, count)); // ms since boot -- time the data is valid
+        ibroadcast.putExtra("busType", Arrays.copyOf(bus_types, count));
+        ibroadcast.putExtra("messageType", Arrays.copyOf(message_types, count));
+        ibroadcast.putExtra("sourceAddress", Arrays.copyOf(sources, count));
+        ibroadcast.putExtra("rawDataLength", Arrays.copyOf(data_lengths, count));
+        ibroadcast.putExtra("rawData", Arrays.copyOf(data, total_data_length));
+
+        service.context.sendBroadcast(ibroadcast);
+
+    } // sendRawBusMessages()
+
+
     public void sendChangeMessage(int event_type_id, byte[] data) {
         // send a Local Message that some value has changed
 
@@ -195,12 +225,55 @@ public class LocalMessage {
         ibroadcast.putExtra("fuelEconomyMetersPerLiter", engineStatus.fuel_mperL);
         ibroadcast.putExtra("lampsBitfield",engineStatus.lamps_bf);
 
+        // Signals from the signal definition file (only the ones we have a valid value for)
+        SignalTable signals = service.engine.signals;
+        int num_signals = 0;
+        for (int i = 0; i < signals.size(); i++) {
+            if (signals.isValidAt(i)) num_signals++;
+        }
+        if (num_signals > 0) {
+            int[] spns = new int[num_signals];
+            double[] values = new double[num_signals];
+            num_signals = 0;
+            for (int i = 0; i < signals.size(); i++) {
+                if (signals.isValidAt(i)) {
+                    spns[num_signals] = signals.getSpnAt(i);
+                    values[num_signals] = signals.getValueAt(i);
+                    num_signals++;
+                }
+            }
+            ibroadcast.putExtra("signalSpns", spns);
+            ibroadcast.putExtra("signalValues", values);
+        }
+
+        // J1587 parameters (only the ones we have a valid value for)
+        J1587PidTable pidValues = service.engine.pidValues;
+        int num_pids = 0;
+        for (int i = 0; i < pidValues.size(); i++) {
+            if (pidValues.isValid(pidValues.getPidAt(i))) num_pids++;
+        }
+        if (num_pids > 0) {
+            int[] pids = new int[num_pids];
+            double[] values = new double[num_pids];
+            num_pids = 0;
+            for (int i = 0; i < pidValues.size(); i++) {
+                int pid = pidValues.getPidAt(i);
+                if (pidValues.isValid(pid)) {
+                    pids[num_pids] = pid;
+                    values[num_pids] = pidValues.getValue(pid, 0);
+                    num_pids++;
+                }
+            }
+            ibroadcast.putExtra("j1587Pids", pids);
+            ibroadcast.putExtra("j1587PidValues", values);
+        }
+
         // Add DTCs
 
         ibroadcast.putExtra("numDtcs", service.engine.current_dtcs.size());
 
         int dtc_index = 0;
-        for (Engine.EngineDtc dtc : service.engine.current_dtcs) {
+        for (EngineDtc dtc : service.engine.current_dtcs) {
             long[] dtc_array = new long[] {0,0,0};
             dtc_array[0] = dtc.bus_type;
             dtc_array[1] = dtc.dtc_value;
@@ -22,7 +22,7 @@ import android.os.StrictMode;
 import android.os.SystemClock;
 
 
-public class MainService extends Service {
+public class MainService extends Service implements CodecHost {
 
     /////////////////////////////////////
     // Global Configuration constants used during release and debugging.
@@ -97,6 +97,7 @@ public class MainService extends Service {
     Position position;
     Engine engine;
     LocalMessage local;
+    SequenceAllocator sequence;
 
     static boolean isUnitTesting = false; // this is set when we unit test to deal with threading, etc..
     static MainService initializedServiceInstance = null; // keep track of the last initialized service instance
@@ -145,6 +146,7 @@ public class MainService extends Service {
         codemap.open();
 
         state = new State(context);
+        sequence = new SequenceAllocator(state);
 
         local = new LocalMessage(this);
 
@@ -177,6 +179,7 @@ public class MainService extends Service {
             //      |1 = configuration.xml replaced
             //      |2 = moeventcodes.xml replaced
             //      |4 = mteventcodes.xml replaced
+            //      |8 = signals.csv replaced
             addEventWithExtra(EventType.EVENT_TYPE_CONFIGURATION_REPLACED,
                     (config_file_types_changed)
             );
@@ -331,6 +334,7 @@ public class MainService extends Service {
             final int ping_id = intent.getIntExtra(ExternalReceiver.EXTERNAL_BROADCAST_PING, 0);
             final int payload_id = intent.getIntExtra(ExternalReceiver.EXTERNAL_SEND_PAYLOAD, 0);
             final int resetrb_id = intent.getIntExtra(ExternalReceiver.EXTERNAL_BROADCAST_RESETRB_REPLY, 0);
+            final int replay_id = intent.getIntExtra(ReplayReceiver.EXTERNAL_REPLAY_CAPTURE, 0);
 
             if (heartbeat_id == 1) {
                 // this was started by a heartbeat alarm, we want to acquire a lock and trigger an event
@@ -465,6 +469,19 @@ public class MainService extends Service {
                 if ((payload.length > 0) && (payload.length <= ExternalReceiver.MAX_PAYLOAD_DATA_SIZE)) { // safety
                     addEventWithData(EventType.EVENT_TYPE_CUSTOM_PAYLOAD, payload);
                 }
+            } else if (replay_id == 1) {
+
+                if (!isAlreadyRunning) { // don't clutter logs up
+                    Log.v(TAG, " (Started From Replay Request)");
+                } else {
+                    doRegularSetup = false;
+                }
+
+                String path = intent.getStringExtra(ReplayReceiver.EXTERNAL_REPLAY_CAPTURE_DATA_PATH);
+                int speed = intent.getIntExtra(ReplayReceiver.EXTERNAL_REPLAY_CAPTURE_DATA_SPEED, 1);
+                if ((path != null) && (engine != null)) {
+                    engine.startReplay(path, speed);
+                }
             } else {
                 Log.i(TAG, " (Started From Other/Unknown Intent)");
                 // If the service can be started by another app (such as kiosk) or user on boot,
@@ -492,7 +509,7 @@ public class MainService extends Service {
 
         if (doTriggerRestartEvent) {
             clearEventSequenceIdIfNeeded();
-            byte[] data = Codec.dataForServiceRestart(restart_reason);
+            byte[] data = Codec.dataForServiceRestart(BuildConfig.VERSION_CODE, restart_reason);
             addEventWithData(EventType.EVENT_TYPE_RESTART, data); // service restarted
         }
 
@@ -614,6 +631,9 @@ public class MainService extends Service {
         io.destroy();
         ota.destroy();
 
+        // anything saved above must be on disk before the process can be killed
+        state.flush();
+
         // move us to the background
         setBackground();
     } // shutdownService()
@@ -681,12 +701,9 @@ public class MainService extends Service {
     void queueEventWithData(int event_type_id, byte[] data) {
 
         try {
-            int i;
-            for (i = 0; i < EventType.DISABLED_EVENTS.length; i++) {
-                if (EventType.DISABLED_EVENTS[i] == event_type_id) {
-                    // This event is disabled and should be silently ignored
-                    return;
-                }
+            if ((config.getEventRoute(event_type_id) & Config.EVENT_ROUTE_DISABLED) != 0) {
+                // This event is disabled and should be silently ignored
+                return;
             }
 
 
@@ -696,20 +713,9 @@ public class MainService extends Service {
             item.additional_data_bytes = data;
 
             // get the sequence ID to use.
+            item.sequence_id = sequence.next();
 
-
-            synchronized (this) {
-                int seq = state.readState(State.COUNTER_MESSAGE_SEQUENCE_INDEX);
-                item.sequence_id = seq;
-
-                // Determine the next sequence ID
-                int new_sequence_id = seq + 1;
-                if ((new_sequence_id & Codec.SEQUENCE_ID_RECEIVE_MASK) == 0) {
-                    // don't allow sequence IDs where the mask bits are all 0.
-                    new_sequence_id++;
-                }
-                state.writeState(State.COUNTER_MESSAGE_SEQUENCE_INDEX, new_sequence_id);
-            }
+            Trace.record(Trace.CODE_EVENT_QUEUED, event_type_id, item.sequence_id);
 
 
             // save needed Information from time-of trigger
@@ -735,35 +741,28 @@ public class MainService extends Service {
     // other aliases
     public void addEventWithData(int event_type_id, byte[] data) {
         Log.d(TAG, "Triggered Event " + event_type_id);
-        local.sendChangeMessage(event_type_id, data);
 
-        if (config.shouldSendOTA(event_type_id)) { // send this message to the servers ?
+        int route = config.getEventRoute(event_type_id);
+
+        if ((route & Config.EVENT_ROUTE_LOCAL) != 0) {
+            local.sendChangeMessage(event_type_id, data);
+        }
+
+        if ((route & Config.EVENT_ROUTE_OTA) != 0) { // send this message to the servers ?
             queueEventWithData(event_type_id, data);
         }
 
     }
     public void addEventWithExtra(int event_type_id, int extra) {
 
-        Log.d(TAG, "Triggered Event " + event_type_id);
-
         byte[] data = new byte[1];
         data[0] = (byte) (extra & 0xFF);
-        local.sendChangeMessage(event_type_id, data);
-
-        if (config.shouldSendOTA(event_type_id)) { // send this message to the servers ?
-            queueEventWithData(event_type_id, data);
-        }
+        addEventWithData(event_type_id, data);
 
     }
     public void addEvent(int event_type_id) {
 
-        Log.d(TAG, "Triggered Event " + event_type_id);
-
-        local.sendChangeMessage(event_type_id, null);
-
-        if (config.shouldSendOTA(event_type_id)) { // send this message to the servers ?
-            queueEventWithData(event_type_id, null);
-        }
+        addEventWithData(event_type_id, null);
 
     } // addEvent
 
@@ -773,7 +772,7 @@ public class MainService extends Service {
     //  Resets the Message Sequence ID to 0
     ////////////////////////////////////
     void clearEventSequenceIdNow() {
-        state.writeState(State.COUNTER_MESSAGE_SEQUENCE_INDEX, 0);
+        sequence.reset();
     } // clearEventSequenceId()
 
 
@@ -791,6 +790,23 @@ public class MainService extends Service {
     } // clearSequenceIdIfNeeded()
 
 
+    ////////////////////////////////////////////////////////////////////
+    // CodecHost: what the Codec needs to encode and decode messages
+    ////////////////////////////////////////////////////////////////////
+    public String getDeviceId() { return io.getDeviceId(); }
+    public int mapMoEventCode(int internal_event_code) { return codemap.mapMoEventCode(internal_event_code); }
+    public int mapMtEventCode(int external_event_code) { return codemap.mapMtEventCode(external_event_code); }
+    public boolean shouldSendCurrentCell() { return SHOULD_SEND_CURRENT_CELL; }
+
+    public String getVin() { return engine.vin; }
+    public long getOdometer_m() { return engine.status.odometer_m; }
+    public long getFuelConsumption_mL() { return engine.status.fuel_mL; }
+    public long getFuelEconomy_mperL() { return engine.status.fuel_mperL; }
+    public byte getBusCommunicating() { return engine.getBusCommunicating(); }
+
+    public long getNextHeartbeatTime_s() { return state.readStateLong(State.NEXT_HEARTBEAT_TIME_S); }
+
+
 
 
     /////////////////////////////////////////////////////////////////////////
@@ -851,7 +867,7 @@ public class MainService extends Service {
 
 
     // place to store tha reboot status from the RTC
-    Power.RTCRebootStatusClass rtcRebootStatusClass = null;
+    Codec.RTCRebootStatusClass rtcRebootStatusClass = null;
     /////////////////////////////////////////////////////////////////////////
     // sendBootMessageAfterTimeout()
     //  called at startup, sends a Boot Message after some time elapses to get the data that needs to be incorporated
@@ -888,7 +904,7 @@ public class MainService extends Service {
         long uptime_minutes = SystemClock.elapsedRealtime()/ 1000/60;
         Log.d(TAG, "Elapsed realTime minutes since kernel boot = " + uptime_minutes);
 
-        byte[] data = Codec.dataForSystemBoot(io_boot_state, rtcRebootStatusClass, (int) uptime_minutes);
+        byte[] data = Codec.dataForSystemBoot(BuildConfig.VERSION_CODE, io_boot_state, rtcRebootStatusClass, (int) uptime_minutes);
         addEventWithData(EventType.EVENT_TYPE_REBOOT, data); // system booted
     } // sendBootMessageNow()
 
@@ -976,6 +992,9 @@ public class MainService extends Service {
                         sent_iothread_jam_message = true;
                     }
 
+                    // keep what led up to this
+                    Trace.dump(Trace.REASON_WATCHDOG);
+
                     // restart the io service process
                     io.restartIosProcess();
 
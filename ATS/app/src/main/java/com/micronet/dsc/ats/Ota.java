@@ -29,6 +29,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 public class Ota {
@@ -238,25 +239,15 @@ public class Ota {
 
 
 
-    static class ConnectInfo {
-        ConnectInfo() {}
-        String networkOperator;
-        int phoneType;
-        int networkType;
-        int dataState;
-        boolean isRoaming;
-        int signalStrength;
-    }
-
     ///////////////////////////////////////////////////
     // getConnectInfo()
     //  get information about the GSM connection
     ///////////////////////////////////////////////////
-    public ConnectInfo getConnectInfo() {
+    public Codec.ConnectInfo getConnectInfo() {
 
         Log.vv(TAG, "getConnectInfo()");
 
-        ConnectInfo connectInfo = new ConnectInfo();
+        Codec.ConnectInfo connectInfo = new Codec.ConnectInfo();
 
         TelephonyManager telephonyManager = (TelephonyManager) service.context.getSystemService(Context.TELEPHONY_SERVICE);
 
@@ -411,7 +402,7 @@ public class Ota {
     public void populateQueueItem(QueueItem item) {
         try {
 
-            ConnectInfo connectInfo = getConnectInfo();
+            Codec.ConnectInfo connectInfo = getConnectInfo();
 
             item.is_roaming = connectInfo.isRoaming;
             item.signal_strength = (byte) connectInfo.signalStrength;
@@ -1086,6 +1077,14 @@ public class Ota {
             service.power.resetFotaUpdater();
             sendAck(server_number, item);
         } else
+        if (item.event_type_id == EventType.EVENT_TYPE_TRACE_DUMP) {
+            Log.v(TAG, "Processing message: TRACE-DUMP");
+            if (Trace.dumpWithVbs(service.context, Trace.REASON_REQUEST) == null) {
+                sendNak(server_number, Codec.NAK_ERROR_IN_SAVING, item);
+                return false;
+            }
+            sendAck(server_number, item);
+        } else
         if (item.event_type_id == EventType.EVENT_TYPE_CLEAR_ODOMETER) {
             Log.v(TAG, "Processing message: CLEAR-ODOMETER");
             service.position.clearOdometer();
@@ -1096,18 +1095,24 @@ public class Ota {
 
             Log.v(TAG, "Processing message: MoRemapW");
             //additional data bytes contains the internal event code followed by the remapped value
+            //  (or several of these pairs, which are all written at once)
 
             if ((item.additional_data_bytes == null) ||
-                    (item.additional_data_bytes.length != 2)) {
+                    (item.additional_data_bytes.length < 2) ||
+                    (item.additional_data_bytes.length % 2 != 0)) {
                 // send a NAK
                 sendNak(server_number, Codec.NAK_MISSING_REQUIRED_DATA, item);
                 return false;
             } else { // acceptable command
 
-                int internal_event_code, external_event_code;
-                internal_event_code = item.additional_data_bytes[0];
-                external_event_code = item.additional_data_bytes[1];
-                if (!service.codemap.writeMoEventCode(internal_event_code, external_event_code)) {
+                int count = item.additional_data_bytes.length / 2;
+                int[] internal_event_codes = new int[count];
+                int[] external_event_codes = new int[count];
+                for (int i = 0; i < count; i++) {
+                    internal_event_codes[i] = item.additional_data_bytes[i * 2] & 0xFF;
+                    external_event_codes[i] = item.additional_data_bytes[i * 2 + 1] & 0xFF;
+                }
+                if (!service.codemap.writeMoEventCodes(internal_event_codes, external_event_codes, false)) {
                     sendNak(server_number, Codec.NAK_ERROR_IN_SAVING, item);
                 } else {
                     sendAck(server_number, item);
@@ -1117,20 +1122,26 @@ public class Ota {
         if (item.event_type_id == EventType.EVENT_TYPE_MTREMAPW) {
             // process this configuration write command
 
-            Log.v(TAG, "Processing message: MoRemapW");
+            Log.v(TAG, "Processing message: MtRemapW");
             //additional data bytes contains the external event code followed by the remapped value
+            //  (or several of these pairs, which are all written at once)
 
             if ((item.additional_data_bytes == null) ||
-                    (item.additional_data_bytes.length != 2)) {
+                    (item.additional_data_bytes.length < 2) ||
+                    (item.additional_data_bytes.length % 2 != 0)) {
                 // send a NAK
                 sendNak(server_number, Codec.NAK_MISSING_REQUIRED_DATA, item);
                 return false;
             } else { // acceptable command
 
-                int internal_event_code, external_event_code;
-                external_event_code = item.additional_data_bytes[0];
-                internal_event_code = item.additional_data_bytes[1];
-                if (!service.codemap.writeMtEventCode(external_event_code, internal_event_code)) {
+                int count = item.additional_data_bytes.length / 2;
+                int[] external_event_codes = new int[count];
+                int[] internal_event_codes = new int[count];
+                for (int i = 0; i < count; i++) {
+                    external_event_codes[i] = item.additional_data_bytes[i * 2] & 0xFF;
+                    internal_event_codes[i] = item.additional_data_bytes[i * 2 + 1] & 0xFF;
+                }
+                if (!service.codemap.writeMtEventCodes(external_event_codes, internal_event_codes, false)) {
                     sendNak(server_number, Codec.NAK_ERROR_IN_SAVING, item);
                 } else {
                     sendAck(server_number, item);
@@ -1184,6 +1195,68 @@ public class Ota {
                 } // write new setting value
             } // acceptable command
 
+        } else
+        if (item.event_type_id == EventType.EVENT_TYPE_CONFIGW_MULTI) {
+            // process a write of many configuration settings at once
+
+            Log.v(TAG, "Received message: ConfigW Multi");
+            //additional data bytes contains entries of: setting index (1 byte), value length (1 byte), value
+            //  a length of 0 deletes the setting. The whole batch is checked before any of it is written.
+
+            if ((item.additional_data_bytes == null) ||
+                (item.additional_data_bytes.length < 2)) {
+                sendNak(server_number, Codec.NAK_MISSING_REQUIRED_DATA, item);
+                return false;
+            }
+
+            ArrayList<Integer> setting_ids = new ArrayList<Integer>();
+            ArrayList<String> setting_values = new ArrayList<String>();
+
+            int i = 0;
+            while (i < item.additional_data_bytes.length) {
+                if (i + 2 > item.additional_data_bytes.length) {
+                    sendNak(server_number, Codec.NAK_MISSING_REQUIRED_DATA, item);
+                    return false;
+                }
+                int setting_id = item.additional_data_bytes[i] & 0xFF;
+                int length = item.additional_data_bytes[i + 1] & 0xFF;
+                i += 2;
+
+                if (i + length > item.additional_data_bytes.length) {
+                    sendNak(server_number, Codec.NAK_MISSING_REQUIRED_DATA, item);
+                    return false;
+                }
+                if (!service.config.settingExists(setting_id)) {
+                    sendNak(server_number, Codec.NAK_BAD_SETTING_ID, item);
+                    return false;
+                }
+
+                String setting_value = null; // delete
+                if (length > 0) {
+                    try {
+                        setting_value = new String(item.additional_data_bytes, i, length, "ISO-8859-1");
+                    } catch (Exception e) {
+                        sendNak(server_number, Codec.NAK_BAD_VALUE_ENCODING, item);
+                        return false;
+                    }
+                }
+                i += length;
+
+                setting_ids.add(setting_id);
+                setting_values.add(setting_value);
+            }
+
+            int[] ids = new int[setting_ids.size()];
+            for (int j = 0; j < ids.length; j++) {
+                ids[j] = setting_ids.get(j);
+            }
+
+            if (!service.config.writeSettings(ids, setting_values.toArray(new String[setting_values.size()]))) {
+                sendNak(server_number, Codec.NAK_ERROR_IN_SAVING, item);
+            } else {
+                sendAck(server_number, item);
+            }
+
         } else {
             // send a NAK for unknown type
             sendNak(server_number, Codec.NAK_UNKNOWN_COMMAND, item);
@@ -1215,7 +1288,7 @@ public class Ota {
         Log.d(TAG, "sendNak(" + servers[server_number].name + ") Reason=" + nak_reason);
 
         // get extra info to incorporate into the message
-        ConnectInfo connectInfo = getConnectInfo();
+        Codec.ConnectInfo connectInfo = getConnectInfo();
 
 
         QueueItem queueItem = new QueueItem();
@@ -1252,7 +1325,7 @@ public class Ota {
         Log.d(TAG, "sendAck(" + servers[server_number].name + ")");
 
         // get extra info to incorporate into the message
-        ConnectInfo connectInfo = getConnectInfo();
+        Codec.ConnectInfo connectInfo = getConnectInfo();
 
 
         QueueItem queueItem = new QueueItem();
@@ -1286,7 +1359,7 @@ public class Ota {
         Log.v(TAG, "sendMessage(" + servers[server_number].name + ")");
 
         // get extra info to incorporate into the message
-        ConnectInfo connectInfo = getConnectInfo();
+        Codec.ConnectInfo connectInfo = getConnectInfo();
 
         Codec codec = new Codec(service);
         Codec.OutgoingMessage encodedMessage = codec.encodeMessage(queueItem, connectInfo);
@@ -437,6 +437,7 @@ public class Position {
                 exec.scheduleAtFixedRate(new IntegratorTask(), 1000, 1000,  TimeUnit.MILLISECONDS); // 1 second
                 exec.scheduleAtFixedRate(new DifferentiatorTask(), 100, 100,  TimeUnit.MILLISECONDS); // 1/10th second
 
+                Config.addChangeListener(configListener, DEBOUNCED_SETTINGS);
                 }
             }
         ); // post
@@ -452,6 +453,8 @@ public class Position {
 
         Log.v(TAG, "stop()");
 
+        Config.removeChangeListener(configListener);
+
         if (exec != null)
             exec.shutdown();
 
@@ -522,21 +525,21 @@ public class Position {
         debounceBraking = crash.readStateInt(Crash.DEBOUNCE_BRAKING);
         debounceCornering = crash.readStateInt(Crash.DEBOUNCE_CORNERING);
 
-        String[] ping_array;
+        int[] ping_array;
 
-        ping_array = crash.readStateArray(Crash.LAST_PING_DATA_ARRAY);
+        ping_array = crash.readStateArrayInt(Crash.LAST_PING_DATA_ARRAY);
 
         if (ping_array.length >= 5) {
-            pingAccumulator.seconds_moving = Integer.parseInt(ping_array[0]);
-            pingAccumulator.seconds_not_moving = Integer.parseInt(ping_array[1]);
-            pingAccumulator.meters = Integer.parseInt(ping_array[2]);
-            pingAccumulator.absolute_bearing = Integer.parseInt(ping_array[3]);
-            pingAccumulator.is_bearing_valid = (Integer.parseInt(ping_array[4]) == 1 ? true : false);
+            pingAccumulator.seconds_moving = ping_array[0];
+            pingAccumulator.seconds_not_moving = ping_array[1];
+            pingAccumulator.meters = ping_array[2];
+            pingAccumulator.absolute_bearing = ping_array[3];
+            pingAccumulator.is_bearing_valid = (ping_array[4] == 1 ? true : false);
             pingAccumulator.was_moving = false;
             pingAccumulator.is_moving_valid = false;
             if (ping_array.length >= 7) {
-                pingAccumulator.was_moving = (Integer.parseInt(ping_array[5]) == 1 ? true : false);
-                pingAccumulator.is_moving_valid = (Integer.parseInt(ping_array[6]) == 1 ? true : false);
+                pingAccumulator.was_moving = (ping_array[5] == 1 ? true : false);
+                pingAccumulator.is_moving_valid = (ping_array[6] == 1 ? true : false);
             }
 
         }
@@ -547,6 +550,51 @@ public class Position {
 
 
 
+    //////////////////////////////////////////////////////////////////
+    // configListener
+    //  The thresholds are read from the configuration every time they are checked, so a new value is used right away.
+    //  But a debounce that already started would still run for the old time, so start it over with the new one.
+    //  (Idling counts up and compares with the setting each second, so it doesn't need this.)
+    //////////////////////////////////////////////////////////////////
+    static final int[] DEBOUNCED_SETTINGS = {
+            Config.SETTING_SPEEDING,
+            Config.SETTING_ACCELERATING,
+            Config.SETTING_BRAKING,
+            Config.SETTING_CORNERING
+    };
+
+    Config.ChangeListener configListener = new Config.ChangeListener() {
+        @Override
+        public void onSettingsChanged(final int[] setting_ids) {
+            ScheduledThreadPoolExecutor e = exec;
+            if (e == null) return;
+            try {
+                // the debounce counters belong to the executor's thread
+                e.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        restartDebounce(setting_ids);
+                    }
+                });
+            } catch (Exception ex) {
+                // we are stopping, nothing to restart
+            }
+        }
+    }; // configListener
+
+
+    void restartDebounce(int[] setting_ids) {
+        for (int setting_id : setting_ids) {
+            switch (setting_id) {
+                case Config.SETTING_SPEEDING: debounceSpeeding = 0; break;
+                case Config.SETTING_ACCELERATING: debounceAccelerating = 0; break;
+                case Config.SETTING_BRAKING: debounceBraking = 0; break;
+                case Config.SETTING_CORNERING: debounceCornering = 0; break;
+            }
+        }
+    } // restartDebounce()
+
+
     /////////////////////////////////////////////////
     // startTrip()
     //   indicates a new trip is starting (e.g. ignition turned on). (accumulated ping should clear)
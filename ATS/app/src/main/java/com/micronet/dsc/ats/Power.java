@@ -59,9 +59,9 @@ public class Power {
     private static final String WAKELOCK_SCHEDULED_NAME = "ATS_SCHEDULEDWAKEUP";
 
 
-    public static final String RESTART_REASON_WATCHDOG = "watchdog"; // restarted by a watchdog
-    public static final String RESTART_REASON_OTA_REQUEST = "ota"; // restarted by a request over OTA/UDP
-    public static final String RESTART_REASON_LOCAL_REQUEST = "local"; // restarted by a local app via bind or broadcast
+    public static final String RESTART_REASON_WATCHDOG = Codec.RESTART_REASON_NAME_WATCHDOG; // restarted by a watchdog
+    public static final String RESTART_REASON_OTA_REQUEST = Codec.RESTART_REASON_NAME_OTA_REQUEST; // restarted by a request over OTA/UDP
+    public static final String RESTART_REASON_LOCAL_REQUEST = Codec.RESTART_REASON_NAME_LOCAL_REQUEST; // restarted by a local app via bind or broadcast
 
 
 
@@ -863,13 +863,7 @@ public class Power {
     public static final int HWSTAT_BIT_RTC_DISCONNECTED = 0x010000;
     public static final int HWSTAT_BIT_RTC_ALARMED = 0x020000;
 
-    public static class RTCRebootStatusClass {
-        boolean hasRTCcleared;
-        boolean hasRTCtriggered;
-    }
-
-
-    static RTCRebootStatusClass getRTCRebootStatus() {
+    static Codec.RTCRebootStatusClass getRTCRebootStatus() {
 
         Log.i(TAG, "Retrieving RTC reboot status ");
 
@@ -895,7 +889,7 @@ public class Power {
 
         Log.d(TAG, "RTC reboot status= " + (resultstr == null ? "NULL" : resultstr) + " parsed as " + resultlong);
 
-        RTCRebootStatusClass status = new RTCRebootStatusClass();
+        Codec.RTCRebootStatusClass status = new Codec.RTCRebootStatusClass();
 
 
         if ((resultlong & HWSTAT_BIT_RTC_DISCONNECTED) > 0) {
@@ -1276,6 +1270,10 @@ public class Power {
         i.setAction(ALARM_RESTART_NAME);
         i.putExtra("reason", restart_reason);
 
+        // keep what led up to a watchdog restart (a requested restart is not a failure, so nothing to dump)
+        if (RESTART_REASON_WATCHDOG.equals(restart_reason)) {
+            Trace.dumpWithVbs(service.context, Trace.REASON_WATCHDOG);
+        }
 
         service.shutdownService(true); // save crash data too
 
@@ -0,0 +1,244 @@
+/////////////////////////////////////////////////////////////
+// ReplayHost:
+//  Replays a VBS bus capture (see BusReplay) into its own J1939 and J1587 decoders, on its own thread.
+//  This is the BusHost for those decoders: nothing they decode reaches the Engine (no events, no state or status
+//      changes, no raw forwarding), nothing is transmitted on the bus, and the main thread is never held up.
+//  What was decoded is logged when the replay finishes.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.File;
+
+
+public class ReplayHost implements BusHost {
+
+    private static final String TAG = "ATS-ReplayHost";
+
+    Engine engine;
+    Clock clock = AndroidPlatform.CLOCK;
+
+    HandlerThread thread = null;
+    TaskScheduler scheduler = null; // runs on the thread
+
+    // everything below is only used on the thread
+    BusReplay replay = null;
+    J1939 j1939 = null;
+    J1587 j1587 = null;
+    boolean isFinished = false;
+
+    // settings, copied from the engine when the replay is created (the engine reads these on the main thread)
+    int parkingBrakeConflictState;
+    int j1939FramesPerBurst;
+    int j1939Connections;
+    int j1939SpeedKbs;
+
+    // remembered J1939 state, starts from the engine's but changes are kept here
+    boolean j1939BusVerified;
+    int j1939BusType;
+    int j1939BusAddress;
+    String j1939BitrateHistory;
+
+    SignalTable signals = new SignalTable();
+    J1587PidTable pidValues = new J1587PidTable();
+    RequestTracker requestTracker = new RequestTracker(new RequestTracker.Sender() {
+        @Override
+        public boolean sendRequest(int bus_type, int message_type, int destination) {
+            return true; // nothing is transmitted during a replay
+        }
+    });
+
+    BusOutput busOutput = new BusOutput() {
+        @Override
+        public void sendCANFrame(int id, byte[] data) { }
+
+        @Override
+        public void sendJ1708Frame(int id, int priority, byte[] data) { }
+    };
+
+    BusLink busLink = new BusLink() { // frames come from the capture, not from VBS
+        @Override
+        public void startCAN(int bitrate, boolean skipVerify, boolean autoDetect, int[] ids, int[] masks, CanReceiver receiver) { }
+
+        @Override
+        public void stopCAN() { }
+
+        @Override
+        public void startJ1708(J1708Receiver receiver) { }
+
+        @Override
+        public void stopJ1708() { }
+    };
+
+    // results
+    String vin = "";
+    int bus_type_vin = BUS_TYPE_NONE;
+    long odometer_m = -1;
+    long fuel_mL = -1;
+    long fuel_mperL = -1;
+    int dtcReports = 0;
+
+
+    public ReplayHost(Engine engine) {
+        this.engine = engine;
+
+        parkingBrakeConflictState = engine.getParkingBrakeConflictState();
+        j1939FramesPerBurst = engine.getJ1939FramesPerBurst();
+        j1939Connections = engine.getJ1939Connections();
+        j1939SpeedKbs = engine.getJ1939SpeedKbs();
+
+        j1939BusVerified = engine.isJ1939BusVerified();
+        j1939BusType = engine.getJ1939BusType();
+        j1939BusAddress = engine.getJ1939BusAddress();
+        j1939BitrateHistory = engine.getJ1939BitrateHistory();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // start()
+    //  starts the thread and replays the capture (a file or a directory of files) on it
+    //  speed: BusReplay.SPEED_MAX to replay everything as fast as possible, or N to replay at N times the captured speed
+    ////////////////////////////////////////////////////////////////////
+    public void start(final String path, final int speed) {
+
+        thread = new HandlerThread(TAG);
+        thread.start();
+        scheduler = new AndroidPlatform.HandlerScheduler(new Handler(thread.getLooper()));
+
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    signals.loadFile(new File(Config.SIGNALS_STANDARD_PATH, SignalTable.FILENAME));
+
+                    j1939 = new J1939(ReplayHost.this, true, 0);
+                    j1587 = new J1587(ReplayHost.this, true);
+                    j1939.start();
+                    j1587.start();
+
+                    replay = new BusReplay(j1939, j1587);
+                    replay.clock = clock;
+                    if (!replay.open(new File(path))) {
+                        Log.w(TAG, "Nothing to replay in " + path);
+                        finishTask.run();
+                        return;
+                    }
+
+                    Log.i(TAG, "Replaying " + path);
+                    if (speed == BusReplay.SPEED_MAX) {
+                        replay.replayAll();
+                        finishTask.run();
+                    } else {
+                        replay.finishedTask = finishTask;
+                        replay.start(scheduler, speed);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG + ".startTask", "Exception: " + e.toString(), e);
+                    finishTask.run();
+                }
+            }
+        });
+    } // start()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // stop()
+    //  stops the replay (if it has not finished) and the thread
+    ////////////////////////////////////////////////////////////////////
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.post(finishTask); // after the replay has started, if it hasn't yet
+        }
+    } // stop()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // finishTask()
+    //  closes the replay, stops the decoders and the thread (runs on the thread)
+    ////////////////////////////////////////////////////////////////////
+    Runnable finishTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                if (isFinished) return;
+                isFinished = true;
+
+                if (replay != null) replay.close();
+                if (j1587 != null) j1587.stop(); // j1587 is stopped before j1939
+                if (j1939 != null) j1939.stop();
+
+                logResults();
+            } catch (Exception e) {
+                Log.e(TAG + ".finishTask", "Exception: " + e.toString(), e);
+            }
+            thread.quit();
+        }
+    }; // finishTask()
+
+
+    void logResults() {
+        int valid_signals = 0;
+        for (int i = 0; i < signals.size(); i++) {
+            if (signals.isValidAt(i)) valid_signals++;
+        }
+
+        Log.i(TAG, "Replay decoded: VIN " + (vin.isEmpty() ? "none" : vin + " (" + getBusName(bus_type_vin) + ")") +
+                ", odometer " + odometer_m + " m, fuel " + fuel_mL + " mL, economy " + fuel_mperL + " m/L, " +
+                dtcReports + " DTC reports, " + valid_signals + " of " + signals.size() + " signals");
+    } // logResults()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // BusHost: what the replay decoders get
+    ////////////////////////////////////////////////////////////////////
+    public Clock getClock() { return clock; }
+    public TaskScheduler createScheduler() { return scheduler; }
+    public BusOutput getBusOutput() { return busOutput; }
+    public BusLink getBusLink() { return busLink; }
+    public boolean isUnitTesting() { return false; }
+
+    public SignalTable getSignals() { return signals; }
+    public J1587PidTable getPidValues() { return pidValues; }
+    public RequestTracker getRequestTracker() { return requestTracker; }
+    public String getBusName(int bus_type) { return engine.getBusName(bus_type); }
+
+    public void setBusDetected(int bus_type) { }
+    public void clearBusDetected(int bus_type) { }
+    public void setBusCommunicating(int bus_type) { }
+    public void clearBusCommunicating(int bus_type) { }
+
+    public String checkVin(int bus_type, String newVin) { vin = newVin; bus_type_vin = bus_type; return vin; }
+    public String getVin() { return vin; }
+    public int getVinBusType() { return bus_type_vin; }
+    public boolean checkParkingBrake(int bus_type, boolean on) { return on; }
+    public boolean checkReverseGear(int bus_type, boolean on) { return on; }
+    public long checkOdometer(int bus_type, long new_odometer_m) { odometer_m = new_odometer_m; return odometer_m; }
+    public long checkFuelConsumption(int bus_type, long new_fuel_mL) { fuel_mL = new_fuel_mL; return fuel_mL; }
+    public long checkFuelEconomy(int bus_type, long new_fuel_mperL) { fuel_mperL = new_fuel_mperL; return fuel_mperL; }
+    public long checkLamps(int bus_type, int new_lamps_bf) { return new_lamps_bf; }
+    public int checkDtcs(int bus_type, long[] newDtcs, int[] newSourceAddresses, int newLampStatus) { dtcReports++; return 0; }
+    public int checkSourceDtcs(int bus_type, int reporter, long[] newDtcs, int[] newSourceAddresses, int count, int newLampStatus) { dtcReports++; return 0; }
+
+    public void checkRawForwarding(int bus_type, int message_type, int source, byte[] data) { }
+    public void checkRawForwarding(int bus_type, int message_type, int source, byte[] data, int data_length) { }
+    public void checkRawForwarding(int bus_type, int message_type, int source, long payload, int dlc) { }
+    public void markReceived(int bus_type, int message_type, int source) { }
+
+    public int getParkingBrakeConflictState() { return parkingBrakeConflictState; }
+    public int getJ1939FramesPerBurst() { return j1939FramesPerBurst; }
+    public int getJ1939Connections() { return j1939Connections; }
+    public int getJ1939SpeedKbs() { return j1939SpeedKbs; }
+
+    public boolean isJ1939BusVerified() { return j1939BusVerified; }
+    public int getJ1939BusType() { return j1939BusType; }
+    public void rememberJ1939BusType(int bus_type) { j1939BusType = bus_type; j1939BusVerified = true; }
+    public int getJ1939BusAddress() { return j1939BusAddress; }
+    public void rememberJ1939BusAddress(int address) { j1939BusAddress = address; }
+    public String getJ1939BitrateHistory() { return j1939BitrateHistory; }
+    public void setJ1939BitrateHistory(String history) { j1939BitrateHistory = history; }
+    public void reportNoAddressAvailable() { }
+
+} // class ReplayHost
@@ -0,0 +1,50 @@
+/////////////////////////////////////////////////////////////
+// ReplayReceiver:
+//  Receives requests to replay a VBS bus capture (for testing decoders off-vehicle)
+//  The sender must hold the REPLAY permission (signature level, see manifest), so only our own tools can ask for this
+/////////////////////////////////////////////////////////////
+package com.micronet.dsc.ats;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.WakefulBroadcastReceiver;
+
+
+public class ReplayReceiver extends WakefulBroadcastReceiver {
+
+    public static final String TAG = "ATS-ReplayReceiver";
+
+
+    // Replay a VBS bus capture into separate decoders (see ReplayHost)
+    public static final String EXTERNAL_REPLAY_CAPTURE = "com.micronet.dsc.ats.replay";
+    public static final String EXTERNAL_REPLAY_CAPTURE_DATA_PATH = "path"; // (String) capture file or directory
+    public static final String EXTERNAL_REPLAY_CAPTURE_DATA_SPEED = "speed"; // (int) 0 = as fast as possible, else N times real-time
+
+
+    @Override
+    public void onReceive(Context context, Intent intent)
+    {
+
+        if (!EXTERNAL_REPLAY_CAPTURE.equals(intent.getAction())) return;
+
+        String path = intent.getStringExtra(EXTERNAL_REPLAY_CAPTURE_DATA_PATH);
+        int speed = intent.getIntExtra(EXTERNAL_REPLAY_CAPTURE_DATA_SPEED, 1);
+
+        if (path == null) {
+            Log.e(TAG, "Replay request rejected: no path");
+            return;
+        }
+
+        Log.d(TAG, "Replay requested: " + path + " speed " + speed);
+
+        // Send intent to service (so service is started if needed)
+        Intent iservice = new Intent(context, MainService.class);
+        iservice.putExtra(EXTERNAL_REPLAY_CAPTURE, 1);
+        iservice.putExtra(EXTERNAL_REPLAY_CAPTURE_DATA_PATH, path);
+        iservice.putExtra(EXTERNAL_REPLAY_CAPTURE_DATA_SPEED, speed);
+        startWakefulService(context, iservice); // wakeful to make sure we don't power down before
+
+    } // OnReceive()
+
+
+} // class
@@ -0,0 +1,129 @@
+/////////////////////////////////////////////////////////////
+// SequenceAllocator:
+//  Hands out the sequence IDs for messages sent to the server
+//
+//  IDs are reserved from the state file in blocks of BLOCK_SIZE: only the end of the reserved block is saved
+//      (and written to disk before any ID from the block is used). IDs within the block come from a counter in memory.
+//  After a restart or crash we continue from the end of the saved block, so an ID that was already used
+//      (and may still be waiting for an ACK) is never used again. The unused rest of the block is skipped.
+//  If the block can't be written to disk, no IDs from it are handed out (next() throws, and tries again the next time).
+//  If the state file was damaged (see State.isStateLost()), the saved value may be old or gone, so we start from at
+//      least a block past it and at least the wall clock in seconds (higher than any ID used before, as long as we
+//      have averaged less than one message per second since the last reset).
+//
+//  As before, IDs whose bits in Codec.SEQUENCE_ID_RECEIVE_MASK are all 0 are skipped (except right after a reset).
+//  IDs are 32 bits and roll over.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class SequenceAllocator {
+
+    private static final String TAG = "ATS-Sequence";
+
+    public static final int BLOCK_SIZE = 256; // IDs reserved with each write to the state file
+
+    State state;
+
+    final AtomicInteger nextId = new AtomicInteger(); // the next ID to hand out
+    volatile int blockEnd; // first ID that is not reserved yet (this is what is saved)
+
+
+    public SequenceAllocator(State state) {
+        this.state = state;
+
+        // anything below the saved value may have been used already
+        int start = state.readState(State.COUNTER_MESSAGE_SEQUENCE_INDEX);
+        if (state.isStateLost()) {
+            start = safeStart(start, System.currentTimeMillis());
+            Log.w(TAG, "State was lost, sequence IDs skip ahead to " + start);
+        }
+        if ((start & Codec.SEQUENCE_ID_RECEIVE_MASK) == 0) start++;
+        synchronized (this) {
+            nextId.set(start);
+            blockEnd = start; // nothing is reserved until it is on disk
+            reserveBlock(start);
+        }
+        Log.v(TAG, "Sequence IDs start at " + start);
+    }
+
+
+    ///////////////////////////////////////////////////
+    // safeStart()
+    //  returns where to start when the saved value can't be trusted: the later of a block past the saved value
+    //  (the most a lost write can have reserved) and the wall clock in seconds
+    ///////////////////////////////////////////////////
+    static int safeStart(int saved, long wall_clock_ms) {
+        int start = saved + BLOCK_SIZE;
+        int floor = (int) (wall_clock_ms / 1000);
+        if (floor - start > 0) start = floor; // (written this way so it still works when the IDs roll over)
+        return start;
+    } // safeStart()
+
+
+    ///////////////////////////////////////////////////
+    // next()
+    //  returns the sequence ID for a new message
+    //  throws IllegalStateException if more IDs are needed and they can't be reserved on disk
+    ///////////////////////////////////////////////////
+    public int next() {
+
+        while (true) {
+            int id = nextId.get();
+
+            if (id - blockEnd >= 0) { // (written this way so it still works when the IDs roll over)
+                // this block is used up
+                synchronized (this) {
+                    id = nextId.get();
+                    if ((id - blockEnd >= 0) && (!reserveBlock(id))) {
+                        throw new IllegalStateException("Unable to reserve sequence IDs from " + id);
+                    }
+                }
+                continue;
+            }
+
+            int after = id + 1;
+            if ((after & Codec.SEQUENCE_ID_RECEIVE_MASK) == 0) {
+                // don't allow sequence IDs where the mask bits are all 0.
+                after++;
+            }
+
+            if (nextId.compareAndSet(id, after)) return id;
+        }
+    } // next()
+
+
+    ///////////////////////////////////////////////////
+    // reset()
+    //  starts the sequence IDs again from 0
+    ///////////////////////////////////////////////////
+    public synchronized void reset() {
+        nextId.set(0);
+        blockEnd = 0;
+        reserveBlock(0);
+    } // reset()
+
+
+    ///////////////////////////////////////////////////
+    // reserveBlock()
+    //  saves that the IDs up to a block past this one may be used, and waits until that is on disk
+    //  returns false if it could not be written (then the block is not reserved)
+    //  call this while holding the lock
+    ///////////////////////////////////////////////////
+    boolean reserveBlock(int from) {
+        int end = from + BLOCK_SIZE;
+        state.writeState(State.COUNTER_MESSAGE_SEQUENCE_INDEX, end);
+        if (!state.flush()) {
+            Log.e(TAG, "Unable to write the state file, sequence IDs from " + from + " are not reserved");
+            return false;
+        }
+        blockEnd = end;
+        return true;
+    } // reserveBlock()
+
+
+} // class SequenceAllocator
@@ -34,6 +34,9 @@ public class ShutdownReceiver extends BroadcastReceiver {
 			Log.d(TAG, "System Shutdown Notification Received");
 		}
 
+		// Power may be cut before the service gets to shut down, so save state now
+		StateStore.flushAll();
+
 		// Send intent to service (to shut itself down)
 		Intent i = new Intent(context, MainService.class);
 		i.putExtra(Power.SHUTDOWN_REQUEST_NAME, 1);
@@ -2,22 +2,21 @@
 // State:
 //  contains saved state-information flags
 //      e.g. flags that have long reset periods or cannot just be figured out again soon after reboot.
+//  Values are kept in memory and written to the file in the background (see StateStore).
 /////////////////////////////////////////////////////////////
 
 package com.micronet.dsc.ats;
 
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.os.Handler;
-import android.os.Looper;
 
 
 public class State {
 
     private static final String TAG = "ATS-State";
 
-    private static final String FILENAMEKEY = "state";
+    private static final String FILENAMEKEY = "state"; // shared preferences used before there was a state file (imported once)
+    private static final String FILENAME = "state.dat";
 
     // I/O
 
@@ -58,7 +57,7 @@ public class State {
 
     // Internal variables
 
-    public static final int COUNTER_MESSAGE_SEQUENCE_INDEX = 100;
+    public static final int COUNTER_MESSAGE_SEQUENCE_INDEX = 100; // end of the block of sequence IDs reserved so far (see SequenceAllocator)
     public static final int NEXT_HEARTBEAT_TIME_S = 101;  // for checking at boot if it could have been caused by heartbeat
                                                           // also used to place data in shutdown message
     public static final int NEXT_SCHEDULEDWAKEUP_TIME_S = 102;  // for checking at boot if it could have been caused by heartbeat
@@ -70,6 +69,7 @@ public class State {
     public static final int J1939_BUS_TYPE = 110;
     public static final int J1939_BUS_ADDRESS = 111;
     public static final int J1939_BUS_VERIFIED = 112; // for storing whether we verified the bus type is correct since last reboot
+    public static final int STRING_J1939_BITRATE_HISTORY = 113; // CAN bitrate of the last few vehicles, "VIN=bitrate|VIN=bitrate", most recent first
 
 
 
@@ -82,13 +82,11 @@ public class State {
     public static final int VERSION_SPECIFIC_CODE = 200; // can be used to see if we executed code needed to run once for this version
 
     Context context;
-    SharedPreferences sharedPref;
+    StateStore store;
 
     public State(Context context) {
         this.context = context;
-        sharedPref = context.getSharedPreferences(
-                FILENAMEKEY, Context.MODE_PRIVATE);
-
+        store = StateStore.open(context, FILENAME, FILENAMEKEY);
     }
 
 
@@ -98,8 +96,29 @@ public class State {
     //  deletes ALL state settings and restores factory default
     ///////////////////////////////////////////////////
     public void clearAll() {
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.clear().commit();
+        store.clear();
+        store.flush();
+    }
+
+
+    ///////////////////////////////////////////////////
+    // flush()
+    //  writes any changed state to the file now, instead of waiting for the background write
+    //  call this before the process might be killed (shutdown, restart, crash)
+    //  returns false if the file could not be written (it is tried again later)
+    ///////////////////////////////////////////////////
+    public boolean flush() {
+        return store.flush();
+    }
+
+
+    ///////////////////////////////////////////////////
+    // isStateLost()
+    //  returns true if the state file was damaged or missing when it was loaded, so values may be older than
+    //  the ones last written, or back to their defaults (see StateStore)
+    ///////////////////////////////////////////////////
+    public boolean isStateLost() {
+        return store.isStateLost();
     }
 
 
@@ -112,11 +131,7 @@ public class State {
     public boolean removeState(final int state_id) {
 
         try {
-            SharedPreferences.Editor editor = sharedPref.edit();
-
-            editor.remove(Integer.toString(state_id));
-            editor.commit();
-
+            store.put(state_id, null);
         } catch (Exception e) {
             Log.e(TAG, "Exception: removeState() " + e.toString(), e );
         }
@@ -133,11 +148,7 @@ public class State {
     public boolean writeState(final int state_id, final int new_value) {
 
         try {
-            SharedPreferences.Editor editor = sharedPref.edit();
-
-            editor.putInt(Integer.toString(state_id), new_value);
-            editor.commit();
-
+            store.put(state_id, new_value);
         } catch (Exception e) {
             Log.e(TAG, "Exception: writeState() " + e.toString(), e );
         }
@@ -148,14 +159,9 @@ public class State {
     public boolean writeStateArray(final int state_id, final byte[] new_value) {
 
         try {
-            SharedPreferences.Editor editor = sharedPref.edit();
-
             String newString;
             newString = Log.bytesToHex(new_value, new_value.length);
-            editor.putString(Integer.toString(state_id), newString);
-
-            editor.commit();
-
+            store.put(state_id, newString);
         } catch (Exception e) {
             Log.e(TAG, "Exception: writeStateArray() " + e.toString(), e );
         }
@@ -166,11 +172,7 @@ public class State {
     public boolean writeStateLong(final int state_id, final long new_value) {
 
         try {
-                SharedPreferences.Editor editor = sharedPref.edit();
-
-                editor.putLong(Integer.toString(state_id), new_value);
-                editor.commit();
-
+            store.put(state_id, new_value);
         } catch (Exception e) {
             Log.e(TAG, "Exception: writeStateLong() " + e.toString(), e );
         }
@@ -181,11 +183,7 @@ public class State {
     public boolean writeStateString(final int state_id, final String new_value) {
 
         try {
-            SharedPreferences.Editor editor = sharedPref.edit();
-
-            editor.putString(Integer.toString(state_id), new_value);
-            editor.commit();
-
+            store.put(state_id, new_value);
         } catch (Exception e) {
             Log.e(TAG, "Exception: writeStateString() " + e.toString(), e );
         }
@@ -199,30 +197,36 @@ public class State {
     //  returns a value for a particular state
     ///////////////////////////////////////////////////
     public int readState(int state_id) {
-        return sharedPref.getInt(Integer.toString(state_id), 0);
+        Object value = store.get(state_id);
+        if (value instanceof Number) return ((Number) value).intValue();
+        return 0;
     }
 
     // readStateLong(): get the state info but return a long instead of int
     public long readStateLong(int state_id) {
-        return sharedPref.getLong(Integer.toString(state_id), 0);
+        Object value = store.get(state_id);
+        if (value instanceof Number) return ((Number) value).longValue();
+        return 0;
     }
 
     // readStateString(): get the state info but return a long instead of int
     public String readStateString(int state_id) {
-        return sharedPref.getString(Integer.toString(state_id), "");
+        Object value = store.get(state_id);
+        if (value instanceof String) return (String) value;
+        return "";
     }
 
 
     // readStateBool(): get the state info but return a bool instead of int
     public boolean readStateBool(int state_id) {
-        int value = sharedPref.getInt(Integer.toString(state_id), 0);
+        int value = readState(state_id);
         if (value ==0) return false;
         return true;
     }
 
     // readStateArray(): get the state info but return a byte[] instead of int
     public byte[] readStateArray(int state_id) {
-        String value = sharedPref.getString(Integer.toString(state_id), "");
+        String value = readStateString(state_id);
         if (value.isEmpty()) return null;
 
         byte[] array = Log.hexToBytes(value);
@@ -237,9 +241,8 @@ public class State {
     //  (ORs the given bitfield with the existing bitfield in state file)
     //////////////////////////////////////////////////////////
     public boolean setFlags(int state_id, int new_flags ) {
-        int old_flags = readState(state_id);
-        new_flags |= old_flags;
-        return writeState(state_id, new_flags);
+        store.setFlags(state_id, new_flags);
+        return true;
     }
 
 
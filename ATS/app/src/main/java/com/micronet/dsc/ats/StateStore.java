@@ -0,0 +1,502 @@
+/////////////////////////////////////////////////////////////
+// StateStore:
+//  Holds the state values (see State) in memory and writes them to a binary file in the background
+//
+//  Writes only change memory and remember which values are dirty. The file is rewritten at most
+//      FLUSH_DELAY_MS after the first change, and right away when flush() is called (shutdown, crash, restart).
+//  The file is written to a temporary file and synced, the old file is kept as a backup, and then the temporary
+//      file is renamed to the file, so after a power loss there is always either the old or the new file, never half of one.
+//  If the file is damaged or missing when it is loaded, the values come from the last complete temporary file or
+//      the backup. If neither can be loaded, the values start over and the store reports that the state was lost
+//      (the legacy preferences are only ever imported once, never after a binary file has existed).
+//
+//  There is one store per file in each process, shared by all State objects, so they all see the same values.
+//
+//  File format (big-endian):
+//      magic (4 bytes "ATSS"), version (2), count (4)
+//      entries: id (4), type (1), value (int 4, long 8, or string as modified UTF-8)
+//      CRC32 of everything before it (4)
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+public class StateStore {
+
+    private static final String TAG = "ATS-StateStore";
+
+    public static final int FLUSH_DELAY_MS = 2000; // longest time a change stays only in memory
+
+    static final int FORMAT_MAGIC = 0x41545353; // "ATSS"
+    static final int FORMAT_VERSION = 1;
+
+    static final int TYPE_INT = 1;
+    static final int TYPE_LONG = 2;
+    static final int TYPE_STRING = 3;
+
+    static final String TEMP_SUFFIX = ".tmp";
+    static final String BAD_SUFFIX = ".bad"; // a damaged file is moved aside to this name, so it can be looked at later
+    static final String BACKUP_SUFFIX = ".bak"; // the file before the last write
+
+    static final String PREF_LEGACY_IMPORTED = "imported"; // left in the legacy preferences once they were imported
+
+    // all the stores open in this process, by file path
+    static final HashMap<String, StateStore> stores = new HashMap<String, StateStore>();
+
+    // writes the files in the background (shared by all stores, guarded by StateStore.class)
+    static ScheduledThreadPoolExecutor exec = null;
+
+
+    final File file;
+
+    final IntMap<Object> values = new IntMap<Object>(); // Integer, Long or String
+    final IntMap<Boolean> dirtyIds = new IntMap<Boolean>(); // changed since the last flush
+    boolean dirty = false; // something changed (also set by clear(), which has no single id)
+    boolean flushScheduled = false;
+
+    final Object fileLock = new Object(); // only one flush writes the file at a time
+
+    int flushCount = 0; // number of times the file was written, for testing
+
+    boolean recovered = false; // the file could not be loaded, the values came from the temporary file or the backup
+    boolean stateLost = false; // the file could not be loaded and there was nothing to recover from, the values started over
+
+
+    ///////////////////////////////////////////////////
+    // open()
+    //  returns the store for this file, loading it if this is the first use in this process
+    //  file: the binary state file
+    //  legacy_prefs_name: shared preferences holding the values from before there was a binary file (imported once)
+    ///////////////////////////////////////////////////
+    public static StateStore open(Context context, String file_name, String legacy_prefs_name) {
+
+        File file = context.getFileStreamPath(file_name);
+
+        synchronized (stores) {
+            StateStore store = stores.get(file.getAbsolutePath());
+            if (store == null) {
+                store = new StateStore(file);
+                boolean had_file = store.hasFiles();
+                if (!store.load()) {
+                    SharedPreferences prefs = context.getSharedPreferences(legacy_prefs_name, Context.MODE_PRIVATE);
+                    if ((had_file) || (prefs.getBoolean(PREF_LEGACY_IMPORTED, false))) {
+                        // we already had a binary file, the old preferences are not the values we lost
+                        Log.e(TAG, "State in " + file.getName() + " was lost, starting over");
+                        store.stateLost = true;
+                    } else {
+                        store.importLegacy(prefs, legacy_prefs_name);
+                    }
+                }
+                stores.put(file.getAbsolutePath(), store);
+            }
+            return store;
+        }
+    } // open()
+
+
+    ///////////////////////////////////////////////////
+    // flushAll()
+    //  writes every store in this process that has changes, and waits for it to finish
+    //  call this when the process may be about to die
+    ///////////////////////////////////////////////////
+    public static void flushAll() {
+
+        StateStore[] all;
+        synchronized (stores) {
+            all = stores.values().toArray(new StateStore[stores.size()]);
+        }
+
+        for (StateStore store : all) {
+            store.flush();
+        }
+    } // flushAll()
+
+
+    StateStore(File file) {
+        this.file = file;
+    }
+
+
+    ///////////////////////////////////////////////////
+    // get()
+    //  returns the value, or null if there is none
+    ///////////////////////////////////////////////////
+    public synchronized Object get(int id) {
+        return values.get(id);
+    }
+
+
+    ///////////////////////////////////////////////////
+    // put()
+    //  changes a value in memory, the file is written later
+    //  value: an Integer, Long or String, or null to remove the value
+    ///////////////////////////////////////////////////
+    public synchronized void put(int id, Object value) {
+
+        Object old_value = values.get(id);
+        if ((old_value == null) ? (value == null) : old_value.equals(value)) return; // nothing changed
+
+        if (value == null) {
+            values.remove(id);
+        } else {
+            values.put(id, value);
+        }
+        markDirty(id);
+    } // put()
+
+
+    ///////////////////////////////////////////////////
+    // setFlags()
+    //  ORs the flags into an int value (as one change, so flags set from two threads aren't lost)
+    ///////////////////////////////////////////////////
+    public synchronized void setFlags(int id, int flags) {
+        Object old_value = values.get(id);
+        int old_flags = (old_value instanceof Number ? ((Number) old_value).intValue() : 0);
+        put(id, old_flags | flags);
+    } // setFlags()
+
+
+    ///////////////////////////////////////////////////
+    // clear()
+    //  removes all values
+    ///////////////////////////////////////////////////
+    public synchronized void clear() {
+        if (values.isEmpty()) return;
+        values.clear();
+        dirty = true;
+        scheduleFlush();
+    } // clear()
+
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+
+    ///////////////////////////////////////////////////
+    // isStateLost()
+    //  returns true if the values may not be the latest ones that were written:
+    //  the file could not be loaded and they were recovered from an older copy, or they started over
+    ///////////////////////////////////////////////////
+    public synchronized boolean isStateLost() {
+        return (stateLost || recovered);
+    }
+
+
+    void markDirty(int id) {
+        dirtyIds.put(id, Boolean.TRUE);
+        dirty = true;
+        scheduleFlush();
+    } // markDirty()
+
+
+    void scheduleFlush() {
+        if (flushScheduled) return;
+        flushScheduled = true;
+
+        synchronized (StateStore.class) {
+            if (exec == null) exec = new ScheduledThreadPoolExecutor(1);
+            exec.schedule(flushTask, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    } // scheduleFlush()
+
+
+    Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Exception e) {
+                Log.e(TAG + ".flushTask", "Exception: " + e.toString(), e);
+            }
+        }
+    }; // flushTask()
+
+
+    ///////////////////////////////////////////////////
+    // flush()
+    //  writes the file now if anything changed, and waits for it to finish
+    //  returns false if the file could not be written (the changes are kept and tried again later)
+    ///////////////////////////////////////////////////
+    public boolean flush() {
+
+        synchronized (fileLock) {
+
+            byte[] contents;
+            int changed;
+
+            synchronized (this) {
+                flushScheduled = false;
+                if (!dirty) return true;
+
+                contents = serialize();
+                changed = dirtyIds.size();
+                dirtyIds.clear();
+                dirty = false;
+            }
+
+            if (writeFile(contents)) {
+                flushCount++;
+                Log.vv(TAG, "Wrote " + file.getName() + " (" + changed + " changed values)");
+                return true;
+            }
+
+            // try again later
+            synchronized (this) {
+                dirty = true;
+                scheduleFlush();
+            }
+            return false;
+        }
+    } // flush()
+
+
+    ///////////////////////////////////////////////////
+    // serialize()
+    //  returns the file contents for all values (call while holding the lock)
+    ///////////////////////////////////////////////////
+    byte[] serialize() {
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(FORMAT_MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeInt(values.size());
+
+            for (int i = 0; i < values.capacity(); i++) {
+                if (!values.isSlotUsed(i)) continue;
+
+                out.writeInt(values.keyAt(i));
+                Object value = values.valueAt(i);
+                if (value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong((Long) value);
+                } else {
+                    out.writeByte(TYPE_STRING);
+                    out.writeUTF(value.toString());
+                }
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+
+            out.flush();
+            return bytes.toByteArray();
+        } catch (Exception e) {
+            // only a string longer than 64K could do this
+            Log.e(TAG, "Exception: serialize() " + e.toString(), e);
+            return null;
+        }
+    } // serialize()
+
+
+    ///////////////////////////////////////////////////
+    // writeFile()
+    //  replaces the file with the contents: write a temporary file, sync it, then rename it over the file
+    ///////////////////////////////////////////////////
+    boolean writeFile(byte[] contents) {
+
+        if (contents == null) return false;
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        File backup = new File(file.getPath() + BACKUP_SUFFIX);
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(contents);
+            out.flush();
+            out.getFD().sync(); // must be on disk before the rename
+            out.close();
+            out = null;
+
+            if ((file.exists()) && (!file.renameTo(backup))) {
+                Log.w(TAG, "Unable to rename " + file.getName() + " to " + backup.getName()); // the rename below still replaces it
+            }
+
+            if (!temp.renameTo(file)) {
+                Log.e(TAG, "Unable to rename " + temp.getName() + " to " + file.getName());
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Exception: writeFile() " + e.toString(), e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (Exception e) {
+                    // Do Nothing
+                }
+            }
+        }
+        return false;
+    } // writeFile()
+
+
+    ///////////////////////////////////////////////////
+    // hasFiles()
+    //  returns true if there is a state file, or anything left from one (a copy, or a damaged file that was moved aside)
+    ///////////////////////////////////////////////////
+    boolean hasFiles() {
+        return (file.exists() ||
+                new File(file.getPath() + TEMP_SUFFIX).exists() ||
+                new File(file.getPath() + BACKUP_SUFFIX).exists() ||
+                new File(file.getPath() + BAD_SUFFIX).exists());
+    } // hasFiles()
+
+
+    ///////////////////////////////////////////////////
+    // load()
+    //  reads the values from the file, or if it is missing or damaged, from the temporary file (which is complete
+    //      if it was written after the last rename) or the backup
+    //  returns false if none of them could be loaded (damaged ones are renamed with BAD_SUFFIX and no values are loaded)
+    ///////////////////////////////////////////////////
+    boolean load() {
+
+        if ((file.exists()) && (loadFile(file))) return true;
+
+        File[] copies = new File[] { new File(file.getPath() + TEMP_SUFFIX), new File(file.getPath() + BACKUP_SUFFIX) };
+        for (File copy : copies) {
+            if ((copy.exists()) && (loadFile(copy))) {
+                Log.w(TAG, "Recovered " + file.getName() + " from " + copy.getName() + ", the last changes may be missing");
+                recovered = true;
+                dirty = true; // write it back to the file
+                scheduleFlush();
+                return true;
+            }
+        }
+
+        return false;
+    } // load()
+
+
+    ///////////////////////////////////////////////////
+    // loadFile()
+    //  reads the values from this file (the state file or one of its copies)
+    //  returns false if it is damaged (then it is renamed with BAD_SUFFIX and no values are loaded)
+    ///////////////////////////////////////////////////
+    boolean loadFile(File source) {
+
+        boolean loaded = false;
+        DataInputStream in = null;
+        try {
+            byte[] contents = new byte[(int) source.length()];
+            in = new DataInputStream(new FileInputStream(source));
+            in.readFully(contents);
+            in.close();
+            in = null;
+
+            if (contents.length < 14) throw new Exception("file too short");
+
+            CRC32 crc = new CRC32();
+            crc.update(contents, 0, contents.length - 4);
+            int saved_crc = ((contents[contents.length - 4] & 0xFF) << 24) | ((contents[contents.length - 3] & 0xFF) << 16) |
+                    ((contents[contents.length - 2] & 0xFF) << 8) | (contents[contents.length - 1] & 0xFF);
+            if (saved_crc != (int) crc.getValue()) throw new Exception("bad checksum");
+
+            in = new DataInputStream(new ByteArrayInputStream(contents, 0, contents.length - 4));
+            int magic = in.readInt();
+            int version = in.readUnsignedShort();
+            if ((magic != FORMAT_MAGIC) || (version != FORMAT_VERSION)) throw new Exception("unknown format " + version);
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case TYPE_INT:
+                        values.put(id, in.readInt());
+                        break;
+                    case TYPE_LONG:
+                        values.put(id, in.readLong());
+                        break;
+                    case TYPE_STRING:
+                        values.put(id, in.readUTF());
+                        break;
+                    default:
+                        throw new Exception("unknown type " + type);
+                }
+            }
+
+            Log.v(TAG, "Loaded " + count + " values from " + source.getName());
+            loaded = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to load " + source.getName() + ", moving it to " + source.getName() + BAD_SUFFIX + ": " + e.toString());
+            values.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                    // Do Nothing
+                }
+            }
+        }
+
+        if (!loaded) {
+            // keep the damaged file, but out of the way so it is not written over or loaded again
+            if (!source.renameTo(new File(source.getPath() + BAD_SUFFIX))) {
+                Log.e(TAG, "Unable to rename " + source.getName() + " to " + source.getName() + BAD_SUFFIX);
+            }
+        }
+
+        return loaded;
+    } // loadFile()
+
+
+    ///////////////////////////////////////////////////
+    // importLegacy()
+    //  copies the values from the shared preferences used before there was a binary file,
+    //  writes the file, and then clears the preferences and marks them as imported so they can never be imported again
+    ///////////////////////////////////////////////////
+    void importLegacy(SharedPreferences prefs, String prefs_name) {
+
+        Map<String, ?> all = prefs.getAll();
+
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            try {
+                int id = Integer.parseInt(entry.getKey());
+                Object value = entry.getValue();
+                if ((value instanceof Integer) || (value instanceof Long) || (value instanceof String)) {
+                    values.put(id, value);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Ignoring old state value " + entry.getKey());
+            }
+        }
+
+        dirty = true;
+        if (!flush()) return; // keep the preferences until we have the file
+
+        if (!all.isEmpty()) {
+            Log.i(TAG, "Imported " + values.size() + " values from " + prefs_name);
+        }
+        prefs.edit().clear().putBoolean(PREF_LEGACY_IMPORTED, true).commit();
+    } // importLegacy()
+
+
+} // class StateStore
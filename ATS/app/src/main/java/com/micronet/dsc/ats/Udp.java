@@ -22,6 +22,7 @@ public class Udp {
 
 
     public static final String TAG = "ATS-Udp";
+    static final int TAG_ID = Log.tagId(TAG); // for the checks before per-packet logging
 
     List<Codec.IncomingMessage> incomingList = Collections.synchronizedList(new ArrayList<Codec.IncomingMessage>());
     List<Codec.OutgoingMessage> outgoingList = Collections.synchronizedList(new ArrayList<Codec.OutgoingMessage>());
@@ -176,9 +177,12 @@ public class Udp {
 
 
                 if (isReceived) {
+                    Trace.record(Trace.CODE_UDP_RX, localPort, 0, inMessage.data, 0, inMessage.length);
                     synchronized (incomingList) {
-                        Log.d(TAG, "rcv (" + socketName + ") " + inMessage.length + " bytes");
-                        Log.i(TAG, "packet (" + socketName + ") <-- " + Log.bytesToHex(inMessage.data, inMessage.length));
+                        if (Log.isEnabled(TAG_ID, Log.LEVEL_DEBUG))
+                            Log.d(TAG, "rcv (" + socketName + ") " + inMessage.length + " bytes");
+                        if (Log.isEnabled(TAG_ID, Log.LEVEL_INFO))
+                            Log.i(TAG, "packet (" + socketName + ") <-- " + Log.bytesToHex(inMessage.data, inMessage.length));
                         incomingList.add(inMessage);
                     } // sync
                 }
@@ -193,8 +197,11 @@ public class Udp {
                             try {
                                 InetSocketAddress destAddress = new InetSocketAddress(remoteAddress, remotePort);
 
-                                Log.d(TAG, "send (" + socketName + ") " + outMessage.length + " bytes: " + remoteAddress + ":" + remotePort);
-                                Log.i(TAG, "packet (" + socketName + ") --> " + Log.bytesToHex(outMessage.data, outMessage.length));
+                                if (Log.isEnabled(TAG_ID, Log.LEVEL_DEBUG))
+                                    Log.d(TAG, "send (" + socketName + ") " + outMessage.length + " bytes: " + remoteAddress + ":" + remotePort);
+                                if (Log.isEnabled(TAG_ID, Log.LEVEL_INFO))
+                                    Log.i(TAG, "packet (" + socketName + ") --> " + Log.bytesToHex(outMessage.data, outMessage.length));
+                                Trace.record(Trace.CODE_UDP_TX, localPort, remotePort, outMessage.data, 0, outMessage.length);
                                 DatagramPacket outPacket = new DatagramPacket(outMessage.data, outMessage.length, destAddress);
                                 socket.send(outPacket);
                             } catch (Exception e) {
@@ -0,0 +1,114 @@
+/////////////////////////////////////////////////////////////
+// BenchmarkHost:
+//  A BusHost for the benchmarks: settings are the defaults, timers never run, transmitted frames are dropped,
+//      and decoded values are accepted without doing anything else with them.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public class BenchmarkHost implements BusHost {
+
+    long now = 1000;
+
+    Clock clock = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    };
+
+    TaskScheduler scheduler = new TaskScheduler() {
+        @Override
+        public boolean post(Runnable task) { return true; }
+
+        @Override
+        public boolean postDelayed(Runnable task, long delay_ms) { return true; }
+
+        @Override
+        public void removeCallbacks(Runnable task) { }
+    };
+
+    BusOutput busOutput = new BusOutput() {
+        @Override
+        public void sendCANFrame(int id, byte[] data) { }
+
+        @Override
+        public void sendJ1708Frame(int id, int priority, byte[] data) { }
+    };
+
+    BusLink busLink = new BusLink() {
+        @Override
+        public void startCAN(int bitrate, boolean skipVerify, boolean autoDetect, int[] ids, int[] masks, CanReceiver receiver) { }
+
+        @Override
+        public void stopCAN() { }
+
+        @Override
+        public void startJ1708(J1708Receiver receiver) { }
+
+        @Override
+        public void stopJ1708() { }
+    };
+
+    SignalTable signals = new SignalTable();
+    J1587PidTable pidValues = new J1587PidTable();
+    RequestTracker requestTracker = new RequestTracker(new RequestTracker.Sender() {
+        @Override
+        public boolean sendRequest(int bus_type, int message_type, int destination) {
+            return true;
+        }
+    });
+
+    String vin = "";
+    int bus_type_vin = BUS_TYPE_NONE;
+
+
+    public Clock getClock() { return clock; }
+    public TaskScheduler createScheduler() { return scheduler; }
+    public BusOutput getBusOutput() { return busOutput; }
+    public BusLink getBusLink() { return busLink; }
+    public boolean isUnitTesting() { return false; }
+
+    public SignalTable getSignals() { return signals; }
+    public J1587PidTable getPidValues() { return pidValues; }
+    public RequestTracker getRequestTracker() { return requestTracker; }
+    public String getBusName(int bus_type) { return "BUS" + bus_type; }
+
+    public void setBusDetected(int bus_type) { }
+    public void clearBusDetected(int bus_type) { }
+    public void setBusCommunicating(int bus_type) { }
+    public void clearBusCommunicating(int bus_type) { }
+
+    public String checkVin(int bus_type, String newVin) { vin = newVin; bus_type_vin = bus_type; return vin; }
+    public String getVin() { return vin; }
+    public int getVinBusType() { return bus_type_vin; }
+    public boolean checkParkingBrake(int bus_type, boolean on) { return on; }
+    public boolean checkReverseGear(int bus_type, boolean on) { return on; }
+    public long checkOdometer(int bus_type, long new_odometer_m) { return new_odometer_m; }
+    public long checkFuelConsumption(int bus_type, long new_fuel_mL) { return new_fuel_mL; }
+    public long checkFuelEconomy(int bus_type, long new_fuel_mperL) { return new_fuel_mperL; }
+    public long checkLamps(int bus_type, int new_lamps_bf) { return new_lamps_bf; }
+    public int checkDtcs(int bus_type, long[] newDtcs, int[] newSourceAddresses, int newLampStatus) { return 0; }
+    public int checkSourceDtcs(int bus_type, int reporter, long[] newDtcs, int[] newSourceAddresses, int count, int newLampStatus) { return 0; }
+
+    public void checkRawForwarding(int bus_type, int message_type, int source, byte[] data) { }
+    public void checkRawForwarding(int bus_type, int message_type, int source, byte[] data, int data_length) { }
+    public void checkRawForwarding(int bus_type, int message_type, int source, long payload, int dlc) { }
+    public void markReceived(int bus_type, int message_type, int source) { }
+
+    public int getParkingBrakeConflictState() { return 1; }
+    public int getJ1939FramesPerBurst() { return 16; }
+    public int getJ1939Connections() { return 16; }
+    public int getJ1939SpeedKbs() { return 250; }
+
+    public boolean isJ1939BusVerified() { return true; }
+    public int getJ1939BusType() { return BUS_TYPE_J1939_250K; }
+    public void rememberJ1939BusType(int bus_type) { }
+    public int getJ1939BusAddress() { return 0xBB; }
+    public void rememberJ1939BusAddress(int address) { }
+    public String getJ1939BitrateHistory() { return ""; }
+    public void setJ1939BitrateHistory(String history) { }
+    public void reportNoAddressAvailable() { }
+
+} // class BenchmarkHost
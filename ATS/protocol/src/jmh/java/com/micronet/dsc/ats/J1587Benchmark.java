@@ -0,0 +1,50 @@
+/////////////////////////////////////////////////////////////
+// J1587Benchmark:
+//  speed and allocations of receiving J1587 packets (see build.gradle for how to run)
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class J1587Benchmark {
+
+    J1587 j1587;
+
+    // road speed, engine speed, and odometer in one packet
+    final byte[] data = new byte[] {84, 100, (byte) 190, 0x40, 0x1F, (byte) J1587.PID_ODOMETER, 4, (byte) 0xAC, 0x50, 0x60, 0x02};
+
+    @Setup
+    public void setUp() {
+        Log.LOGLEVEL_VERBOSE = false;
+        Log.LOGLEVEL_DEBUG = false;
+
+        j1587 = new J1587(new BenchmarkHost(), true);
+        j1587.start();
+    }
+
+
+    @Benchmark
+    public void receivePacket() {
+        j1587.receivePacket(0x80, 5, data, data.length);
+    }
+
+} // class J1587Benchmark
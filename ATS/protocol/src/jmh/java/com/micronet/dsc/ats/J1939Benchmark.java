@@ -0,0 +1,64 @@
+/////////////////////////////////////////////////////////////
+// J1939Benchmark:
+//  speed and allocations of receiving J1939 frames (see build.gradle for how to run)
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class J1939Benchmark {
+
+    J1939 j1939;
+    J1939.CanFrame frame;
+    int i;
+
+    @Setup
+    public void setUp() {
+        Log.LOGLEVEL_VERBOSE = false;
+        Log.LOGLEVEL_DEBUG = false;
+
+        j1939 = new J1939(new BenchmarkHost(), true, 123456);
+        j1939.start();
+        j1939.myAddress = 0xBB;
+
+        frame = new J1939.CanFrame(0x18FEF1CC, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+
+    @Benchmark
+    public int receiveCANFrame() {
+        // Hi-Res Vehicle Distance (PGN FEC1), packed the way VBS sends it
+        return j1939.receiveCANFrame(0x14FEC1CC, 0x00000000C2700000L | (i++ & 0xFFFF), 8);
+    }
+
+    @Benchmark
+    public Object frame2packet() {
+        return j1939.frame2packet(frame);
+    }
+
+    @Benchmark
+    public void parsePGN() {
+        // ETC2 (current gear)
+        j1939.parsePGN(0xCC, J1939.PGN_GEAR, 0xFFFFFFFF7D00007DL, 8);
+    }
+
+} // class J1939Benchmark
@@ -0,0 +1,54 @@
+/////////////////////////////////////////////////////////////
+// LogBenchmark:
+//  what a disabled log entry costs when the message is built anyway, and when the call is guarded with isEnabled()
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+
+    static final String TAG = "ATS-Benchmark";
+    static final int TAG_ID = Log.tagId(TAG);
+
+    final byte[] data = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+    int i;
+
+    @Setup
+    public void setUp() {
+        Log.LOGLEVEL_VERBOSE = false;
+    }
+
+
+    @Benchmark
+    public void disabled() {
+        Log.v(TAG, "frame " + (i++) + " : " + Log.bytesToHex(data, data.length)); // string is still built
+    }
+
+    @Benchmark
+    public void guarded() {
+        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE)) { // don't build the string unless we will log it
+            Log.v(TAG, "frame " + (i++) + " : " + Log.bytesToHex(data, data.length));
+        }
+    }
+
+} // class LogBenchmark
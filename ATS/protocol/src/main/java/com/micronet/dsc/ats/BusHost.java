@@ -0,0 +1,122 @@
+/////////////////////////////////////////////////////////////
+// BusHost:
+//  What the bus protocol code (J1939, J1587) needs from the rest of the app:
+//      where to report the bus status and the values it decoded, the settings and remembered state it uses,
+//      and the platform services it runs on.
+//  On the device this is the Engine, tests and replays can supply their own.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public interface BusHost {
+
+    int BUS_TYPE_NONE = 0; // the default
+    int BUS_TYPE_J1939_250K = 1;
+    int BUS_TYPE_J1939_500K = 2;
+
+    int BUS_TYPE_J1939 = BUS_TYPE_J1939_250K; // for generic J1939, use the same ID as 250
+    int BUS_TYPE_J1587 = 4;
+
+
+    // Platform
+
+    Clock getClock();
+
+    TaskScheduler createScheduler(); // the scheduler the buses run their timers on
+
+    BusOutput getBusOutput();
+
+    BusLink getBusLink();
+
+    boolean isUnitTesting(); // keep transmitted frames in the outgoing lists and don't wait for timers
+
+
+    // Shared tables
+
+    SignalTable getSignals(); // latest values of the signals (SPNs) from the signal definition file
+
+    J1587PidTable getPidValues(); // latest values of the J1587 parameters (PIDs)
+
+    RequestTracker getRequestTracker();
+
+    String getBusName(int bus_type);
+
+
+    // Bus status
+
+    void setBusDetected(int bus_type);
+
+    void clearBusDetected(int bus_type);
+
+    void setBusCommunicating(int bus_type);
+
+    void clearBusCommunicating(int bus_type);
+
+
+    // Decoded values (each returns the value that is now in effect, which may be from a higher priority bus)
+
+    String checkVin(int bus_type, String newVin);
+
+    String getVin();
+
+    int getVinBusType(); // BUS_TYPE_NONE if the VIN has not come from a bus yet
+
+    boolean checkParkingBrake(int bus_type, boolean on);
+
+    boolean checkReverseGear(int bus_type, boolean on);
+
+    long checkOdometer(int bus_type, long new_odometer_m);
+
+    long checkFuelConsumption(int bus_type, long new_fuel_mL);
+
+    long checkFuelEconomy(int bus_type, long new_fuel_mperL);
+
+    long checkLamps(int bus_type, int new_lamps_bf);
+
+    int checkDtcs(int bus_type, long[] newDtcs, int[] newSourceAddresses, int newLampStatus);
+
+    int checkSourceDtcs(int bus_type, int reporter, long[] newDtcs, int[] newSourceAddresses, int count, int newLampStatus);
+
+
+    // Received messages
+
+    void checkRawForwarding(int bus_type, int message_type, int source, byte[] data);
+
+    void checkRawForwarding(int bus_type, int message_type, int source, byte[] data, int data_length);
+
+    void checkRawForwarding(int bus_type, int message_type, int source, long payload, int dlc);
+
+    void markReceived(int bus_type, int message_type, int source);
+
+
+    // J1939 settings
+
+    int getParkingBrakeConflictState();
+
+    int getJ1939FramesPerBurst(); // transport protocol
+
+    int getJ1939Connections(); // transport protocol
+
+    int getJ1939SpeedKbs(); // 0 to auto-detect
+
+
+    // J1939 state remembered between starts
+
+    boolean isJ1939BusVerified(); // we have received frames at the remembered bitrate
+
+    int getJ1939BusType();
+
+    void rememberJ1939BusType(int bus_type); // (and that it is verified)
+
+    int getJ1939BusAddress();
+
+    void rememberJ1939BusAddress(int address);
+
+    String getJ1939BitrateHistory(); // the CAN bitrate of the last few vehicles, see J1939.rememberVinBitrate()
+
+    void setJ1939BitrateHistory(String history);
+
+    void reportNoAddressAvailable(); // J1939 could not claim an address
+
+} // BusHost
@@ -0,0 +1,33 @@
+/////////////////////////////////////////////////////////////
+// BusLink:
+//  Starts and stops the vehicle buses for the bus protocol code, and delivers the frames received on them
+//  On the device this asks VBS to run the bus and listens for its broadcasts (see AndroidPlatform).
+//  Frames are delivered on the same thread as the TaskScheduler tasks.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public interface BusLink {
+
+    interface CanReceiver {
+        // payload: the data bytes packed little-endian (see EngineBus.bytes2Payload())
+        void onCANFrame(int id, long payload, int dlc);
+    }
+
+    interface J1708Receiver {
+        void onJ1708Frame(int id, int priority, byte[] data);
+    }
+
+
+    // starts (or restarts with new settings) the CAN bus, frames are given to receiver until stopCAN()
+    void startCAN(int bitrate, boolean skipVerify, boolean autoDetect, int[] ids, int[] masks, CanReceiver receiver);
+
+    void stopCAN();
+
+    // starts the J1708 bus, frames are given to receiver until stopJ1708()
+    void startJ1708(J1708Receiver receiver);
+
+    void stopJ1708();
+
+} // BusLink
@@ -0,0 +1,16 @@
+/////////////////////////////////////////////////////////////
+// BusOutput:
+//  Where the bus protocol code sends the frames it wants transmitted on the vehicle buses
+//  On the device these are broadcast to VBS (see AndroidPlatform).
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public interface BusOutput {
+
+    void sendCANFrame(int id, byte[] data);
+
+    void sendJ1708Frame(int id, int priority, byte[] data);
+
+} // BusOutput
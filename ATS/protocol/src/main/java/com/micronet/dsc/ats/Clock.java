@@ -0,0 +1,15 @@
+/////////////////////////////////////////////////////////////
+// Clock:
+//  The time source for the bus protocol code (J1939, J1587, DTC tracking, request scheduling)
+//  On the device this is SystemClock (see AndroidPlatform), tests and replays can supply their own.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public interface Clock {
+
+    // ms since boot (or since any fixed point, only differences are used)
+    long elapsedRealtime();
+
+} // Clock
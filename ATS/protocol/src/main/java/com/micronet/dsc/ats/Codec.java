@@ -5,7 +5,6 @@
 
 package com.micronet.dsc.ats;
 
-import android.content.Context;
 import java.util.Arrays;
 
 public class Codec {
@@ -42,6 +41,11 @@ public class Codec {
     public static final int RESTART_REASON_OTA_REQUEST = 2; // restarted by a request over OTA/UDP
     public static final int RESTART_REASON_LOCAL_REQUEST = 3; // restarted by a local app via bind or broadcast
 
+    // The restart reasons as they are passed to the service when it is restarted (see Power)
+    public static final String RESTART_REASON_NAME_WATCHDOG = "watchdog";
+    public static final String RESTART_REASON_NAME_OTA_REQUEST = "ota";
+    public static final String RESTART_REASON_NAME_LOCAL_REQUEST = "local";
+
 
 
 	// Define various NAKs that can be sent by this application to the server
@@ -91,13 +95,31 @@ public class Codec {
 	///////////////////////////////////////////////////
 	// Class constructor and variables to access other info..
 
-    MainService service; // just a reference to the service context
+    CodecHost service; // where the device ID, code mapping and engine values come from (the MainService on the device)
 
-    public Codec(MainService service) {
+    public Codec(CodecHost service) {
         this.service = service;
     }
 
 
+    // Connection info: the status of the cellular connection, included in every message
+    public static class ConnectInfo {
+        public ConnectInfo() {}
+        String networkOperator;
+        int phoneType;
+        int networkType;
+        int dataState;
+        boolean isRoaming;
+        int signalStrength;
+    }
+
+    // RTC reboot status: whether the RTC woke us or was cleared, included in the system boot message
+    public static class RTCRebootStatusClass {
+        boolean hasRTCcleared;
+        boolean hasRTCtriggered;
+    }
+
+
     ////////////////////////////////////////////////////
     // These functions are just used for compiler testing
     ///////////////////////////////////////////////////
@@ -150,7 +172,7 @@ public class Codec {
     // Returns:
     //		the raw data to send (in the form of an OutgoingMessage class)
     ///////////////////////////////////////////////////
-    public OutgoingMessage encodeMessage(QueueItem queueItem, Ota.ConnectInfo connectInfo) {
+    public OutgoingMessage encodeMessage(QueueItem queueItem, ConnectInfo connectInfo) {
 
         Log.vv(TAG, "encodeMessage()");
 
@@ -158,7 +180,7 @@ public class Codec {
         message.length = 0;
 
 
-        String device_id = service.io.getDeviceId();
+        String device_id = service.getDeviceId();
 
         int index;
         index = 0;
@@ -193,13 +215,13 @@ public class Codec {
         index += FIELD_LENGTH_SEQUENCE_NUM;
 
 
-        message.data[index] = (byte) service.codemap.mapMoEventCode((byte) queueItem.event_type_id);
+        message.data[index] = (byte) service.mapMoEventCode((byte) queueItem.event_type_id);
 
         index += FIELD_LENGTH_EVENT_CODE;
 
 
         // Cellular Network Information
-        if (service.SHOULD_SEND_CURRENT_CELL) {
+        if (service.shouldSendCurrentCell()) {
             // Send current cellular information
 
             int carrier_id = 0;
@@ -446,7 +468,7 @@ public class Codec {
 
 
         // compare the received serial number to our own
-        String device_id = service.io.getDeviceId();
+        String device_id = service.getDeviceId();
         int i;
 
         if (serial_length != device_id.length()) {
@@ -485,7 +507,7 @@ public class Codec {
         item.sequence_id = sequence_id;
         index += FIELD_LENGTH_SEQUENCE_NUM;
 
-        item.event_type_id  = service.codemap.mapMtEventCode(unsigned(message.data[index]));
+        item.event_type_id  = service.mapMtEventCode(unsigned(message.data[index]));
         index += FIELD_LENGTH_EVENT_CODE;
 
         item.trigger_dt = QueueItem.getSystemDT();
@@ -531,7 +553,7 @@ public class Codec {
         // Total Fuel (4 bytes) liters
         // Average Fuel (2 bytes) meters per liter
 
-        long f = service.engine.status.fuel_mL / 1000;
+        long f = service.getFuelConsumption_mL() / 1000;
 
         if (f >= 4294967296L) f = 4294967295L; // max value
 
@@ -544,7 +566,7 @@ public class Codec {
         fuelData[3] = (byte) (f & 0xFF);
         f >>= 8;
 
-        f = service.engine.status.fuel_mperL;
+        f = service.getFuelEconomy_mperL();
 
         if (f >= 65536) f = 65535; // max value
 
@@ -564,7 +586,7 @@ public class Codec {
     ///////////////////////////////////////////////////
     byte[] encodeDataOdometer() {
         byte[] odomData= new byte[4];
-        long f = service.engine.status.odometer_m;
+        long f = service.getOdometer_m();
 
         if (f >= 4294967296L) f = 4294967295L; // max value
 
@@ -586,7 +608,8 @@ public class Codec {
     ///////////////////////////////////////////////////
     byte[] encodeDataVin() {
 
-        int vinlen = service.engine.vin.length();
+        String vin = service.getVin();
+        int vinlen = vin.length();
         if (vinlen > 255) vinlen = 255; // we will return a max length of 255.
 
         byte[] vinData = new byte[vinlen+1];
@@ -595,7 +618,7 @@ public class Codec {
 
 
         for (int i=0; i < vinlen; i++) {
-            vinData[i+1] = (byte) service.engine.vin.charAt(i);
+            vinData[i+1] = (byte) vin.charAt(i);
         }
 
         return vinData;
@@ -623,7 +646,7 @@ public class Codec {
 
         byte[] data = new byte[1 + vin.length + odom.length + fuel.length];
         int data_pos = 0;
-        System.arraycopy(new byte[] {service.engine.getBusCommunicating()}, 0, data, data_pos, 1);
+        System.arraycopy(new byte[] {service.getBusCommunicating()}, 0, data, data_pos, 1);
         data_pos += 1;
         System.arraycopy(vin, 0, data, data_pos, vin.length);
         data_pos += vin.length;
@@ -675,13 +698,13 @@ public class Codec {
     // dataForServiceRestart()
     // returns 2 bytes of data for inclusion in System Boot message
     ///////////////////////////////////////////////////
-    public static byte[] dataForServiceRestart(String restart_reason) {
+    public static byte[] dataForServiceRestart(int version_code, String restart_reason) {
 
         byte[] data = new byte[3];
 
         // [0..1] = ATS version code
 
-        int i = BuildConfig.VERSION_CODE;
+        int i = version_code;
         data[0] = (byte) (i & 0xFF);
         i >>=8;
         data[1] = (byte) (i & 0xFF);
@@ -690,11 +713,11 @@ public class Codec {
 
         if ((restart_reason != null) && (!restart_reason.isEmpty())) {
 
-            if (restart_reason.equals(Power.RESTART_REASON_WATCHDOG))
+            if (restart_reason.equals(RESTART_REASON_NAME_WATCHDOG))
                 data[2] = RESTART_REASON_WATCHDOG;
-            else if (restart_reason.equals(Power.RESTART_REASON_LOCAL_REQUEST))
+            else if (restart_reason.equals(RESTART_REASON_NAME_LOCAL_REQUEST))
                 data[2] = RESTART_REASON_LOCAL_REQUEST;
-            else if (restart_reason.equals(Power.RESTART_REASON_OTA_REQUEST))
+            else if (restart_reason.equals(RESTART_REASON_NAME_OTA_REQUEST))
                 data[2] = RESTART_REASON_OTA_REQUEST;
 
 
@@ -711,14 +734,14 @@ public class Codec {
     // dataForSystemBoot()
     // returns 3 bytes of data for inclusion in System Boot message
     ///////////////////////////////////////////////////
-    public static byte[] dataForSystemBoot(int io_boot_state, Power.RTCRebootStatusClass rtcRebootStatus, int kernel_uptime_minutes) {
+    public static byte[] dataForSystemBoot(int version_code, int io_boot_state, RTCRebootStatusClass rtcRebootStatus, int kernel_uptime_minutes) {
 
         byte[] data = new byte[5];
 
         // [0] = boot reason
         // [1..2] = ATS version code
 
-        int i = BuildConfig.VERSION_CODE;
+        int i = version_code;
         if (io_boot_state == 0xFF)
             data[0] = (byte) 0xFF;
         else {
@@ -762,7 +785,7 @@ public class Codec {
 
         data[0] = (byte) shutdown_reason;
 
-        long next_alarm_time_m = service.state.readStateLong(State.NEXT_HEARTBEAT_TIME_S) / 60;
+        long next_alarm_time_m = service.getNextHeartbeatTime_s() / 60;
 
         data[1] = (byte) (next_alarm_time_m & 0xFF);
         next_alarm_time_m >>>= 8;
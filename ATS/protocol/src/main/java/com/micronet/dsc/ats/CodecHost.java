@@ -0,0 +1,39 @@
+/////////////////////////////////////////////////////////////
+// CodecHost:
+//  What the message Codec needs from the rest of the app:
+//      the device ID, the mapping of event codes, and the engine values that are included in some messages.
+//  On the device this is the MainService, tests can supply their own.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public interface CodecHost {
+
+    String getDeviceId(); // the serial number that identifies us to the server
+
+    int mapMoEventCode(int internal_event_code); // our event code -> the code sent to the server
+
+    int mapMtEventCode(int external_event_code); // code received from the server -> our event code
+
+    boolean shouldSendCurrentCell(); // send current cell information, otherwise the information stored with the event
+
+
+    // Engine values
+
+    String getVin();
+
+    long getOdometer_m();
+
+    long getFuelConsumption_mL();
+
+    long getFuelEconomy_mperL();
+
+    byte getBusCommunicating(); // bitfield of the buses we are communicating on
+
+
+    // Remembered state
+
+    long getNextHeartbeatTime_s();
+
+} // CodecHost
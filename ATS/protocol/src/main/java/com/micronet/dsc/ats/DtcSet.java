@@ -0,0 +1,122 @@
+/////////////////////////////////////////////////////////////
+// DtcSet:
+//  The set of currently active DTCs, indexed by (bus, source address, DTC value) so that each reported code
+//      can be looked up directly instead of scanning the whole list.
+//  Also keeps the codes in the order they were added (which is the order they are saved in the state file).
+//  Not thread-safe: use from the main handler only.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+
+public class DtcSet implements Iterable<EngineDtc> {
+
+    ArrayList<EngineDtc> list = new ArrayList<EngineDtc>();
+    IntMap<EngineDtc> index = new IntMap<EngineDtc>(); // by dtcKey(), codes with the same key are chained
+
+
+    ////////////////////////////////////////////////////////////////////
+    // dtcKey()
+    //  hashes the bus type, source address and DTC value (SPN/FMI etc) into one int
+    //  (different codes may have the same key, so the entries must still be compared)
+    ////////////////////////////////////////////////////////////////////
+    static int dtcKey(int bus_type, int source_address, long dtc_value) {
+        return ((bus_type & 0x0F) << 28) ^ ((source_address & 0xFF) << 20) ^ (int) dtc_value ^ (int) (dtc_value >>> 32);
+    } // dtcKey()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // find()
+    //  returns the active DTC with these values, or null if it isn't active
+    ////////////////////////////////////////////////////////////////////
+    public EngineDtc find(int bus_type, int source_address, long dtc_value) {
+
+        EngineDtc dtc = index.get(dtcKey(bus_type, source_address, dtc_value));
+        while (dtc != null) {
+            if ((dtc.bus_type == bus_type) &&
+                (dtc.source_address == source_address) &&
+                (dtc.dtc_value == dtc_value))
+                return dtc;
+            dtc = dtc.next_in_index;
+        }
+        return null;
+    } // find()
+
+
+    public void add(EngineDtc dtc) {
+        list.add(dtc);
+        addToIndex(dtc);
+    } // add()
+
+
+    public void remove(EngineDtc dtc) {
+        removeFromIndex(dtc);
+        list.remove(dtc);
+    } // remove()
+
+
+    public void removeAt(int i) {
+        removeFromIndex(list.get(i));
+        list.remove(i);
+    } // removeAt()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // changeSourceAddress()
+    //  the source address is part of the key, so it can't be changed directly
+    ////////////////////////////////////////////////////////////////////
+    public void changeSourceAddress(EngineDtc dtc, int source_address) {
+        removeFromIndex(dtc);
+        dtc.source_address = source_address;
+        addToIndex(dtc);
+    } // changeSourceAddress()
+
+
+    public void clear() {
+        list.clear();
+        index.clear();
+    }
+
+    public int size() {
+        return list.size();
+    }
+
+    public EngineDtc get(int i) {
+        return list.get(i);
+    }
+
+    @Override
+    public Iterator<EngineDtc> iterator() {
+        return list.iterator();
+    }
+
+
+    void addToIndex(EngineDtc dtc) {
+        int key = dtcKey(dtc.bus_type, dtc.source_address, dtc.dtc_value);
+        dtc.next_in_index = index.get(key);
+        index.put(key, dtc);
+    } // addToIndex()
+
+
+    void removeFromIndex(EngineDtc dtc) {
+        int key = dtcKey(dtc.bus_type, dtc.source_address, dtc.dtc_value);
+        EngineDtc head = index.get(key);
+        if (head == dtc) {
+            if (dtc.next_in_index == null) index.remove(key);
+            else index.put(key, dtc.next_in_index);
+        } else {
+            for (EngineDtc cur = head; cur != null; cur = cur.next_in_index) {
+                if (cur.next_in_index == dtc) {
+                    cur.next_in_index = dtc.next_in_index;
+                    break;
+                }
+            }
+        }
+        dtc.next_in_index = null;
+    } // removeFromIndex()
+
+
+} // class DtcSet
@@ -7,9 +7,8 @@
 package com.micronet.dsc.ats;
 
 
-import android.os.Handler;
-
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class EngineBus {
@@ -19,9 +18,9 @@ public class EngineBus {
     // These variables should all be set by the sub-class
     public String TAG = "ATS-EngineBus";;
     public int DTC_COLLECTION_TIME_MS = 20000;
-    Engine engine;
-    Handler mainHandler = null;
-    int myBusType = Engine.BUS_TYPE_NONE;
+    BusHost engine; // the Engine, on the device
+    TaskScheduler mainHandler = null;
+    int myBusType = BusHost.BUS_TYPE_NONE;
 
 
 
@@ -75,7 +74,7 @@ public class EngineBus {
         bus_status = new_status;
 
         // Log.v(TAG, "setting bus status " + myBusType + " to " + bus_status);
-        if (myBusType != Engine.BUS_TYPE_NONE) {
+        if (myBusType != BusHost.BUS_TYPE_NONE) {
             if (bus_status == BUS_STATUS_UP)
                 engine.setBusCommunicating(myBusType);
             else
@@ -237,6 +236,53 @@ public class EngineBus {
     } // addDtc
 
 
+    ////////////////////////////////////////////////////////////////
+    // DTCs in the report (e.g. DM1) that is currently being parsed, these all come from a single node
+    ////////////////////////////////////////////////////////////////
+    long[] reportedDtcValues = new long[16];
+    int[] reportedDtcSources = new int[16];
+    int numReportedDtcs = 0;
+
+    void clearReportedDtcs() {
+        numReportedDtcs = 0;
+    }
+
+    ////////////////////////////////////////////////////////////////
+    // addReportedDtc()
+    //  adds a DTC from the report being parsed, and also to the ones collected for the whole bus
+    ////////////////////////////////////////////////////////////////
+    void addReportedDtc(Dtc dtc) {
+        if (dtc == null) return;
+
+        addDtc(dtc);
+
+        if (numReportedDtcs == reportedDtcValues.length) {
+            reportedDtcValues = Arrays.copyOf(reportedDtcValues, numReportedDtcs * 2);
+            reportedDtcSources = Arrays.copyOf(reportedDtcSources, numReportedDtcs * 2);
+        }
+        reportedDtcValues[numReportedDtcs] = dtc.dtc_value;
+        reportedDtcSources[numReportedDtcs] = dtc.source_address;
+        numReportedDtcs++;
+    } // addReportedDtc()
+
+
+    ////////////////////////////////////////////////////////////////
+    // checkReportedDtcs()
+    //  the whole report from this node was parsed, tell the engine so it can report new codes right away
+    //  reporter: source address (J1939) or MID (J1587) that sent the report
+    // Returns:
+    //  0xAADD where AA = num added, DD = num_deleted
+    ////////////////////////////////////////////////////////////////
+    int checkReportedDtcs(int reporter) {
+
+        int result = engine.checkSourceDtcs(myBusType, reporter, reportedDtcValues, reportedDtcSources,
+                numReportedDtcs, lampStatus | collectedLampsBf);
+        numReportedDtcs = 0;
+        return result;
+
+    } // checkReportedDtcs()
+
+
     ////////////////////////////////////////////////////////////////
     // addLamps()
     //  adds lamps. Lamp statuses are a bit-field, up to one byte total
@@ -293,6 +339,8 @@ public class EngineBus {
     // processCollectedDTCsAndLamps()
     //  sends our complete DTC list to the Engine module, and then clears our list to start collecting again
     //  make sure enough time has passed between calls to be sure we captured all of the DTCs that are reporting on the bus
+    //  New codes were already reported as each node's report arrived (see checkReportedDtcs()), this also catches
+    //      codes from nodes that stopped reporting altogether.
     ////////////////////////////////////////////////////////////////
     void processCollectedDTCsAndLamps() {
 
@@ -383,6 +431,70 @@ public class EngineBus {
 
 
 
+    ////////////////////////////////////////////////////////
+    // Packed payloads
+    //  A frame payload of up to 8 bytes can be carried in a single long, with byte 0 of the frame
+    //  in the lowest 8 bits (e.g. the same value littleEndian2Long(data, 0, 8) returns).
+    //  This lets the receive path pass frames around as primitives without allocating arrays.
+    ////////////////////////////////////////////////////////
+
+    public static final long PAYLOAD_NOT_AVAILABLE = 0xFFFFFFFFFFFFFFFFL; // unused bytes are filled with 0xFF
+
+
+    ////////////////////////////////////////////////////////
+    // littleEndian2Long()
+    //  takes a value out of a packed payload (up to 8 bytes) and returns a long value
+    //  Parameters:
+    //   payload: the packed payload that we are using
+    //   index: the starting byte in the payload (e.g. 0 to start at beginning of payload)
+    //   number_of_bytes: how many bytes to use (e.g. 4 for a 4 byte value, 8 for the maximum long value)
+    ////////////////////////////////////////////////////////
+    public static long littleEndian2Long(long payload, int start_index, int number_of_bytes) {
+
+        if (start_index >= 8) return 0; // past the end (and java would shift by 64 as if it were 0)
+
+        payload >>>= (start_index << 3);
+        if (number_of_bytes >= 8) return payload;
+
+        return payload & ((1L << (number_of_bytes << 3)) - 1);
+    } // littleEndian2Long
+
+
+    ////////////////////////////////////////////////////////
+    // payloadByte()
+    //  returns a single (unsigned) byte out of a packed payload
+    ////////////////////////////////////////////////////////
+    public static int payloadByte(long payload, int index) {
+        if (index >= 8) return 0; // past the end
+        return (int) (payload >>> (index << 3)) & 0xFF;
+    } // payloadByte()
+
+
+    ////////////////////////////////////////////////////////
+    // bytes2Payload()
+    //  packs the first length bytes (up to 8) of the array into a payload
+    //      any bytes past the length are filled with 0xFF (not available)
+    ////////////////////////////////////////////////////////
+    public static long bytes2Payload(byte[] bytearray, int length) {
+
+        if (length > 8) length = 8;
+        if (length <= 0) return PAYLOAD_NOT_AVAILABLE;
+
+        long payload = littleEndian2Long(bytearray, 0, length);
+        if (length < 8)
+            payload |= (PAYLOAD_NOT_AVAILABLE << (length << 3));
+
+        return payload;
+    } // bytes2Payload()
+
+
+    ////////////////////////////////////////////////////////
+    // payload2Bytes()
+    //  unpacks a payload into an existing array (so the array can be re-used between frames)
+    ////////////////////////////////////////////////////////
+    public static void payload2Bytes(long payload, byte[] bytearray, int length) {
+        long2LittleEndian(payload, bytearray, 0, (length > 8 ? 8 : length));
+    } // payload2Bytes()
 
 
 
@@ -0,0 +1,74 @@
+/////////////////////////////////////////////////////////////
+// EngineDtc:
+//  A diagnostic trouble code reported on one of the vehicle buses (kept in a DtcSet)
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public class EngineDtc {
+
+    static final int SOURCE_ADDRESS_UNKNOWN = 0xFF; // value indicating we don't know the source address of a DTC
+
+    long dtc_value; // The value that is sent to the server, meaning can depend on bus type and vehicle
+    int bus_type = BusHost.BUS_TYPE_NONE;
+    int source_address = SOURCE_ADDRESS_UNKNOWN ; // address that reported this DTC
+    int removal_count = 0; // if a code does not appear on the bus, this count is incremented until it is removed
+    long last_missed_ms; // when removal_count was last incremented
+    int seen_stamp; // the report that this code last appeared in
+    boolean source_reported; // the node that reports this code sent its own report since the last whole-bus report
+    EngineDtc next_in_index; // next code with the same key in the DtcSet
+
+    // For conversion between the structure and an array of bytes
+    //  each item is 6 bytes (one byte for the bus and then the 4 byte DTC and 1 byte for the source address)
+    static final int DTC_ARRAY_ENTRY_SIZE = 6;
+
+    static void convertToBytes(EngineDtc dtc, byte[] output, int start_index) {
+        output[0 + start_index] = (byte) dtc.bus_type;
+        output[1 + start_index] = (byte) (dtc.dtc_value & 0xFF);
+        output[2 + start_index] = (byte) ((dtc.dtc_value >> 8) & 0xFF);
+        output[3 + start_index] = (byte) ((dtc.dtc_value >> 16) & 0xFF);
+        output[4 + start_index] = (byte) ((dtc.dtc_value >> 24) & 0xFF);
+        output[5 + start_index] = (byte) (dtc.source_address & 0xFF);
+
+    } // convertToBytes
+
+    static EngineDtc convertFromBytes(byte[] input, int start_index) {
+        EngineDtc dtc = new EngineDtc();
+        dtc.bus_type = (input[start_index] & 0xFF);
+        dtc.source_address = (input[start_index + 5] & 0xFF);
+
+        dtc.dtc_value = (input[start_index + 4] & 0xFF);
+        dtc.dtc_value <<= 8;
+        dtc.dtc_value |= (input[start_index+3] & 0xFF);
+        dtc.dtc_value <<= 8;
+        dtc.dtc_value |= (input[start_index+2] & 0xFF);
+        dtc.dtc_value <<= 8;
+        dtc.dtc_value |= (input[start_index+1] & 0xFF);
+        return dtc;
+    } // convertFromBytes
+
+
+    // In ATS 2p5 and earlier, each item was only 5 bytes and did not contain a source address
+    static final int DTC_ARRAY_ENTRY_SIZE_5BYTES_ATS2P5 = 5;
+
+    // convertFromBytes_5BYTES_ATS2P5()
+    //  convert from the ATS 2.5 5-byte format
+    static EngineDtc convertFromBytes_5BYTES_ATS2P5(byte[] input, int start_index) {
+        EngineDtc dtc = new EngineDtc();
+        dtc.bus_type = (input[start_index] & 0xFF);
+        dtc.source_address = SOURCE_ADDRESS_UNKNOWN;
+
+        dtc.dtc_value = (input[start_index + 4] & 0xFF);
+        dtc.dtc_value <<= 8;
+        dtc.dtc_value |= (input[start_index+3] & 0xFF);
+        dtc.dtc_value <<= 8;
+        dtc.dtc_value |= (input[start_index+2] & 0xFF);
+        dtc.dtc_value <<= 8;
+        dtc.dtc_value |= (input[start_index+1] & 0xFF);
+        return dtc;
+    } // convertFromBytes
+
+
+
+} // class EngineDtc
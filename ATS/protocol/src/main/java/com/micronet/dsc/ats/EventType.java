@@ -80,10 +80,12 @@ public class EventType {
     public final static int EVENT_TYPE_CONFIGW = 100; // configuration write
     public final static int EVENT_TYPE_MOREMAPW = 101; // remap mo write
     public final static int EVENT_TYPE_MTREMAPW = 102; // remap mt write
+    public final static int EVENT_TYPE_CONFIGW_MULTI = 103; // configuration write of many settings at once
     public final static int EVENT_TYPE_CLEAR_QUEUE = 110; // configuration write
     public final static int EVENT_TYPE_CLEAR_ODOMETER = 120; // configuration write
 
     public final static int EVENT_TYPE_RESET_FOTA_UPDATER = 125; // clear the FW update files for redbend client (requires resetRB apk)
+    public final static int EVENT_TYPE_TRACE_DUMP = 126; // write the recent trace (ATS and VBS) to files on the device
 
 
     public final static int EVENT_TYPE_TEST = 200; // just a blank / test message
@@ -106,6 +108,7 @@ public class EventType {
     public final static int CONFIG_FILE_SETTINGS = 1;
     public final static int CONFIG_FILE_MOMAP = 2;
     public final static int CONFIG_FILE_MTMAP = 4;
+    public final static int CONFIG_FILE_SIGNALS = 8;
 
 
     // Define any event codes that should be ignored
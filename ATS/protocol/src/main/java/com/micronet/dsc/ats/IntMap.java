@@ -0,0 +1,201 @@
+/////////////////////////////////////////////////////////////
+// IntMap:
+//  A hash map from primitive int keys to objects, using open addressing (linear probing)
+//  Keys are never boxed, so get() does not allocate. This is meant for lookups that happen on every
+//      received frame (e.g. PGN -> decoder), where a HashMap<Integer, ..> would create garbage.
+//  Not thread-safe: use from a single thread (e.g. the main handler) or synchronize externally.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public class IntMap<V> {
+
+    static final int MIN_CAPACITY = 16; // must be a power of 2
+
+    int[] keys;
+    Object[] values;
+    boolean[] used;
+    int mask; // capacity - 1
+    int size;
+
+
+    public IntMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // IntMap()
+    //  expected_size: number of entries we expect to hold without needing to grow
+    ////////////////////////////////////////////////////////////////////
+    public IntMap(int expected_size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected_size * 2) capacity <<= 1; // keep the load factor at or below 1/2
+        allocate(capacity);
+    }
+
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // hash()
+    //  spread the bits of the key, since many of our keys (PGNs, frame ids) only differ in the upper bytes
+    ////////////////////////////////////////////////////////////////////
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // findSlot()
+    //  returns the slot containing the key, or -1 if the key is not in the map
+    ////////////////////////////////////////////////////////////////////
+    private int findSlot(int key) {
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = findSlot(key);
+        if (i < 0) return null;
+        return (V) values[i];
+    }
+
+    public boolean containsKey(int key) {
+        return (findSlot(key) >= 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return (size == 0);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // put()
+    //  adds or replaces the value for the key
+    //  returns the previous value (or null if there was none)
+    ////////////////////////////////////////////////////////////////////
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // not found, add it
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+
+        if (size * 2 > mask + 1) grow();
+        return null;
+    } // put()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // remove()
+    //  removes the key from the map, returns the value that was removed (or null)
+    ////////////////////////////////////////////////////////////////////
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+
+        int i = findSlot(key);
+        if (i < 0) return null;
+
+        V old = (V) values[i];
+
+        // shift back any following entries in the same probe run so that lookups still find them
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (!used[j]) break;
+            int home = hash(keys[j]) & mask;
+            // can the entry at j move to the hole at i ? (only if its home slot is not between i and j)
+            if ((j > i && (home <= i || home > j)) ||
+                (j < i && (home <= i && home > j))) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+
+        used[i] = false;
+        values[i] = null;
+        size--;
+
+        return old;
+    } // remove()
+
+
+    public void clear() {
+        for (int i = 0; i <= mask; i++) {
+            used[i] = false;
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        int[] old_keys = keys;
+        Object[] old_values = values;
+        boolean[] old_used = used;
+
+        allocate((mask + 1) * 2);
+
+        for (int i = 0; i < old_keys.length; i++) {
+            if (old_used[i]) {
+                put(old_keys[i], (V) old_values[i]);
+            }
+        }
+    } // grow()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // Iteration (without allocating an iterator):
+    //  for (int i = 0; i < map.capacity(); i++) if (map.isSlotUsed(i)) { map.keyAt(i); map.valueAt(i); }
+    ////////////////////////////////////////////////////////////////////
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public boolean isSlotUsed(int slot) {
+        return used[slot];
+    }
+
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+} // class IntMap
@@ -6,14 +6,6 @@
 
 package com.micronet.dsc.ats;
 
-import android.content.BroadcastReceiver;
-import android.content.ComponentName;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.os.Handler;
-import android.os.Looper;
-
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,6 +17,7 @@ public class J1587 extends EngineBus {
 
 
     private static final String TAG = "ATS-J1587"; // for logging
+    private static final int TAG_ID = Log.tagId(TAG); // for the checks before per-packet logging
     public static final int DTC_COLLECTION_TIME_MS = 20000; // wait this long to collect all reported DTCs (DTCs are sent every 15s, this must be longer)
 
 
@@ -90,6 +83,7 @@ public class J1587 extends EngineBus {
 
 
     public void logStatus() {
+        if (!Log.isEnabled(TAG_ID, Log.LEVEL_DEBUG)) return;
         Log.d(TAG,  engine.getBusName(myBusType) + "= " + (isCommunicating() ? "UP" : "--") + " Addr " + ADDRESS_MID + " : " +
             " DTCs " + numCollectedDtcs +
             " Lamps " + lampStatus +
@@ -101,11 +95,11 @@ public class J1587 extends EngineBus {
 
 
 
-    public J1587(Engine engine, boolean warmStart) {
+    public J1587(BusHost engine, boolean warmStart) {
 
         super.TAG = TAG;
         super.DTC_COLLECTION_TIME_MS = DTC_COLLECTION_TIME_MS;
-        myBusType = Engine.BUS_TYPE_J1587; // bus type is constant and does not change for this class
+        myBusType = BusHost.BUS_TYPE_J1587; // bus type is constant and does not change for this class
         this.engine = engine;
 
 
@@ -135,7 +129,7 @@ public class J1587 extends EngineBus {
 
         setBusStatus(BUS_STATUS_IDLE);
 
-        mainHandler  = new Handler(Looper.getMainLooper());
+        mainHandler  = engine.createScheduler();
 
         if (!setupJ1708bus()) return;
 
@@ -183,24 +177,6 @@ public class J1587 extends EngineBus {
     public void destroy() {
     }
 
-    ////////////////////////////////////////////////////////////////////
-    // saveCrashData()
-    //      save data in preparation for an imminent crash+recovery
-    ////////////////////////////////////////////////////////////////////
-    public void saveCrashData(Crash crash) {
-
-        // Intermediate Data that needs to be stored
-
-    } // saveCrashData()
-
-
-    ////////////////////////////////////////////////////////////////////
-    // restoreCrashData()
-    //      restore data from a recent crash
-    ////////////////////////////////////////////////////////////////////
-    public void restoreCrashData(Crash crash) {
-        // Intermediate Data that needs to be restored
-    } // restoreCrashData()
 
     ///////////////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////
@@ -215,9 +191,9 @@ public class J1587 extends EngineBus {
     // sendRequestVIN()
     //  sends a request to respond with the vehicle vin
     ////////////////////////////////////////////////////////////////
-    public void sendRequestVIN() {
+    public RequestTracker.Handle sendRequestVIN() {
 
-        requestPid(PID_VIN);
+        return sendRequestAsync(PID_VIN, null);
 
     } // sendRequestVIN()
 
@@ -226,9 +202,9 @@ public class J1587 extends EngineBus {
     // sendRequestDTC()
     //  sends a request to respond with the vehicle dtc
     ////////////////////////////////////////////////////////////////
-    public void sendRequestDTC() {
+    public RequestTracker.Handle sendRequestDTC() {
 
-        requestPid(PID_DIAGNOSTICS);
+        return sendRequestAsync(PID_DIAGNOSTICS, null);
 
     } // sendRequestVIN()
 
@@ -237,26 +213,24 @@ public class J1587 extends EngineBus {
     // sendRequestTotalFuel()
     //  sends a request to respond with the vehicle vin
     ////////////////////////////////////////////////////////////////
-    public void sendRequestTotalFuel() {
+    public RequestTracker.Handle sendRequestTotalFuel() {
 
-        requestPid(PID_FUEL_CONSUMPTION);
+        return sendRequestAsync(PID_FUEL_CONSUMPTION, null);
 
     } // sendRequestTotalFuel()
 
 
     ////////////////////////////////////////////////////////////////
-    // sendRequestCustom()
-    //  sends a request for the pids in the list
+    // sendRequestAsync()
+    //  sends a request for a PID, and returns a handle that is completed when the response arrives or times out
+    //  listener: told when the request is complete (may be null)
     ////////////////////////////////////////////////////////////////
-    public void sendRequestCustom(int[] pids_array) {
+    public RequestTracker.Handle sendRequestAsync(int pid, RequestTracker.Listener listener) {
 
-        if (pids_array == null) return;
+        return engine.getRequestTracker().request(BusHost.BUS_TYPE_J1587, pid, RequestTracker.DESTINATION_GLOBAL,
+                RequestTracker.DEFAULT_TIMEOUT_MS, listener, engine.getClock().elapsedRealtime());
 
-        for (int pid : pids_array) {
-            requestPid(pid);
-        }
-
-    } // sendRequestCustom()
+    } // sendRequestAsync()
 
 
     ///////////////////////////////////////////////////////////////////
@@ -272,21 +246,21 @@ public class J1587 extends EngineBus {
     String checkVin(String newVin) {
 
         vin = newVin;
-        return engine.checkVin(Engine.BUS_TYPE_J1587, newVin);
+        return engine.checkVin(BusHost.BUS_TYPE_J1587, newVin);
     }
 
 
     long checkOdometer(long new_odometer_m) {
 
         odometer_m = new_odometer_m;
-        return engine.checkOdometer(Engine.BUS_TYPE_J1587, new_odometer_m);
+        return engine.checkOdometer(BusHost.BUS_TYPE_J1587, new_odometer_m);
 
     } // checkOdometer()
 
     long checkFuelConsumption(long new_fuel_mL) {
 
         fuel_mL = new_fuel_mL;
-        return engine.checkFuelConsumption(Engine.BUS_TYPE_J1587, new_fuel_mL);
+        return engine.checkFuelConsumption(BusHost.BUS_TYPE_J1587, new_fuel_mL);
 
     } // checkFuelConsumption()
 
@@ -344,16 +318,24 @@ public class J1587 extends EngineBus {
 
         // all integers are little endian, all strings are big endian
 
-        Log.vv(TAG, "Parsing MID " + mid + " PID " + pid);
+        boolean log_parsing = Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE); // don't build the strings below unless we will log them
+
+        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE_VERBOSE)) {
+            Log.vv(TAG, "Parsing MID " + mid + " PID " + pid);
+        }
 
         // check if we need to forward "raw" data to somewhere else
-        engine.checkRawForwarding(Engine.BUS_TYPE_J1587, pid, mid, data);
+        engine.checkRawForwarding(BusHost.BUS_TYPE_J1587, pid, mid, data);
+
+        // numeric parameters are decoded by the table, the switch below is only for PIDs that need more handling
+        J1587PidTable pidValues = engine.getPidValues();
+        pidValues.decode(pid, mid, data, start_index, length, engine.getClock().elapsedRealtime());
 
         long lval;
         switch(pid) {
 
             case PID_LAMPS:
-                Log.v(TAG, "Parsing Lamp Status From " + mid + " PID " + pid);
+                if (log_parsing) Log.v(TAG, "Parsing Lamp Status From " + mid + " PID " + pid);
                 if (length != 1) {
                     Log.e(TAG, "Expected Lamp Status value to be 1 byte long");
                     return;
@@ -363,12 +345,12 @@ public class J1587 extends EngineBus {
                 addLamps((int) lval);
                 break;
             case PID_VIN:
-                Log.v(TAG, "Parsing VIN From " + mid + " PID " + pid);
+                if (log_parsing) Log.v(TAG, "Parsing VIN From " + mid + " PID " + pid);
                 String newVin = new String(data, start_index, length);
                 checkVin(newVin);
                 break;
             case PID_ODOMETER:
-                Log.v(TAG, "Parsing Odometer From " + mid + " PID " + pid);
+                if (log_parsing) Log.v(TAG, "Parsing Odometer From " + mid + " PID " + pid);
                 // should be 4 bytes
                 if (length != 4) {
                     Log.e(TAG, "Expected Odometer value to be 4 bytes long");
@@ -376,12 +358,12 @@ public class J1587 extends EngineBus {
                 }
                 // Bit Resolution: 0.161 km (0.1 mi)
                 // so each unit is 160.9 = 161 meters
-                lval = littleEndian2Long(data, start_index, length);
-                checkOdometer(lval * 161);
+                if (!pidValues.isValid(pid)) return; // not available
+                checkOdometer((long) pidValues.getValue(pid, 0));
 
                 break;
             case PID_FUEL_CONSUMPTION:
-                Log.v(TAG, "Parsing Total Fuel From " + mid + " PID " + pid);
+                if (log_parsing) Log.v(TAG, "Parsing Total Fuel From " + mid + " PID " + pid);
                 // should be 4 bytes
                 if (length != 4) {
                     Log.e(TAG, "Expected Total Fuel value to be 4 bytes long");
@@ -390,8 +372,8 @@ public class J1587 extends EngineBus {
 
                 // Bit Resolution: 0.473 L (0.125 gal
                 // 0.47317647 L = 473 mL
-                lval = littleEndian2Long(data, start_index, length);
-                checkFuelConsumption(lval * 473);
+                if (!pidValues.isValid(pid)) return; // not available
+                checkFuelConsumption((long) pidValues.getValue(pid, 0));
 
                 break;
             case PID_DIAGNOSTICS:
@@ -413,15 +395,18 @@ public class J1587 extends EngineBus {
 
                 int num_processed_bytes = 0; // number of bytes of dtcs processed from thus packet
 
-                Log.v(TAG, "Parsing DTCs From " + mid + " PID " + pid + " (" + length + " bytes) = x" +
-                    Log.bytesToHex(data, start_index, length)
-
-                );
+                if (log_parsing) {
+                    Log.v(TAG, "Parsing DTCs From " + mid + " PID " + pid + " (" + length + " bytes) = x" +
+                        Log.bytesToHex(data, start_index, length)
+                    );
+                }
 
 
                 startCollectingDtcs(); // if we are not yet collecting, this starts the timer
+                clearReportedDtcs();
 
                 Dtc dtc;
+                boolean complete = true;
                 while(num_processed_bytes < length) {
 
                     // Parse out each DTC from the array of bytes
@@ -431,15 +416,23 @@ public class J1587 extends EngineBus {
 
                     if (dtc ==null) {
                         Log.v(TAG, "DTC: Null value ??");
+                        complete = false;
                         break; // if something is wrong we must stop parsing since we don't know how many bytes to use
                     }
 
-                    addDtc(dtc);
+                    addReportedDtc(dtc);
 
                     i += dtc.bytes_parsed;
                     num_processed_bytes += dtc.bytes_parsed;
                 }
 
+                // this is everything that is active at this MID, new codes are reported now
+                //  (but don't count anything as missing if we could not parse the whole list)
+                if (complete)
+                    checkReportedDtcs(mid);
+                else
+                    clearReportedDtcs();
+
                 break;
 
         }
@@ -610,7 +603,9 @@ public class J1587 extends EngineBus {
     /////////////////////////////////////////////////////////
     private void sendPacket(Packet packet) {
 
-        Log.vv(TAG, "packet --> P" + packet.priority + " " + packet.messageId + " : " + Log.bytesToHex(packet.data, packet.data.length));
+        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE_VERBOSE)) { // don't build the string unless we will log it
+            Log.vv(TAG, "packet --> P" + packet.priority + " " + packet.messageId + " : " + Log.bytesToHex(packet.data, packet.data.length));
+        }
 
         //Log.vv(TAG, "SendPacket()");
 
@@ -621,115 +616,125 @@ public class J1587 extends EngineBus {
     } // sendPacket()
 
 
+    // the PIDs parsed from the last packet, so we can return them for unit testing (first numParsedPids are valid)
+    static final int MAX_RETURN_PIDS = 3;
+    int[] parsedPids = new int[MAX_RETURN_PIDS];
+    int numParsedPids = 0;
+
+
     /////////////////////////////////////////////////////////
     // receivePacket()
-    //  receives a packet from the CAN bus
+    //  receives a packet from the J1708 bus
     //  Returns:
     //      null : did not parse any PIDs
     //      array of ints : up to first three PIDs that were parsed (up to max amount of 10
     /////////////////////////////////////////////////////////
     int[] receivePacket(Packet packet) {
 
+        if (receivePacket(packet.messageId, packet.priority, packet.data, packet.data.length) == 0)
+            return null;
+
+        return Arrays.copyOf(parsedPids, numParsedPids);
 
-        if (packet.messageId < MID_J1587_MINIMUM) {
+    } // receivePacket()
+
+
+    /////////////////////////////////////////////////////////
+    // receivePacket()
+    //  receives a packet from the J1708 bus, walking through the data where it is (nothing is allocated)
+    //  Returns:
+    //      the number of PIDs that were parsed (the first ones are in parsedPids)
+    /////////////////////////////////////////////////////////
+    int receivePacket(int mid, int priority, byte[] data, int data_length) {
+
+        numParsedPids = 0;
+
+        if (mid < MID_J1587_MINIMUM) {
             // not a J1587 message ID, there can be other protocols running on J1708
-            return null;
+            return 0;
         }
 
-        engine.setBusDetected(Engine.BUS_TYPE_J1587); // let the engine know we have detected data on this bus;
+        engine.setBusDetected(BusHost.BUS_TYPE_J1587); // let the engine know we have detected data on this bus;
         setRecentRxReceived();
         setBusStatus(BUS_STATUS_UP); // guarantee that bus status is now up, even if it was something other than IDLE
 
 
         // OK, This is a valid J1587 packet
 
-        Log.vv(TAG, "packet <-- P" + packet.priority + " " + packet.messageId + " : " + Log.bytesToHex(packet.data, packet.data.length));
+        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE_VERBOSE)) { // don't build the string unless we will log it
+            Log.vv(TAG, "packet <-- P" + priority + " " + mid + " : " + Log.bytesToHex(data, data_length));
+        }
 
 
-        if (packet.data.length == 0) {
+        if (data_length == 0) {
             Log.e(TAG, "Empty message has no PIDs (message length = 0)");
-            return null;
+            return 0;
         }
 
-
-        // variables for returning what we did
-        final int MAX_RETURN_PIDS = 3;
-        int[] parsedPIDs = new int[] {0,0,0}; // this should be length of MAX_RETURN PIDS
-        int num_parsed_pids = 0;
+        int num_parsed = 0;
 
         // We need to parse out PIDs from the data
         int i =0;
         int length;
         int pid;
-        int mid = packet.messageId;
 
-        boolean is_second_page_pid = false; // the pids in this message are first page
+        int page = 0; // the pids in this message are first page
 
         // The first byte may be PID_EXTENSION, which means all PIDs are second page
-        if (packet.data[0] == PID_EXTENSION) {
-            is_second_page_pid = true;
+        if ((data[0] & 0xFF) == PID_EXTENSION) {
+            page = 256;
             i = 1; // start at the next byte (index 1)
         }
 
 
-        while (i < packet.data.length) {
-            pid = ((int) packet.data[i] & 0xFF);
-
-            if (is_second_page_pid) pid += 256; // this is a second page PID
+        while (i < data_length) {
+            pid = ((int) data[i] & 0xFF) + page;
 
             i++;
-            length = 0;
 
-            if ((pid % 256) == PID_ESCAPE) {
+            if ((pid & 0xFF) == PID_ESCAPE) {
                 Log.e(TAG, "Packet contains escape character at [" + i + "]. Processing aborted.");
-                return null;
+                return 0;
             }
-            else
-            if ((pid % 256) <= PID_MAX_ONE_BYTE) {
-                // pid is only one byte long
-                length = 1;
-            } else
-            if ((pid % 256) <= PID_MAX_TWO_BYTE) {
-                // pid is two bytes long
-                length = 2;
-            } else
-            if ((pid % 256) <= PID_MAX_VAR_BYTE) {
+
+            length = J1587PidTable.getLengthClass(pid);
+            if (length == J1587PidTable.LENGTH_INVALID) length = 0; // has no data
+
+            if (length == J1587PidTable.LENGTH_VARIABLE) {
                 // Next byte determines the length
-                if (i >= packet.data.length) {
+                if (i >= data_length) {
                     Log.e(TAG, "Packet too small. Expected variable length at [" + i +"] for PID=" + pid);
-                    return null;
+                    return 0;
                 }
 
-                length = ((int) packet.data[i] & 0xFF);
+                length = ((int) data[i] & 0xFF);
                 i++;
             }
 
             // It is possible to receive a PID with length 0 (e.g. Diagnostic PID with no DTCs reporting)
-            //if (length ==0) {
-            //    Log.e(TAG, "Received PID=" + pid + " with unknown length. Processing aborted.");
-            //    return null;
-            //}
-            if (i+length > packet.data.length) { // this is >, not >=, because we are already pointing at byte after the PID
+            if (i+length > data_length) { // this is >, not >=, because we are already pointing at byte after the PID
                 Log.e(TAG, "Packet too small. Expected " + length +" bytes data at [" + i + "] for PID=" + pid );
-                return null;
+                return 0;
             }
-            parsePid(mid, pid, packet.data, i, length);
+            parsePid(mid, pid, data, i, length);
+            engine.markReceived(BusHost.BUS_TYPE_J1587, pid, mid); // no need to request what we just got
             i+=length;
 
             // and remember what we did so we can return for unit testing
-            if (num_parsed_pids < MAX_RETURN_PIDS) {
-                parsedPIDs[num_parsed_pids] = pid;
-                num_parsed_pids++;
+            if (num_parsed < MAX_RETURN_PIDS) {
+                parsedPids[num_parsed] = pid;
             }
+            num_parsed++;
 
         } // while more to parse
 
-        if (num_parsed_pids == 0) {
+        numParsedPids = (num_parsed < MAX_RETURN_PIDS ? num_parsed : MAX_RETURN_PIDS);
+
+        if (num_parsed == 0) {
             Log.e(TAG, "Could not find any PIDs in packet");
-            return null;
         }
 
-        return Arrays.copyOf(parsedPIDs, num_parsed_pids);
+        return num_parsed;
 
     } // receivePacket()
 
@@ -745,6 +750,28 @@ public class J1587 extends EngineBus {
     } // receiveJ1708Frame()
 
 
+    ////////////////////////////////////////////////////////////////
+    // receiveJ1708Frame()
+    //  receives a frame without wrapping it in objects first
+    //  Returns the number of PIDs that were parsed
+    ////////////////////////////////////////////////////////////////
+    int receiveJ1708Frame(int id, int priority, byte[] data) {
+
+        if (data == null) return 0;
+        return receivePacket(id, priority, data, data.length);
+
+    } // receiveJ1708Frame()
+
+
+    // same as above, but only the first data_length bytes of data are the frame
+    int receiveJ1708Frame(int id, int priority, byte[] data, int data_length) {
+
+        if (data == null) return 0;
+        return receivePacket(id, priority, data, data_length);
+
+    } // receiveJ1708Frame()
+
+
     /*
 
     //////////////////////////////////////////////////////////////////
@@ -760,7 +787,7 @@ public class J1587 extends EngineBus {
     boolean setupJ1708bus() {
         if (!isSupported()) return false; // we don't support J1587
 
-        j1708 = new J1708(engine.service.isUnitTesting);
+        j1708 = new J1708(engine.isUnitTesting());
         j1708.setReceiveCallbacks(mainHandler, frameAvailableCallback, busReadyRxCallback, busReadyTxCallback);
 
         return true;
@@ -853,22 +880,7 @@ public class J1587 extends EngineBus {
     void startJ1708bus() {
         Log.v(TAG, "Starting Vbus/J1708 Service");
 
-        try {
-            IntentFilter intentFilter = new IntentFilter();
-            intentFilter.addAction(VehicleBusConstants.BROADCAST_J1708_RX);
-            engine.service.context.registerReceiver(rxReceiver, intentFilter, VehicleBusConstants.PERMISSION_VBS_TXRX, null);
-        } catch (Exception e) {
-            Log.e(TAG, "Could not register CAN Rx receiver");
-        }
-
-        //ComponentName component = ComponentName(VehicleBusConstants.PACKAGE_NAME, VehicleBusConstants.SERVICE_CLASS_NAME);
-
-        Intent serviceIntent = new Intent();
-        serviceIntent.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
-        serviceIntent.setAction(VehicleBusConstants.SERVICE_ACTION_START);
-
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BUS, "J1708");
-        engine.service.context.startService(serviceIntent);
+        engine.getBusLink().startJ1708(rxReceiver);
 
     }
 
@@ -876,18 +888,7 @@ public class J1587 extends EngineBus {
 
         Log.v(TAG, "Stopping Vbus/J1708 Service");
 
-        try {
-            engine.service.context.unregisterReceiver(rxReceiver);
-        } catch(Exception e) {
-            // don't do anything
-        }
-
-        Intent serviceIntent = new Intent();
-        serviceIntent.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
-        serviceIntent.setAction(VehicleBusConstants.SERVICE_ACTION_STOP);
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BUS, "J1708");
-
-        engine.service.context.startService(serviceIntent);
+        engine.getBusLink().stopJ1708();
 
     }
 
@@ -896,53 +897,27 @@ public class J1587 extends EngineBus {
 
     void broadcastTx(J1708Frame frame) {
 
-        if (engine.service.isUnitTesting) {
+        if (engine.isUnitTesting()) {
             // just place this in a list so we can test against it
             outgoingList.add(frame);
             return;
         }
 
-        Intent ibroadcast = new Intent();
-        ibroadcast.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
-        ibroadcast.setAction(VehicleBusConstants.BROADCAST_J1708_TX);
-
-
-        //ibroadcast.putExtra("password", VehicleBusService.BROADCAST_PASSWORD);
-        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_ID, frame.id);
-        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_PRIORITY, frame.priority);
-        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_DATA, frame.data);
-
-        engine.service.context.sendBroadcast(ibroadcast);
+        engine.getBusOutput().sendJ1708Frame(frame.id, frame.priority, frame.data);
     } // broadcastTx()
 
 
-    RxReceiver rxReceiver = new RxReceiver();
-    class RxReceiver extends BroadcastReceiver {
+    BusLink.J1708Receiver rxReceiver = new BusLink.J1708Receiver() {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-
+        public void onJ1708Frame(int id, int priority, byte[] data) {
             try {
-                /*
-                String password = intent.getStringExtra("password");
-                if ((password == null) || (!password.equals(VehicleBusService.BROADCAST_PASSWORD))) {
-                    Log.e(TAG, "Received invalid J1708 RX broadcast");
-                    return;
-                }
-                */
-
-                J1708Frame frame = new J1708Frame();
-
-                frame.priority = intent.getIntExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_PRIORITY, -1);
-                frame.id = intent.getIntExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_ID, -1);
-                frame.data = intent.getByteArrayExtra(VehicleBusConstants.BROADCAST_EXTRA_J1708_DATA);
-
-                receiveJ1708Frame(frame);
+                receiveJ1708Frame(id, priority, data);
             } catch (Exception e) {
-                Log.e(TAG, ".RxReceiver Exception : " + e.toString(), e);
+                Log.e(TAG, ".rxReceiver Exception : " + e.toString(), e);
             }
         }
-    } // RxReceiver
+    }; // rxReceiver
 
 
 } // class J1587
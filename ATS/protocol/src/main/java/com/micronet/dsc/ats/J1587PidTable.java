@@ -0,0 +1,210 @@
+/////////////////////////////////////////////////////////////
+// J1587PidTable:
+//  Definitions of the J1587 parameters (PIDs) we decode, and the latest value received for each one.
+//  Everything is kept in primitive arrays indexed directly by PID number (page 1 = 0-255, page 2 = 256-511),
+//      so decoding a PID is one array lookup and does not allocate.
+//
+//  The length of each PID's data is determined by its number (J1587 length classes):
+//      0-127 : 1 byte, 128-191 : 2 bytes, 192-253 : variable (the first data byte is the length)
+//      254 is the escape and 255 the page extension, these have no data of their own.
+//  Page 2 PIDs follow the same classes, using the PID number - 256.
+//
+//  To decode another parameter, add it to defineDefaults() (or call define()).
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public class J1587PidTable {
+
+    private static final String TAG = "ATS-J1587Pids";
+
+    public static final int NUM_PIDS = 512; // page 1 and page 2
+
+    // length classes
+    public static final int LENGTH_INVALID = -1; // escape/extension, not a real PID
+    public static final int LENGTH_VARIABLE = 0; // length is given in the first data byte
+    public static final int LENGTH_ONE_BYTE = 1;
+    public static final int LENGTH_TWO_BYTES = 2;
+
+    // decodings
+    public static final int DECODE_NONE = 0; // not in the table
+    public static final int DECODE_UNSIGNED = 1; // little endian unsigned integer, all 1s = not available
+    public static final int DECODE_SIGNED = 2; // little endian two's complement integer
+
+    public static final int MAX_VALUE_BYTES = 4; // longest integer we will decode
+
+
+    // definitions (indexed by PID)
+    byte[] decodings = new byte[NUM_PIDS];
+    double[] scales = new double[NUM_PIDS];
+    double[] offsets = new double[NUM_PIDS];
+
+    // latest values (indexed by PID)
+    long[] rawValues = new long[NUM_PIDS];
+    double[] values = new double[NUM_PIDS];
+    boolean[] valid = new boolean[NUM_PIDS]; // false until received, or if the last value was not available
+    long[] updateTimes = new long[NUM_PIDS]; // elapsed realtime of the last update, 0 = never
+    int[] sources = new int[NUM_PIDS]; // MID of the last update
+
+    // the PIDs that are defined, in the order they were defined (for iterating)
+    int count = 0;
+    int[] definedPids = new int[16];
+
+
+    public J1587PidTable() {
+        defineDefaults();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // defineDefaults()
+    //  the parameters we decode from J1587
+    //  values are converted to metric units
+    ////////////////////////////////////////////////////////////////////
+    void defineDefaults() {
+
+        // single byte
+        define(84, DECODE_UNSIGNED, 0.805, 0); // road speed, km/h
+        define(91, DECODE_UNSIGNED, 0.4, 0); // accelerator pedal position, %
+        define(92, DECODE_UNSIGNED, 0.5, 0); // engine load, %
+        define(96, DECODE_UNSIGNED, 0.5, 0); // fuel level, %
+        define(100, DECODE_UNSIGNED, 3.447, 0); // engine oil pressure, kPa
+        define(102, DECODE_UNSIGNED, 0.862, 0); // boost pressure, kPa
+        define(105, DECODE_UNSIGNED, 5.0 / 9.0, -32.0 * 5.0 / 9.0); // intake manifold temperature, C (from 1 F)
+        define(110, DECODE_UNSIGNED, 5.0 / 9.0, -32.0 * 5.0 / 9.0); // engine coolant temperature, C (from 1 F)
+
+        // double byte
+        define(168, DECODE_UNSIGNED, 0.05, 0); // battery potential, V
+        define(171, DECODE_SIGNED, 0.25 * 5.0 / 9.0, -32.0 * 5.0 / 9.0); // ambient air temperature, C (from 0.25 F)
+        define(183, DECODE_UNSIGNED, 0.016428 * 3.6, 0); // fuel rate, L/h (from 16.428e-6 L/s = 0.016428 mL/s)
+        define(190, DECODE_UNSIGNED, 0.25, 0); // engine speed, rpm
+
+        // variable
+        define(J1587.PID_ODOMETER, DECODE_UNSIGNED, 161, 0); // total vehicle distance, m
+        define(247, DECODE_UNSIGNED, 0.05, 0); // total engine hours, h
+        define(J1587.PID_FUEL_CONSUMPTION, DECODE_UNSIGNED, 473, 0); // total fuel used, mL
+
+    } // defineDefaults()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // define()
+    //  adds (or changes) the definition of a PID, value = raw * scale + offset
+    ////////////////////////////////////////////////////////////////////
+    public void define(int pid, int decoding, double scale, double offset) {
+
+        if ((pid < 0) || (pid >= NUM_PIDS) || (getLengthClass(pid) == LENGTH_INVALID)) {
+            Log.e(TAG, "Cannot define PID " + pid);
+            return;
+        }
+
+        if (decodings[pid] == DECODE_NONE) {
+            if (count == definedPids.length) definedPids = java.util.Arrays.copyOf(definedPids, count * 2);
+            definedPids[count++] = pid;
+        }
+
+        decodings[pid] = (byte) decoding;
+        scales[pid] = scale;
+        offsets[pid] = offset;
+        valid[pid] = false;
+        updateTimes[pid] = 0;
+
+    } // define()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // getLengthClass()
+    //  returns the number of data bytes for the PID, or LENGTH_VARIABLE or LENGTH_INVALID
+    ////////////////////////////////////////////////////////////////////
+    public static int getLengthClass(int pid) {
+        int p = pid & 0xFF; // page 2 PIDs use the same classes
+        if (p <= J1587.PID_MAX_ONE_BYTE) return LENGTH_ONE_BYTE;
+        if (p <= J1587.PID_MAX_TWO_BYTE) return LENGTH_TWO_BYTES;
+        if (p <= J1587.PID_MAX_VAR_BYTE) return LENGTH_VARIABLE;
+        return LENGTH_INVALID;
+    } // getLengthClass()
+
+
+    public boolean isDefined(int pid) {
+        return ((pid >= 0) && (pid < NUM_PIDS) && (decodings[pid] != DECODE_NONE));
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // decode()
+    //  decodes the PID's data where it is in the received packet, and stores the value
+    //  Returns true if the PID is in the table and was decoded
+    ////////////////////////////////////////////////////////////////////
+    public boolean decode(int pid, int mid, byte[] data, int start_index, int length, long now) {
+
+        if ((pid < 0) || (pid >= NUM_PIDS)) return false;
+        int decoding = decodings[pid];
+        if (decoding == DECODE_NONE) return false;
+        if ((length <= 0) || (length > MAX_VALUE_BYTES)) return false;
+
+        long raw = 0;
+        for (int b = length - 1; b >= 0; b--) {
+            raw = (raw << 8) | (data[start_index + b] & 0xFF);
+        }
+
+        rawValues[pid] = raw;
+        sources[pid] = mid;
+        updateTimes[pid] = now;
+
+        long all_ones = (1L << (length * 8)) - 1;
+        if (decoding == DECODE_SIGNED) {
+            long sign_bit = 1L << (length * 8 - 1);
+            if ((raw & sign_bit) != 0) raw -= (all_ones + 1); // negative
+            valid[pid] = true;
+        } else {
+            valid[pid] = (raw != all_ones); // all 1s is not available
+        }
+
+        if (valid[pid])
+            values[pid] = raw * scales[pid] + offsets[pid];
+
+        return true;
+    } // decode()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // Reading values
+    ////////////////////////////////////////////////////////////////////
+
+    // size(): number of defined PIDs, use with the *At() functions
+    public int size() {
+        return count;
+    }
+
+    public int getPidAt(int i) {
+        return definedPids[i];
+    }
+
+    public boolean isValid(int pid) {
+        return ((pid >= 0) && (pid < NUM_PIDS) && (valid[pid]));
+    }
+
+    public long getRawValue(int pid) {
+        return rawValues[pid];
+    }
+
+    public long getUpdateTime(int pid) {
+        return updateTimes[pid];
+    }
+
+    public int getSource(int pid) {
+        return sources[pid];
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // getValue()
+    //  returns the latest value of the PID, or default_value if it is unknown, not available, or not defined
+    ////////////////////////////////////////////////////////////////////
+    public double getValue(int pid, double default_value) {
+        if (!isValid(pid)) return default_value;
+        return values[pid];
+    } // getValue()
+
+
+} // class J1587PidTable
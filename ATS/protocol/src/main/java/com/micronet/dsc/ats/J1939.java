@@ -5,13 +5,6 @@
 
 
 package com.micronet.dsc.ats;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.SystemClock;
 
 
 import java.util.ArrayList;
@@ -20,7 +13,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import 	java.util.Random;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 
 public class J1939 extends EngineBus {
@@ -34,18 +26,20 @@ public class J1939 extends EngineBus {
 
 
     private static final String TAG = "ATS-J1939"; // for logging
+    private static final int TAG_ID = Log.tagId(TAG); // for the checks before per-packet logging
     public static final int DTC_COLLECTION_TIME_MS = 2000; // wait this long to collect all reported DTCs (DTCs are sent at 1Hz, this must be longer)
 
 
     static final int DEFAULT_AUTODETECT_BITRATE = 250000; // use 250000 as the default (first) bitrate for auto-detecting if we don't have a speed
-
-
-    ScheduledThreadPoolExecutor exec;
+    static final int MAX_BITRATE_HISTORY = 8; // number of vehicles we remember the CAN bitrate of
 
 
     int[] canFilterIds;     // Frame Ids that we are interested in
     int[] canFilterMasks;   // Corresponding Masks for those ids
     boolean busTxIsReady; // this will be set to true once we are told by service that the bus Tx is ready
+    boolean busAutoDetecting; // we asked VBS to auto-detect the bitrate
+    int busStartBitrate; // the bitrate we asked VBS to start with (or the only one if not auto-detecting)
+    long busStartTime; // elapsed realtime we asked VBS to start the bus
 
 
     // These are really only used for logging
@@ -61,7 +55,7 @@ public class J1939 extends EngineBus {
     int configParkingBrakeDefault = 0; // if parking brake info conflicts, use this value
 
 
-    int last_known_bus_type = Engine.BUS_TYPE_NONE; // type (speed) of bus
+    int last_known_bus_type = BusHost.BUS_TYPE_NONE; // type (speed) of bus
     int last_known_bus_address = J1939_ADDRESS_NULL; // our address on the bus
 
 
@@ -268,6 +262,7 @@ public class J1939 extends EngineBus {
     // logStatus()
     //  This can be called periodically to update the logcat with current info
     public void logStatus() {
+        if (!Log.isEnabled(TAG_ID, Log.LEVEL_DEBUG)) return;
         Log.d(TAG,  engine.getBusName(myBusType) + "= " + (isCommunicating() ? "UP" : "--") + " Addr " + myAddress + " : " +
                 " DTCs " + numCollectedDtcs +
                 " Lamps " + lampStatus +
@@ -287,16 +282,18 @@ public class J1939 extends EngineBus {
     // Parameters:
     //  device_id : The J1939 Name that is broadcast by this node will incorporate the device_id for uniqueness
     ////////////////////////////////////////////////////////////////////
-    public J1939(Engine engine, boolean warmStart, int device_id) {
+    public J1939(BusHost engine, boolean warmStart, int device_id) {
         super.TAG = TAG;
         super.DTC_COLLECTION_TIME_MS = DTC_COLLECTION_TIME_MS;
 
         this.engine = engine;
 
 
-        // and we need to create the connection objects in the array
-        for (int i=0; i< MAX_TP_CONNECTIONS; i++ )
-            connections[i] = new TpConnection();
+        // and we need to create the pool of connection objects
+        setupConnections(DEFAULT_TP_CONNECTIONS);
+
+        // and fill in the PGNs that we know how to decode
+        registerBuiltInDecoders();
 
         // serial numbers are currently 6 digits
         // there are 21 bits available in J1939 protocol for device serial number
@@ -307,7 +304,7 @@ public class J1939 extends EngineBus {
 
         // do we need to re-verify the saved bus ?
 
-        busTypeVerified  = engine.service.state.readStateBool(State.J1939_BUS_VERIFIED); // we've verified this info is correct
+        busTypeVerified  = engine.isJ1939BusVerified(); // we've verified this info is correct
         if (!warmStart) busTypeVerified = false; // we need to re-verify
 
 
@@ -328,6 +325,7 @@ public class J1939 extends EngineBus {
 
     public void setAdditionalPGNs(int[] requested_pgns) {
         additionalPGNs = requested_pgns;
+        setRawForwardPgns(requested_pgns);
     }
 
     ////////////////////////////////////////////////////////////////////
@@ -340,12 +338,18 @@ public class J1939 extends EngineBus {
 
         // retrieve and remember configuration information about how to handle the J1939 data
 
-        configParkingBrakeDefault = engine.service.config.readParameterInt(Config.SETTING_PARKING_BRAKE, Config.PARAMETER_PARKING_BRAKE_CONFLICT_STATE);
+        configParkingBrakeDefault = engine.getParkingBrakeConflictState();
+
+        tpMaxFramesPerBurst = engine.getJ1939FramesPerBurst();
+        if (tpMaxFramesPerBurst < 1) tpMaxFramesPerBurst = 1;
+        if (tpMaxFramesPerBurst > MAX_TP_FRAMES_PER_BURST) tpMaxFramesPerBurst = MAX_TP_FRAMES_PER_BURST;
+
+        setupConnections(engine.getJ1939Connections());
 
 
 
 
-        myBusType = Engine.BUS_TYPE_NONE;
+        myBusType = BusHost.BUS_TYPE_NONE;
 
         setBusStatus(BUS_STATUS_IDLE);
 
@@ -354,10 +358,10 @@ public class J1939 extends EngineBus {
         myAddress = J1939_ADDRESS_NULL; // to start, we don't have an address
         attemptingAddress = J1939_ADDRESS_NULL; // we have not attempted an address
 
-        mainHandler  = new Handler(Looper.getMainLooper());
+        mainHandler  = engine.createScheduler();
 
 
-        setupCanBus(additionalPGNs);
+        setupCanBus(getFilterPgns()); // raw-forwarded PGNs and any other PGNs we registered a decoder for
 
         // start a timer to check bus activity
         hasRecentRx = false; // no recent RX has been received from the bus
@@ -372,8 +376,8 @@ public class J1939 extends EngineBus {
 */
 
         // read information about the last known J1939 connection
-        last_known_bus_type = engine.service.state.readState(State.J1939_BUS_TYPE);
-        last_known_bus_address = engine.service.state.readState(State.J1939_BUS_ADDRESS);
+        last_known_bus_type = engine.getJ1939BusType();
+        last_known_bus_address = engine.getJ1939BusAddress();
         if (last_known_bus_address == 0) // not a valid address for us
             last_known_bus_address = J1939_ADDRESS_NULL;
 
@@ -385,12 +389,7 @@ public class J1939 extends EngineBus {
         // The API does not support listen-only mode, and so we must know the baud rate of the bus before hand
         //  so we cannot discover the baud rate
 
-        int bus_speed_kbs = 0;
-        String bus_speed_str = engine.service.config.readParameterString(Config.SETTING_VEHICLECOMMUNICATION, Config.PARAMETER_VEHICLECOMMUNICATION_J1939_SPEED_KBS);
-
-        if (!bus_speed_str.toUpperCase().equals("AUTO")) {
-            bus_speed_kbs = engine.service.config.readParameterInt(Config.SETTING_VEHICLECOMMUNICATION, Config.PARAMETER_VEHICLECOMMUNICATION_J1939_SPEED_KBS);
-        }
+        int bus_speed_kbs = engine.getJ1939SpeedKbs();
 
         boolean auto_detect = true; // auto-detect the bitrate
 
@@ -399,15 +398,23 @@ public class J1939 extends EngineBus {
 
             // force the bus speed
             if (bus_speed_kbs == 500) {
-                last_known_bus_type = Engine.BUS_TYPE_J1939_500K;
+                last_known_bus_type = BusHost.BUS_TYPE_J1939_500K;
             } else {
-                last_known_bus_type = Engine.BUS_TYPE_J1939_250K;
+                last_known_bus_type = BusHost.BUS_TYPE_J1939_250K;
             }
         }
 
 
         if (busTypeVerified) auto_detect = false; // no reason to auto-detect if we already know the answer.
 
+        if ((auto_detect) && (engine.getVin() != null) && (!engine.getVin().isEmpty())) {
+            // most likely we are still in the same vehicle as last time, start with the bitrate it used
+            int vin_bus_type = bitrateToBusType(readVinBitrate(engine.getVin()));
+            if (vin_bus_type != BusHost.BUS_TYPE_NONE) {
+                last_known_bus_type = vin_bus_type;
+            }
+        }
+
         // Instruct VBS to start up a CAN bus
         discoverBus(last_known_bus_type, busTypeVerified, auto_detect);
 
@@ -453,24 +460,6 @@ public class J1939 extends EngineBus {
     public void destroy() {
     }
 
-    ////////////////////////////////////////////////////////////////////
-    // saveCrashData()
-    //      save data in preparation for an imminent crash+recovery
-    ////////////////////////////////////////////////////////////////////
-    public void saveCrashData(Crash crash) {
-
-        // Intermediate Data that needs to be stored
-
-    } // saveCrashData()
-
-
-    ////////////////////////////////////////////////////////////////////
-    // restoreCrashData()
-    //      restore data from a recent crash
-    ////////////////////////////////////////////////////////////////////
-    public void restoreCrashData(Crash crash) {
-        // Any intermediate Data that needs to be restored
-    } // restoreCrashData()
 
 
 
@@ -513,9 +502,9 @@ public class J1939 extends EngineBus {
     // sendRequestVIN()
     //  sends a request to respond with the vehicle vin
     ////////////////////////////////////////////////////////////////
-    public void sendRequestVIN() {
+    public RequestTracker.Handle sendRequestVIN() {
 
-        sendRequestPGN(PGN_VIN);
+        return sendRequestAsync(PGN_VIN, J1939_ADDRESS_GLOBAL, null);
 
     } // sendRequestVIN()
 
@@ -524,9 +513,9 @@ public class J1939 extends EngineBus {
     // sendRequestOdometerLoRes()
     //  sends a request to respond with the vehicle vin
     ////////////////////////////////////////////////////////////////
-    public void sendRequestOdometerLoRes() {
+    public RequestTracker.Handle sendRequestOdometerLoRes() {
 
-        sendRequestPGN(PGN_ODOMETER_LORES);
+        return sendRequestAsync(PGN_ODOMETER_LORES, J1939_ADDRESS_GLOBAL, null);
 
     } // sendRequestOdometerLoRes()
 
@@ -535,26 +524,25 @@ public class J1939 extends EngineBus {
     // sendRequestTotalFuel()
     //  sends a request to respond with the vehicle vin
     ////////////////////////////////////////////////////////////////
-    public void sendRequestTotalFuel() {
+    public RequestTracker.Handle sendRequestTotalFuel() {
 
-        sendRequestPGN(PGN_FUEL_CONSUMPTION);
+        return sendRequestAsync(PGN_FUEL_CONSUMPTION, J1939_ADDRESS_GLOBAL, null);
 
     } // sendRequestTotalFuel()
 
 
     ////////////////////////////////////////////////////////////////
-    // sendRequestCustom()
-    //  sends a request for the PGNs in the list
+    // sendRequestAsync()
+    //  sends a request for a PGN, and returns a handle that is completed when the response arrives or times out
+    //  destination: address of the ECU to ask, or J1939_ADDRESS_GLOBAL
+    //  listener: told when the request is complete (may be null)
     ////////////////////////////////////////////////////////////////
-    public void sendRequestCustom(int[] pgns_array) {
-
-        if (pgns_array == null) return;
+    public RequestTracker.Handle sendRequestAsync(int pgn, int destination, RequestTracker.Listener listener) {
 
-        for (int pgn : pgns_array) {
-            sendRequestPGN(pgn);
-        }
+        return engine.getRequestTracker().request(BusHost.BUS_TYPE_J1939, pgn, destination,
+                RequestTracker.DEFAULT_TIMEOUT_MS, listener, engine.getClock().elapsedRealtime());
 
-    } // sendRequestCustom()
+    } // sendRequestAsync()
 
 
     ///////////////////////////////////////////////////////////////////
@@ -570,7 +558,7 @@ public class J1939 extends EngineBus {
 
     String checkVin(String newVin) {
         vin = newVin;
-        return engine.checkVin(Engine.BUS_TYPE_J1939,  newVin);
+        return engine.checkVin(BusHost.BUS_TYPE_J1939,  newVin);
     }
 
 
@@ -630,13 +618,13 @@ public class J1939 extends EngineBus {
         } // conflict
 
         // and report this up the chain
-        return engine.checkParkingBrake(Engine.BUS_TYPE_J1939, flagParkingBrake);
+        return engine.checkParkingBrake(BusHost.BUS_TYPE_J1939, flagParkingBrake);
     } // checkParkingBrake()
 
 
     boolean checkReverseGear(boolean on) {
         flagReverseGear = on;
-        return engine.checkReverseGear(Engine.BUS_TYPE_J1939, on);
+        return engine.checkReverseGear(BusHost.BUS_TYPE_J1939, on);
 
     } // checkReverseGear()
 
@@ -659,20 +647,20 @@ public class J1939 extends EngineBus {
         }
 
         odometer_m = new_odometer_m;
-        return engine.checkOdometer(Engine.BUS_TYPE_J1939, new_odometer_m);
+        return engine.checkOdometer(BusHost.BUS_TYPE_J1939, new_odometer_m);
 
     } // checkOdometer()
 
     long checkFuelConsumption(long new_fuel_mL) {
 
         fuel_mL = new_fuel_mL;
-        return engine.checkFuelConsumption(Engine.BUS_TYPE_J1939, new_fuel_mL);
+        return engine.checkFuelConsumption(BusHost.BUS_TYPE_J1939, new_fuel_mL);
 
     } // checkFuelConsumption()
 
     long checkFuelEconomy(long new_fuel_mperL) {
         fuel_mperL = new_fuel_mperL;
-        return engine.checkFuelEconomy(Engine.BUS_TYPE_J1939, new_fuel_mperL);
+        return engine.checkFuelEconomy(BusHost.BUS_TYPE_J1939, new_fuel_mperL);
 
     } // checkFuelEconomy()
 
@@ -698,16 +686,16 @@ public class J1939 extends EngineBus {
         Log.v(TAG, "selectBus(" + bus_type + ")");
 
         // clear the J1939 bus types in the engine communication bitfield, we will mark the correct one below
-        engine.clearBusDetected(Engine.BUS_TYPE_J1939_500K);
-        engine.clearBusDetected(Engine.BUS_TYPE_J1939_250K);
+        engine.clearBusDetected(BusHost.BUS_TYPE_J1939_500K);
+        engine.clearBusDetected(BusHost.BUS_TYPE_J1939_250K);
 
         switch (bus_type) {
-            case Engine.BUS_TYPE_J1939_250K:
-                engine.setBusDetected(Engine.BUS_TYPE_J1939_250K);
+            case BusHost.BUS_TYPE_J1939_250K:
+                engine.setBusDetected(BusHost.BUS_TYPE_J1939_250K);
                 startCanBus(250000, false, canFilterIds, canFilterMasks); // permanently select this bus (not read-only)
                 break;
-            case Engine.BUS_TYPE_J1939_500K:
-                engine.setBusDetected(Engine.BUS_TYPE_J1939_500K);
+            case BusHost.BUS_TYPE_J1939_500K:
+                engine.setBusDetected(BusHost.BUS_TYPE_J1939_500K);
                 startCanBus(500000, false, canFilterIds, canFilterMasks);
                 break;
             default:
@@ -723,9 +711,9 @@ public class J1939 extends EngineBus {
 
     int busTypeToSpeed(int bus_type) {
         switch (bus_type) {
-            case Engine.BUS_TYPE_J1939_500K:
+            case BusHost.BUS_TYPE_J1939_500K:
                 return 500000;
-            case Engine.BUS_TYPE_J1939_250K:
+            case BusHost.BUS_TYPE_J1939_250K:
                 return 250000;
             default:
                 return 0;
@@ -735,11 +723,11 @@ public class J1939 extends EngineBus {
     int bitrateToBusType(int bitrate) {
         switch (bitrate) {
             case 500000:
-                return Engine.BUS_TYPE_J1939_500K;
+                return BusHost.BUS_TYPE_J1939_500K;
             case 250000:
-                return Engine.BUS_TYPE_J1939_250K;
+                return BusHost.BUS_TYPE_J1939_250K;
             default:
-                return Engine.BUS_TYPE_NONE;
+                return BusHost.BUS_TYPE_NONE;
         }
     }
 
@@ -757,8 +745,8 @@ public class J1939 extends EngineBus {
         //Log.v(TAG, "discoverBus starting @ " + bitrate + "kb " + (verified ? "pre-verified " : "unverified ") + (auto_detect ? "auto-detect" : ""));
 
         // clear the J1939 bus types in the engine communication bitfield, we will mark the correct one below
-        engine.clearBusDetected(Engine.BUS_TYPE_J1939_500K);
-        engine.clearBusDetected(Engine.BUS_TYPE_J1939_250K);
+        engine.clearBusDetected(BusHost.BUS_TYPE_J1939_500K);
+        engine.clearBusDetected(BusHost.BUS_TYPE_J1939_250K);
 
         if (bitrate != 0) {
             startCanBus(bitrate, verified, auto_detect, canFilterIds, canFilterMasks);
@@ -772,7 +760,11 @@ public class J1939 extends EngineBus {
             }
         }
 
-        myBusType = Engine.BUS_TYPE_NONE; // we have an unknown bus
+        busAutoDetecting = auto_detect;
+        busStartBitrate = (bitrate != 0 ? bitrate : DEFAULT_AUTODETECT_BITRATE);
+        busStartTime = engine.getClock().elapsedRealtime();
+
+        myBusType = BusHost.BUS_TYPE_NONE; // we have an unknown bus
     } // discoverBus()
 
 
@@ -790,20 +782,102 @@ public class J1939 extends EngineBus {
             return;
         }
 
-        if (bus_type == Engine.BUS_TYPE_NONE) {
+        if (bus_type == BusHost.BUS_TYPE_NONE) {
             Log.e(TAG, "VBS reports unknown CAN bitrate: " + bitrate);
             return;
         }
 
-        engine.service.state.writeState(State.J1939_BUS_TYPE, bus_type);
-        engine.service.state.writeState(State.J1939_BUS_VERIFIED, 1); // we've verified this info is correct
+        engine.rememberJ1939BusType(bus_type); // we've verified this info is correct
         engine.setBusDetected(bus_type);
         myBusType = bus_type;
 
-        Log.v(TAG, "remembering CAN bitrate: " + bitrate);
+        Log.i(TAG, "remembering CAN bitrate: " + bitrate + " (" + (engine.getClock().elapsedRealtime() - busStartTime) + " ms after start)");
+
+        if (engine.getVinBusType() != BusHost.BUS_TYPE_NONE) {
+            // we already know which vehicle this is
+            rememberVinBitrate(engine.getVin(), bitrate);
+        }
     } // markDiscovered()
 
 
+    ///////////////////////////////////////////////////////////////
+    // checkVinBitrate()
+    //  called when the VIN is received (from any bus)
+    //  if the bitrate is known, remember it for this vehicle,
+    //  otherwise if we are still auto-detecting and we know this vehicle, go straight to its bitrate
+    ///////////////////////////////////////////////////////////////
+    void checkVinBitrate(String vin) {
+
+        if ((vin == null) || (vin.isEmpty())) return;
+
+        if (myBusType != BusHost.BUS_TYPE_NONE) {
+            rememberVinBitrate(vin, busTypeToSpeed(myBusType));
+            return;
+        }
+
+        if (!busAutoDetecting) return;
+
+        int bitrate = readVinBitrate(vin);
+        if ((bitrate == 0) || (bitrate == busStartBitrate)) return;
+
+        Log.i(TAG, "VIN " + vin + " last used CAN bitrate " + bitrate + ", restarting detection there");
+        stopCanBus(); // so VBS stops its current discovery before starting the new one
+        discoverBus(bitrateToBusType(bitrate), false, true);
+
+    } // checkVinBitrate()
+
+
+    ///////////////////////////////////////////////////////////////
+    // readVinBitrate()
+    //  returns the CAN bitrate the vehicle used the last time we saw it, or 0 if we haven't
+    ///////////////////////////////////////////////////////////////
+    int readVinBitrate(String vin) {
+
+        String history = engine.getJ1939BitrateHistory();
+        if ((history == null) || (history.isEmpty())) return 0;
+
+        for (String entry : history.split("\\|")) {
+            int sep = entry.lastIndexOf('=');
+            if ((sep > 0) && (entry.substring(0, sep).equals(vin))) {
+                try {
+                    return Integer.parseInt(entry.substring(sep + 1));
+                } catch (Exception e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    } // readVinBitrate()
+
+
+    ///////////////////////////////////////////////////////////////
+    // rememberVinBitrate()
+    //  saves the CAN bitrate of this vehicle, at the front of the history
+    ///////////////////////////////////////////////////////////////
+    void rememberVinBitrate(String vin, int bitrate) {
+
+        if ((vin == null) || (vin.isEmpty()) || (bitrate == 0)) return;
+
+        String history = engine.getJ1939BitrateHistory();
+        String entry = vin + "=" + bitrate;
+
+        StringBuilder sb = new StringBuilder(entry);
+        int count = 1;
+        if ((history != null) && (!history.isEmpty())) {
+            if (history.equals(entry) || history.startsWith(entry + "|")) return; // already at the front
+
+            for (String old : history.split("\\|")) {
+                if (count >= MAX_BITRATE_HISTORY) break;
+                if ((old.isEmpty()) || (old.startsWith(vin + "="))) continue;
+                sb.append('|').append(old);
+                count++;
+            }
+        }
+
+        engine.setJ1939BitrateHistory(sb.toString());
+    } // rememberVinBitrate()
+
+
 
 
 
@@ -955,7 +1029,7 @@ public class J1939 extends EngineBus {
                     sendClaimedAddress(newaddress); // let everyone know we couldn't claim
                     // Nothing we can do since there were no addresses available
                     // Trigger a watchdog message here?
-                    engine.service.addEventWithExtra(EventType.EVENT_TYPE_ERROR, EventType.ERROR_J1939_NOADDRESSAVAILABLE);
+                    engine.reportNoAddressAvailable();
                     // remember that we failed.
                     setBusStatus(BUS_STATUS_FAILED);
                 }
@@ -1045,7 +1119,7 @@ public class J1939 extends EngineBus {
                 attemptingAddress = J1939_ADDRESS_NULL;
 
                 // remember our address for next time
-                engine.service.state.writeState(engine.service.state.J1939_BUS_ADDRESS, myAddress);
+                engine.rememberJ1939BusAddress(myAddress);
 
 
                 // TODO: Start sending and receiving data as needed.
@@ -1135,7 +1209,7 @@ public class J1939 extends EngineBus {
             if (mainHandler != null) { // we're not trying to call this before we called start on the I/O
                 mainHandler.removeCallbacks(addressNullDelayTask);
                 mainHandler.postDelayed(addressNullDelayTask, delay_ms);
-                if (engine.service.isUnitTesting) {
+                if (engine.isUnitTesting()) {
                     // don't wait for the time-out, just perform it now
                     addressNullDelayTask.run();
                 }
@@ -1210,25 +1284,70 @@ public class J1939 extends EngineBus {
         int expected_bytes;
         int expected_packets; //if this is set to 0 then the connection is "closed"
         int max_packets_per_burst;
+        int burst_last_packet; // sequence number of the last packet in the current burst (we send the next CTS after it)
         int source_address; // the remote address that sourced the connection
         int destination_address; // us (or the global address)
         long timeout_elapsedms; // time that this connection will expire in elapsed ms
-        byte[] data;
+        byte[] data; // re-used between connections, may be larger than expected_bytes
     } // class
 
-    public static final int MAX_TP_CONNECTIONS = 5; // maximum # of simultaneous connections
-            // note: we may have a couple nodes sending multiple DTCs, and a couple nodes sending VIN responses at the same time
-    public static final int MAX_TP_FRAMES_PER_BURST = 1; // maximum number of frames we will accept in each burst
+    public static final int DEFAULT_TP_CONNECTIONS = 16; // default maximum # of simultaneous connections
+            // note: we may have several nodes sending multiple DTCs, and several nodes sending VIN responses at the same time
+    public static final int MAX_TP_CONNECTIONS = 64; // upper limit for the configured number of connections
+    public static final int DEFAULT_TP_FRAMES_PER_BURST = 16; // default maximum number of frames we will accept in each burst
+    public static final int MAX_TP_FRAMES_PER_BURST = 255; // upper limit for the configured burst (the CTS field is one byte)
+    public static final int MAX_TP_BYTES = 1785; // 255 packets * 7 bytes
 
 
     public static final int TP_TIMEOUT_MS = 1250; // 1250 ms is the maximum timout (T2 and T3)
 
-    // this is the list of pgns that we will accept TP connections for:
-    static final int TP_PGNS[] = new int[] {PGN_VIN, PGN_FAULT_DM1};
+    // the pgns that we will accept TP connections for are marked in the PGN registry (acceptTransport, rawForward or signals)
+
+    int tpMaxFramesPerBurst = DEFAULT_TP_FRAMES_PER_BURST; // from config
+    TpConnection connections[]; // pool of all connection objects, open or not
+
+    // open connections, indexed by connectionKey(source, destination).
+    //  Only one connection may be open between two addresses, and the data packets do not carry the PGN,
+    //  so the PGN is remembered in the connection instead of being part of the key.
+    IntMap<TpConnection> openConnections = new IntMap<TpConnection>(MAX_TP_CONNECTIONS);
+
+    TpConnection freeConnections[]; // stack of the connections in the pool that are not open
+    int freeConnectionCount = 0;
+
+
+    ///////////////////////////////////////////////////////////////////
+    // setupConnections()
+    //  (re-)creates the pool of connection objects, closing any open connections
+    //  max_connections: number of simultaneous connections to allow
+    ///////////////////////////////////////////////////////////////////
+    void setupConnections(int max_connections) {
+
+        if (max_connections < 1) max_connections = 1;
+        if (max_connections > MAX_TP_CONNECTIONS) max_connections = MAX_TP_CONNECTIONS;
+
+        if ((connections != null) && (connections.length == max_connections)) {
+            removeAllConnections(); // we already have the right size pool
+            return;
+        }
+
+        connections = new TpConnection[max_connections];
+        freeConnections = new TpConnection[max_connections];
+        for (int i=0; i< max_connections; i++ ) {
+            connections[i] = new TpConnection();
+        }
+        removeAllConnections();
 
-    TpConnection connections[] = new TpConnection[MAX_TP_CONNECTIONS]; // list of open connections
+    } // setupConnections()
 
 
+    ///////////////////////////////////////////////////////////////////
+    // connectionKey()
+    //  the key for the openConnections index
+    ///////////////////////////////////////////////////////////////////
+    static int connectionKey(int source_address, int destination_address) {
+        return ((source_address & 0xFF) << 8) | (destination_address & 0xFF);
+    } // connectionKey()
+
 
     ///////////////////////////////////////////////////////////////////
     // receiveConnectionManage()
@@ -1263,15 +1382,11 @@ public class J1939 extends EngineBus {
         // Determine if we want to accept this connection.
 
 
-        // We're only accepting certain PGN
+        // We're only accepting certain PGN (ones we decode, ones that are raw-forwarded, and ones with signals)
         int pgn = (int) littleEndian2Long(data, 5, 3);
 
-        int i;
-        for (i =0 ; i < TP_PGNS.length; i++) {
-            if (TP_PGNS[i] == pgn) break;
-        }
-
-        if (i == TP_PGNS.length) {
+        PgnEntry entry = pgnRegistry.get(pgn);
+        if ((entry == null) || ((!entry.acceptTransport) && (!entry.rawForward) && (!entry.signals))) {
             // refuse this connection
             // this may have been sent to global, in which case we do not respond
         //    Log.e(TAG, "Unlisted connection PGN x" + String.format("%X", pgn) + ", connection discarded");
@@ -1282,56 +1397,70 @@ public class J1939 extends EngineBus {
             return;
         }
 
+        int expected_bytes = ((((int) data[2]) & 0xFF) << 8) | (data[1] & 0xFF);
+        int expected_packets = ((int) data[3]) & 0xFF;
 
-
-        // Do we have an existing connection with this source?
-        int connection_i;
-
-        connection_i = findOpenConnection(source_address, destination_address);
-        if (connection_i < 0) {
-            // No open connections, find an available ID for the new connection
-            for (connection_i=0 ; connection_i< MAX_TP_CONNECTIONS; connection_i++) {
-                if (isConnectionIdAvailable(i)) break;
+        if ((expected_packets == 0) || (expected_bytes > MAX_TP_BYTES)) {
+            Log.e(TAG, "Invalid connection size " + expected_bytes + " bytes " + expected_packets + " packets, connection discarded");
+            if (send_response) {
+                sendConnectAbort(source_address, pgn, (byte) TP_ABORT_NOSYSTEMRESOURCES);
             }
+            return;
         }
 
 
-        if (connection_i == MAX_TP_CONNECTIONS) {
-            // We have reached our maximum number of simultaneous connections
-            Log.e(TAG, "Max open connections " + MAX_TP_CONNECTIONS + " reached, connection discarded");
-            if (send_response) { // only send if this wasn't a broadcast
-                sendConnectAbort(source_address, pgn, (byte) TP_ABORT_MAXCONNECTIONS); // "max connections reached"
+        // Do we have an existing connection with this source? If so, the new one replaces it.
+        TpConnection tp = openConnections.get(connectionKey(source_address, destination_address));
+
+        if (tp == null) {
+            // No open connections, take one from the pool
+            if (freeConnectionCount == 0) {
+                // We have reached our maximum number of simultaneous connections
+                Log.e(TAG, "Max open connections " + connections.length + " reached, connection discarded");
+                if (send_response) { // only send if this wasn't a broadcast
+                    sendConnectAbort(source_address, pgn, (byte) TP_ABORT_MAXCONNECTIONS); // "max connections reached"
+                }
+                return;
             }
-            return;
+            tp = freeConnections[--freeConnectionCount];
+            freeConnections[freeConnectionCount] = null;
+            openConnections.put(connectionKey(source_address, destination_address), tp);
         }
 
 
-
         // OK, accept the connection
-        TpConnection tp = connections[connection_i];
         tp.pgn = pgn;
-        tp.expected_bytes = ((((int) data[2]) & 0xFF) << 8) | (data[1] & 0xFF);
-        tp.expected_packets = ((int) data[3]) & 0xFF;
-        tp.max_packets_per_burst = ((((int) data[4]) & 0xFF) > MAX_TP_FRAMES_PER_BURST ? MAX_TP_FRAMES_PER_BURST : ((int) data[4]) & 0xFF);
-        tp.source_address = source_address;
-        tp.destination_address = destination_address;
-        tp.timeout_elapsedms = SystemClock.elapsedRealtime() + TP_TIMEOUT_MS;
-
-        tp.data = new byte[tp.expected_bytes]; // create the array
-        java.util.Arrays.fill(tp.data, (byte) 0xFF);
+        tp.expected_bytes = expected_bytes;
+        tp.expected_packets = expected_packets;
 
-        Log.v(TAG, "accept <-- " +
-                String.format("%02X to %02X (%04X)",
-                        tp.source_address,
-                        tp.destination_address,
-                        tp.pgn) +
-                " expect " + tp.expected_packets + " packets " + tp.expected_bytes + " bytes"
+        // the sender tells us the most it will send per CTS (FF = no limit), never ask for more than that or more than it has
+        int burst = ((int) data[4]) & 0xFF;
+        if (burst > tpMaxFramesPerBurst) burst = tpMaxFramesPerBurst;
+        if (burst < 1) burst = 1;
+        tp.max_packets_per_burst = burst;
+        tp.burst_last_packet = (burst < expected_packets ? burst : expected_packets);
 
-        );
+        tp.source_address = source_address;
+        tp.destination_address = destination_address;
+        tp.timeout_elapsedms = engine.getClock().elapsedRealtime() + TP_TIMEOUT_MS;
+
+        if ((tp.data == null) || (tp.data.length < tp.expected_bytes))
+            tp.data = new byte[tp.expected_bytes]; // create the array (or a larger one)
+        java.util.Arrays.fill(tp.data, 0, tp.expected_bytes, (byte) 0xFF);
+
+        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE)) { // don't build the string unless we will log it
+            Log.v(TAG, "accept <-- " +
+                    String.format("%02X to %02X (%04X)",
+                            tp.source_address,
+                            tp.destination_address,
+                            tp.pgn) +
+                    " expect " + tp.expected_packets + " packets " + tp.expected_bytes + " bytes"
+            );
+        }
 
         // remember this connection
         if (send_response) {
-            sendConnectCTS(source_address, pgn, tp.max_packets_per_burst, 1);
+            sendConnectCTS(source_address, pgn, tp.burst_last_packet, 1);
         }
 
     } // receiveConnectionManage()
@@ -1346,61 +1475,65 @@ public class J1939 extends EngineBus {
         //  [0] = sequence number
         //  [1..7] = the actual data
 
-        int connectionID = findOpenConnection(source_address, destination_address);
+        TpConnection tp = openConnections.get(connectionKey(source_address, destination_address));
 
-        if (connectionID < 0) {
+        if (tp == null) {
             // no open connection found -- perhaps something went wrong here
             return; // just ignore this and let the other side time-out
         }
 
         // open connection found, update the time-out
-        connections[connectionID].timeout_elapsedms = SystemClock.elapsedRealtime() + TP_TIMEOUT_MS;
+        tp.timeout_elapsedms = engine.getClock().elapsedRealtime() + TP_TIMEOUT_MS;
 
 
         boolean send_response = false; // this may be a broadcast, in which case we shouldn't respond
-        if (connections[connectionID].destination_address == myAddress)
+        if (tp.destination_address == myAddress)
             send_response = true; // this was sent to us, we should respond
 
-        if (data[0] == 0) {
+        int sequence = ((int) data[0]) & 0xFF;
+        if (sequence == 0) {
             // Problem. bad Sequence number
-            Log.e(TAG, "Bad Sequence number on TP DATA packet = " + ((int) data[0]));
+            Log.e(TAG, "Bad Sequence number on TP DATA packet = " + sequence);
             return;
         }
 
         // copy the data from this frame to the data array
-        int starting_byte = (((int)data[0]-1) & 0xFF) * 7;
+        int starting_byte = (sequence-1) * 7;
         for (int i=0; i < 7; i++) { // there are always 7 bytes in the frame
-            if ((starting_byte+i) < connections[connectionID].expected_bytes)
-                connections[connectionID].data[starting_byte+i] = data[1+i];
+            if ((starting_byte+i) < tp.expected_bytes)
+                tp.data[starting_byte+i] = data[1+i];
         }
 
-        // Have we received all the data ? If so then send EOM, otherwise send CTS
-        if ( (((int) data[0]) & 0xFF) >= connections[connectionID].expected_packets) {
+        // Have we received all the data ? If so then send EOM, otherwise send CTS at the end of each burst
+        if (sequence >= tp.expected_packets) {
             // last packet
 
             // Do whatever we want to do with the data
-            processConnectionData(connectionID);
+            processConnectionData(tp);
 
             // Tell the remote to close connection. (Do this after processing so it doesn't open a new one and overwrite)
 
-            int pgn = connections[connectionID].pgn;
-            int expected_bytes = connections[connectionID].expected_bytes;
-            int expected_packets = connections[connectionID].expected_packets;
+            int pgn = tp.pgn;
+            int expected_bytes = tp.expected_bytes;
+            int expected_packets = tp.expected_packets;
 
-            removeConnection(connectionID);
+            removeConnection(tp);
 
             if (send_response) {
                 sendConnectEOM(source_address, pgn, expected_bytes, expected_packets);
             }
 
 
-        } else {
-            // more packets to come
+        } else if (sequence >= tp.burst_last_packet) {
+            // end of this burst, more packets to come
+            int remaining = tp.expected_packets - sequence;
+            int burst = (tp.max_packets_per_burst < remaining ? tp.max_packets_per_burst : remaining);
+            tp.burst_last_packet = sequence + burst;
             if (send_response) {
                 sendConnectCTS(source_address,
-                        connections[connectionID].pgn,
-                        connections[connectionID].max_packets_per_burst,
-                        ((((int) data[0]) & 0xFF) + 1) // current packet number
+                        tp.pgn,
+                        burst,
+                        sequence + 1 // next packet number
                 );
             }
         }
@@ -1410,41 +1543,32 @@ public class J1939 extends EngineBus {
 
     ///////////////////////////////////////////////////////////////////
     // findOpenConnection()
-    //  returns the index of an open connection if one exists.
-    //  returns -1 if no open connection exists
-    ///////////////////////////////////////////////////////////////////
-    int findOpenConnection(int source_address, int destination_address) {
-        for (int i=0 ; i< MAX_TP_CONNECTIONS; i++) {
-            if ((connections[i].source_address == source_address) &&
-                    (connections[i].destination_address == destination_address) &&
-                    (connections[i].expected_packets != 0))  {
-                return i; // index of the open connection
-            }
-        }
-
-        return -1; // no open connection ID
+    //  returns the open connection between these addresses if one exists.
+    //  returns null if no open connection exists
+    ///////////////////////////////////////////////////////////////////
+    TpConnection findOpenConnection(int source_address, int destination_address) {
+        return openConnections.get(connectionKey(source_address, destination_address));
     } // findOpenConnection()
 
 
-
-    boolean isConnectionIdAvailable(int connectionID) {
-        if (connections[connectionID].expected_packets == 0) return true;
-        return false;
-    } // isConnectionIdAvailable()
-
-
     ///////////////////////////////////////////////////////////////////
     // removeConnection()
-    //  the connection is no longer open, remove it from our list.
+    //  the connection is no longer open, remove it from our list and return it to the pool.
     ///////////////////////////////////////////////////////////////////
-    void removeConnection(int connectionID) {
-        connections[connectionID].expected_packets = 0;
+    void removeConnection(TpConnection tp) {
+        if (tp.expected_packets == 0) return; // already closed
+        tp.expected_packets = 0;
+        openConnections.remove(connectionKey(tp.source_address, tp.destination_address));
+        freeConnections[freeConnectionCount++] = tp;
     } // removeConnection()
 
 
     void removeAllConnections() {
-        for (int connectionID = 0; connectionID < MAX_TP_CONNECTIONS; connectionID++) {
-            removeConnection(connectionID);
+        openConnections.clear();
+        freeConnectionCount = 0;
+        for (TpConnection tp : connections) {
+            tp.expected_packets = 0;
+            freeConnections[freeConnectionCount++] = tp;
         }
     } // removeAllConnections
 
@@ -1510,16 +1634,22 @@ public class J1939 extends EngineBus {
     //  remove any connections that have timedout -- call this periodically
     ///////////////////////////////////////////////////////////////
     void purgeOldConnections() {
-        long now = SystemClock.elapsedRealtime();
+        long now = engine.getClock().elapsedRealtime();
 
         // check if any of our connections need to be timed-out
-        for (int connectionID = 0 ;connectionID < MAX_TP_CONNECTIONS; connectionID++) {
-            if (!isConnectionIdAvailable(connectionID)) {
-                // if it is not available, that means it is in use
-                if (connections[connectionID].timeout_elapsedms < now) {
+        for (TpConnection tp : connections) {
+            if (tp.expected_packets != 0) {
+                // it is open
+                if (tp.timeout_elapsedms < now) {
                     // we should time this bad boy out
 
-                    sendConnectAbort(connections[connectionID].source_address, connections[connectionID].pgn, (byte) TP_ABORT_TIMEOUT);
+                    if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE)) {
+                        Log.v(TAG, "timeout <-- " + String.format("%02X to %02X (%04X)", tp.source_address, tp.destination_address, tp.pgn));
+                    }
+                    if (tp.destination_address == myAddress) { // broadcasts (BAM) just get dropped
+                        sendConnectAbort(tp.source_address, tp.pgn, (byte) TP_ABORT_TIMEOUT);
+                    }
+                    removeConnection(tp);
                 }
             }
         }
@@ -1564,14 +1694,26 @@ public class J1939 extends EngineBus {
     // sendRequestPGN()
     //  sends a request for a PGN to global address
     ////////////////////////////////////////////////////////////////
-    private void sendRequestPGN(int pgn) {
+    boolean sendRequestPGN(int pgn) {
 
+        return sendRequestPGN(pgn, J1939_ADDRESS_GLOBAL);
 
-        if (myAddress == J1939_ADDRESS_NULL) return; // we can only send a message if we have an address
+    } // sendRequestPGN
+
+
+    ////////////////////////////////////////////////////////////////
+    // sendRequestPGN()
+    //  sends a request for a PGN to the given address (or J1939_ADDRESS_GLOBAL)
+    //  returns false if we could not send it
+    ////////////////////////////////////////////////////////////////
+    boolean sendRequestPGN(int pgn, int destination) {
+
+
+        if (myAddress == J1939_ADDRESS_NULL) return false; // we can only send a message if we have an address
 
         CanPacket packet = new CanPacket();
         packet.protocol_format = PF_REQUEST;
-        packet.destination_address =  J1939_ADDRESS_GLOBAL;
+        packet.destination_address =  destination;
         packet.source_address = myAddress;
 
         //pgn = PGN_VIN;
@@ -1582,6 +1724,7 @@ public class J1939 extends EngineBus {
 
 
         sendPacketWithLength(packet, 3);
+        return true;
 
     } // sendRequestPGN
 
@@ -1589,171 +1732,509 @@ public class J1939 extends EngineBus {
 
     ////////////////////////////////////////////////////////////////
     // parsePGN()
-    //  parses a received message for the PGN
+    //  parses a received message for the PGN (single frame or reassembled from a TP connection)
     //  source_address : is just for remembering who sent it for DTCs
     ////////////////////////////////////////////////////////////////
     void parsePGN(int source_address, int pgn, byte[] data, int data_length) {
 
+        PgnEntry entry = pgnRegistry.get(pgn);
+        if ((entry == null) || (entry.decoder == null)) return; // nobody decodes this PGN
 
-        int i;
-        long l;
+        entry.decoder.receiveData(source_address, data, data_length);
 
-        switch (pgn) {
-            case PGN_VIN:
-                String s = new String(data, 0 , data_length); // byte_array, offset, length
+    } // parsePGN()
 
-                // TODO: This might have an asterisk at the end of it that needs to be removed ??
 
-                checkVin(s);
-                break;
-            case PGN_FAULT_DM1:
+    ////////////////////////////////////////////////////////////////
+    // parsePGN()
+    //  parses a received single-frame message for the PGN, from a packed payload
+    //  source_address : is just for remembering who sent it for DTCs
+    ////////////////////////////////////////////////////////////////
+    void parsePGN(int source_address, int pgn, long payload, int data_length) {
 
-                // bytes 1 and 2 are lamp status
-                // bytes 3+ are for DTCs (4 bytes each)
-                //  DTCs may be all 0s or all 1s to indicate a NULL value
+        PgnEntry entry = pgnRegistry.get(pgn);
+        if ((entry == null) || (entry.decoder == null)) return; // nobody decodes this PGN
 
-                startCollectingDtcs(); // if we are not yet collecting, this starts the timer
+        entry.decoder.receiveFrame(source_address, J1939_ADDRESS_GLOBAL, payload, data_length);
 
-                Dtc dtc;
+    } // parsePGN()
 
-                // remember any lamps that are on
-                if (data_length > 2) { // this should always be the case
-                    addLamps(parseLampStatus(data, 0));
-                }
 
 
-                for (i = 2; i < data_length; i +=4) {
+    ///////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////
+    // PGN Registry
+    //  Maps each PGN (or PF for the destination-specific control messages) to the decoder for it,
+    //  so that a received frame only needs a single lookup to find out what to do with it.
+    //  To support a new PGN, register a decoder for it with registerPgnDecoder().
+    ///////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////
 
-                    if (i+4 > data_length) {
-                        //Log.e(TAG, "DM1 message length is wrong! (" + data_length + " bytes)");
-                        // This can just mean we reached the end of the message
-                        break; // ignore last bytes
-                    }
 
-                    dtc = parseTroubleCode(data, i);
-                    if (dtc != null) {
-                        dtc.source_address = source_address; // remember who send this DTC
-                        addDtc(dtc); // add the DTC to a temp list
-                    } else {
-                        // not a valid code, this indicates the end of the list.
-                        break;
-                    }
-                }
+    ///////////////////////////////////////////////////////////////////
+    // PgnDecoder
+    //  decodes the data for a PGN. Extend PayloadDecoder or DataDecoder instead of this directly.
+    ///////////////////////////////////////////////////////////////////
+    public static abstract class PgnDecoder {
 
-                break;
-            case PGN_ODOMETER_HIRES:
-                //  Bytes 1- 4 : vehicle distance
-                //  Bytes 5- 8 : trip distance
-                // 5 meters per bit
+        // receiveFrame(): a single frame was received for this PGN, returns a PARSED_PACKET_TYPE_*
+        abstract int receiveFrame(int source_address, int destination_address, long payload, int dlc);
 
-                l = littleEndian2Long(data, 0, 4);
-                if (l == 0xFFFFFFFFL) break; // "Unknown"
+        // receiveData(): a complete message was received as an array (e.g. reassembled from a TP connection)
+        abstract void receiveData(int source_address, byte[] data, int data_length);
 
-                checkOdometer(ODOMETER_TYPE_HIRES, l * 5);
+    } // PgnDecoder
 
-                break;
-            case PGN_ODOMETER_LORES:
-                //  Note byte arrangement is opposite that of hi-res
-                // Bytes 1- 4: trip distance
-                // Bytes 5 -8: vehicle distance
-                // 0.125 km per bit
-                l = littleEndian2Long(data, 4, 4);
-                if (l == 0xFFFFFFFFL) break; // "Unknown"
-                checkOdometer(ODOMETER_TYPE_LORES, l * 125);
-                break;
-            case PGN_FUEL_CONSUMPTION:
-                // Bytes 1-4 = Trip fuel
-                // Bytes 5-8 = Total fuel
-                //  0.5 L per bit (this is liquid fuel, nat gas is different)
-                l = littleEndian2Long(data, 4, 4);
-                if (l == 0xFFFFFFFFL) break; // "Unknown"
-                checkFuelConsumption(l * 500);
 
-                break;
-            case PGN_FUEL_ECONOMY:
-                // Bytes 1-2 = Fuel Rate
-                //  bytes 3-4 = Instant Fuel Economy
-                // bytes 5-6 = Average Fuel Economy
-                // Bytes 7 = Throttle posisiotn
-
-                // 1/512 km/L per bit
-                // put this in meters
-                l = littleEndian2Long(data, 4, 2);
-                if (l == 0xFFFF) break; // "Unknown"
-                checkFuelEconomy(l * 1000 / 512);
-                break;
-            case PGN_PARKING: //Cruise Control + Vehicle Speed
-                // Byte 1 : Measure_SW1 bits 2,1 : two speed axle switch
-                //                      bits 4,3 : parking brake switch  00 = off 01 = on
-                //                      bites 8-5: not defined
-                // Bytes 2-8 : various cruise control, idling, etc..
-
-                // This reports the value of the parking brake switch, not the actuator
-
-                //if ((data[0] & 0x0C) > 0) {
-                if ((data[0] & 0x0C) == 0x04) {
-                    checkParkingBrake(true);
-                } else if  ((data[0] & 0x0C) == 0) {
-                    checkParkingBrake(false);
-                } else {
-                    // Don't do anything.
-                    // the data is not valid or is being reported as "unknown" 0x0C like from a module that doesn't know this info
-                }
+    ///////////////////////////////////////////////////////////////////
+    // PayloadDecoder
+    //  for single-frame PGNs that can be decoded straight from the packed payload (does not allocate)
+    ///////////////////////////////////////////////////////////////////
+    public static abstract class PayloadDecoder extends PgnDecoder {
 
-                break;
-            case PGN_GEAR: // ETC2 message
-                // Byte 1 : selected gear
-                // Byte 2-3: Actual gear ratio
-                // byte 4: current gear
-                // byte 5-6 transmission requested range
-                // byte 7-8 transmission actual range
+        @Override
+        void receiveData(int source_address, byte[] data, int data_length) {
+            receiveFrame(source_address, J1939_ADDRESS_GLOBAL, bytes2Payload(data, data_length), data_length);
+        }
+
+    } // PayloadDecoder
+
+
+    ///////////////////////////////////////////////////////////////////
+    // DataDecoder
+    //  for PGNs that are decoded from a byte array (e.g. those that can also arrive in a TP connection)
+    //  single frames are unpacked into a scratch array that is re-used for every frame
+    ///////////////////////////////////////////////////////////////////
+    public static abstract class DataDecoder extends PgnDecoder {
+
+        final byte[] scratchData = new byte[8];
+
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            if (dlc > 8) dlc = 8;
+            payload2Bytes(payload, scratchData, dlc);
+            receiveData(source_address, scratchData, dlc);
+            return PARSED_PACKET_TYPE_PGN;
+        }
+
+    } // DataDecoder
+
+
+    static class PgnEntry {
+        int pgn;
+        PgnDecoder decoder;         // null if we do not decode this PGN (e.g. we only raw-forward it)
+        boolean acceptTransport;    // accept multi-packet (TP) transfers of this PGN
+        boolean rawForward;         // received frames should be checked for raw-forwarding (see Engine.checkRawForwarding())
+        boolean signals;            // received frames contain signals from the signal table (see BusHost.getSignals())
+        boolean builtInFilter;      // frames for this PGN already pass the built-in hardware filters (HW_RECEIVE_PGNS/PFS)
+    } // PgnEntry
+
+
+    IntMap<PgnEntry> pgnRegistry = new IntMap<PgnEntry>(32);
+
+
+    ///////////////////////////////////////////////////////////////////
+    // registerPgnDecoder()
+    //  adds (or replaces) the decoder for a PGN.
+    //  PGNs registered after start() will not get through the hardware filters until the bus is restarted.
+    //  Parameters:
+    //      pgn: the PGN (or for destination specific PFs, the PF << 8)
+    //      decoder: the decoder to use
+    //      acceptTransport: true if we should accept TP connections (RTS/CTS or BAM) that carry this PGN
+    ///////////////////////////////////////////////////////////////////
+    public void registerPgnDecoder(int pgn, PgnDecoder decoder, boolean acceptTransport) {
+        PgnEntry entry = getOrCreatePgnEntry(pgn);
+        entry.decoder = decoder;
+        entry.acceptTransport = acceptTransport;
+    } // registerPgnDecoder()
+
+
+    PgnEntry getOrCreatePgnEntry(int pgn) {
+        PgnEntry entry = pgnRegistry.get(pgn);
+        if (entry == null) {
+            entry = new PgnEntry();
+            entry.pgn = pgn;
+            pgnRegistry.put(pgn, entry);
+        }
+        return entry;
+    } // getOrCreatePgnEntry()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // setRawForwardPgns()
+    //  marks which PGNs were requested to be raw-forwarded (from the configuration)
+    //  this replaces any PGNs that were marked before
+    ///////////////////////////////////////////////////////////////////
+    void setRawForwardPgns(int[] pgns) {
+
+        // clear the old marks
+        for (int i = 0; i < pgnRegistry.capacity(); i++) {
+            if (pgnRegistry.isSlotUsed(i))
+                pgnRegistry.valueAt(i).rawForward = false;
+        }
+
+        if (pgns != null) {
+            for (int pgn : pgns) {
+                getOrCreatePgnEntry(pgn).rawForward = true;
+            }
+        }
+
+        removeUnusedPgnEntries();
+    } // setRawForwardPgns()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // setSignalPgns()
+    //  marks which PGNs contain signals that should be decoded from the signal table
+    //  this replaces any PGNs that were marked before
+    ///////////////////////////////////////////////////////////////////
+    void setSignalPgns(int[] pgns) {
+
+        // clear the old marks
+        for (int i = 0; i < pgnRegistry.capacity(); i++) {
+            if (pgnRegistry.isSlotUsed(i))
+                pgnRegistry.valueAt(i).signals = false;
+        }
+
+        if (pgns != null) {
+            for (int pgn : pgns) {
+                getOrCreatePgnEntry(pgn).signals = true;
+            }
+        }
+
+        removeUnusedPgnEntries();
+    } // setSignalPgns()
 
 
-                // Gear:
-                //      251 = Park
-                //      125 = Neutral
-                //      > 125 is forward gears
-                //      < 125 is reverse gears
+    ///////////////////////////////////////////////////////////////////
+    // removeUnusedPgnEntries()
+    //  forget entries that are no longer decoded, forwarded or part of a signal
+    ///////////////////////////////////////////////////////////////////
+    void removeUnusedPgnEntries() {
+        int i = 0;
+        while (i < pgnRegistry.capacity()) {
+            PgnEntry entry = (pgnRegistry.isSlotUsed(i) ? pgnRegistry.valueAt(i) : null);
+            if ((entry != null) &&
+                (entry.decoder == null) &&
+                (!entry.builtInFilter) &&
+                (!entry.rawForward) &&
+                (!entry.signals)) {
+                pgnRegistry.remove(pgnRegistry.keyAt(i));
+                i = 0; // removing can shift other entries around, so start over
+            } else {
+                i++;
+            }
+        }
+    } // removeUnusedPgnEntries()
 
 
-                if (data[3] == -1) break; // "Unknown"
+    ///////////////////////////////////////////////////////////////////
+    // getFilterPgns()
+    //  returns the registered PGNs that are not already covered by the built-in hardware filters
+    //      (e.g. raw-forwarded and plugged-in PGNs)
+    ///////////////////////////////////////////////////////////////////
+    int[] getFilterPgns() {
+
+        int count = 0;
+        for (int i = 0; i < pgnRegistry.capacity(); i++) {
+            if ((pgnRegistry.isSlotUsed(i)) && (!pgnRegistry.valueAt(i).builtInFilter)) count++;
+        }
+
+        int[] pgns = new int[count];
+        count = 0;
+        for (int i = 0; i < pgnRegistry.capacity(); i++) {
+            if ((pgnRegistry.isSlotUsed(i)) && (!pgnRegistry.valueAt(i).builtInFilter))
+                pgns[count++] = pgnRegistry.keyAt(i);
+        }
+
+        return pgns;
+    } // getFilterPgns()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // registerBuiltInDecoders()
+    //  fills the registry with all the PGNs and control PFs we decode ourselves
+    ///////////////////////////////////////////////////////////////////
+    void registerBuiltInDecoders() {
+
+        // control messages
+        registerPgnDecoder(PF_REQUEST << 8, requestDecoder, false);
+        registerPgnDecoder(PF_CLAIMED_ADDRESS << 8, claimedAddressDecoder, false);
+        registerPgnDecoder(PF_CONNECTION_MANAGE << 8, connectionManageDecoder, false);
+        registerPgnDecoder(PF_CONNECTION_DATA << 8, connectionDataDecoder, false);
+
+        // PGNs
+        registerPgnDecoder(PGN_VIN, vinDecoder, true);
+        registerPgnDecoder(PGN_FAULT_DM1, dm1Decoder, true);
+        registerPgnDecoder(PGN_ODOMETER_HIRES, odometerHiResDecoder, false);
+        registerPgnDecoder(PGN_ODOMETER_LORES, odometerLoResDecoder, false);
+        registerPgnDecoder(PGN_FUEL_CONSUMPTION, fuelConsumptionDecoder, false);
+        registerPgnDecoder(PGN_FUEL_ECONOMY, fuelEconomyDecoder, false);
+        registerPgnDecoder(PGN_PARKING, parkingDecoder, false);
+        registerPgnDecoder(PGN_GEAR, gearDecoder, false);
+
+        // everything registered so far gets through the built-in hardware filters
+        for (int i = 0; i < pgnRegistry.capacity(); i++) {
+            if (pgnRegistry.isSlotUsed(i))
+                pgnRegistry.valueAt(i).builtInFilter = true;
+        }
 
-                if ((data[3] < 125) && (data[3] > 0)) {
-                    checkReverseGear(true);
+    } // registerBuiltInDecoders()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // Built-in decoders: control messages
+    ///////////////////////////////////////////////////////////////////
+
+    PgnDecoder requestDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            // this is a request for data, the only one we answer is a request for our address+name
+            if (littleEndian2Long(payload, 0, 3) == (PF_CLAIMED_ADDRESS << 8)) {
+                receiveRequestAddress();
+                return PARSED_PACKET_TYPE_CONTROL; // parsed a control packet
+            }
+            return PARSED_PACKET_TYPE_NONE;
+        }
+    }; // requestDecoder
+
+    PgnDecoder claimedAddressDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            // this is a claim to an address, the payload is the 8 byte name
+            receiveClaimedAddress(source_address, payload);
+            return PARSED_PACKET_TYPE_CONTROL; // parsed a control packet
+        }
+    }; // claimedAddressDecoder
+
+    PgnDecoder connectionManageDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            // this is a request for a connection
+            payload2Bytes(payload, rxScratchData, 8);
+            receiveConnectionManage(source_address, destination_address, rxScratchData);
+            return PARSED_PACKET_TYPE_CONTROL; // parsed a control packet
+        }
+    }; // connectionManageDecoder
+
+    PgnDecoder connectionDataDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            // this is data for a connection
+            payload2Bytes(payload, rxScratchData, 8);
+            receiveConnectionData(source_address, destination_address, rxScratchData);
+            return PARSED_PACKET_TYPE_CONTROL; // parsed a control packet
+        }
+    }; // connectionDataDecoder
+
+
+    ///////////////////////////////////////////////////////////////////
+    // Built-in decoders: PGNs
+    ///////////////////////////////////////////////////////////////////
+
+    PgnDecoder vinDecoder = new DataDecoder() {
+        @Override
+        void receiveData(int source_address, byte[] data, int data_length) {
+            String s = new String(data, 0 , data_length); // byte_array, offset, length
+
+            // TODO: This might have an asterisk at the end of it that needs to be removed ??
+
+            checkVin(s);
+        }
+    }; // vinDecoder
+
+
+    PgnDecoder dm1Decoder = new DataDecoder() {
+        @Override
+        void receiveData(int source_address, byte[] data, int data_length) {
+
+            // bytes 1 and 2 are lamp status
+            // bytes 3+ are for DTCs (4 bytes each)
+            //  DTCs may be all 0s or all 1s to indicate a NULL value
+
+            startCollectingDtcs(); // if we are not yet collecting, this starts the timer
+            clearReportedDtcs();
+
+            Dtc dtc;
+
+            // remember any lamps that are on
+            if (data_length > 2) { // this should always be the case
+                addLamps(parseLampStatus(data, 0));
+            }
+
+
+            for (int i = 2; i < data_length; i +=4) {
+
+                if (i+4 > data_length) {
+                    //Log.e(TAG, "DM1 message length is wrong! (" + data_length + " bytes)");
+                    // This can just mean we reached the end of the message
+                    break; // ignore last bytes
+                }
+
+                dtc = parseTroubleCode(data, i);
+                if (dtc != null) {
+                    dtc.source_address = source_address; // remember who send this DTC
+                    addReportedDtc(dtc); // add the DTC to a temp list
                 } else {
-                    // not a reverse gear
-                    checkReverseGear(false);
+                    // not a valid code, this indicates the end of the list.
+                    break;
                 }
+            }
 
-                break;
-        } // switch
+            // this is everything that is active at this node, new codes are reported now
+            checkReportedDtcs(source_address);
+        }
+    }; // dm1Decoder
 
 
-    } // parsePGN()
+    PgnDecoder odometerHiResDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            //  Bytes 1- 4 : vehicle distance
+            //  Bytes 5- 8 : trip distance
+            // 5 meters per bit
+
+            long l = littleEndian2Long(payload, 0, 4);
+            if (l != 0xFFFFFFFFL) // "Unknown"
+                checkOdometer(ODOMETER_TYPE_HIRES, l * 5);
+            return PARSED_PACKET_TYPE_PGN;
+        }
+    }; // odometerHiResDecoder
+
+
+    PgnDecoder odometerLoResDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            //  Note byte arrangement is opposite that of hi-res
+            // Bytes 1- 4: trip distance
+            // Bytes 5 -8: vehicle distance
+            // 0.125 km per bit
+            long l = littleEndian2Long(payload, 4, 4);
+            if (l != 0xFFFFFFFFL) // "Unknown"
+                checkOdometer(ODOMETER_TYPE_LORES, l * 125);
+            return PARSED_PACKET_TYPE_PGN;
+        }
+    }; // odometerLoResDecoder
+
+
+    PgnDecoder fuelConsumptionDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            // Bytes 1-4 = Trip fuel
+            // Bytes 5-8 = Total fuel
+            //  0.5 L per bit (this is liquid fuel, nat gas is different)
+            long l = littleEndian2Long(payload, 4, 4);
+            if (l != 0xFFFFFFFFL) // "Unknown"
+                checkFuelConsumption(l * 500);
+            return PARSED_PACKET_TYPE_PGN;
+        }
+    }; // fuelConsumptionDecoder
+
+
+    PgnDecoder fuelEconomyDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            // Bytes 1-2 = Fuel Rate
+            //  bytes 3-4 = Instant Fuel Economy
+            // bytes 5-6 = Average Fuel Economy
+            // Bytes 7 = Throttle posisiotn
+
+            // 1/512 km/L per bit
+            // put this in meters
+            long l = littleEndian2Long(payload, 4, 2);
+            if (l != 0xFFFF) // "Unknown"
+                checkFuelEconomy(l * 1000 / 512);
+            return PARSED_PACKET_TYPE_PGN;
+        }
+    }; // fuelEconomyDecoder
+
+
+    PgnDecoder parkingDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            //Cruise Control + Vehicle Speed
+            // Byte 1 : Measure_SW1 bits 2,1 : two speed axle switch
+            //                      bits 4,3 : parking brake switch  00 = off 01 = on
+            //                      bites 8-5: not defined
+            // Bytes 2-8 : various cruise control, idling, etc..
+
+            // This reports the value of the parking brake switch, not the actuator
+
+            int b = payloadByte(payload, 0) & 0x0C;
+            if (b == 0x04) {
+                checkParkingBrake(true);
+            } else if (b == 0) {
+                checkParkingBrake(false);
+            } else {
+                // Don't do anything.
+                // the data is not valid or is being reported as "unknown" 0x0C like from a module that doesn't know this info
+            }
+            return PARSED_PACKET_TYPE_PGN;
+        }
+    }; // parkingDecoder
+
+
+    PgnDecoder gearDecoder = new PayloadDecoder() {
+        @Override
+        int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+            // ETC2 message
+            // Byte 1 : selected gear
+            // Byte 2-3: Actual gear ratio
+            // byte 4: current gear
+            // byte 5-6 transmission requested range
+            // byte 7-8 transmission actual range
+
+
+            // Gear:
+            //      251 = Park
+            //      125 = Neutral
+            //      > 125 is forward gears
+            //      < 125 is reverse gears
+
+            int b = payloadByte(payload, 3);
+            if (b == 0xFF) return PARSED_PACKET_TYPE_PGN; // "Unknown"
+
+            // (values >= 128 were never treated as reverse, since the byte was compared as signed)
+            checkReverseGear((b < 125) && (b > 0));
+            return PARSED_PACKET_TYPE_PGN;
+        }
+    }; // gearDecoder
 
 
     ///////////////////////////////////////////////////////////////////
     // processConnectionData()
     //  the data in the connection is fully received, go ahead and process it
     // Parameters
-    //  connectionID: ID of the connection that is containing data
+    //  tp: the connection that is containing data
     ///////////////////////////////////////////////////////////////////
-    void processConnectionData(int connectionID) {
+    void processConnectionData(TpConnection tp) {
+
+        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE)) { // don't build the string unless we will log it
+            Log.v(TAG,
+                    "data <-- " +
+                            String.format("%02X to %02X (%04X)",
+                                    tp.source_address,
+                                    tp.destination_address,
+                                    tp.pgn) +
+                            " : " +
+                            Log.bytesToHex(tp.data, tp.expected_bytes)
+
+            );
+        }
+
+        // check if we need to forward "raw" data to somewhere else
+        PgnEntry entry = pgnRegistry.get(tp.pgn);
+        if ((entry != null) && (entry.rawForward))
+            engine.checkRawForwarding(BusHost.BUS_TYPE_J1939, tp.pgn, tp.source_address, tp.data, tp.expected_bytes);
 
-        Log.v(TAG,
-                "data <-- " +
-                        String.format("%02X to %02X (%04X)",
-                                connections[connectionID].source_address,
-                                connections[connectionID].destination_address,
-                                connections[connectionID].pgn) +
-                        " : " +
-                        Log.bytesToHex(connections[connectionID].data, connections[connectionID].expected_bytes)
+        if ((entry != null) && (entry.signals))
+            engine.getSignals().decodeData(tp.pgn, tp.source_address, tp.data, tp.expected_bytes, engine.getClock().elapsedRealtime());
 
-        );
+        parsePGN(tp.source_address, tp.pgn, tp.data, tp.expected_bytes);
 
-        // check if we need to forward "raw" data to somewhere else
-        //engine.checkRawForwarding(Engine.BUS_TYPE_J1939, connections[connectionID].pgn, connections[connectionID].source_address, connections[connectionID].data);
-        parsePGN(connections[connectionID].source_address, connections[connectionID].pgn, connections[connectionID].data, connections[connectionID].expected_bytes);
+        engine.markReceived(BusHost.BUS_TYPE_J1939, tp.pgn, tp.source_address); // no need to request what we just got
 
     } // processConnectionData
 
@@ -1907,6 +2388,19 @@ public class J1939 extends EngineBus {
     //////////////////////////////////////////////////////////////////
     CanFrame  packet2frame(CanPacket packet, int length) {
 
+        CanFrame frame = new CanFrame();
+        frame.id = packet2frameId(packet);
+        frame.data = Arrays.copyOf(packet.data, length);
+
+        return frame;
+    } // packet2frame()
+
+
+    //////////////////////////////////////////////////////////////////
+    // packet2frameId()
+    //  returns the 29 bit CAN frame ID for a J1939 packet
+    //////////////////////////////////////////////////////////////////
+    static int packet2frameId(CanPacket packet) {
 
         // A J1939 CAN 29b frame ID looks like:
         // PRI(3) RSRV(1) DP(1) PF(8) PS(8) SA(8)
@@ -1923,12 +2417,8 @@ public class J1939 extends EngineBus {
         frameId <<= 8;
         frameId |= packet.source_address;
 
-        CanFrame frame = new CanFrame();
-        frame.id = frameId;
-        frame.data = Arrays.copyOf(packet.data, length);
-
-        return frame;
-    } // packet2frame()
+        return frameId;
+    } // packet2frameId()
 
 
 
@@ -1977,9 +2467,11 @@ public class J1939 extends EngineBus {
 
     private void sendPacketWithLength(CanPacket packet, int dlc_length) {
 
-        Log.vv(TAG, "packet --> " + String.format("%02x %02x %02x", packet.protocol_format, packet.destination_address, packet.source_address) +
-                " : " +
-                Log.bytesToHex(packet.data, dlc_length));
+        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE_VERBOSE)) { // don't build the string unless we will log it
+            Log.vv(TAG, "packet --> " + String.format("%02x %02x %02x", packet.protocol_format, packet.destination_address, packet.source_address) +
+                    " : " +
+                    Log.bytesToHex(packet.data, dlc_length));
+        }
 
         //Log.vv(TAG, "SendPacket()");
 
@@ -2001,6 +2493,37 @@ public class J1939 extends EngineBus {
     /////////////////////////////////////////////////////////
     int receivePacket(CanPacket packet) {
 
+        int dlc = (packet.data == null ? 0 : packet.data.length);
+        return receivePacket(packet2frameId(packet), bytes2Payload(packet.data, dlc), dlc);
+
+    } // receivePacket()
+
+
+    // scratch array for those (control) packets that still need to be parsed from a byte array
+    //  receive is always called from the same thread, so this can be re-used for every frame
+    final byte[] rxScratchData = new byte[8];
+
+
+    /////////////////////////////////////////////////////////
+    // receivePacket()
+    //  receives a packet from the CAN bus as primitives, this does not allocate for normal PGNs
+    //  Parameters:
+    //      frame_id: the 29 bit CAN ID
+    //      payload: the frame data, packed little-endian into a long (see EngineBus.bytes2Payload())
+    //      dlc: the number of data bytes in the frame
+    //  Returns:
+    //      0 : did not recognize packet
+    //      1 : Parsed a PGN
+    //      2 : Parsed a control packet
+    /////////////////////////////////////////////////////////
+    int receivePacket(int frame_id, long payload, int dlc) {
+
+        // A J1939 CAN 29b frame ID looks like:
+        // PRI(3) RSRV(1) DP(1) PF(8) PS(8) SA(8)
+
+        int source_address = (frame_id & 0xFF);
+        int destination_address = ((frame_id >>> 8) & 0xFF);
+        int protocol_format = ((frame_id >>> 16) & 0xFF);
 
 
         setRecentRxReceived();
@@ -2008,7 +2531,7 @@ public class J1939 extends EngineBus {
         // was this sent by somebody claiming to be me ?
 
         if ((myAddress != J1939_ADDRESS_NULL) &&
-            (packet.source_address == myAddress)) {
+            (source_address == myAddress)) {
 
             // was this me ? if not then this might be an imposter!!!!
             // we will say we have this address and if somebody objects they can respond accordingly.
@@ -2019,11 +2542,13 @@ public class J1939 extends EngineBus {
 
             //Log.w(TAG, "J1939 Address imposter detected");
 
-            Log.v(TAG, "packet <-- " + String.format("%02x %02x %02x", packet.protocol_format, packet.destination_address, packet.source_address) + " : " +
-                    Log.bytesToHex(packet.data, 8) +
-                    " Address Imposter Detected!");
+            if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE)) {
+                Log.v(TAG, "packet <-- " + String.format("%02x %02x %02x", protocol_format, destination_address, source_address) + " : " +
+                        String.format("%016X", Long.reverseBytes(payload)) +
+                        " Address Imposter Detected!");
+            }
 
-            if (packet.protocol_format != PF_CLAIMED_ADDRESS) {
+            if (protocol_format != PF_CLAIMED_ADDRESS) {
                 // this is a normal packet, not somebody telling us who we are
                 sendClaimedAddress(myAddress);
                 return PARSED_PACKET_TYPE_NONE;
@@ -2034,7 +2559,7 @@ public class J1939 extends EngineBus {
         }
 
 
-        markAddressInUse(packet.source_address); // remember that somebody on network thinks they have this address
+        markAddressInUse(source_address); // remember that somebody on network thinks they have this address
 
         // If this wasn't sent to anybody, it can be ignored
         // Well, destinatino address could be group extension which could be 0
@@ -2042,69 +2567,45 @@ public class J1939 extends EngineBus {
 
         // was this sent to either me or global?
 
-        if ((packet.protocol_format < 240) && // protocol formats less than 240 have a destination address (otherwise it is part of PGN)
-            (packet.destination_address != myAddress) &&
-           (packet.destination_address != J1939_ADDRESS_GLOBAL)) {
+        if ((protocol_format < 240) && // protocol formats less than 240 have a destination address (otherwise it is part of PGN)
+            (destination_address != myAddress) &&
+           (destination_address != J1939_ADDRESS_GLOBAL)) {
 
             return PARSED_PACKET_TYPE_NONE; // we can ignore it
         }
 
         // it was sent to me or sent globally, let's process it
 
-        Log.vv(TAG, "packet <-- " + String.format("%02x %02x %02x", packet.protocol_format, packet.destination_address, packet.source_address) + " : " +
-                Log.bytesToHex(packet.data, 8));
-
-
-        int pgn = packet.getPGN();
+        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE_VERBOSE)) { // don't build the string unless we will log it
+            Log.vv(TAG, "packet <-- " + String.format("%02x %02x %02x", protocol_format, destination_address, source_address) + " : " +
+                    String.format("%016X", Long.reverseBytes(payload)));
+        }
 
-        engine.checkRawForwarding(Engine.BUS_TYPE_J1939, pgn, packet.source_address, packet.data);
 
+        int pgn;
+        if (protocol_format < 240) // lower byte is always 0 if protocol_format < 240
+            pgn = (protocol_format << 8);
+        else
+            pgn = (protocol_format << 8) + destination_address;
 
-        // is this a request for our address
-        switch (packet.protocol_format) {
-            case PF_REQUEST:
-                // this is a request for data
-                if ((packet.data[0] == 0) &&
-                    (packet.data[1] == (byte) PF_CLAIMED_ADDRESS) &&
-                    (packet.data[2] == (byte) 0)) {
-                    // this is a request for our address+name
-                    receiveRequestAddress();
-                    return PARSED_PACKET_TYPE_CONTROL; // parsed a control packet
-                }
-                break;
-            case PF_CLAIMED_ADDRESS:
-                // this is a claim to an address
-                long name = littleEndian2Long(packet.data, 0, 8);
-                receiveClaimedAddress(packet.source_address, name);
-                return PARSED_PACKET_TYPE_CONTROL; // parsed a control packet
-            case PF_CONNECTION_MANAGE:
-                // this is a request for a connection
-                receiveConnectionManage(packet.source_address, packet.destination_address, packet.data);
-                return PARSED_PACKET_TYPE_CONTROL; // parsed a control packet
-            case PF_CONNECTION_DATA:
-                // this is data for a connection
-                receiveConnectionData(packet.source_address, packet.destination_address, packet.data);
-                return PARSED_PACKET_TYPE_CONTROL; // parsed a control packet
+        // one lookup tells us everything we need to do with this PGN
 
-        } // switch PF
+        PgnEntry entry = pgnRegistry.get(pgn);
+        if (entry == null) return PARSED_PACKET_TYPE_NONE; // unrecognized packet
 
+        if (entry.rawForward)
+            engine.checkRawForwarding(BusHost.BUS_TYPE_J1939, pgn, source_address, payload, dlc);
 
-        switch (pgn) {
-            // place specific PGNs here that are not multipacket PGNs and which should be parsed
-            case PGN_FAULT_DM1:
-            case PGN_ODOMETER_HIRES:
-            case PGN_ODOMETER_LORES:
-            case PGN_FUEL_CONSUMPTION:
-            case PGN_FUEL_ECONOMY:
-            case PGN_PARKING: //Cruise Control + Vehicle Speed
-            case PGN_GEAR: // ETC2 message
+        if (entry.signals)
+            engine.getSignals().decodeFrame(pgn, source_address, payload, dlc, engine.getClock().elapsedRealtime());
 
-                parsePGN(packet.source_address, pgn, packet.data, 8);
-                return PARSED_PACKET_TYPE_PGN; // parsed a PGN packet
-        }
+        int parsed = PARSED_PACKET_TYPE_NONE; // unrecognized packet
+        if (entry.decoder != null)
+            parsed = entry.decoder.receiveFrame(source_address, destination_address, payload, dlc);
 
+        engine.markReceived(BusHost.BUS_TYPE_J1939, pgn, source_address); // no need to request what we just got
 
-        return PARSED_PACKET_TYPE_NONE; // unrecognized packet
+        return parsed;
 
     } // receivePacket()
 
@@ -2112,8 +2613,15 @@ public class J1939 extends EngineBus {
 
     int receiveCANFrame(CanFrame frame) {
 
-        CanPacket packet = frame2packet(frame);
-        return receivePacket(packet);
+        int dlc = (frame.data == null ? 0 : frame.data.length);
+        return receivePacket(frame.id, bytes2Payload(frame.data, dlc), dlc);
+
+    } // receiveCANFrame()
+
+
+    int receiveCANFrame(int frame_id, long payload, int dlc) {
+
+        return receivePacket(frame_id, payload, dlc);
 
     } // receiveCANFrame()
 
@@ -2154,48 +2662,14 @@ public class J1939 extends EngineBus {
 
         busTxIsReady = false;
 
-        try {
-            IntentFilter intentFilter = new IntentFilter();
-            intentFilter.addAction(VehicleBusConstants.BROADCAST_CAN_RX);
-            engine.service.context.registerReceiver(rxReceiver, intentFilter, VehicleBusConstants.PERMISSION_VBS_TXRX, null);
-        } catch (Exception e) {
-            Log.e(TAG, "Could not register CAN Rx receiver");
-        }
-
-        Intent serviceIntent = new Intent();
-        serviceIntent.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
-        serviceIntent.setAction(VehicleBusConstants.SERVICE_ACTION_START);
-
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BUS, "CAN");
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BITRATE, bitrate);
-        //serviceIntent.putExtra("listenOnly", listenOnly);
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_SKIPVERIFY, skipVerify);
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_AUTODETECT, autoDetect);
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_HARDWAREFILTER_IDS, ids);
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_HARDWAREFILTER_MASKS, masks);
-
-        engine.service.context.startService(serviceIntent);
+        engine.getBusLink().startCAN(bitrate, skipVerify, autoDetect, ids, masks, rxReceiver);
 
     } // startCANBus()
 
     void stopCanBus() {
         Log.v(TAG, "Stopping Vbus/CAN Service");
 
-
-
-        try {
-            engine.service.context.unregisterReceiver(rxReceiver);
-        } catch(Exception e) {
-            // don't do anything
-        }
-
-
-        Intent serviceIntent = new Intent();
-        serviceIntent.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
-        serviceIntent.setAction(VehicleBusConstants.SERVICE_ACTION_STOP);
-        serviceIntent.putExtra(VehicleBusConstants.SERVICE_EXTRA_BUS, "CAN");
-
-        engine.service.context.startService(serviceIntent);
+        engine.getBusLink().stopCAN();
 
         busTxIsReady = false;
     } // stopCANBus()
@@ -2245,54 +2719,58 @@ public class J1939 extends EngineBus {
 
     } // setupCanBus()
 
+
+    ///////////////////////////////////////////////////////////////////
+    // updateFilters()
+    //  rebuilds the hardware filters from the registered PGNs (e.g. after the raw forward setting changed)
+    //  and, if they are different, restarts the CAN bus in VBS with them.
+    //  If we already know the bitrate the bus is restarted at that bitrate without verifying it again,
+    //      otherwise the discovery that is in progress is started over with the new filters.
+    ///////////////////////////////////////////////////////////////////
+    void updateFilters() {
+
+        int[] old_ids = canFilterIds;
+        int[] old_masks = canFilterMasks;
+
+        setupCanBus(getFilterPgns());
+
+        if ((Arrays.equals(old_ids, canFilterIds)) && (Arrays.equals(old_masks, canFilterMasks))) return; // nothing to do
+
+        Log.i(TAG, "Hardware filters changed, restarting CAN bus with " + canFilterIds.length + " filters");
+
+        if (myBusType != BusHost.BUS_TYPE_NONE) {
+            startCanBus(busTypeToSpeed(myBusType), true, false, canFilterIds, canFilterMasks);
+        } else {
+            startCanBus(busStartBitrate, false, busAutoDetecting, canFilterIds, canFilterMasks);
+        }
+    } // updateFilters()
+
     List<CanFrame> outgoingList = Collections.synchronizedList(new ArrayList<CanFrame>());
 
     void broadcastTx(CanFrame frame) {
 
-        if (engine.service.isUnitTesting) {
+        if (engine.isUnitTesting()) {
             // just place this in a list so we can test against it
             outgoingList.add(frame);
             return;
         }
 
 
-        Intent ibroadcast = new Intent();
-        ibroadcast.setPackage(VehicleBusConstants.PACKAGE_NAME_VBS);
-        ibroadcast.setAction(VehicleBusConstants.BROADCAST_CAN_TX);
-
-        //ibroadcast.putExtra("password", VehicleBusConstants.BROADCAST_PASSWORD);
-        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_ID, frame.id);
-        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_DATA, frame.data);
-
-        engine.service.context.sendBroadcast(ibroadcast);
+        engine.getBusOutput().sendCANFrame(frame.id, frame.data);
     } // broadcastTx()
 
 
-    RxReceiver rxReceiver = new RxReceiver();
-    class RxReceiver extends BroadcastReceiver {
+    BusLink.CanReceiver rxReceiver = new BusLink.CanReceiver() {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void onCANFrame(int id, long payload, int dlc) {
             try {
-                /*
-                String password = intent.getStringExtra("password");
-                if ((password == null) || (!password.equals(VehicleBusService.BROADCAST_PASSWORD))) {
-                    Log.e(TAG, "Received invalid CAN RX broadcast");
-                    return;
-                }
-                */
-
-                CanFrame frame = new CanFrame();
-
-                frame.id = intent.getIntExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_ID, -1);
-                frame.data = intent.getByteArrayExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_DATA);
-
-                receiveCANFrame(frame);
+                receiveCANFrame(id, payload, dlc);
             } catch (Exception e) {
-                Log.e(TAG, ".RxReceiver Exception : " + e.toString(), e);
+                Log.e(TAG, ".rxReceiver Exception : " + e.toString(), e);
             }
         }
-    } // RxReceiver
+    }; // rxReceiver
 
 
 } // class J1939
@@ -0,0 +1,274 @@
+/////////////////////////////////////////////////////////////
+// Log:
+//  Wraps the platform log (android.util.Log on the device, see AndroidPlatform) so entries can be filtered by level and tag,
+//      and shown in the app (callbackInterface)
+//
+//  Code that logs for every frame, packet or message should check isEnabled() first so the message is only
+//      built when it will be recorded. Such classes resolve their tag once with tagId(), then the check is just
+//      a flag and a bit in a mask, with no locking, string compares or allocation.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+import java.util.Arrays;
+
+public class Log {
+
+
+    // set which type of entries you want to record to the log
+
+    public static volatile boolean LOGLEVEL_VERBOSE_VERBOSE = false;
+    public static volatile boolean LOGLEVEL_VERBOSE = true;
+    public static volatile boolean LOGLEVEL_DEBUG = true;
+
+    // Info, Warnings, and Errors are always recorded.
+
+    // levels for isEnabled()
+    public static final int LEVEL_VERBOSE_VERBOSE = 0;
+    public static final int LEVEL_VERBOSE = 1;
+    public static final int LEVEL_DEBUG = 2;
+    public static final int LEVEL_INFO = 3;
+    public static final int LEVEL_WARN = 4;
+    public static final int LEVEL_ERROR = 5;
+
+    //public static String logTags[] = {"ATS-Service", "ATS-Power", "ATS-Queue", "ATS-Engine", "ATS-J1939", "ATS-CAN", "ATS-J1587", "ATS-J1708"};
+    // change these with setLogTags()
+    public static String logTags[] = {"*"};
+    static volatile boolean allowAllTags = true;
+
+    // tags resolved with tagId(), each has a bit in allowedTagMask (after 63 tags, the rest share the last bit)
+    static final int MAX_TAG_ID = 63;
+    static String[] tagNames = new String[0]; // indexed by tag ID, guarded by Log.class
+    static volatile long allowedTagMask = -1L;
+
+    // where the entries are written, on the device AtsApplication sets this to AndroidPlatform.LOG_OUTPUT
+    public interface LogOutput {
+        public void println(int level, String tag, String text, Throwable e);
+    }
+
+    public static volatile LogOutput output = new LogOutput() { // e.g. on a plain JVM
+        @Override
+        public void println(int level, String tag, String text, Throwable e) {
+            System.out.println(tag + ": " + text);
+            if (e != null) e.printStackTrace(System.out);
+        }
+    };
+
+    public interface LogCallbackInterface {
+        public void show(String tag, String text);
+    }
+
+
+    public static LogCallbackInterface callbackInterface;
+    public static String callbackTags[] = {"*"};
+    public static String callbackLevels[] = {"i", "w", "e"};
+
+
+    public static void vv(final String TAG, final String TEXT) { // Extra verbose
+
+        if (LOGLEVEL_VERBOSE_VERBOSE) {
+            if (!allowTag(TAG)) return;
+            output.println(LEVEL_VERBOSE_VERBOSE, TAG, TEXT, null);
+
+            if ((callbackInterface != null) &&
+                    (Arrays.asList(callbackLevels).contains("vv"))) {
+                callbackInterface.show(TAG, TEXT);
+            }
+        }
+    }
+
+
+    public static void v(final String TAG, final String TEXT) {
+
+        if (LOGLEVEL_VERBOSE) {
+            if (!allowTag(TAG)) return;
+            output.println(LEVEL_VERBOSE, TAG, TEXT, null);
+
+            if ((callbackInterface != null) &&
+                    (Arrays.asList(callbackLevels).contains("v"))) {
+                callbackInterface.show(TAG, TEXT);
+            }
+        }
+    }
+
+
+    public static void d(final String TAG, final String TEXT) {
+
+        if (LOGLEVEL_DEBUG) {
+            if (!allowTag(TAG)) return;
+            output.println(LEVEL_DEBUG, TAG, TEXT, null);
+            if ((callbackInterface != null) &&
+                    (Arrays.asList(callbackLevels).contains("d"))) {
+                callbackInterface.show(TAG, TEXT);
+            }
+        }
+    }
+
+
+    public static void i(final String TAG, final String TEXT) {
+        if (!allowTag(TAG)) return;
+        output.println(LEVEL_INFO, TAG, TEXT, null);
+        if ((callbackInterface != null) &&
+                (Arrays.asList(callbackLevels).contains("i"))) {
+            callbackInterface.show(TAG, TEXT);
+        }
+    }
+
+    public static void w(final String TAG, final String TEXT) {
+        if (!allowTag(TAG)) return;
+        output.println(LEVEL_WARN, TAG, TEXT, null);
+        if ((callbackInterface != null) &&
+                (Arrays.asList(callbackLevels).contains("w"))) {
+            callbackInterface.show(TAG, TEXT);
+        }
+    }
+
+
+    public static void e(final String TAG, final String TEXT) {
+        if (!allowTag(TAG)) return;
+        output.println(LEVEL_ERROR, TAG, TEXT, null);
+        if ((callbackInterface != null) &&
+                (Arrays.asList(callbackLevels).contains("e"))) {
+            callbackInterface.show(TAG, TEXT);
+        }
+    }
+
+    public static void e(final String TAG, final String TEXT, final Exception e) {
+        if (!allowTag(TAG)) return;
+        output.println(LEVEL_ERROR, TAG, TEXT, e);
+        if ((callbackInterface != null) &&
+                (Arrays.asList(callbackLevels).contains("e"))) {
+            callbackInterface.show(TAG, TEXT);
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    // isEnabled()
+    //  returns true if an entry at this level for this tag would be recorded
+    //  tag_id: from tagId()
+    ////////////////////////////////////////////////////////////////////////
+    public static boolean isEnabled(int tag_id, int level) {
+        if (!isLevelEnabled(level)) return false;
+        return ((allowedTagMask & (1L << tag_id)) != 0);
+    } // isEnabled()
+
+    public static boolean isEnabled(String tag, int level) {
+        if (!isLevelEnabled(level)) return false;
+        return allowTag(tag);
+    } // isEnabled()
+
+
+    static boolean isLevelEnabled(int level) {
+        switch (level) {
+            case LEVEL_VERBOSE_VERBOSE: return LOGLEVEL_VERBOSE_VERBOSE;
+            case LEVEL_VERBOSE: return LOGLEVEL_VERBOSE;
+            case LEVEL_DEBUG: return LOGLEVEL_DEBUG;
+            default: return true; // Info, Warnings, and Errors are always recorded.
+        }
+    } // isLevelEnabled()
+
+
+    ////////////////////////////////////////////////////////////////////////
+    // tagId()
+    //  returns the ID for a tag, to pass to isEnabled(). Call this once per tag and keep the result.
+    ////////////////////////////////////////////////////////////////////////
+    public static synchronized int tagId(String tag) {
+
+        for (int i = 0; i < tagNames.length; i++) {
+            if (tagNames[i].equalsIgnoreCase(tag)) return Math.min(i, MAX_TAG_ID);
+        }
+
+        tagNames = Arrays.copyOf(tagNames, tagNames.length + 1);
+        tagNames[tagNames.length - 1] = tag;
+        allowedTagMask = buildTagMask();
+
+        return Math.min(tagNames.length - 1, MAX_TAG_ID);
+    } // tagId()
+
+
+    ////////////////////////////////////////////////////////////////////////
+    // setLogTags()
+    //  records only entries with these tags ("*" for all of them)
+    ////////////////////////////////////////////////////////////////////////
+    public static synchronized void setLogTags(String[] tags) {
+        logTags = tags;
+        allowAllTags = Arrays.asList(tags).contains("*");
+        allowedTagMask = buildTagMask();
+    } // setLogTags()
+
+
+    static long buildTagMask() { // (call while holding the Log.class lock)
+        long mask = 0;
+        for (int i = 0; i < tagNames.length; i++) {
+            if (allowTag(tagNames[i])) mask |= (1L << Math.min(i, MAX_TAG_ID));
+        }
+        return mask;
+    } // buildTagMask()
+
+
+    ////////////////////////////////////////////////////////////////////////
+    // Tag checking
+    ////////////////////////////////////////////////////////////////////////
+    public static boolean allowTag(String tag) {
+
+        if (allowAllTags) return true;
+
+        String[] tags = logTags;
+        for(int i=0; i < tags.length; i++) {
+            if (tags[i].equals("*")) return true; // asterisk means accept all
+            if (tags[i].equalsIgnoreCase(tag)) return true;
+        }
+
+        //android.util.Log.e(tag, "Skipping Log (TAG match)");
+        return false;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    // bytesToHex() , hexToBytes()
+    //      convert between a hexadecimal ASCII string and an array of bytes and back
+    ////////////////////////////////////////////////////////////////////////
+    final protected static char[] hexArray = "0123456789ABCDEF".toCharArray();
+
+    public static String bytesToHex(byte[] bytes, int start_index, int length) {
+        char[] hexChars = new char[length * 2];
+        int h = 0;
+        for ( int j = start_index; j < (start_index+length); j++ ) {
+            int v = bytes[j] & 0xFF;
+            hexChars[h * 2] = hexArray[v >>> 4];
+            hexChars[h * 2 + 1] = hexArray[v & 0x0F];
+            h++;
+        }
+        return new String(hexChars);
+    }
+
+    public static String bytesToHex(byte[] bytes, int length) {
+        return bytesToHex(bytes, 0, length);
+    }
+
+
+    public static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length()/2];
+        int i;
+        for (i=0; i < hex.length()-1; i+=2) {
+            int cp  = (int) hex.codePointAt(i);
+            cp &= 0xFF; // no funny business
+            if (cp >= 0x41) cp-=7;
+            cp -= 0x30;
+            cp &= 0x0F;
+            bytes[(i >> 1)] = (byte) (cp << 4);
+
+            cp = hex.codePointAt(i+1);
+            cp &= 0xFF; // no funny business
+            if (cp >= 0x41) cp-=7;
+            cp -= 0x30;
+            cp &= 0x0F;
+            bytes[(i >> 1)] |= cp;
+        }
+
+        return bytes;
+    } // hexToBytes()
+
+} // class
@@ -0,0 +1,282 @@
+/////////////////////////////////////////////////////////////
+// RequestScheduler:
+//  Decides when to send periodic requests (PGN or PID) over the vehicle buses.
+//  Each request has its own period and deadline, kept in a timer wheel, with some random jitter so that
+//      requests do not all go out in the same burst.
+//  A request is skipped if its data was received recently anyway (e.g. because it is broadcast).
+//  The Sender hands each due request to the RequestTracker, which waits for the response and limits how many
+//      requests to the same ECU may be waiting for a response at one time.
+//  Not thread-safe: call from the main handler only.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import java.util.Random;
+
+
+public class RequestScheduler {
+
+    private static final String TAG = "ATS-ReqSched";
+
+    public static final int TICK_MS = 100; // resolution of the wheel
+    public static final int WHEEL_SLOTS = 128; // must be a power of 2, wheel covers 12.8 seconds before wrapping
+
+    public static final int ATTEMPTS_UNLIMITED = -1;
+
+
+    ////////////////////////////////////////////////////////////////////
+    // Sender: sends a request when it is due
+    //  Returns true if the request was sent, or false if it was not needed/possible right now
+    //      (in which case it is tried again after the next period)
+    ////////////////////////////////////////////////////////////////////
+    public interface Sender {
+        boolean sendRequest(Request request);
+    }
+
+
+    public static class Request {
+        int bus_type; // BusHost.BUS_TYPE_*
+        int message_type; // PGN or PID
+        int destination; // address of the ECU the request is sent to (0xFF = global)
+        int period_ms;
+        int jitter_ms; // up to this much is added to each period
+        int attempts_remaining; // ATTEMPTS_UNLIMITED, or number of times left to send this
+
+        long next_due_ms; // when this should be sent next
+        long last_sent_ms; // when this was last sent (0 = never)
+        long last_seen_ms; // when the data was last received (0 = never)
+
+        int suppressed_count; // number of times this was not sent because the data was seen recently
+        int sent_count; // number of times this was sent
+
+        // wheel
+        long deadline_ms; // time this is in the wheel for
+        boolean scheduled;
+        int slot; // which slot of the wheel it is in
+        Request next; // next in the same slot
+    } // Request
+
+
+    Sender sender;
+    Random random = new Random();
+
+    Request[] wheel = new Request[WHEEL_SLOTS];
+    long lastTick = -1; // the last tick (time / TICK_MS) that was processed
+
+    IntMap<Request> requests = new IntMap<Request>(); // all requests, indexed by requestKey(bus_type, message_type)
+
+
+    public RequestScheduler(Sender sender) {
+        this.sender = sender;
+    }
+
+
+    static int requestKey(int bus_type, int message_type) {
+        return ((bus_type & 0x0F) << 28) | (message_type & 0xFFFFFFF);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // add()
+    //  adds (or replaces) a periodic request, the first one will be sent at a random time within the first period
+    //  Parameters:
+    //      attempts: ATTEMPTS_UNLIMITED, or the number of times to send it before it is removed
+    ////////////////////////////////////////////////////////////////////
+    public Request add(int bus_type, int message_type, int destination, int period_ms, int jitter_ms, int attempts, long now) {
+
+        Request r = requests.get(requestKey(bus_type, message_type));
+        if (r != null) remove(r);
+
+        r = new Request();
+        r.bus_type = bus_type;
+        r.message_type = message_type;
+        r.destination = destination;
+        r.period_ms = (period_ms < TICK_MS ? TICK_MS : period_ms);
+        r.jitter_ms = jitter_ms;
+        r.attempts_remaining = attempts;
+        r.next_due_ms = now + random.nextInt(r.period_ms); // spread the first ones out
+
+        requests.put(requestKey(bus_type, message_type), r);
+        schedule(r, r.next_due_ms, now);
+
+        return r;
+    } // add()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // get()
+    //  returns the request for this message, or null if there is none
+    ////////////////////////////////////////////////////////////////////
+    public Request get(int bus_type, int message_type) {
+        return requests.get(requestKey(bus_type, message_type));
+    }
+
+
+    public void remove(Request r) {
+        unschedule(r);
+        requests.remove(requestKey(r.bus_type, r.message_type));
+    } // remove()
+
+
+    public void clear() {
+        for (int i = 0; i < WHEEL_SLOTS; i++) wheel[i] = null;
+        for (int i = 0; i < requests.capacity(); i++) {
+            if (requests.isSlotUsed(i)) requests.valueAt(i).scheduled = false;
+        }
+        requests.clear();
+        lastTick = -1;
+    } // clear()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // markReceived()
+    //  call whenever data for a message is received, whether it was requested or not
+    //  this is called for every received message, and does not allocate.
+    ////////////////////////////////////////////////////////////////////
+    public void markReceived(int bus_type, int message_type, long now) {
+        Request r = requests.get(requestKey(bus_type, message_type));
+        if (r == null) return;
+
+        r.last_seen_ms = now;
+    } // markReceived()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // schedule()
+    //  puts the request in the wheel for the given time
+    ////////////////////////////////////////////////////////////////////
+    void schedule(Request r, long deadline_ms, long now) {
+        unschedule(r);
+        if (deadline_ms < now) deadline_ms = now;
+
+        long tick = (deadline_ms + TICK_MS - 1) / TICK_MS; // round up, so it is never processed before its deadline
+        if ((lastTick >= 0) && (tick <= lastTick)) tick = lastTick + 1; // that slot was already processed, use the next one
+
+        int slot = (int) (tick & (WHEEL_SLOTS - 1));
+        r.deadline_ms = deadline_ms;
+        r.slot = slot;
+        r.next = wheel[slot];
+        wheel[slot] = r;
+        r.scheduled = true;
+    } // schedule()
+
+
+    void unschedule(Request r) {
+        if (!r.scheduled) return;
+
+        Request prev = null;
+        for (Request cur = wheel[r.slot]; cur != null; cur = cur.next) {
+            if (cur == r) {
+                if (prev == null) wheel[r.slot] = cur.next;
+                else prev.next = cur.next;
+                break;
+            }
+            prev = cur;
+        }
+        r.scheduled = false;
+        r.next = null;
+    } // unschedule()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // tick()
+    //  call periodically (every TICK_MS) to send any requests that are due
+    //  Returns the number of requests that were sent
+    ////////////////////////////////////////////////////////////////////
+    public int tick(long now) {
+
+        long current = now / TICK_MS;
+        if (lastTick < 0) lastTick = current - 1;
+        if (current <= lastTick) return 0;
+
+        // if we fell far behind, each slot only needs to be looked at once
+        long first = lastTick + 1;
+        if (current - first >= WHEEL_SLOTS) first = current - WHEEL_SLOTS + 1;
+
+        // collect everything that is due, then process it (processing may put things back into these slots)
+        Request due = null;
+        for (long t = first; t <= current; t++) {
+            int slot = (int) (t & (WHEEL_SLOTS - 1));
+            Request prev = null;
+            Request cur = wheel[slot];
+            while (cur != null) {
+                Request next = cur.next;
+                if (cur.deadline_ms <= now) {
+                    if (prev == null) wheel[slot] = next;
+                    else prev.next = next;
+                    cur.scheduled = false;
+                    cur.next = due;
+                    due = cur;
+                } else {
+                    prev = cur; // a later lap of the wheel
+                }
+                cur = next;
+            }
+        }
+        lastTick = current;
+
+        int sent = 0;
+        while (due != null) {
+            Request r = due;
+            due = due.next;
+            r.next = null;
+            if (process(r, now)) sent++;
+        }
+        return sent;
+    } // tick()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // process()
+    //  the request's deadline has arrived: send it unless we already have fresh data
+    //  Returns true if it was sent
+    ////////////////////////////////////////////////////////////////////
+    boolean process(Request r, long now) {
+
+        if (now < r.next_due_ms) {
+            // not due yet (a later lap of the wheel)
+            schedule(r, r.next_due_ms, now);
+            return false;
+        }
+
+        if ((r.last_seen_ms != 0) && (now < r.last_seen_ms + r.period_ms)) {
+            // we already have fresh data (probably broadcast), no need to ask for it
+            r.suppressed_count++;
+            r.next_due_ms = r.last_seen_ms + r.period_ms + jitter(r);
+            schedule(r, r.next_due_ms, now);
+            return false;
+        }
+
+        boolean sent = false;
+        try {
+            sent = sender.sendRequest(r);
+        } catch (Exception e) {
+            Log.e(TAG, "Exception sending request for " + r.message_type + ": " + e.toString(), e);
+        }
+
+        r.next_due_ms = now + r.period_ms + jitter(r);
+
+        if (sent) {
+            r.sent_count++;
+            r.last_sent_ms = now;
+            if (r.attempts_remaining > 0) r.attempts_remaining--;
+        }
+
+        if (r.attempts_remaining == 0) {
+            remove(r); // that was the last one (the tracker still waits for its response)
+            return sent;
+        }
+
+        schedule(r, r.next_due_ms, now);
+
+        return sent;
+    } // process()
+
+
+    int jitter(Request r) {
+        if (r.jitter_ms <= 0) return 0;
+        return random.nextInt(r.jitter_ms + 1);
+    } // jitter()
+
+
+} // class RequestScheduler
@@ -0,0 +1,345 @@
+/////////////////////////////////////////////////////////////
+// RequestTracker:
+//  Sends one-off requests (PGN or PID) over the vehicle buses and keeps track of them until they are answered.
+//  Each request returns a Handle, which is completed when a matching response (message and source) is
+//      received, or when it times out. Anybody interested can be told through a Listener.
+//  Asking for something that was already asked for, and is still waiting for a response, does not send it
+//      again, it just returns the same Handle.
+//  Only a limited number of requests to the same ECU may be waiting for a response at one time
+//      (the periodic ones from the RequestScheduler are sent through here too), the rest wait their turn.
+//      Requests are usually sent globally, so a global request counts against the ECU that answered it the last
+//      time (once we know which one that is), not against the global address.
+//  Not thread-safe: call from the main handler only.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import java.util.ArrayList;
+
+
+public class RequestTracker {
+
+    private static final String TAG = "ATS-ReqTrack";
+
+    public static final int DEFAULT_TIMEOUT_MS = 1250; // stop waiting for a response after this long (J1939 T3)
+    public static final int MAX_OUTSTANDING_PER_ECU = 4; // max requests to one address that may be waiting for a response
+
+    public static final int DESTINATION_GLOBAL = 0xFF;
+
+    public static final int STATE_QUEUED = 0; // waiting for a free spot at the ECU before it can be sent
+    public static final int STATE_SENT = 1; // sent, waiting for a response
+    public static final int STATE_RESPONDED = 2; // response was received
+    public static final int STATE_TIMED_OUT = 3; // no response in time
+    public static final int STATE_NOT_SENT = 4; // could not be sent (e.g. no address on the bus yet)
+    public static final int STATE_CANCELLED = 5; // we stopped before it completed
+
+
+    ////////////////////////////////////////////////////////////////////
+    // Sender: sends the request on the bus
+    //  Returns true if it was sent
+    ////////////////////////////////////////////////////////////////////
+    public interface Sender {
+        boolean sendRequest(int bus_type, int message_type, int destination);
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Listener: told when a request is complete (responded, timed out, not sent or cancelled)
+    ////////////////////////////////////////////////////////////////////
+    public interface Listener {
+        void onRequestComplete(Handle handle);
+    }
+
+
+    public static class Handle {
+        int bus_type; // BusHost.BUS_TYPE_*
+        int message_type; // PGN or PID
+        int destination; // address of the ECU the request is sent to (0xFF = global, any source may respond)
+        int timeout_ms;
+
+        int state = STATE_QUEUED;
+        int response_source = -1; // address (or MID) that responded
+        long requested_ms; // when this was asked for
+        long sent_ms; // when this was sent on the bus
+        long completed_ms; // when this was completed
+        int ecu = -1; // ecuKey() this is counted against while it is sent
+
+        ArrayList<Listener> listeners; // null if nobody is listening
+        Handle next; // next one for the same message (but a different destination)
+
+        public int getState() { return state; }
+        public int getResponseSource() { return response_source; }
+        public boolean isDone() { return (state >= STATE_RESPONDED); }
+        public boolean isResponded() { return (state == STATE_RESPONDED); }
+    } // Handle
+
+
+    Sender sender;
+
+    IntMap<Handle> inFlight = new IntMap<Handle>(); // all queued and sent requests, indexed by requestKey(bus_type, message_type)
+    ArrayList<Handle> queue = new ArrayList<Handle>(); // requests waiting for a free spot, oldest first
+    int[] outstandingCounts = new int[16 * 256]; // indexed by ecuKey(bus_type, address of the ECU)
+    IntMap<int[]> responders = new IntMap<int[]>(); // address that last answered a global request, indexed by requestKey(bus_type, message_type)
+    int inFlightCount;
+
+
+    public RequestTracker(Sender sender) {
+        this.sender = sender;
+    }
+
+
+    static int requestKey(int bus_type, int message_type) {
+        return RequestScheduler.requestKey(bus_type, message_type);
+    }
+
+    static int ecuKey(int bus_type, int destination) {
+        return ((bus_type & 0x0F) << 8) | (destination & 0xFF);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // request()
+    //  asks for a message, and returns the Handle that tracks the response
+    //  if the same request is already waiting for a response, that Handle is returned and nothing new is sent
+    //  Parameters:
+    //      destination: address to send the request to, or DESTINATION_GLOBAL
+    //      listener: told when the request is complete (may be null)
+    ////////////////////////////////////////////////////////////////////
+    public Handle request(int bus_type, int message_type, int destination, int timeout_ms, Listener listener, long now) {
+
+        Handle h = find(bus_type, message_type, destination);
+        if (h == null) {
+            h = new Handle();
+            h.bus_type = bus_type;
+            h.message_type = message_type;
+            h.destination = destination & 0xFF;
+            h.timeout_ms = (timeout_ms > 0 ? timeout_ms : DEFAULT_TIMEOUT_MS);
+            h.requested_ms = now;
+
+            h.next = inFlight.get(requestKey(bus_type, message_type));
+            inFlight.put(requestKey(bus_type, message_type), h);
+            inFlightCount++;
+
+            queue.add(h);
+        }
+
+        if (listener != null) {
+            if (h.listeners == null) h.listeners = new ArrayList<Listener>(1);
+            h.listeners.add(listener);
+        }
+
+        sendQueued(now); // it may be able to go right away
+
+        return h;
+    } // request()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // find()
+    //  returns the request that is waiting for this message from this destination, or null if there is none
+    ////////////////////////////////////////////////////////////////////
+    public Handle find(int bus_type, int message_type, int destination) {
+        for (Handle h = inFlight.get(requestKey(bus_type, message_type)); h != null; h = h.next) {
+            if (h.destination == (destination & 0xFF)) return h;
+        }
+        return null;
+    } // find()
+
+
+    public boolean isInFlight(int bus_type, int message_type, int destination) {
+        return (find(bus_type, message_type, destination) != null);
+    }
+
+    public int getOutstandingCount(int bus_type, int address) {
+        return outstandingCounts[ecuKey(bus_type, address)];
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // ecuOf()
+    //  returns the ecuKey() that a request counts against: its destination, or for a global request the ECU that
+    //      answered it the last time (if we know it)
+    ////////////////////////////////////////////////////////////////////
+    int ecuOf(Handle h) {
+        if (h.destination == DESTINATION_GLOBAL) {
+            int[] responder = responders.get(requestKey(h.bus_type, h.message_type));
+            if (responder != null) return ecuKey(h.bus_type, responder[0]);
+        }
+        return ecuKey(h.bus_type, h.destination);
+    } // ecuOf()
+
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////
+    // markReceived()
+    //  call whenever a message is received (after it was parsed), whether it was requested or not
+    //  completes every request it answers. This is called for every received message, and does not allocate.
+    ////////////////////////////////////////////////////////////////////
+    public void markReceived(int bus_type, int message_type, int source, long now) {
+
+        if (inFlightCount == 0) return;
+
+        Handle h = inFlight.get(requestKey(bus_type, message_type));
+        while (h != null) {
+            Handle next = h.next;
+            if ((h.destination == DESTINATION_GLOBAL) || (h.destination == (source & 0xFF))) {
+                if (h.destination == DESTINATION_GLOBAL) learnResponder(h, source);
+                h.response_source = source;
+                complete(h, STATE_RESPONDED, now);
+            }
+            h = next;
+        }
+
+        sendQueued(now); // a spot may have opened up
+
+    } // markReceived()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // learnResponder()
+    //  remembers which ECU answered a global request, so the next one counts against that ECU
+    //  only allocates the first time a message is answered
+    ////////////////////////////////////////////////////////////////////
+    void learnResponder(Handle h, int source) {
+        int key = requestKey(h.bus_type, h.message_type);
+        int[] responder = responders.get(key);
+        if (responder == null) {
+            responder = new int[1];
+            responders.put(key, responder);
+        }
+        responder[0] = source & 0xFF;
+    } // learnResponder()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // tick()
+    //  call periodically to time out requests and send queued ones
+    ////////////////////////////////////////////////////////////////////
+    public void tick(long now) {
+
+        if (inFlightCount == 0) return;
+
+        for (int i = 0; i < inFlight.capacity(); i++) {
+            if (!inFlight.isSlotUsed(i)) continue;
+            Handle h = inFlight.valueAt(i);
+            while (h != null) {
+                Handle next = h.next;
+                if ((h.state == STATE_SENT) && (now >= h.sent_ms + h.timeout_ms)) {
+                    complete(h, STATE_TIMED_OUT, now);
+                    i--; // the map may have shifted other entries into this slot, look at it again
+                    break;
+                }
+                h = next;
+            }
+        }
+
+        sendQueued(now);
+
+    } // tick()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // cancelAll()
+    //  completes everything that is still waiting, e.g. because the buses are being stopped
+    ////////////////////////////////////////////////////////////////////
+    public void cancelAll(long now) {
+
+        while (inFlightCount > 0) {
+            for (int i = 0; i < inFlight.capacity(); i++) {
+                if (inFlight.isSlotUsed(i)) {
+                    complete(inFlight.valueAt(i), STATE_CANCELLED, now);
+                    break;
+                }
+            }
+        }
+
+        queue.clear();
+        java.util.Arrays.fill(outstandingCounts, 0);
+
+    } // cancelAll()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // sendQueued()
+    //  sends whatever is queued, as long as its ECU has room for more outstanding requests
+    ////////////////////////////////////////////////////////////////////
+    void sendQueued(long now) {
+
+        for (int i = 0; i < queue.size(); ) {
+            Handle h = queue.get(i);
+
+            int ecu = ecuOf(h);
+            if (outstandingCounts[ecu] >= MAX_OUTSTANDING_PER_ECU) {
+                i++; // this one has to keep waiting
+                continue;
+            }
+
+            queue.remove(i);
+
+            boolean sent = false;
+            try {
+                sent = sender.sendRequest(h.bus_type, h.message_type, h.destination);
+            } catch (Exception e) {
+                Log.e(TAG, "Exception sending request for " + h.message_type + ": " + e.toString(), e);
+            }
+
+            if (!sent) {
+                complete(h, STATE_NOT_SENT, now);
+                continue;
+            }
+
+            h.state = STATE_SENT;
+            h.sent_ms = now;
+            h.ecu = ecu;
+            outstandingCounts[ecu]++;
+        }
+
+    } // sendQueued()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // complete()
+    //  removes the request and tells anybody who is listening
+    ////////////////////////////////////////////////////////////////////
+    void complete(Handle h, int state, long now) {
+
+        // take it out of the chain for this message
+        int key = requestKey(h.bus_type, h.message_type);
+        Handle head = inFlight.get(key);
+        if (head == h) {
+            if (h.next == null) inFlight.remove(key);
+            else inFlight.put(key, h.next);
+        } else {
+            for (Handle cur = head; cur != null; cur = cur.next) {
+                if (cur.next == h) {
+                    cur.next = h.next;
+                    break;
+                }
+            }
+        }
+        h.next = null;
+        inFlightCount--;
+
+        if (h.state == STATE_SENT)
+            outstandingCounts[h.ecu]--;
+        else if (h.state == STATE_QUEUED)
+            queue.remove(h);
+
+        h.state = state;
+        h.completed_ms = now;
+
+        if (h.listeners == null) return;
+        for (int i = 0; i < h.listeners.size(); i++) {
+            try {
+                h.listeners.get(i).onRequestComplete(h);
+            } catch (Exception e) {
+                Log.e(TAG, "Exception in listener for " + h.message_type + ": " + e.toString(), e);
+            }
+        }
+
+    } // complete()
+
+
+} // class RequestTracker
@@ -0,0 +1,371 @@
+/////////////////////////////////////////////////////////////
+// SignalTable:
+//  Decodes J1939 parameters (SPNs) from received PGNs using a table of signal definitions,
+//      and holds the latest value of each one.
+//  The table is a text file (signals.csv) that can be placed in the alternate config location, one signal per line:
+//      SPN, PGN, start bit, length (bits), scale, offset, byte order (L or B), [max valid raw value]
+//
+//      start bit: bit position of the least significant bit, counting from bit 0 of the first data byte
+//          for byte order B (big endian), the whole bytes holding the signal are read most significant first,
+//          and the start bit is counted within that value (usually 0)
+//      max valid raw value (optional): raw values above this are "not available" or "error".
+//          If left out, the J1939 ranges are used (e.g. 0xFA for 1 byte, 0xFAFF for 2 bytes)
+//
+//  Example:
+//      # RPM, coolant temperature, engine hours
+//      190, 61444, 24, 16, 0.125, 0, L
+//      110, 65262, 0, 8, 1, -40, L
+//      247, 65253, 0, 32, 0.05, 0, L
+//
+//  Definitions are kept in primitive arrays and are indexed by PGN, so decoding a frame does not allocate.
+//  Values can be read by SPN (getValue()) or by index (getValueAt()) e.g. from LocalMessage or Codec.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+
+public class SignalTable {
+
+    private static final String TAG = "ATS-Signals";
+
+    public static final String FILENAME = "signals.csv"; // (see Config.initSignals() for where it is kept)
+
+    public static final int MAX_SIGNAL_BITS = 32; // longest signal we will decode
+
+    // definitions (one entry per signal)
+    int count = 0;
+    int[] spns = new int[0];
+    int[] pgns = new int[0];
+    int[] startBits = new int[0];
+    int[] lengths = new int[0];
+    boolean[] bigEndian = new boolean[0];
+    long[] masks = new long[0]; // (1 << length) - 1
+    long[] maxValid = new long[0];
+    double[] scales = new double[0];
+    double[] offsets = new double[0];
+
+    // latest values (one entry per signal)
+    long[] rawValues = new long[0];
+    double[] values = new double[0];
+    boolean[] valid = new boolean[0]; // false until received, or if the last value received was not-available/error
+    long[] updateTimes = new long[0]; // elapsed realtime of the last update, 0 = never
+    int[] sources = new int[0]; // source address of the last update
+
+    // indexes
+    IntMap<int[]> pgnIndex = new IntMap<int[]>(); // PGN -> indexes of the signals in that PGN
+    IntMap<Integer> spnIndex = new IntMap<Integer>(); // SPN -> index of the signal (boxed, but only built on load)
+
+
+    ////////////////////////////////////////////////////////////////////
+    // loadFile()
+    //  loads the signal definitions from the file (if there is one)
+    //  Returns the number of signals that were loaded
+    ////////////////////////////////////////////////////////////////////
+    public int loadFile(File f) {
+
+        if (!f.exists()) {
+            Log.v(TAG, "No signal definitions (" + f.getPath() + " does not exist)");
+            allocate(0); // no signals
+            return 0;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(f));
+            return load(reader);
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to read " + f.getPath() + "; " + e.toString());
+            allocate(0); // no signals
+            return 0;
+        } finally {
+            try {
+                if (reader != null) reader.close();
+            } catch (Exception e) {
+                // Do Nothing
+            }
+        }
+    } // loadFile()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // loadString()
+    //  loads the signal definitions from the given text (same format as the file)
+    ////////////////////////////////////////////////////////////////////
+    public int loadString(String text) {
+        try {
+            return load(new BufferedReader(new StringReader(text)));
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to read signal definitions; " + e.toString());
+            allocate(0); // no signals
+            return 0;
+        }
+    } // loadString()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // load()
+    //  parses the definitions, replacing any that were loaded before (and forgetting their values)
+    ////////////////////////////////////////////////////////////////////
+    int load(BufferedReader reader) throws java.io.IOException {
+
+        ArrayList<String[]> lines = new ArrayList<String[]>();
+
+        String line;
+        int line_number = 0;
+        while ((line = reader.readLine()) != null) {
+            line_number++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String[] fields = line.split(",");
+            if (fields.length < 7) {
+                Log.e(TAG, "Signal definition line " + line_number + " has too few fields (Line ignored)");
+                continue;
+            }
+            for (int i = 0; i < fields.length; i++) fields[i] = fields[i].trim();
+            lines.add(fields);
+        }
+
+        allocate(lines.size());
+
+        for (String[] fields : lines) {
+            try {
+                int spn = Integer.parseInt(fields[0]);
+                int pgn = Integer.parseInt(fields[1]);
+                int start_bit = Integer.parseInt(fields[2]);
+                int length = Integer.parseInt(fields[3]);
+                double scale = Double.parseDouble(fields[4]);
+                double offset = Double.parseDouble(fields[5]);
+                boolean big_endian = fields[6].toUpperCase().startsWith("B");
+
+                if ((length < 1) || (length > MAX_SIGNAL_BITS) || (start_bit < 0) || (start_bit + length > J1939.MAX_TP_BYTES * 8)) {
+                    Log.e(TAG, "Signal definition for SPN " + spn + " has an invalid position (Signal ignored)");
+                    continue;
+                }
+                if (spnIndex.containsKey(spn)) {
+                    Log.e(TAG, "Signal definition for SPN " + spn + " is a duplicate (Signal ignored)");
+                    continue;
+                }
+
+                long max_valid = defaultMaxValid(length);
+                if ((fields.length > 7) && (!fields[7].isEmpty())) {
+                    max_valid = (fields[7].toUpperCase().startsWith("0X") ?
+                            Long.parseLong(fields[7].substring(2), 16) : Long.parseLong(fields[7]));
+                }
+
+                int i = count++;
+                spns[i] = spn;
+                pgns[i] = pgn;
+                startBits[i] = start_bit;
+                lengths[i] = length;
+                bigEndian[i] = big_endian;
+                masks[i] = (1L << length) - 1;
+                maxValid[i] = max_valid;
+                scales[i] = scale;
+                offsets[i] = offset;
+
+                spnIndex.put(spn, i);
+
+                int[] old = pgnIndex.get(pgn);
+                int[] list = new int[(old == null ? 0 : old.length) + 1];
+                if (old != null) System.arraycopy(old, 0, list, 0, old.length);
+                list[list.length - 1] = i;
+                pgnIndex.put(pgn, list);
+
+                Log.v(TAG, "Loaded signal SPN " + spn + " from PGN " + pgn + " bit " + start_bit + " len " + length);
+            } catch (Exception e) {
+                Log.e(TAG, "Signal definition " + fields[0] + " could not be parsed (Signal ignored); " + e.toString());
+            }
+        }
+
+        return count;
+    } // load()
+
+
+    void allocate(int size) {
+        count = 0;
+        spns = new int[size];
+        pgns = new int[size];
+        startBits = new int[size];
+        lengths = new int[size];
+        bigEndian = new boolean[size];
+        masks = new long[size];
+        maxValid = new long[size];
+        scales = new double[size];
+        offsets = new double[size];
+
+        rawValues = new long[size];
+        values = new double[size];
+        valid = new boolean[size];
+        updateTimes = new long[size];
+        sources = new int[size];
+
+        pgnIndex.clear();
+        spnIndex.clear();
+    } // allocate()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // defaultMaxValid()
+    //  the largest raw value that is a real value, per J1939-71 (everything above is error or not available)
+    ////////////////////////////////////////////////////////////////////
+    static long defaultMaxValid(int length) {
+        if (length < 2) return 1;
+        if (length < 8) return (1L << length) - 3; // e.g. 2 bits: 00,01 valid, 10 error, 11 n/a
+        // 0xFA in the most significant byte, 0xFF in the rest
+        int bytes = (length + 7) / 8;
+        long max = 0xFAL << ((bytes - 1) * 8);
+        max |= (1L << ((bytes - 1) * 8)) - 1;
+        return max & ((1L << length) - 1);
+    } // defaultMaxValid()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // getPgns()
+    //  returns the PGNs that contain at least one signal (so we can subscribe to them)
+    ////////////////////////////////////////////////////////////////////
+    public int[] getPgns() {
+        int[] result = new int[pgnIndex.size()];
+        int n = 0;
+        for (int i = 0; i < pgnIndex.capacity(); i++) {
+            if (pgnIndex.isSlotUsed(i)) result[n++] = pgnIndex.keyAt(i);
+        }
+        return result;
+    } // getPgns()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // decodeFrame()
+    //  extracts all signals for this PGN from a single frame, whose data is packed little-endian into a long
+    //  Returns the number of signals that were updated
+    ////////////////////////////////////////////////////////////////////
+    public int decodeFrame(int pgn, int source_address, long payload, int dlc, long now) {
+
+        int[] list = pgnIndex.get(pgn);
+        if (list == null) return 0;
+
+        int updated = 0;
+        for (int i : list) {
+            int start = startBits[i];
+            int length = lengths[i];
+            if (start + length > dlc * 8) continue; // not in this frame
+
+            long raw;
+            if (!bigEndian[i]) {
+                raw = (payload >>> start) & masks[i];
+            } else {
+                // read the bytes holding the signal in the other order
+                int first_byte = start / 8;
+                int bytes = ((start % 8) + length + 7) / 8;
+                long v = 0;
+                for (int b = 0; b < bytes; b++) {
+                    v = (v << 8) | ((payload >>> ((first_byte + b) * 8)) & 0xFF);
+                }
+                raw = (v >>> (start % 8)) & masks[i];
+            }
+            store(i, raw, source_address, now);
+            updated++;
+        }
+        return updated;
+    } // decodeFrame()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // decodeData()
+    //  extracts all signals for this PGN from a multi-packet message
+    //  Returns the number of signals that were updated
+    ////////////////////////////////////////////////////////////////////
+    public int decodeData(int pgn, int source_address, byte[] data, int data_length, long now) {
+
+        int[] list = pgnIndex.get(pgn);
+        if (list == null) return 0;
+
+        int updated = 0;
+        for (int i : list) {
+            int start = startBits[i];
+            int length = lengths[i];
+            if (start + length > data_length * 8) continue; // not in this message
+
+            int first_byte = start / 8;
+            int bytes = ((start % 8) + length + 7) / 8;
+            long v = 0;
+            for (int b = 0; b < bytes; b++) {
+                if (bigEndian[i])
+                    v = (v << 8) | (data[first_byte + b] & 0xFF);
+                else
+                    v |= ((long) (data[first_byte + b] & 0xFF)) << (b * 8);
+            }
+            store(i, (v >>> (start % 8)) & masks[i], source_address, now);
+            updated++;
+        }
+        return updated;
+    } // decodeData()
+
+
+    void store(int i, long raw, int source_address, long now) {
+        rawValues[i] = raw;
+        sources[i] = source_address;
+        updateTimes[i] = now;
+        if (raw > maxValid[i]) {
+            valid[i] = false; // not available or error
+        } else {
+            valid[i] = true;
+            values[i] = raw * scales[i] + offsets[i];
+        }
+    } // store()
+
+
+    ////////////////////////////////////////////////////////////////////
+    // Reading values
+    ////////////////////////////////////////////////////////////////////
+
+    public int size() {
+        return count;
+    }
+
+    // indexOf(): returns the index of the signal for the SPN, or -1 if it is not in the table
+    public int indexOf(int spn) {
+        Integer i = spnIndex.get(spn);
+        return (i == null ? -1 : i);
+    }
+
+    public int getSpnAt(int i) {
+        return spns[i];
+    }
+
+    public boolean isValidAt(int i) {
+        return valid[i];
+    }
+
+    public double getValueAt(int i) {
+        return values[i];
+    }
+
+    public long getUpdateTimeAt(int i) {
+        return updateTimes[i];
+    }
+
+    public int getSourceAt(int i) {
+        return sources[i];
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // getValue()
+    //  returns the latest value of the SPN, or default_value if it is unknown, not available, or not in the table
+    ////////////////////////////////////////////////////////////////////
+    public double getValue(int spn, double default_value) {
+        int i = indexOf(spn);
+        if ((i < 0) || (!valid[i])) return default_value;
+        return values[i];
+    } // getValue()
+
+
+} // class SignalTable
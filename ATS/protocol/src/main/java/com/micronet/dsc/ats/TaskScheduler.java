@@ -0,0 +1,19 @@
+/////////////////////////////////////////////////////////////
+// TaskScheduler:
+//  Runs delayed and periodic tasks for the bus protocol code, one at a time on the same thread
+//  On the device this is a Handler on the main looper (see AndroidPlatform).
+//  The methods are the same as Handler's so code that used a Handler can use this instead.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public interface TaskScheduler {
+
+    boolean post(Runnable task);
+
+    boolean postDelayed(Runnable task, long delay_ms);
+
+    void removeCallbacks(Runnable task);
+
+} // TaskScheduler
@@ -0,0 +1,138 @@
+/////////////////////////////////////////////////////////////
+// TraceDecoder:
+//  Turns a trace dump (see TraceFormat, written by Trace and VBS Trace) into readable text, one line per entry, oldest first.
+//  This is plain Java, so it can be run on a PC from the protocol module:
+//      javac -d out TraceFormat.java TraceDecoder.java
+//      java -cp out com.micronet.dsc.ats.TraceDecoder trace-crash.dat [more files]
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+
+public class TraceDecoder {
+
+    public static void main(String[] args) {
+
+        if (args.length == 0) {
+            System.err.println("usage: TraceDecoder <trace file> [<trace file> ..]");
+            System.exit(1);
+        }
+
+        for (String name : args) {
+            InputStream in = null;
+            try {
+                in = new BufferedInputStream(new FileInputStream(name));
+                System.out.println("==== " + name);
+                decode(in, System.out);
+            } catch (Exception e) {
+                System.err.println(name + ": " + e.toString());
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (Exception e) {
+                        // Do Nothing
+                    }
+                }
+            }
+        }
+    } // main()
+
+
+    ///////////////////////////////////////////////////
+    // decode()
+    //  reads a whole dump and prints one line per entry
+    //  returns the number of entries
+    ///////////////////////////////////////////////////
+    public static int decode(InputStream input, PrintStream out) throws IOException {
+
+        DataInputStream in = new DataInputStream(input);
+
+        int magic = in.readInt();
+        int version = in.readUnsignedShort();
+        if ((magic != TraceFormat.MAGIC) || (version != TraceFormat.VERSION))
+            throw new IOException("not a trace dump (or unknown version " + version + ")");
+
+        int reason = in.readUnsignedByte();
+        long dump_wall_ms = in.readLong();
+        long dump_nanos = in.readLong();
+        int count = in.readInt();
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+        out.println("dumped " + format.format(new Date(dump_wall_ms)) + " (" + reasonName(reason) + "), " + count + " entries");
+
+        byte[] data = new byte[255]; // the most a stored length can say
+        for (int i = 0; i < count; i++) {
+            long sequence = in.readLong();
+            long nanos = in.readLong();
+            int code = in.readShort();
+            int arg1 = in.readInt();
+            int arg2 = in.readInt();
+            int length = in.readInt();
+            int stored = in.readUnsignedByte();
+            in.readFully(data, 0, stored);
+
+            // the times are from a monotonic clock, work out the wall clock from the time of the dump
+            long wall_ms = dump_wall_ms - (dump_nanos - nanos) / 1000000L;
+
+            out.println(format.format(new Date(wall_ms)) + " #" + sequence + " " +
+                    describe(code, arg1, arg2, length) +
+                    (stored > 0 ? " : " + toHex(data, stored) + (length > stored ? " .." : "") : ""));
+        }
+
+        return count;
+    } // decode()
+
+
+    ///////////////////////////////////////////////////
+    // describe()
+    //  returns the name of the entry and its arguments
+    ///////////////////////////////////////////////////
+    static String describe(int code, int arg1, int arg2, int length) {
+        switch (code) {
+            case TraceFormat.CODE_UDP_RX:
+                return "UDP <-- port " + arg1 + " " + length + " bytes";
+            case TraceFormat.CODE_UDP_TX:
+                return "UDP --> port " + arg1 + " to " + arg2 + " " + length + " bytes";
+            case TraceFormat.CODE_EVENT_QUEUED:
+                return "EVENT type " + arg1 + " seq " + arg2;
+            case TraceFormat.CODE_DUMP:
+            case TraceFormat.VBS_CODE_DUMP:
+                return "DUMP " + reasonName(arg1);
+            case TraceFormat.VBS_CODE_CAN_RX:
+                return "CAN <-- " + String.format("%X", arg1) + " [" + length + "]";
+            case TraceFormat.VBS_CODE_CAN_TX:
+                return "CAN --> " + String.format("%X", arg1) + " [" + length + "]";
+            default:
+                return "code " + code + " " + arg1 + " " + arg2 + " [" + length + "]";
+        }
+    } // describe()
+
+
+    static String reasonName(int reason) {
+        if ((reason >= 0) && (reason < TraceFormat.REASON_NAMES.length)) return TraceFormat.REASON_NAMES[reason];
+        return "reason " + reason;
+    }
+
+
+    static String toHex(byte[] bytes, int length) {
+        StringBuilder sb = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            sb.append(String.format("%02X", bytes[i] & 0xFF));
+        }
+        return sb.toString();
+    }
+
+
+} // class TraceDecoder
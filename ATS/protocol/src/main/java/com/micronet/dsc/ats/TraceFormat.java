@@ -0,0 +1,37 @@
+/////////////////////////////////////////////////////////////
+// TraceFormat:
+//  The trace dump file, shared by the writers (ATS Trace, VBS Trace) and the reader (TraceDecoder)
+//
+//  File format (all values big-endian):
+//      header:  magic (4 bytes "ATST"), version (2), reason (1), wall clock at dump (8), nano time at dump (8), count (4)
+//      records: sequence (8), nano time (8), code (2), arg1 (4), arg2 (4), length (4), stored length (1), data
+//          length is how many bytes there were, only the first few of them are stored (see Trace.MAX_DATA)
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public class TraceFormat {
+
+    public static final int MAGIC = 0x41545354; // "ATST"
+    public static final int VERSION = 1;
+
+    // What an entry is
+    //  ATS codes
+    public static final int CODE_UDP_RX = 1; // arg1 = local port, arg2 = 0, data = the packet
+    public static final int CODE_UDP_TX = 2; // arg1 = local port, arg2 = remote port, data = the packet
+    public static final int CODE_EVENT_QUEUED = 3; // arg1 = event type, arg2 = sequence ID
+    public static final int CODE_DUMP = 4; // arg1 = reason
+    //  VBS codes (must match VBS Trace, which has its own ring in the same format)
+    public static final int VBS_CODE_CAN_RX = 101; // arg1 = CAN ID, arg2 = 0, data = the frame
+    public static final int VBS_CODE_CAN_TX = 102; // arg1 = CAN ID, arg2 = 0, data = the frame
+    public static final int VBS_CODE_DUMP = 103; // arg1 = reason
+
+    // Why the ring was dumped
+    public static final int REASON_REQUEST = 0;
+    public static final int REASON_CRASH = 1;
+    public static final int REASON_WATCHDOG = 2;
+
+    static final String[] REASON_NAMES = {"request", "crash", "watchdog"};
+
+} // class TraceFormat
@@ -0,0 +1,84 @@
+package com.micronet.dsc.ats;
+
+import junit.framework.TestCase;
+
+public class DtcSetTest extends TestCase {
+
+
+    EngineDtc makeDtc(int bus_type, int source_address, long dtc_value) {
+        EngineDtc dtc = new EngineDtc();
+        dtc.bus_type = bus_type;
+        dtc.source_address = source_address;
+        dtc.dtc_value = dtc_value;
+        return dtc;
+    }
+
+
+    public void test_findAddRemove() {
+
+        DtcSet set = new DtcSet();
+
+        EngineDtc dtc1 = makeDtc(BusHost.BUS_TYPE_J1939_250K, 0x00, 0x80121314L);
+        EngineDtc dtc2 = makeDtc(BusHost.BUS_TYPE_J1939_250K, 0x17, 0x80121314L); // same code, other node
+        EngineDtc dtc3 = makeDtc(BusHost.BUS_TYPE_J1587, 0xFF, 0x00358064L);
+
+        set.add(dtc1);
+        set.add(dtc2);
+        set.add(dtc3);
+
+        assertEquals(3, set.size());
+        assertSame(dtc1, set.find(BusHost.BUS_TYPE_J1939_250K, 0x00, 0x80121314L));
+        assertSame(dtc2, set.find(BusHost.BUS_TYPE_J1939_250K, 0x17, 0x80121314L));
+        assertSame(dtc3, set.find(BusHost.BUS_TYPE_J1587, 0xFF, 0x00358064L));
+        assertNull(set.find(BusHost.BUS_TYPE_J1939_500K, 0x00, 0x80121314L));
+        assertNull(set.find(BusHost.BUS_TYPE_J1939_250K, 0x00, 0x00121314L));
+
+        // kept in the order they were added
+        assertSame(dtc1, set.get(0));
+        assertSame(dtc3, set.get(2));
+
+        set.remove(dtc2);
+        assertEquals(2, set.size());
+        assertNull(set.find(BusHost.BUS_TYPE_J1939_250K, 0x17, 0x80121314L));
+        assertSame(dtc1, set.find(BusHost.BUS_TYPE_J1939_250K, 0x00, 0x80121314L));
+
+        set.changeSourceAddress(dtc1, 0x03);
+        assertNull(set.find(BusHost.BUS_TYPE_J1939_250K, 0x00, 0x80121314L));
+        assertSame(dtc1, set.find(BusHost.BUS_TYPE_J1939_250K, 0x03, 0x80121314L));
+
+        set.removeAt(0);
+        assertNull(set.find(BusHost.BUS_TYPE_J1939_250K, 0x03, 0x80121314L));
+        assertSame(dtc3, set.get(0));
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertNull(set.find(BusHost.BUS_TYPE_J1587, 0xFF, 0x00358064L));
+
+    } // test_findAddRemove()
+
+
+    public void test_sameKey() {
+
+        DtcSet set = new DtcSet();
+
+        // many codes, some of which will share a key, must all still be found
+        for (int i = 0; i < 500; i++) {
+            set.add(makeDtc(BusHost.BUS_TYPE_J1939_250K, i & 0xFF, ((long) i << 20) | (i & 0xFF)));
+        }
+        for (int i = 0; i < 500; i += 2) {
+            set.remove(set.find(BusHost.BUS_TYPE_J1939_250K, i & 0xFF, ((long) i << 20) | (i & 0xFF)));
+        }
+
+        assertEquals(250, set.size());
+        for (int i = 0; i < 500; i++) {
+            EngineDtc dtc = set.find(BusHost.BUS_TYPE_J1939_250K, i & 0xFF, ((long) i << 20) | (i & 0xFF));
+            if ((i & 1) == 0)
+                assertNull(dtc);
+            else
+                assertNotNull(dtc);
+        }
+
+    } // test_sameKey()
+
+
+} // class DtcSetTest
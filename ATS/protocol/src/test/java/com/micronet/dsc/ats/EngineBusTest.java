@@ -1,11 +1,11 @@
 package com.micronet.dsc.ats;
 
-import android.test.AndroidTestCase;
+import junit.framework.TestCase;
 
 /**
  * Created by dschmidt on 2/1/16.
  */
-public class EngineBusTest extends AndroidTestCase{
+public class EngineBusTest extends TestCase{
 
     // Most of the functions in EngineBus class are tested in the EngineBus sub-classes (J1587Test and J1939Test)
 
@@ -50,4 +50,36 @@ public class EngineBusTest extends AndroidTestCase{
     } // test_long2LittleEndian()
 
 
+    public void test_payload() {
+
+        byte[] inputBytes = new byte[]{1, -2, 3, -4, 5, -6, 7, -8};
+
+        long payload = EngineBus.bytes2Payload(inputBytes, 8);
+        assertEquals(0xF807FA05FC03FE01L, payload);
+
+        // must give the same results as the byte[] version
+        assertEquals(EngineBus.littleEndian2Long(inputBytes, 0, 3), EngineBus.littleEndian2Long(payload, 0, 3));
+        assertEquals(EngineBus.littleEndian2Long(inputBytes, 5, 3), EngineBus.littleEndian2Long(payload, 5, 3));
+        assertEquals(EngineBus.littleEndian2Long(inputBytes, 4, 4), EngineBus.littleEndian2Long(payload, 4, 4));
+        assertEquals(EngineBus.littleEndian2Long(inputBytes, 0, 8), EngineBus.littleEndian2Long(payload, 0, 8));
+
+        assertEquals(0xFE, EngineBus.payloadByte(payload, 1));
+        assertEquals(0xF8, EngineBus.payloadByte(payload, 7));
+
+        // nothing past the end of the payload
+        assertEquals(0, EngineBus.littleEndian2Long(payload, 8, 1));
+        assertEquals(0, EngineBus.littleEndian2Long(payload, 8, 8));
+        assertEquals(0, EngineBus.payloadByte(payload, 8));
+
+        // short frames are filled with 0xFF
+        payload = EngineBus.bytes2Payload(inputBytes, 3);
+        assertEquals(0xFFFFFFFFFF03FE01L, payload);
+
+        byte[] resultBytes = new byte[8];
+        EngineBus.payload2Bytes(payload, resultBytes, 8);
+        assertEquals(Log.bytesToHex(resultBytes, 8), "01FE03FFFFFFFFFF");
+
+    } // test_payload()
+
+
 } // class
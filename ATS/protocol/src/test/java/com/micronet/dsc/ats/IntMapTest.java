@@ -0,0 +1,72 @@
+package com.micronet.dsc.ats;
+
+import junit.framework.TestCase;
+
+public class IntMapTest extends TestCase {
+
+
+    public void test_putGetRemove() {
+
+        IntMap<String> map = new IntMap<String>();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0xFEEC));
+
+        assertNull(map.put(0xFEEC, "VIN"));
+        assertNull(map.put(0xFECA, "DM1"));
+        assertEquals("VIN", map.put(0xFEEC, "VIN2")); // replaced
+
+        assertEquals(2, map.size());
+        assertEquals("VIN2", map.get(0xFEEC));
+        assertEquals("DM1", map.get(0xFECA));
+        assertTrue(map.containsKey(0xFECA));
+
+        assertEquals("DM1", map.remove(0xFECA));
+        assertNull(map.remove(0xFECA));
+        assertFalse(map.containsKey(0xFECA));
+        assertEquals(1, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0xFEEC));
+
+    } // test_putGetRemove()
+
+
+    public void test_growAndCollide() {
+
+        IntMap<Integer> map = new IntMap<Integer>();
+
+        // keys that only differ in the upper bytes, like frame IDs
+        for (int i = 0; i < 1000; i++) {
+            map.put(i << 16, i);
+        }
+        assertEquals(1000, map.size());
+
+        // remove every other one, the rest must still be found
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i), map.remove(i << 16));
+        }
+        assertEquals(500, map.size());
+
+        for (int i = 0; i < 1000; i++) {
+            if ((i & 1) == 0)
+                assertNull(map.get(i << 16));
+            else
+                assertEquals(Integer.valueOf(i), map.get(i << 16));
+        }
+
+        // iteration sees every remaining entry
+        int count = 0;
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.isSlotUsed(slot)) {
+                assertEquals(map.keyAt(slot), map.valueAt(slot) << 16);
+                count++;
+            }
+        }
+        assertEquals(500, count);
+
+    } // test_growAndCollide()
+
+
+} // class IntMapTest
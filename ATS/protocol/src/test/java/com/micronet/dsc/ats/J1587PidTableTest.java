@@ -0,0 +1,96 @@
+package com.micronet.dsc.ats;
+
+import junit.framework.TestCase;
+
+public class J1587PidTableTest extends TestCase {
+
+
+    public void test_lengthClass() {
+
+        assertEquals(J1587PidTable.LENGTH_ONE_BYTE, J1587PidTable.getLengthClass(84));
+        assertEquals(J1587PidTable.LENGTH_TWO_BYTES, J1587PidTable.getLengthClass(190));
+        assertEquals(J1587PidTable.LENGTH_VARIABLE, J1587PidTable.getLengthClass(J1587.PID_ODOMETER));
+        assertEquals(J1587PidTable.LENGTH_INVALID, J1587PidTable.getLengthClass(J1587.PID_ESCAPE));
+        assertEquals(J1587PidTable.LENGTH_INVALID, J1587PidTable.getLengthClass(J1587.PID_EXTENSION));
+
+        // page 2 uses the same classes
+        assertEquals(J1587PidTable.LENGTH_ONE_BYTE, J1587PidTable.getLengthClass(256 + 84));
+        assertEquals(J1587PidTable.LENGTH_TWO_BYTES, J1587PidTable.getLengthClass(256 + 190));
+        assertEquals(J1587PidTable.LENGTH_VARIABLE, J1587PidTable.getLengthClass(256 + 200));
+
+    } // test_lengthClass()
+
+
+    public void test_decode() {
+
+        J1587PidTable table = new J1587PidTable();
+
+        // road speed (1 byte): 100 * 0.805 km/h, somewhere in the middle of a packet
+        byte[] data = new byte[] {84, 100, (byte) 190, (byte) 0x40, 0x1F};
+        assertTrue(table.decode(84, 128, data, 1, 1, 1000));
+        assertEquals(80.5, table.getValue(84, -1), 0.001);
+        assertEquals(128, table.getSource(84));
+        assertEquals(1000, table.getUpdateTime(84));
+
+        // engine speed (2 bytes): 0x1F40 * 0.25 rpm
+        assertTrue(table.decode(190, 128, data, 3, 2, 1000));
+        assertEquals(2000.0, table.getValue(190, -1), 0.001);
+
+        // fuel rate (2 bytes): 1000 * 16.428e-6 L/s = 0.016428 L/s = 59.1408 L/h
+        assertTrue(table.decode(183, 128, new byte[] {(byte) 0xE8, 0x03}, 0, 2, 1000));
+        assertEquals(1000, table.getRawValue(183));
+        assertEquals(59.1408, table.getValue(183, -1), 0.0001);
+
+        // coolant temperature is converted to C
+        assertTrue(table.decode(110, 128, new byte[] {(byte) 212}, 0, 1, 1000));
+        assertEquals(100.0, table.getValue(110, -1), 0.001);
+
+        // ambient temperature is signed: -32 * 0.25 F = -8 F
+        assertTrue(table.decode(171, 128, new byte[] {(byte) 0xE0, (byte) 0xFF}, 0, 2, 1000));
+        assertEquals((-8.0 - 32.0) * 5.0 / 9.0, table.getValue(171, -1), 0.001);
+
+        // odometer (variable, 4 bytes)
+        assertTrue(table.decode(J1587.PID_ODOMETER, 128, new byte[] {(byte) 0xAC, 0x50, 0x60, 0x02}, 0, 4, 1000));
+        assertEquals(0x026050ACL, table.getRawValue(J1587.PID_ODOMETER));
+        assertEquals(0x026050ACL * 161.0, table.getValue(J1587.PID_ODOMETER, -1), 0.001);
+
+        // not available
+        assertTrue(table.decode(84, 128, new byte[] {(byte) 0xFF}, 0, 1, 2000));
+        assertFalse(table.isValid(84));
+        assertEquals(-1.0, table.getValue(84, -1), 0.001);
+
+        // not in the table
+        assertFalse(table.decode(85, 128, data, 1, 1, 1000));
+        assertFalse(table.isValid(85));
+
+    } // test_decode()
+
+
+    public void test_define() {
+
+        J1587PidTable table = new J1587PidTable();
+        int size = table.size();
+
+        // a page 2 PID
+        assertFalse(table.isDefined(256 + 84));
+        table.define(256 + 84, J1587PidTable.DECODE_UNSIGNED, 2, 10);
+        assertTrue(table.isDefined(256 + 84));
+        assertEquals(size + 1, table.size());
+        assertEquals(256 + 84, table.getPidAt(size));
+
+        assertTrue(table.decode(256 + 84, 130, new byte[] {5}, 0, 1, 1000));
+        assertEquals(20.0, table.getValue(256 + 84, -1), 0.001);
+        assertFalse(table.isValid(84)); // page 1 PID is separate
+
+        // redefining does not add it again
+        table.define(256 + 84, J1587PidTable.DECODE_UNSIGNED, 1, 0);
+        assertEquals(size + 1, table.size());
+
+        // escape can't be defined
+        table.define(J1587.PID_ESCAPE, J1587PidTable.DECODE_UNSIGNED, 1, 0);
+        assertFalse(table.isDefined(J1587.PID_ESCAPE));
+
+    } // test_define()
+
+
+} // class J1587PidTableTest
@@ -1,7 +1,6 @@
 package com.micronet.dsc.ats;
 
-import android.test.AndroidTestCase;
-import android.test.RenamingDelegatingContext;
+import junit.framework.TestCase;
 
 //import com.micronet.canbus.CanbusFrame;
 //import com.micronet.canbus.CanbusFrameType;
@@ -12,32 +11,15 @@ import java.util.Arrays;
 /**
  * Created by dschmidt on 2/1/16.
  */
-public class J1587Test extends AndroidTestCase {
-    private MainService service;
+public class J1587Test extends TestCase {
+    private TestBusHost host;
     private J1587 j1587;
-    TestCommon test;
 
     public void setUp() {
-        RenamingDelegatingContext context
-                = new RenamingDelegatingContext(getContext(), "test_");
 
-        Config config = new Config(context);
-        State state = new State(context);
-
-        // clear config and state info to the default before init'ing IO
-        config.open();
-        config.clearAll();
-        state.clearAll();
-
-        service = new MainService(context);
-
-        j1587 = new J1587(service.engine, true);
-
-        service.queue.clearAll();
-        service.clearEventSequenceIdNow();
-
-        test = new TestCommon(service.queue);
+        host = new TestBusHost();
 
+        j1587 = new J1587(host, true);
 
     } // setup
 
@@ -98,7 +80,7 @@ public class J1587Test extends AndroidTestCase {
         assertEquals(results[0], j1587.PID_ODOMETER); // 2 means parsed as control packet
         assertTrue(j1587.outgoingList.isEmpty()); // No Response needed
 
-        assertEquals(0x826050ACL * 161, j1587.engine.status.odometer_m); // conversion to meters
+        assertEquals(0x826050ACL * 161, host.odometer_m); // conversion to meters
 
 
     } // test_receiveOdometer()
@@ -132,7 +114,7 @@ public class J1587Test extends AndroidTestCase {
         assertEquals(results[0], j1587.PID_FUEL_CONSUMPTION); // 2 means parsed as control packet
         assertTrue(j1587.outgoingList.isEmpty()); // No Response needed
 
-        assertEquals(0x804030FFL * 473, j1587.engine.status.fuel_mL); // conversion to mL
+        assertEquals(0x804030FFL * 473, host.fuel_mL); // conversion to mL
 
 
     } // test_receiveFuelConsumption()
@@ -373,7 +355,7 @@ public class J1587Test extends AndroidTestCase {
         assertEquals(results[0], j1587.PID_VIN); // 2 means parsed as control packet
         assertTrue(j1587.outgoingList.isEmpty()); // No Response needed
 
-        assertEquals(j1587.engine.vin, "ABCDEFGHIJKLMNOPQ");
+        assertEquals(host.vin, "ABCDEFGHIJKLMNOPQ");
 
 
     } // test_receiveVIN()
@@ -1,7 +1,6 @@
 package com.micronet.dsc.ats;
 
-import android.test.AndroidTestCase;
-import android.test.RenamingDelegatingContext;
+import junit.framework.TestCase;
 
 
 import java.util.Arrays;
@@ -10,33 +9,17 @@ import java.util.Arrays;
 /**
  * Created by dschmidt on 12/7/15.
  */
-public class J1939Test extends AndroidTestCase {
+public class J1939Test extends TestCase {
 
-    private MainService service;
+    private TestBusHost host;
     private J1939 j1939;
-    TestCommon test;
 
     public void setUp() {
-        RenamingDelegatingContext context
-                = new RenamingDelegatingContext(getContext(), "test_");
 
-        Config config = new Config(context);
-        State state = new State(context);
-
-        // clear config and state info to the default before init'ing IO
-        config.open();
-        config.clearAll();
-        state.clearAll();
-
-        service = new MainService(context);
-
-        j1939 = new J1939(service.engine, true, 123456);
-
-        service.queue.clearAll();
-        service.clearEventSequenceIdNow();
-
-        test = new TestCommon(service.queue);
+        host = new TestBusHost();
 
+        j1939 = new J1939(host, true, 123456);
+        host.j1939 = j1939; // the VIN is checked for its bitrate
 
     } // setup
 
@@ -141,7 +124,7 @@ public class J1939Test extends AndroidTestCase {
         packet.data = new byte[] {0x7D ,0 ,0, 0x7D, 0, 0, 0, 0}; // <- 4th byte is current gear, 7D is neutral
 
         assertEquals(1, j1939.receivePacket(packet)); // 1 means parsed as PGN
-        assertFalse(j1939.engine.status.flagReverseGear);
+        assertFalse(host.flagReverseGear);
     }
 
     public void test_receiveAddressRequest() {
@@ -369,8 +352,7 @@ public class J1939Test extends AndroidTestCase {
 
         // setup
 
-        j1939.myBusType = Engine.BUS_TYPE_J1939_250K;
-        j1939.engine.current_dtcs.clear();
+        j1939.myBusType = BusHost.BUS_TYPE_J1939_250K;
         j1939.collectedDtcs.clear();
         j1939.collectedLampsBf = 0;
 
@@ -396,11 +378,11 @@ public class J1939Test extends AndroidTestCase {
         j1939.addDtc(dtc2);
         j1939.addDtc(dtc3);
 
-        assertEquals(j1939.engine.current_dtcs.size(), 0);
+        assertNull(host.dtcs);
         assertEquals(j1939.collectedDtcs.size(), 3);
         assertEquals(j1939.collectedLampsBf, 6);
 
-        // process these (move them to the engine DTC collection)
+        // process these (send them to the host)
         j1939.processCollectedDTCsAndLamps();
 
         assertEquals(j1939.collectedDtcs.size(), 0);
@@ -408,24 +390,23 @@ public class J1939Test extends AndroidTestCase {
 
 
         assertEquals(j1939.numCollectedDtcs, 3);
-        assertEquals(j1939.engine.current_dtcs.size(), 3);
+        assertEquals(host.dtcs.length, 3);
 
         assertEquals(j1939.lampStatus, 6);
-        assertEquals(j1939.engine.status.lamps_bf, 6);
+        assertEquals(host.lamps_bf, 6);
+
+        assertEquals(BusHost.BUS_TYPE_J1939_250K, host.dtc_bus_type);
 
 
 
-        assertEquals(Engine.BUS_TYPE_J1939_250K, j1939.engine.current_dtcs.get(0).bus_type);
-        assertEquals(0x80121314L, j1939.engine.current_dtcs.get(0).dtc_value);
-        assertEquals(0, j1939.engine.current_dtcs.get(0).source_address);
+        assertEquals(0x80121314L, host.dtcs[0]);
+        assertEquals(0, host.dtcSourceAddresses[0]);
 
-        assertEquals(Engine.BUS_TYPE_J1939_250K, j1939.engine.current_dtcs.get(1).bus_type);
-        assertEquals(0x00272829L, j1939.engine.current_dtcs.get(1).dtc_value);
-        assertEquals(0x17, j1939.engine.current_dtcs.get(1).source_address);
+        assertEquals(0x00272829L, host.dtcs[1]);
+        assertEquals(0x17, host.dtcSourceAddresses[1]);
 
-        assertEquals(Engine.BUS_TYPE_J1939_250K, j1939.engine.current_dtcs.get(2).bus_type);
-        assertEquals(0x803A3B3CL, j1939.engine.current_dtcs.get(2).dtc_value);
-        assertEquals(0x17, j1939.engine.current_dtcs.get(2).source_address);
+        assertEquals(0x803A3B3CL, host.dtcs[2]);
+        assertEquals(0x17, host.dtcSourceAddresses[2]);
 
 
     } // test_processCollectedDTCsAndLamps()
@@ -435,6 +416,7 @@ public class J1939Test extends AndroidTestCase {
 
         J1939.CanFrame frame;
 
+        host.j1939FramesPerBurst = 1; // one packet per CTS
         j1939.start();
         j1939.myAddress = 0xBB; // just some random address
         byte[] expected_response;
@@ -503,7 +485,7 @@ public class J1939Test extends AndroidTestCase {
 
 
         // we should also have our new vin
-        assertEquals(j1939.engine.vin, "ABCDEFGHIJKLMNOPQ");
+        assertEquals(host.vin, "ABCDEFGHIJKLMNOPQ");
 
     } // test_receiveVIN
 
@@ -552,7 +534,7 @@ public class J1939Test extends AndroidTestCase {
 
 
         // we should also have our new vin
-        assertEquals(j1939.engine.vin, "QPONMLKJIHGFEDCBA");
+        assertEquals(host.vin, "QPONMLKJIHGFEDCBA");
 
 
 
@@ -589,12 +571,199 @@ public class J1939Test extends AndroidTestCase {
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
 
         // Vin has not changed
-        assertEquals(j1939.engine.vin, "QPONMLKJIHGFEDCBA");
+        assertEquals(host.vin, "QPONMLKJIHGFEDCBA");
 
 
     } // test_global_receiveVIN()
 
 
+    public void test_connectionTimeout() {
+        // test that open connections are timed out using the host's clock
+
+        host.now = 100000;
+
+        j1939.start();
+        j1939.myAddress = 0xBB; // just some random address
+
+        // VIN RTS, 17 bytes in 3 packets
+        J1939.CanFrame frame = new J1939.CanFrame(0x14ECBB00, new byte[] {16 ,17 ,0, 3, 5, (byte) 0xEC, (byte) 0xFE, 0});
+        assertEquals(J1939.PARSED_PACKET_TYPE_CONTROL, j1939.receiveCANFrame(frame));
+
+        // not timed out yet
+        j1939.outgoingList.clear();
+        host.now += J1939.TP_TIMEOUT_MS;
+        j1939.purgeOldConnections();
+        assertTrue(j1939.outgoingList.isEmpty());
+
+        // timed out, we should have sent the abort (TP_CM_ABORT = 255)
+        host.now += 1;
+        j1939.purgeOldConnections();
+        assertEquals(1, j1939.outgoingList.size());
+        J1939.CanFrame abort = j1939.outgoingList.get(0);
+        assertEquals(0xEC00BB, abort.id & 0xFFFFFF);
+        assertEquals((byte) 255, abort.data[0]);
+        assertEquals((byte) J1939.TP_ABORT_TIMEOUT, abort.data[1]);
+
+        // and the connection is gone
+        j1939.outgoingList.clear();
+        host.now += J1939.TP_TIMEOUT_MS * 2;
+        j1939.purgeOldConnections();
+        assertTrue(j1939.outgoingList.isEmpty());
+
+    } // test_connectionTimeout()
+
+
+    public void test_vinBitrateHistory() {
+
+        assertEquals(0, j1939.readVinBitrate("VIN1"));
+
+        j1939.rememberVinBitrate("VIN1", 250000);
+        j1939.rememberVinBitrate("VIN2", 500000);
+        assertEquals(250000, j1939.readVinBitrate("VIN1"));
+        assertEquals(500000, j1939.readVinBitrate("VIN2"));
+        assertEquals(0, j1939.readVinBitrate("VIN"));
+
+        // a vehicle that changed bitrate is moved to the front with the new one
+        j1939.rememberVinBitrate("VIN1", 500000);
+        assertEquals(500000, j1939.readVinBitrate("VIN1"));
+        assertEquals("VIN1=500000|VIN2=500000", host.j1939BitrateHistory);
+
+        // only the most recent vehicles are kept
+        for (int i = 0; i < J1939.MAX_BITRATE_HISTORY; i++) {
+            j1939.rememberVinBitrate("NEW" + i, 250000);
+        }
+        assertEquals(0, j1939.readVinBitrate("VIN1"));
+        assertEquals(250000, j1939.readVinBitrate("NEW0"));
+
+    } // test_vinBitrateHistory()
+
+
+    public void test_receiveBurst() {
+        // test that a multi-packet response is received in one burst (one CTS) with the default config
+
+        J1939.CanFrame frame;
+
+        j1939.start();
+        j1939.myAddress = 0xBB; // just some random address
+        byte[] expected_response;
+
+        // RTS for the VIN: 17 bytes in 3 packets, sender allows 5 per burst
+        j1939.outgoingList.clear();
+        frame = new J1939.CanFrame(0x14ECBB00, new byte[] {16 ,17 ,0, 3, 5, (byte) 0xEC, (byte) 0xFE, 0});
+        assertEquals(J1939.PARSED_PACKET_TYPE_CONTROL, j1939.receiveCANFrame(frame));
+
+        // we should ask for all 3 packets at once, starting with #1
+        expected_response = new byte[] {17, 3, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xEC, (byte) 0xFE, 0} ;
+        assertTrue(isInCanQueue(0xEC00BB, expected_response));
+
+        // no CTS in the middle of the burst
+        j1939.outgoingList.clear();
+        frame = new J1939.CanFrame(0x14EBBB00, new byte[] {1 , 0x41, 0x42, 0x43, 0x44, 0x45, 0x46, 0x47});
+        assertEquals(J1939.PARSED_PACKET_TYPE_CONTROL, j1939.receiveCANFrame(frame));
+        frame = new J1939.CanFrame(0x14EBBB00, new byte[] {2 , 0x48, 0x49, 0x4A, 0x4B, 0x4C, 0x4D, 0x4E});
+        assertEquals(J1939.PARSED_PACKET_TYPE_CONTROL, j1939.receiveCANFrame(frame));
+        assertTrue(j1939.outgoingList.isEmpty());
+
+        // last packet gets the EOM
+        frame = new J1939.CanFrame(0x14EBBB00, new byte[] {3 , 0x4F, 0x50, 0x51, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        assertEquals(J1939.PARSED_PACKET_TYPE_CONTROL, j1939.receiveCANFrame(frame));
+        expected_response = new byte[] {19, 17, 0, 3, (byte) 0xFF, (byte) 0xEC, (byte) 0xFE, 0} ;
+        assertTrue(isInCanQueue(0xEC00BB, expected_response));
+
+        assertEquals(host.vin, "ABCDEFGHIJKLMNOPQ");
+
+        // the connection went back to the pool
+        assertNull(j1939.findOpenConnection(0x00, 0xBB));
+        assertEquals(j1939.connections.length, j1939.freeConnectionCount);
+
+    } // test_receiveBurst()
+
+
+    public void test_manyConnections() {
+        // ten ECUs all sending their VIN at the same time
+
+        j1939.start();
+        j1939.myAddress = 0xBB; // just some random address
+
+        j1939.outgoingList.clear();
+        for (int src = 0; src < 10; src++) {
+            J1939.CanFrame frame = new J1939.CanFrame(0x14ECBB00 | src, new byte[] {16 ,17 ,0, 3, (byte) 0xFF, (byte) 0xEC, (byte) 0xFE, 0});
+            assertEquals(J1939.PARSED_PACKET_TYPE_CONTROL, j1939.receiveCANFrame(frame));
+        }
+
+        // every one of them got a CTS, not an abort
+        byte[] expected_response = new byte[] {17, 3, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xEC, (byte) 0xFE, 0} ;
+        for (int src = 0; src < 10; src++) {
+            assertTrue(isInCanQueue(0xEC00BB | (src << 8), expected_response));
+            assertNotNull(j1939.findOpenConnection(src, 0xBB));
+        }
+
+        // and after the timeout they are all purged
+        for (J1939.TpConnection tp : j1939.connections) {
+            tp.timeout_elapsedms = 0;
+        }
+        j1939.purgeOldConnections();
+        assertEquals(j1939.connections.length, j1939.freeConnectionCount);
+        assertNull(j1939.findOpenConnection(0, 0xBB));
+
+    } // test_manyConnections()
+
+
+    public void test_receiveRawForwardBAM() {
+        // a BAM for a PGN we do not decode is still reassembled if it is raw-forwarded
+
+        j1939.setRawForwardPgns(new int[] {65251});
+
+        j1939.start();
+        j1939.myAddress = 0xBB; // just some random address
+
+        J1939.CanFrame frame1 = new J1939.CanFrame(0x18ecff00, new byte[] { 0x20, 0x22, 0x00, 0x05, (byte) 0xFF, (byte) 0xE3, (byte) 0xFE, 0x00});
+        J1939.CanFrame frame2 = new J1939.CanFrame(0x18ebff00, new byte[] { 0x01, 0x00, 0x19, (byte) 0xAE, 0x40, 0x51, (byte) 0xC5, 0x08});
+        J1939.CanFrame frame3 = new J1939.CanFrame(0x18ebff00, new byte[] { 0x02, 0x20, (byte) 0xBD, (byte) 0xC0, 0x2B, (byte) 0xCF, (byte) 0xC0, 0x44});
+        J1939.CanFrame frame4 = new J1939.CanFrame(0x18ebff00, new byte[] { 0x03, (byte) 0xD0, 0x40, 0x51, (byte) 0xFF, (byte) 0xFF, (byte) 0xB9, 0x04});
+        J1939.CanFrame frame5 = new J1939.CanFrame(0x18ebff00, new byte[] { 0x04, 0x38, 0x5E, 0x3C, 0x46, (byte) 0xFA, 0x7D, (byte) 0xCF});
+        J1939.CanFrame frame6 = new J1939.CanFrame(0x18ebff00, new byte[] { 0x05, 0x40, 0x51, (byte) 0x86, 0x00, 0x2A, 0x03, (byte) 0xFF});
+
+        j1939.outgoingList.clear();
+        j1939.receiveCANFrame(frame1);
+        j1939.receiveCANFrame(frame2);
+        j1939.receiveCANFrame(frame3);
+        j1939.receiveCANFrame(frame4);
+        j1939.receiveCANFrame(frame5);
+        assertEquals(0, host.rawForwardCount); // not complete yet
+        j1939.receiveCANFrame(frame6);
+
+        assertTrue(j1939.outgoingList.isEmpty()); // never respond to a BAM
+
+        assertEquals(1, host.rawForwardCount);
+        assertEquals(65251, host.raw_message_type);
+        assertEquals(0x00, host.raw_source);
+        assertEquals(34, host.rawData.length);
+        assertEquals(0x00, host.rawData[0]);
+        assertEquals(0x19, host.rawData[1]);
+        assertEquals(0x2A, host.rawData[32]);
+        assertEquals(0x03, host.rawData[33]);
+
+    } // test_receiveRawForwardBAM()
+
+
+    public void test_receiveSignals() {
+        // PGNs in the signal table are decoded into the engine's latest values
+
+        host.signals.loadString("190, 61444, 24, 16, 0.125, 0, L");
+        j1939.setSignalPgns(host.signals.getPgns());
+        assertTrue(Arrays.toString(j1939.getFilterPgns()).contains("61444"));
+
+        J1939.CanFrame frame = new J1939.CanFrame(0x0CF00400, new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x20, 0x1C, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        j1939.receiveCANFrame(frame);
+        assertEquals(900.0, host.signals.getValue(190, -1.0));
+
+        // no longer subscribed
+        j1939.setSignalPgns(null);
+        assertNull(j1939.pgnRegistry.get(61444));
+
+    } // test_receiveSignals()
+
 
     public void test_receiveFuelConsumption() {
         // test the ability of the code to receive a Fuel Consumption value
@@ -621,7 +790,7 @@ public class J1939Test extends AndroidTestCase {
 
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
 
-        assertEquals(0x804030FFL * 500, j1939.engine.status.fuel_mL); // 500 is conversion to mL
+        assertEquals(0x804030FFL * 500, host.fuel_mL); // 500 is conversion to mL
 
 
         // Now test unknown value of all FF
@@ -631,7 +800,7 @@ public class J1939Test extends AndroidTestCase {
 
 
         // result should be unchanged
-        assertEquals(0x804030FFL * 500, j1939.engine.status.fuel_mL); // 500 is conversion to mL
+        assertEquals(0x804030FFL * 500, host.fuel_mL); // 500 is conversion to mL
 
     } // test_receiveFuelConsumption()
 
@@ -662,7 +831,7 @@ public class J1939Test extends AndroidTestCase {
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
 
 
-        assertEquals(0xF080 * 1000 / 512, j1939.engine.status.fuel_mperL); // 1000 / 512 is conversion to mperL
+        assertEquals(0xF080 * 1000 / 512, host.fuel_mperL); // 1000 / 512 is conversion to mperL
 
 
         // Now test unknown value of all FF
@@ -671,7 +840,7 @@ public class J1939Test extends AndroidTestCase {
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
 
         // unchanged
-        assertEquals(0xF080 * 1000 / 512, j1939.engine.status.fuel_mperL); // 1000 / 512 is conversion to mperL
+        assertEquals(0xF080 * 1000 / 512, host.fuel_mperL); // 1000 / 512 is conversion to mperL
     } // test_receiveFuelEconomy()
 
 
@@ -683,7 +852,7 @@ public class J1939Test extends AndroidTestCase {
         J1939.CanFrame frame;
 
         // set the default if we have mixed (conflicting) reports on parking brake status
-        service.config.writeSetting(Config.SETTING_PARKING_BRAKE, "3|1");
+        host.parkingBrakeConflictState = 1;
 
         j1939.start();
         j1939.myAddress = 0xBB; // just some random address
@@ -702,7 +871,7 @@ public class J1939Test extends AndroidTestCase {
             frame = new J1939.CanFrame(0x14FEF117, new byte[]{0b00000100, 0, 0, 0, 0, 0, 0, 0});
             assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
             assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-            assertFalse(j1939.engine.status.flagParkingBrake); // unchanged
+            assertFalse(host.flagParkingBrake); // unchanged
         }
 
 
@@ -711,7 +880,7 @@ public class J1939Test extends AndroidTestCase {
         frame = new J1939.CanFrame(0x14FEF1CC, new byte[] {0b00000100 ,0 ,0, 0, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertTrue(j1939.engine.status.flagParkingBrake);
+        assertTrue(host.flagParkingBrake);
 
 
         // Testing -- And receive some offs so that we are now conflicting
@@ -719,14 +888,14 @@ public class J1939Test extends AndroidTestCase {
             frame = new J1939.CanFrame(0x14FEF1CC, new byte[]{0b00000000, 0, 0, 0, 0, 0, 0, 0});
             assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
             assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-            assertTrue(j1939.engine.status.flagParkingBrake); // still on --- default in case of conflict
+            assertTrue(host.flagParkingBrake); // still on --- default in case of conflict
         }
 
         // Last one means all in buffer are off
         frame = new J1939.CanFrame(0x14FEF1CC, new byte[]{0b00000000, 0, 0, 0, 0, 0, 0, 0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertFalse(j1939.engine.status.flagParkingBrake); // still on --- default in case of conflict
+        assertFalse(host.flagParkingBrake); // still on --- default in case of conflict
 
 
 
@@ -735,7 +904,7 @@ public class J1939Test extends AndroidTestCase {
             frame = new J1939.CanFrame(0x14FEF1CC, new byte[]{(byte) 0xF7, (byte) 0xFF, (byte) 0xFF, (byte) 0xC3, 0x00, (byte) 0xFF, (byte) 0xFF, 0x3F});
             assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
             assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-            assertTrue(j1939.engine.status.flagParkingBrake); // default is on, so after first one there is a conflict and we are on
+            assertTrue(host.flagParkingBrake); // default is on, so after first one there is a conflict and we are on
         }
 
 
@@ -745,7 +914,7 @@ public class J1939Test extends AndroidTestCase {
             frame = new J1939.CanFrame(0x14FEF1CC, new byte[]{(byte) 0xFF, 0x00, 0x00, (byte) 0xFC, 0x33, 0x58, 0x00, (byte) 0xCF});
             assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
             assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-            assertTrue(j1939.engine.status.flagParkingBrake);
+            assertTrue(host.flagParkingBrake);
         }
 
 
@@ -756,7 +925,7 @@ public class J1939Test extends AndroidTestCase {
             assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
             assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
         }
-        assertFalse(j1939.engine.status.flagParkingBrake); // we will only turn off after we clear through history
+        assertFalse(host.flagParkingBrake); // we will only turn off after we clear through history
 
 
         // Unchanged
@@ -764,7 +933,7 @@ public class J1939Test extends AndroidTestCase {
             frame = new J1939.CanFrame(0x14FEF1CC, new byte[]{(byte) 0xFF, 0x00, 0x00, (byte) 0xFC, 0x33, 0x58, 0x00, (byte) 0xCF});
             assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
             assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-            assertFalse(j1939.engine.status.flagParkingBrake);
+            assertFalse(host.flagParkingBrake);
         }
 
 
@@ -798,60 +967,60 @@ public class J1939Test extends AndroidTestCase {
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0,0x7D, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertFalse(j1939.engine.status.flagReverseGear);
+        assertFalse(host.flagReverseGear);
 
 
         // Reverse 1
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0,0x7C, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertTrue(j1939.engine.status.flagReverseGear);
+        assertTrue(host.flagReverseGear);
 
 
         // Now test unchanged
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0,(byte) 0xFF, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertTrue(j1939.engine.status.flagReverseGear);
+        assertTrue(host.flagReverseGear);
 
 
         // Forward 1
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0,0x7E, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertFalse(j1939.engine.status.flagReverseGear);
+        assertFalse(host.flagReverseGear);
 
 
         // Now test unchanged
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0,(byte) 0xFF, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertFalse(j1939.engine.status.flagReverseGear);
+        assertFalse(host.flagReverseGear);
 
 
         // Reverse 2
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0,0x7B, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertTrue(j1939.engine.status.flagReverseGear);
+        assertTrue(host.flagReverseGear);
 
         // Park
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0, (byte) 0xFB, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertFalse(j1939.engine.status.flagReverseGear);
+        assertFalse(host.flagReverseGear);
 
         // Reverse 3
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0,0x7A, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertTrue(j1939.engine.status.flagReverseGear);
+        assertTrue(host.flagReverseGear);
 
         // Forward 4
         frame = new J1939.CanFrame(0x14F005CC, new byte[] {0,0,0,(byte) 0x81, 0,0,0,0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertFalse(j1939.engine.status.flagReverseGear);
+        assertFalse(host.flagReverseGear);
 
 
     } // test_receiveReverseGear()
@@ -885,7 +1054,7 @@ public class J1939Test extends AndroidTestCase {
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
 
-        assertEquals(0x826050ACL * 125, j1939.engine.status.odometer_m); // 125 is conversion to meters
+        assertEquals(0x826050ACL * 125, host.odometer_m); // 125 is conversion to meters
 
 
 
@@ -901,7 +1070,7 @@ public class J1939Test extends AndroidTestCase {
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
 
-        assertEquals(0xC2709140L * 5, j1939.engine.status.odometer_m); // 5 is conversion to meters
+        assertEquals(0xC2709140L * 5, host.odometer_m); // 5 is conversion to meters
 
 
 
@@ -918,7 +1087,7 @@ public class J1939Test extends AndroidTestCase {
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
 
         // odometer should be the same as before (the high-res value
-        assertEquals(0xC2709140L * 5, j1939.engine.status.odometer_m); // 5 is conversion to meters
+        assertEquals(0xC2709140L * 5, host.odometer_m); // 5 is conversion to meters
 
 
         // Send another hi-res distance -- should be accepted
@@ -933,7 +1102,7 @@ public class J1939Test extends AndroidTestCase {
         frame = new J1939.CanFrame(0x14FEC1CC, new byte[] {(byte) 0x70, (byte) 0x91, 0x70, (byte) 0xC2, 0, 0, 0, 0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertEquals(0xC2709170L * 5, j1939.engine.status.odometer_m); // 5 is conversion to meters
+        assertEquals(0xC2709170L * 5, host.odometer_m); // 5 is conversion to meters
 
 
         // Test Unchanged value hi-res
@@ -941,7 +1110,7 @@ public class J1939Test extends AndroidTestCase {
         frame = new J1939.CanFrame(0x14FEC1CC, new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0, 0, 0, 0});
         assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(frame)); // 2 means parsed as control packet
         assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
-        assertEquals(0xC2709170L * 5, j1939.engine.status.odometer_m); // 5 is conversion to meters
+        assertEquals(0xC2709170L * 5, host.odometer_m); // 5 is conversion to meters
 
 
 
@@ -949,6 +1118,78 @@ public class J1939Test extends AndroidTestCase {
     } // test_receiveOdometer()
 
 
+    public void test_receivePrimitiveFrame() {
+        // test the primitive (id + packed payload + dlc) receive path gives the same results as the byte[] path
+
+        j1939.start();
+        j1939.myAddress = 0xBB; // just some random address
+        j1939.outgoingList.clear();
+
+        // Hi-Res Vehicle Distance is PGN FEC1, Bytes 1- 4: Total Distance 5 m/bit gain
+        byte[] data = new byte[] {(byte) 0x40, (byte) 0x91, 0x70, (byte) 0xC2, 0, 0, 0, 0};
+        long payload = EngineBus.bytes2Payload(data, data.length);
+        assertEquals(0x00000000C2709140L, payload);
+
+        assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(0x14FEC1CC, payload, 8));
+        assertTrue(j1939.outgoingList.isEmpty()); // No Response needed
+        assertEquals(0xC2709140L * 5, host.odometer_m); // 5 is conversion to meters
+
+        // ETC2 (PGN_GEAR), byte 4 is current gear, 0x7C is a reverse gear
+        payload = EngineBus.bytes2Payload(new byte[] {0x7D, 0, 0, 0x7C}, 4); // short frame, rest is "not available"
+        assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(0x18F005CC, payload, 4));
+        assertTrue(host.flagReverseGear);
+
+        // not addressed to us or global
+        assertEquals(J1939.PARSED_PACKET_TYPE_NONE, j1939.receiveCANFrame(0x14EAC0FE, 0xFFFFFFFFFF00EE00L, 3));
+
+        // request for our address is still recognized as a control packet
+        assertEquals(J1939.PARSED_PACKET_TYPE_CONTROL, j1939.receiveCANFrame(0x14EABBFE, 0xFFFFFFFFFF00EE00L, 3));
+
+    } // test_receivePrimitiveFrame()
+
+
+    public void test_pgnRegistry() {
+        // test that PGNs can be plugged in to the registry and that raw-forwarded PGNs are marked
+
+        final int PGN_TEST = 0xFEEE; // Engine Temperature 1
+        final int[] received = new int[] {0, 0};
+
+        j1939.myAddress = 0xBB; // just some random address
+
+        // nothing registered for this PGN yet
+        assertEquals(J1939.PARSED_PACKET_TYPE_NONE, j1939.receiveCANFrame(0x18FEEECC, 0xFFFFFFFFFFFFFF7DL, 8));
+
+        j1939.registerPgnDecoder(PGN_TEST, new J1939.PayloadDecoder() {
+            @Override
+            int receiveFrame(int source_address, int destination_address, long payload, int dlc) {
+                received[0] = source_address;
+                received[1] = EngineBus.payloadByte(payload, 0);
+                return J1939.PARSED_PACKET_TYPE_PGN;
+            }
+        }, false);
+
+        assertEquals(J1939.PARSED_PACKET_TYPE_PGN, j1939.receiveCANFrame(0x18FEEECC, 0xFFFFFFFFFFFFFF7DL, 8));
+        assertEquals(0xCC, received[0]);
+        assertEquals(0x7D, received[1]);
+
+        // plugged-in PGNs are not in the built-in filters, so they need their own
+        assertTrue(Arrays.toString(j1939.getFilterPgns()).contains(Integer.toString(PGN_TEST)));
+
+        // raw-forward PGNs
+        j1939.setAdditionalPGNs(new int[] {0xFEF5, J1939.PGN_ODOMETER_HIRES});
+        assertTrue(j1939.pgnRegistry.get(0xFEF5).rawForward);
+        assertTrue(j1939.pgnRegistry.get(J1939.PGN_ODOMETER_HIRES).rawForward);
+        assertEquals(2, j1939.getFilterPgns().length); // PGN_TEST and 0xFEF5, odometer is already a built-in filter
+
+        // replacing them removes the old ones that were only there for forwarding
+        j1939.setAdditionalPGNs(new int[] {});
+        assertNull(j1939.pgnRegistry.get(0xFEF5));
+        assertFalse(j1939.pgnRegistry.get(J1939.PGN_ODOMETER_HIRES).rawForward);
+        assertEquals(1, j1939.getFilterPgns().length);
+
+    } // test_pgnRegistry()
+
+
 
 
 } // class J1939Test
@@ -0,0 +1,141 @@
+package com.micronet.dsc.ats;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+public class RequestSchedulerTest extends TestCase {
+
+    ArrayList<Integer> sent = new ArrayList<Integer>();
+    boolean allowSend = true;
+
+    RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Sender() {
+        @Override
+        public boolean sendRequest(RequestScheduler.Request request) {
+            if (!allowSend) return false;
+            sent.add(request.message_type);
+            return true;
+        }
+    });
+
+    static final int BUS = BusHost.BUS_TYPE_J1939;
+
+    // run the scheduler from start_ms to end_ms, one tick at a time
+    void run(long start_ms, long end_ms) {
+        for (long t = start_ms; t <= end_ms; t += RequestScheduler.TICK_MS) {
+            scheduler.tick(t);
+        }
+    }
+
+
+    public void test_periodic() {
+
+        scheduler.add(BUS, 65257, 0xFF, 1000, 0, RequestScheduler.ATTEMPTS_UNLIMITED, 0);
+
+        // the first one goes out some time in the first period
+        run(0, 1000);
+        assertEquals(1, sent.size());
+
+        // then once per period (nothing is ever received)
+        sent.clear();
+        run(1100, 10000);
+        assertTrue(sent.size() >= 8);
+        assertTrue(sent.size() <= 10);
+
+    } // test_periodic()
+
+
+    public void test_suppressedByBroadcast() {
+
+        RequestScheduler.Request r = scheduler.add(BUS, 65248, 0xFF, 1000, 0, RequestScheduler.ATTEMPTS_UNLIMITED, 0);
+
+        // the data is being broadcast every 100 ms, so we never need to ask for it
+        for (long t = 0; t <= 10000; t += RequestScheduler.TICK_MS) {
+            scheduler.markReceived(BUS, 65248, t);
+            scheduler.tick(t);
+        }
+
+        assertEquals(0, sent.size());
+        assertTrue(r.suppressed_count > 0);
+
+        // broadcast stops, we start asking again
+        run(10100, 13000);
+        assertTrue(sent.size() > 0);
+
+    } // test_suppressedByBroadcast()
+
+
+    public void test_throughTracker() {
+
+        // the scheduler decides when, the tracker sends them and limits how many wait on the same ECU
+        final RequestTracker tracker = new RequestTracker(new RequestTracker.Sender() {
+            @Override
+            public boolean sendRequest(int bus_type, int message_type, int destination) {
+                sent.add(message_type);
+                return true;
+            }
+        });
+
+        RequestScheduler trackedScheduler = new RequestScheduler(new RequestScheduler.Sender() {
+            @Override
+            public boolean sendRequest(RequestScheduler.Request request) {
+                RequestTracker.Handle h = tracker.request(request.bus_type, request.message_type, request.destination,
+                        RequestTracker.DEFAULT_TIMEOUT_MS, null, 0); // (everything here is sent at time 0)
+                return (h.getState() == RequestTracker.STATE_SENT) || (h.getState() == RequestTracker.STATE_QUEUED);
+            }
+        });
+
+        // more requests to the same ECU than are allowed at once, all due at the same time
+        for (int i = 0; i < RequestTracker.MAX_OUTSTANDING_PER_ECU + 2; i++) {
+            RequestScheduler.Request r = trackedScheduler.add(BUS, 65000 + i, 0xFF, 5000, 0, RequestScheduler.ATTEMPTS_UNLIMITED, 0);
+            r.next_due_ms = 0;
+            trackedScheduler.schedule(r, 0, 0);
+        }
+
+        trackedScheduler.tick(0);
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU, sent.size());
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU + 2, tracker.getInFlightCount()); // the rest are queued
+
+        // a response frees up a spot
+        trackedScheduler.markReceived(BUS, sent.get(0), 100);
+        tracker.markReceived(BUS, sent.get(0), 0x00, 100);
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU + 1, sent.size());
+
+        // and after the timeout, everything else goes out
+        tracker.tick(RequestTracker.DEFAULT_TIMEOUT_MS);
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU + 2, sent.size());
+
+    } // test_throughTracker()
+
+
+    public void test_attempts() {
+
+        scheduler.add(BUS, J1939.PGN_VIN, 0xFF, 2000, 0, 3, 0);
+
+        run(0, 20000);
+        assertEquals(3, sent.size());
+        assertNull(scheduler.get(BUS, J1939.PGN_VIN)); // removed when done
+
+    } // test_attempts()
+
+
+    public void test_notSent() {
+
+        // if the sender does not send it, it is tried again next period
+        allowSend = false;
+        RequestScheduler.Request r = scheduler.add(BUS, 65257, 0xFF, 1000, 0, RequestScheduler.ATTEMPTS_UNLIMITED, 0);
+        run(0, 5000);
+        assertEquals(0, sent.size());
+        assertEquals(0, r.sent_count);
+
+        allowSend = true;
+        run(5100, 6200);
+        assertTrue(sent.size() > 0);
+
+        scheduler.remove(r);
+        assertNull(scheduler.get(BUS, 65257));
+
+    } // test_notSent()
+
+
+} // class RequestSchedulerTest
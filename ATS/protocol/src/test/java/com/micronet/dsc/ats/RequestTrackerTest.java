@@ -0,0 +1,197 @@
+package com.micronet.dsc.ats;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+public class RequestTrackerTest extends TestCase {
+
+    ArrayList<Integer> sent = new ArrayList<Integer>();
+    ArrayList<RequestTracker.Handle> completed = new ArrayList<RequestTracker.Handle>();
+    boolean allowSend = true;
+
+    RequestTracker tracker = new RequestTracker(new RequestTracker.Sender() {
+        @Override
+        public boolean sendRequest(int bus_type, int message_type, int destination) {
+            if (!allowSend) return false;
+            sent.add(message_type);
+            return true;
+        }
+    });
+
+    RequestTracker.Listener listener = new RequestTracker.Listener() {
+        @Override
+        public void onRequestComplete(RequestTracker.Handle handle) {
+            completed.add(handle);
+        }
+    };
+
+    static final int BUS = BusHost.BUS_TYPE_J1939;
+
+
+    public void test_response() {
+
+        RequestTracker.Handle h = tracker.request(BUS, 65257, 0xFF, 1000, listener, 0);
+        assertEquals(1, sent.size());
+        assertEquals(RequestTracker.STATE_SENT, h.getState());
+        assertFalse(h.isDone());
+
+        // something else arrives
+        tracker.markReceived(BUS, 65248, 0x00, 100);
+        assertFalse(h.isDone());
+
+        // the response, from anybody since it was sent globally
+        tracker.markReceived(BUS, 65257, 0x03, 200);
+        assertTrue(h.isResponded());
+        assertEquals(0x03, h.getResponseSource());
+        assertEquals(1, completed.size());
+        assertSame(h, completed.get(0));
+        assertEquals(0, tracker.getInFlightCount());
+        assertEquals(0, tracker.getOutstandingCount(BUS, 0xFF));
+
+    } // test_response()
+
+
+    public void test_destination() {
+
+        RequestTracker.Handle h = tracker.request(BUS, 65257, 0x00, 1000, listener, 0);
+
+        // a response from a different ECU does not count
+        tracker.markReceived(BUS, 65257, 0x03, 100);
+        assertFalse(h.isDone());
+
+        tracker.markReceived(BUS, 65257, 0x00, 200);
+        assertTrue(h.isResponded());
+
+    } // test_destination()
+
+
+    public void test_timeout() {
+
+        RequestTracker.Handle h = tracker.request(BUS, 65257, 0xFF, 1000, listener, 0);
+
+        tracker.tick(900);
+        assertFalse(h.isDone());
+
+        tracker.tick(1000);
+        assertEquals(RequestTracker.STATE_TIMED_OUT, h.getState());
+        assertEquals(1, completed.size());
+        assertEquals(0, tracker.getOutstandingCount(BUS, 0xFF));
+
+        // a late response doesn't change anything
+        tracker.markReceived(BUS, 65257, 0x00, 1100);
+        assertEquals(RequestTracker.STATE_TIMED_OUT, h.getState());
+        assertEquals(1, completed.size());
+
+    } // test_timeout()
+
+
+    public void test_duplicate() {
+
+        RequestTracker.Handle h1 = tracker.request(BUS, 65257, 0xFF, 1000, listener, 0);
+        RequestTracker.Handle h2 = tracker.request(BUS, 65257, 0xFF, 1000, listener, 10);
+        assertSame(h1, h2);
+        assertEquals(1, sent.size()); // only sent once
+        assertEquals(1, tracker.getInFlightCount());
+
+        // a different destination is a different request
+        RequestTracker.Handle h3 = tracker.request(BUS, 65257, 0x00, 1000, listener, 20);
+        assertNotSame(h1, h3);
+        assertEquals(2, sent.size());
+
+        // a response from 0x00 answers both
+        tracker.markReceived(BUS, 65257, 0x00, 100);
+        assertTrue(h1.isResponded());
+        assertTrue(h3.isResponded());
+        assertEquals(3, completed.size()); // h1 was listened to twice
+
+        // once it is complete, asking again sends again
+        tracker.request(BUS, 65257, 0xFF, 1000, null, 200);
+        assertEquals(3, sent.size());
+
+    } // test_duplicate()
+
+
+    public void test_outstandingLimit() {
+
+        ArrayList<RequestTracker.Handle> handles = new ArrayList<RequestTracker.Handle>();
+        for (int i = 0; i < RequestTracker.MAX_OUTSTANDING_PER_ECU + 2; i++) {
+            handles.add(tracker.request(BUS, 65000 + i, 0x00, 1000, listener, 0));
+        }
+
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU, sent.size());
+        assertEquals(RequestTracker.STATE_QUEUED, handles.get(RequestTracker.MAX_OUTSTANDING_PER_ECU).getState());
+
+        // other ECUs are not held up
+        tracker.request(BUS, 65000, 0x01, 1000, listener, 0);
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU + 1, sent.size());
+
+        // a response lets the next one go
+        tracker.markReceived(BUS, 65000, 0x00, 100);
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU + 2, sent.size());
+        assertEquals(RequestTracker.STATE_SENT, handles.get(RequestTracker.MAX_OUTSTANDING_PER_ECU).getState());
+
+        // timeouts let the rest go
+        tracker.tick(1000);
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU + 3, sent.size());
+        assertEquals(RequestTracker.STATE_SENT, handles.get(RequestTracker.MAX_OUTSTANDING_PER_ECU + 1).getState());
+
+    } // test_outstandingLimit()
+
+
+    public void test_globalLimitPerResponder() {
+
+        // learn who answers what: 65000.. come from 0x00, 65100.. come from 0x03
+        int count = RequestTracker.MAX_OUTSTANDING_PER_ECU + 1;
+        for (int i = 0; i < count; i++) {
+            tracker.request(BUS, 65000 + i, 0xFF, 1000, null, 0);
+            tracker.markReceived(BUS, 65000 + i, 0x00, 0);
+            tracker.request(BUS, 65100 + i, 0xFF, 1000, null, 0);
+            tracker.markReceived(BUS, 65100 + i, 0x03, 0);
+        }
+        sent.clear();
+
+        // ask for all of them again globally, each ECU gets its own limit
+        for (int i = 0; i < count; i++) {
+            tracker.request(BUS, 65000 + i, 0xFF, 1000, null, 100);
+            tracker.request(BUS, 65100 + i, 0xFF, 1000, null, 100);
+        }
+        assertEquals(2 * RequestTracker.MAX_OUTSTANDING_PER_ECU, sent.size());
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU, tracker.getOutstandingCount(BUS, 0x00));
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU, tracker.getOutstandingCount(BUS, 0x03));
+        assertEquals(0, tracker.getOutstandingCount(BUS, 0xFF));
+
+        // an answer from 0x03 lets the one waiting on 0x03 go
+        tracker.markReceived(BUS, 65100, 0x03, 200);
+        assertEquals(2 * RequestTracker.MAX_OUTSTANDING_PER_ECU + 1, sent.size());
+        assertEquals(RequestTracker.MAX_OUTSTANDING_PER_ECU, tracker.getOutstandingCount(BUS, 0x03));
+
+        tracker.cancelAll(300);
+        assertEquals(0, tracker.getOutstandingCount(BUS, 0x00));
+        assertEquals(0, tracker.getOutstandingCount(BUS, 0x03));
+
+    } // test_globalLimitPerResponder()
+
+
+    public void test_notSentAndCancel() {
+
+        allowSend = false;
+        RequestTracker.Handle h = tracker.request(BUS, 65257, 0xFF, 1000, listener, 0);
+        assertEquals(RequestTracker.STATE_NOT_SENT, h.getState());
+        assertEquals(1, completed.size());
+        assertEquals(0, tracker.getInFlightCount());
+
+        allowSend = true;
+        RequestTracker.Handle h1 = tracker.request(BUS, 65257, 0xFF, 1000, listener, 0);
+        RequestTracker.Handle h2 = tracker.request(BUS, 65258, 0xFF, 1000, listener, 0);
+        tracker.cancelAll(100);
+        assertEquals(RequestTracker.STATE_CANCELLED, h1.getState());
+        assertEquals(RequestTracker.STATE_CANCELLED, h2.getState());
+        assertEquals(3, completed.size());
+        assertEquals(0, tracker.getInFlightCount());
+        assertEquals(0, tracker.getOutstandingCount(BUS, 0xFF));
+
+    } // test_notSentAndCancel()
+
+
+} // class RequestTrackerTest
@@ -0,0 +1,112 @@
+package com.micronet.dsc.ats;
+
+import junit.framework.TestCase;
+
+public class SignalTableTest extends TestCase {
+
+    static final String DEFINITIONS =
+            "# spn, pgn, start bit, length, scale, offset, byte order, max valid\n" +
+            "190, 61444, 24, 16, 0.125, 0, L   # RPM\n" +
+            "110, 65262, 0, 8, 1, -40, L       # coolant temp\n" +
+            "70, 65265, 2, 2, 1, 0, L          # parking brake switch\n" +
+            "9999, 65280, 8, 16, 1, 0, B, 0xFFFE\n" +
+            "1761, 65110, 0, 8, 0.4, 0, L\n" +
+            "bad line\n" +
+            "110, 65262, 8, 8, 1, 0, L         # duplicate\n";
+
+
+    public void test_load() {
+
+        SignalTable signals = new SignalTable();
+        assertEquals(5, signals.loadString(DEFINITIONS));
+        assertEquals(5, signals.size());
+
+        assertEquals(0, signals.indexOf(190));
+        assertEquals(1, signals.indexOf(110));
+        assertEquals(-1, signals.indexOf(12345));
+
+        int[] pgns = signals.getPgns();
+        assertEquals(5, pgns.length);
+
+        // nothing received yet
+        assertFalse(signals.isValidAt(0));
+        assertEquals(-1.0, signals.getValue(190, -1.0));
+
+        // loading again replaces everything
+        assertEquals(1, signals.loadString("247, 65253, 0, 32, 0.05, 0, L"));
+        assertEquals(-1, signals.indexOf(190));
+        assertEquals(0, signals.indexOf(247));
+
+    } // test_load()
+
+
+    public void test_defaultMaxValid() {
+        assertEquals(1, SignalTable.defaultMaxValid(2));
+        assertEquals(13, SignalTable.defaultMaxValid(4));
+        assertEquals(0xFA, SignalTable.defaultMaxValid(8));
+        assertEquals(0xFAFF, SignalTable.defaultMaxValid(16));
+        assertEquals(0xFAFFFFFFL, SignalTable.defaultMaxValid(32));
+    } // test_defaultMaxValid()
+
+
+    public void test_decodeFrame() {
+
+        SignalTable signals = new SignalTable();
+        signals.loadString(DEFINITIONS);
+
+        // RPM: bytes 4-5 = 0x1C20 = 7200 * 0.125 = 900 rpm
+        byte[] eec1 = new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x20, 0x1C, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        assertEquals(1, signals.decodeFrame(61444, 0x00, EngineBus.bytes2Payload(eec1, 8), 8, 1000));
+        assertEquals(900.0, signals.getValue(190, -1.0));
+        assertEquals(0x00, signals.getSourceAt(signals.indexOf(190)));
+        assertEquals(1000, signals.getUpdateTimeAt(signals.indexOf(190)));
+
+        // coolant: 90 - 40 = 50 C
+        byte[] et1 = new byte[] {90, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        signals.decodeFrame(65262, 0x00, EngineBus.bytes2Payload(et1, 8), 8, 1000);
+        assertEquals(50.0, signals.getValue(110, -1.0));
+
+        // not available makes it invalid again
+        et1[0] = (byte) 0xFF;
+        signals.decodeFrame(65262, 0x00, EngineBus.bytes2Payload(et1, 8), 8, 2000);
+        assertFalse(signals.isValidAt(signals.indexOf(110)));
+        assertEquals(-1.0, signals.getValue(110, -1.0));
+
+        // two bit field: bits 2-3 of the first byte
+        byte[] ccvs = new byte[] {(byte) 0xF7, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        signals.decodeFrame(65265, 0x00, EngineBus.bytes2Payload(ccvs, 8), 8, 1000);
+        assertEquals(1.0, signals.getValue(70, -1.0));
+
+        // big endian: bytes 1-2 = 0x1234
+        byte[] prop = new byte[] {0x00, 0x12, 0x34, 0x00, 0x00, 0x00, 0x00, 0x00};
+        signals.decodeFrame(65280, 0x00, EngineBus.bytes2Payload(prop, 8), 8, 1000);
+        assertEquals((double) 0x1234, signals.getValue(9999, -1.0));
+
+        // signal past the end of a short frame is not touched
+        assertEquals(0, signals.decodeFrame(61444, 0x00, EngineBus.bytes2Payload(eec1, 4), 4, 3000));
+        assertEquals(1000, signals.getUpdateTimeAt(signals.indexOf(190)));
+
+        // unknown pgn
+        assertEquals(0, signals.decodeFrame(65000, 0x00, 0L, 8, 1000));
+
+    } // test_decodeFrame()
+
+
+    public void test_decodeData() {
+
+        SignalTable signals = new SignalTable();
+        signals.loadString("100, 65000, 80, 16, 1, 0, L\n101, 65000, 80, 16, 1, 0, B");
+
+        byte[] data = new byte[12];
+        data[10] = 0x34;
+        data[11] = 0x12;
+
+        assertEquals(2, signals.decodeData(65000, 0x17, data, 12, 1000));
+        assertEquals((double) 0x1234, signals.getValue(100, -1.0));
+        assertEquals((double) 0x3412, signals.getValue(101, -1.0));
+        assertEquals(0x17, signals.getSourceAt(signals.indexOf(100)));
+
+    } // test_decodeData()
+
+
+} // class SignalTableTest
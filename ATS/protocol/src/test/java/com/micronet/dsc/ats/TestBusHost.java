@@ -0,0 +1,169 @@
+/////////////////////////////////////////////////////////////
+// TestBusHost:
+//  A BusHost for the J1939 and J1587 tests: settings start at the config defaults, the clock is set by the test,
+//      timers never run, and decoded values are kept where the test can check them (like the Engine's status).
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.ats;
+
+
+public class TestBusHost implements BusHost {
+
+    long now = 100000;
+
+    Clock clock = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    };
+
+    TaskScheduler scheduler = new TaskScheduler() {
+        @Override
+        public boolean post(Runnable task) { return true; }
+
+        @Override
+        public boolean postDelayed(Runnable task, long delay_ms) { return true; }
+
+        @Override
+        public void removeCallbacks(Runnable task) { }
+    };
+
+    BusOutput busOutput = new BusOutput() {
+        @Override
+        public void sendCANFrame(int id, byte[] data) { }
+
+        @Override
+        public void sendJ1708Frame(int id, int priority, byte[] data) { }
+    };
+
+    BusLink busLink = new BusLink() {
+        @Override
+        public void startCAN(int bitrate, boolean skipVerify, boolean autoDetect, int[] ids, int[] masks, CanReceiver receiver) { }
+
+        @Override
+        public void stopCAN() { }
+
+        @Override
+        public void startJ1708(J1708Receiver receiver) { }
+
+        @Override
+        public void stopJ1708() { }
+    };
+
+    SignalTable signals = new SignalTable();
+    J1587PidTable pidValues = new J1587PidTable();
+    RequestTracker requestTracker = new RequestTracker(new RequestTracker.Sender() {
+        @Override
+        public boolean sendRequest(int bus_type, int message_type, int destination) {
+            return true;
+        }
+    });
+
+    J1939 j1939 = null; // if set, gets the VIN to remember the bitrate (like the Engine does)
+
+    // settings (config defaults)
+    int parkingBrakeConflictState = 1;
+    int j1939FramesPerBurst = 16;
+    int j1939Connections = 16;
+    int j1939SpeedKbs = 0;
+
+    // remembered J1939 state
+    boolean j1939BusVerified = false;
+    int j1939BusType = BUS_TYPE_NONE;
+    int j1939BusAddress = 0;
+    String j1939BitrateHistory = "";
+
+    // decoded values
+    String vin = "";
+    int bus_type_vin = BUS_TYPE_NONE;
+    boolean flagParkingBrake = false;
+    boolean flagReverseGear = false;
+    long odometer_m = 0;
+    long fuel_mL = 0;
+    long fuel_mperL = 0;
+    int lamps_bf = 0;
+
+    // last DTC report
+    int dtc_bus_type = BUS_TYPE_NONE;
+    long[] dtcs = null;
+    int[] dtcSourceAddresses = null;
+
+    // raw forwarded messages
+    int rawForwardCount = 0;
+    int raw_message_type;
+    int raw_source;
+    byte[] rawData = null;
+
+
+    public Clock getClock() { return clock; }
+    public TaskScheduler createScheduler() { return scheduler; }
+    public BusOutput getBusOutput() { return busOutput; }
+    public BusLink getBusLink() { return busLink; }
+    public boolean isUnitTesting() { return true; }
+
+    public SignalTable getSignals() { return signals; }
+    public J1587PidTable getPidValues() { return pidValues; }
+    public RequestTracker getRequestTracker() { return requestTracker; }
+    public String getBusName(int bus_type) { return "BUS" + bus_type; }
+
+    public void setBusDetected(int bus_type) { }
+    public void clearBusDetected(int bus_type) { }
+    public void setBusCommunicating(int bus_type) { }
+    public void clearBusCommunicating(int bus_type) { }
+
+    public String checkVin(int bus_type, String newVin) {
+        if (j1939 != null) j1939.checkVinBitrate(newVin);
+        vin = newVin;
+        bus_type_vin = bus_type;
+        return vin;
+    }
+    public String getVin() { return vin; }
+    public int getVinBusType() { return bus_type_vin; }
+    public boolean checkParkingBrake(int bus_type, boolean on) { flagParkingBrake = on; return on; }
+    public boolean checkReverseGear(int bus_type, boolean on) { flagReverseGear = on; return on; }
+    public long checkOdometer(int bus_type, long new_odometer_m) { odometer_m = new_odometer_m; return odometer_m; }
+    public long checkFuelConsumption(int bus_type, long new_fuel_mL) { fuel_mL = new_fuel_mL; return fuel_mL; }
+    public long checkFuelEconomy(int bus_type, long new_fuel_mperL) { fuel_mperL = new_fuel_mperL; return fuel_mperL; }
+    public long checkLamps(int bus_type, int new_lamps_bf) { lamps_bf = new_lamps_bf; return lamps_bf; }
+
+    public int checkDtcs(int bus_type, long[] newDtcs, int[] newSourceAddresses, int newLampStatus) {
+        dtc_bus_type = bus_type;
+        dtcs = newDtcs;
+        dtcSourceAddresses = newSourceAddresses;
+        return 0;
+    }
+    public int checkSourceDtcs(int bus_type, int reporter, long[] newDtcs, int[] newSourceAddresses, int count, int newLampStatus) { return 0; }
+
+    public void checkRawForwarding(int bus_type, int message_type, int source, byte[] data) {
+        checkRawForwarding(bus_type, message_type, source, data, data.length);
+    }
+    public void checkRawForwarding(int bus_type, int message_type, int source, byte[] data, int data_length) {
+        rawForwardCount++;
+        raw_message_type = message_type;
+        raw_source = source;
+        rawData = new byte[data_length];
+        System.arraycopy(data, 0, rawData, 0, data_length);
+    }
+    public void checkRawForwarding(int bus_type, int message_type, int source, long payload, int dlc) {
+        byte[] data = new byte[dlc];
+        EngineBus.payload2Bytes(payload, data, dlc);
+        checkRawForwarding(bus_type, message_type, source, data, dlc);
+    }
+    public void markReceived(int bus_type, int message_type, int source) { }
+
+    public int getParkingBrakeConflictState() { return parkingBrakeConflictState; }
+    public int getJ1939FramesPerBurst() { return j1939FramesPerBurst; }
+    public int getJ1939Connections() { return j1939Connections; }
+    public int getJ1939SpeedKbs() { return j1939SpeedKbs; }
+
+    public boolean isJ1939BusVerified() { return j1939BusVerified; }
+    public int getJ1939BusType() { return j1939BusType; }
+    public void rememberJ1939BusType(int bus_type) { j1939BusType = bus_type; j1939BusVerified = true; }
+    public int getJ1939BusAddress() { return j1939BusAddress; }
+    public void rememberJ1939BusAddress(int address) { j1939BusAddress = address; }
+    public String getJ1939BitrateHistory() { return j1939BitrateHistory; }
+    public void setJ1939BitrateHistory(String history) { j1939BitrateHistory = history; }
+    public void reportNoAddressAvailable() { }
+
+} // class TestBusHost
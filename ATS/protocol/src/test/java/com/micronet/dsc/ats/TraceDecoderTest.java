@@ -0,0 +1,79 @@
+package com.micronet.dsc.ats;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+public class TraceDecoderTest extends TestCase {
+
+
+    // writes a dump with the given entries, like Trace.write() does
+    static void writeHeader(DataOutputStream out, int reason, int count) throws IOException {
+        out.writeInt(TraceFormat.MAGIC);
+        out.writeShort(TraceFormat.VERSION);
+        out.writeByte(reason);
+        out.writeLong(1500000000000L);
+        out.writeLong(5000000000L);
+        out.writeInt(count);
+    }
+
+    static void writeEntry(DataOutputStream out, long sequence, int code, int arg1, int arg2, byte[] data, int length) throws IOException {
+        out.writeLong(sequence);
+        out.writeLong(4000000000L);
+        out.writeShort(code);
+        out.writeInt(arg1);
+        out.writeInt(arg2);
+        out.writeInt(length);
+        out.writeByte(data.length);
+        out.write(data);
+    }
+
+
+    public void test_decodeAtsAndVbs() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, TraceFormat.REASON_CRASH, 4);
+        writeEntry(out, 1, TraceFormat.CODE_EVENT_QUEUED, 1234, 5678, new byte[0], 0);
+        writeEntry(out, 2, TraceFormat.CODE_UDP_TX, 9999, 8888, new byte[] {0x01, 0x02, (byte) 0xAB}, 3);
+        writeEntry(out, 3, TraceFormat.VBS_CODE_CAN_RX, 0x18FEF100, 0, new byte[] {0x11, 0x22}, 8);
+        writeEntry(out, 4, TraceFormat.VBS_CODE_DUMP, TraceFormat.REASON_WATCHDOG, 0, new byte[0], 0);
+        out.flush();
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        int count = TraceDecoder.decode(new ByteArrayInputStream(bytes.toByteArray()), new PrintStream(text, true));
+        String s = text.toString();
+
+        assertEquals(4, count);
+        assertTrue(s.contains("(crash), 4 entries"));
+        assertTrue(s.contains("#1 EVENT type 1234 seq 5678"));
+        assertTrue(s.contains("#2 UDP --> port 9999 to 8888 3 bytes : 0102AB"));
+        assertFalse(s.contains("0102AB .."));
+        assertTrue(s.contains("#3 CAN <-- 18FEF100 [8] : 1122 .."));
+        assertTrue(s.contains("#4 DUMP watchdog"));
+
+    } // test_decodeAtsAndVbs()
+
+
+    public void test_wrongMagic() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x12345678);
+        out.writeShort(TraceFormat.VERSION);
+        out.flush();
+
+        try {
+            TraceDecoder.decode(new ByteArrayInputStream(bytes.toByteArray()), new PrintStream(new ByteArrayOutputStream()));
+            fail("decoded something that is not a trace dump");
+        } catch (IOException e) {
+            // expected
+        }
+
+    } // test_wrongMagic()
+
+} // class TraceDecoderTest
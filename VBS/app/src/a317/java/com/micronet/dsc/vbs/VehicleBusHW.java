@@ -12,6 +12,8 @@ import com.micronet.canbus.CanbusSocket;
 class VehicleBusHW {
     public static final String TAG = "ATS-VBS-HW";
 
+    public static final int MAX_CAN_HARDWARE_FILTERS = 16; // filter slots in the CAN controller, more filters than this are combined
+
 
 
     public static class InterfaceWrapper extends CanbusInterface {
@@ -0,0 +1,264 @@
+/////////////////////////////////////////////////////////////
+// BusCapture:
+//  Writes received bus frames to a compact binary log so the traffic can be replayed later (off-vehicle)
+//  Frames are buffered in memory and written to a series of files, starting a new file when the current
+//      one is full and deleting the oldest files so the capture never takes more than a set amount of space.
+//
+//  File format (all values big-endian):
+//      header:  magic (4 bytes "VBSC"), version (2), realtime of file start (8), wall clock of file start (8)
+//      records: bus (1), ms since file start (4), id (4), priority (1), length (1), data (length)
+//  The ATS BusReplay class reads this format, keep the two in sync.
+//
+//  Thread-safe: the CAN and J1708 read threads write to the same capture.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.vbs;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+
+public class BusCapture {
+
+    private static final String TAG = "ATS-VBS-Capture"; // for logging
+
+    public static final int FORMAT_MAGIC = 0x56425343; // "VBSC"
+    public static final int FORMAT_VERSION = 1;
+    public static final int HEADER_LENGTH = 22; // bytes
+    public static final int RECORD_HEADER_LENGTH = 11; // bytes before the data in each record
+
+    // bus types in each record
+    public static final int BUS_CAN = 1;
+    public static final int BUS_J1708 = 2;
+
+    public static final String DIRECTORY_NAME = "capture"; // sub-directory of the app's files directory
+    public static final String FILE_PREFIX = "bus_";
+    public static final String FILE_SUFFIX = ".cap";
+
+    public static final int DEFAULT_MAX_FILE_BYTES = 1024 * 1024; // start a new file after this many bytes
+    public static final int DEFAULT_MAX_FILES = 8; // keep at most this many files, deleting the oldest
+
+    static final int BUFFER_SIZE = 16384; // bytes held in memory before they are written to the file
+    static final int MAX_DATA_LENGTH = 255; // longer frames are truncated
+
+
+    File directory;
+    int maxFileBytes;
+    int maxFiles;
+
+    DataOutputStream outStream = null; // null if not open
+    int fileNumber = 0; // number of the file currently being written
+    int fileBytes = 0; // bytes written to the current file
+    long fileStartRealtime = 0; // timestamps in the records are relative to this
+
+    long framesWritten = 0;
+
+
+    public BusCapture(File directory, int maxFileBytes, int maxFiles) {
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////
+    // open()
+    //  starts capturing to a new file, numbered after any files already in the directory
+    //  now : the elapsed realtime
+    //  returns true if the file was opened
+    ///////////////////////////////////////////////////////////////////
+    public synchronized boolean open(long now) {
+
+        close();
+
+        try {
+            directory.mkdirs();
+            if (!directory.isDirectory()) {
+                Log.e(TAG, "Unable to create capture directory " + directory.getAbsolutePath());
+                return false;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to create capture directory " + directory.getAbsolutePath() + "; " + e.toString());
+            return false;
+        }
+
+        fileNumber = findLastFileNumber() + 1;
+        return openFile(now);
+
+    } // open()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // close()
+    //  writes anything that is buffered and closes the file
+    ///////////////////////////////////////////////////////////////////
+    public synchronized void close() {
+
+        if (outStream == null) return;
+
+        try {
+            outStream.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Exception closing capture file: " + e.toString());
+        }
+        outStream = null;
+
+        Log.i(TAG, "Capture closed after " + framesWritten + " frames");
+
+    } // close()
+
+
+    public synchronized boolean isOpen() {
+        return (outStream != null);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////
+    // flush()
+    //  writes anything that is buffered to the file (so a crash loses at most what was received since)
+    ///////////////////////////////////////////////////////////////////
+    public synchronized void flush() {
+
+        if (outStream == null) return;
+
+        try {
+            outStream.flush();
+        } catch (Exception e) {
+            Log.e(TAG, "Exception flushing capture file, stopping capture: " + e.toString());
+            close();
+        }
+    } // flush()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // writeFrame()
+    //  adds a received frame to the capture
+    //  bus: BUS_CAN or BUS_J1708
+    //  now: the elapsed realtime when the frame was received
+    //  priority: J1708 priority (0 for CAN)
+    ///////////////////////////////////////////////////////////////////
+    public synchronized void writeFrame(int bus, long now, int id, int priority, byte[] data) {
+
+        if (outStream == null) return;
+
+        int length = (data == null ? 0 : data.length);
+        if (length > MAX_DATA_LENGTH) length = MAX_DATA_LENGTH;
+
+        long offset = now - fileStartRealtime;
+
+        try {
+            if ((fileBytes + RECORD_HEADER_LENGTH + length > maxFileBytes) ||
+                (offset > Integer.MAX_VALUE) || (offset < 0)) {
+                // this file is full (or we can't express the time in it), go to the next one
+                outStream.close();
+                outStream = null;
+                fileNumber++;
+                if (!openFile(now)) return;
+                offset = 0;
+            }
+
+            outStream.writeByte(bus);
+            outStream.writeInt((int) offset);
+            outStream.writeInt(id);
+            outStream.writeByte(priority);
+            outStream.writeByte(length);
+            if (length > 0)
+                outStream.write(data, 0, length);
+
+            fileBytes += RECORD_HEADER_LENGTH + length;
+            framesWritten++;
+        } catch (Exception e) {
+            Log.e(TAG, "Exception writing capture file, stopping capture: " + e.toString());
+            close();
+        }
+
+    } // writeFrame()
+
+
+    public synchronized long getFramesWritten() {
+        return framesWritten;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////
+    // getFile()
+    //  returns the file with the given number
+    ///////////////////////////////////////////////////////////////////
+    File getFile(int number) {
+        return new File(directory, FILE_PREFIX + String.format("%05d", number) + FILE_SUFFIX);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////
+    // openFile()
+    //  opens the file for the current fileNumber, writes the header, and deletes files that are too old
+    ///////////////////////////////////////////////////////////////////
+    boolean openFile(long now) {
+
+        File file = getFile(fileNumber);
+
+        try {
+            outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+
+            outStream.writeInt(FORMAT_MAGIC);
+            outStream.writeShort(FORMAT_VERSION);
+            outStream.writeLong(now);
+            outStream.writeLong(System.currentTimeMillis());
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to open capture file " + file.getAbsolutePath() + "; " + e.toString());
+            if (outStream != null) {
+                try {
+                    outStream.close();
+                } catch (Exception e2) {
+                    // Do Nothing
+                }
+            }
+            outStream = null;
+            return false;
+        }
+
+        fileBytes = HEADER_LENGTH;
+        fileStartRealtime = now;
+
+        Log.i(TAG, "Capturing to " + file.getAbsolutePath());
+
+        // remove the oldest files so we only keep maxFiles
+        for (int number = fileNumber - maxFiles; number >= 0; number--) {
+            File old = getFile(number);
+            if (!old.exists()) break; // everything before this was already deleted
+            old.delete();
+        }
+
+        return true;
+    } // openFile()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // findLastFileNumber()
+    //  returns the highest numbered capture file in the directory, or -1 if there are none
+    ///////////////////////////////////////////////////////////////////
+    int findLastFileNumber() {
+
+        int last = -1;
+
+        String[] names = directory.list();
+        if (names == null) return last;
+
+        for (String name : names) {
+            if ((!name.startsWith(FILE_PREFIX)) || (!name.endsWith(FILE_SUFFIX))) continue;
+            try {
+                int number = Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+                if (number > last) last = number;
+            } catch (Exception e) {
+                // not one of ours
+            }
+        }
+
+        return last;
+    } // findLastFileNumber()
+
+
+} // class BusCapture
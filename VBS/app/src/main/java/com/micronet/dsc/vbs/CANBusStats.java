@@ -0,0 +1,314 @@
+/////////////////////////////////////////////////////////////
+// CANBusStats:
+//  Always-on counters for the CAN bus: frames and bytes per second, frames per CAN ID and per source address,
+//      an estimate of bus utilization, and how full the transmit queue got.
+//  Counts are collected over an interval (the status period) and summarized by sample().
+//
+//  record() is called by the CAN read thread for every frame, so it only updates a few counters.
+//  Everything else (sorting, top-N) is done once per interval in sample().
+//
+//  The per-ID counts are also added up over all intervals (see getTraffic()) so the filter optimizer
+//      can judge what different hardware filters would let through.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.vbs;
+
+
+import java.util.Arrays;
+
+
+public class CANBusStats {
+
+    public static final int DEFAULT_TOP_COUNT = 5; // how many of the busiest IDs and sources to report
+
+    // table of frame counts per CAN ID (open addressing, cleared every interval)
+    static final int ID_TABLE_BITS = 10;
+    static final int ID_TABLE_SIZE = 1 << ID_TABLE_BITS;
+    static final int ID_TABLE_MAX_USED = ID_TABLE_SIZE * 3 / 4; // after this, frames for new IDs are only counted in "other"
+    static final int ID_EMPTY = -1; // CAN IDs are at most 29 bits, so this is never a real ID
+
+    // Estimated bits on the wire for an extended frame, not counting bit stuffing:
+    //  SOF 1, arbitration 32, control 6, CRC 16, ACK 2, EOF 7, interframe space 3 = 67, plus 8 per data byte
+    static final int FRAME_OVERHEAD_BITS = 67;
+
+
+    // Summary of the last interval
+    public static class Sample {
+        public int intervalMs;
+        public int framesPerSecond;
+        public int bytesPerSecond;
+        public int busLoadPermille; // estimated utilization of the bus in 1/10 %, 0 if the bitrate is not known
+
+        public int[] topIds; // busiest CAN IDs, busiest first
+        public int[] topIdFramesPerSecond;
+        public int[] topSources; // busiest source addresses (low 8 bits of the ID), busiest first
+        public int[] topSourceFramesPerSecond;
+
+        public int otherIdFrames; // frames whose ID didn't fit in the table
+
+        // these are since the stats were reset, not per interval
+        public int txQueueHighWater; // most frames ever waiting in the transmit queue
+        public long txDropped; // transmit frames rejected because the queue was full
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(framesPerSecond).append(" fps ").append(bytesPerSecond).append(" B/s load ")
+                    .append(busLoadPermille / 10).append('.').append(busLoadPermille % 10).append("%");
+            sb.append(" top ids");
+            for (int i = 0; i < topIds.length; i++) {
+                sb.append(' ').append(String.format("%X", topIds[i])).append('=').append(topIdFramesPerSecond[i]);
+            }
+            sb.append(" top sa");
+            for (int i = 0; i < topSources.length; i++) {
+                sb.append(' ').append(String.format("%02X", topSources[i])).append('=').append(topSourceFramesPerSecond[i]);
+            }
+            sb.append(" txq max ").append(txQueueHighWater).append(" txdrop ").append(txDropped);
+            return sb.toString();
+        }
+    } // Sample
+
+
+    // Frames per CAN ID since the stats were reset
+    public static class Traffic {
+        public int[] ids;
+        public long[] counts;
+        public long durationMs; // how long the frames were counted for
+
+        // the filters the frames were counted through (null if none), frames outside these were never seen
+        public int[] filterIds;
+        public int[] filterMasks;
+    } // Traffic
+
+
+    int topCount;
+
+    // counts in the current interval
+    int[] idKeys = new int[ID_TABLE_SIZE];
+    int[] idCounts = new int[ID_TABLE_SIZE];
+    int idUsed = 0;
+    int otherIdFrames = 0;
+    int[] sourceCounts = new int[256];
+    int frames = 0;
+    int bytes = 0;
+    long bits = 0;
+
+    long intervalStart = 0; // elapsed realtime the current interval started
+
+    // totals of all past intervals (same table layout as the interval counts)
+    int[] trafficKeys = new int[ID_TABLE_SIZE];
+    long[] trafficCounts = new long[ID_TABLE_SIZE];
+    int trafficUsed = 0;
+    long trafficMs = 0;
+
+    int txQueueHighWater = 0;
+    long txDropped = 0;
+
+
+    public CANBusStats() {
+        this(DEFAULT_TOP_COUNT);
+    }
+
+    public CANBusStats(int topCount) {
+        this.topCount = topCount;
+        Arrays.fill(idKeys, ID_EMPTY);
+        Arrays.fill(trafficKeys, ID_EMPTY);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////
+    // record()
+    //  counts a received frame
+    ///////////////////////////////////////////////////////////////////
+    public synchronized void record(int id, int length) {
+
+        frames++;
+        bytes += length;
+        bits += FRAME_OVERHEAD_BITS + 8 * length;
+        sourceCounts[id & 0xFF]++;
+
+        int index = findSlot(idKeys, id);
+        if (idKeys[index] == id) {
+            idCounts[index]++;
+            return;
+        }
+
+        if (idUsed >= ID_TABLE_MAX_USED) {
+            otherIdFrames++;
+            return;
+        }
+
+        idKeys[index] = id;
+        idCounts[index] = 1;
+        idUsed++;
+
+    } // record()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // recordTxQueue()
+    //  notes how many frames are waiting to be transmitted, and whether one was dropped because the queue was full
+    ///////////////////////////////////////////////////////////////////
+    public synchronized void recordTxQueue(int size, boolean dropped) {
+        if (size > txQueueHighWater) txQueueHighWater = size;
+        if (dropped) txDropped++;
+    } // recordTxQueue()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // sample()
+    //  summarizes the interval that just ended and starts a new one
+    //  now: elapsed realtime
+    //  bitrate: the bus bitrate (for the utilization estimate), 0 if unknown
+    ///////////////////////////////////////////////////////////////////
+    public synchronized Sample sample(long now, int bitrate) {
+
+        Sample sample = new Sample();
+
+        long interval = now - intervalStart;
+        if ((intervalStart == 0) || (interval <= 0)) interval = 1000; // first call, assume a normal period
+        sample.intervalMs = (int) interval;
+
+        sample.framesPerSecond = perSecond(frames, interval);
+        sample.bytesPerSecond = perSecond(bytes, interval);
+        if (bitrate > 0) {
+            sample.busLoadPermille = (int) (bits * 1000L * 1000L / interval / bitrate);
+        }
+        sample.otherIdFrames = otherIdFrames;
+
+        // busiest IDs
+        int[] top = findTop(idCounts, topCount);
+        sample.topIds = new int[top.length];
+        sample.topIdFramesPerSecond = new int[top.length];
+        for (int i = 0; i < top.length; i++) {
+            sample.topIds[i] = idKeys[top[i]];
+            sample.topIdFramesPerSecond[i] = perSecond(idCounts[top[i]], interval);
+        }
+
+        // busiest sources
+        top = findTop(sourceCounts, topCount);
+        sample.topSources = top; // the index is the address
+        sample.topSourceFramesPerSecond = new int[top.length];
+        for (int i = 0; i < top.length; i++) {
+            sample.topSourceFramesPerSecond[i] = perSecond(sourceCounts[top[i]], interval);
+        }
+
+        sample.txQueueHighWater = txQueueHighWater;
+        sample.txDropped = txDropped;
+
+        // add this interval to the totals
+        if (intervalStart != 0) {
+            for (int i = 0; i < ID_TABLE_SIZE; i++) {
+                int id = idKeys[i];
+                if (id == ID_EMPTY) continue;
+                int index = findSlot(trafficKeys, id);
+                if (trafficKeys[index] != id) {
+                    if (trafficUsed >= ID_TABLE_MAX_USED) continue;
+                    trafficKeys[index] = id;
+                    trafficUsed++;
+                }
+                trafficCounts[index] += idCounts[i];
+            }
+            trafficMs += interval;
+        }
+
+        // start the next interval
+        Arrays.fill(idKeys, ID_EMPTY);
+        Arrays.fill(idCounts, 0);
+        Arrays.fill(sourceCounts, 0);
+        idUsed = 0;
+        otherIdFrames = 0;
+        frames = 0;
+        bytes = 0;
+        bits = 0;
+        intervalStart = now;
+
+        return sample;
+    } // sample()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // reset()
+    //  clears everything, including the transmit queue counters (e.g. when the bus is restarted)
+    ///////////////////////////////////////////////////////////////////
+    public synchronized void reset(long now) {
+        sample(now, 0);
+        txQueueHighWater = 0;
+        txDropped = 0;
+        Arrays.fill(trafficKeys, ID_EMPTY);
+        Arrays.fill(trafficCounts, 0);
+        trafficUsed = 0;
+        trafficMs = 0;
+    } // reset()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // getTraffic()
+    //  returns the frames counted for each CAN ID in all completed intervals since the stats were reset
+    ///////////////////////////////////////////////////////////////////
+    public synchronized Traffic getTraffic() {
+
+        Traffic traffic = new Traffic();
+        traffic.ids = new int[trafficUsed];
+        traffic.counts = new long[trafficUsed];
+        traffic.durationMs = trafficMs;
+
+        int count = 0;
+        for (int i = 0; i < ID_TABLE_SIZE; i++) {
+            if (trafficKeys[i] == ID_EMPTY) continue;
+            traffic.ids[count] = trafficKeys[i];
+            traffic.counts[count] = trafficCounts[i];
+            count++;
+        }
+
+        return traffic;
+    } // getTraffic()
+
+
+    ///////////////////////////////////////////////////////////////////
+    // findSlot()
+    //  returns the index of the ID in the table, or of the empty slot where it would go
+    ///////////////////////////////////////////////////////////////////
+    static int findSlot(int[] keys, int id) {
+        int mask = ID_TABLE_SIZE - 1;
+        int index = ((id * 0x9E3779B1) >>> (32 - ID_TABLE_BITS));
+        while ((keys[index] != id) && (keys[index] != ID_EMPTY)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    } // findSlot()
+
+
+    static int perSecond(long count, long interval_ms) {
+        return (int) ((count * 1000L + interval_ms / 2) / interval_ms);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////
+    // findTop()
+    //  returns the indexes of the (up to) n largest non-zero counts, largest first
+    ///////////////////////////////////////////////////////////////////
+    static int[] findTop(int[] counts, int n) {
+
+        int[] top = new int[n];
+        int found = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            int count = counts[i];
+            if (count == 0) continue;
+            if ((found == n) && (count <= counts[top[n - 1]])) continue;
+
+            // insert in order, dropping the smallest if we are full
+            int pos = (found < n ? found++ : n - 1);
+            while ((pos > 0) && (counts[top[pos - 1]] < count)) {
+                top[pos] = top[pos - 1];
+                pos--;
+            }
+            top[pos] = i;
+        }
+
+        return Arrays.copyOf(top, found);
+    } // findTop()
+
+
+} // class CANBusStats
@@ -0,0 +1,276 @@
+/////////////////////////////////////////////////////////////
+// CANFilterOptimizer:
+//  Reduces the id/mask filters requested by the client to a set that fits in the controller's filter slots
+//
+//  A frame passes a filter if (frame_id & mask) == (filter_id & mask).
+//  Filters that are already covered by another filter are dropped, and filters that can be combined without
+//      letting anything extra through are combined. If there are still more filters than slots, the pair whose
+//      combination lets through the fewest extra frames is combined, until the filters fit.
+//
+//  "Extra frames" are judged from traffic that was actually seen on the bus (see CANBusStats), and when there is
+//      none (or it is a tie), by how many extra IDs the combined filter would accept.
+//
+//  The traffic was counted through the filters in use at the time, so IDs outside those filters were never seen and
+//      look free. A combination that accepts such IDs is charged a safety margin (UNSEEN_MARGIN_PERCENT of all the
+//      traffic that was seen) on top of what was seen, so combinations we can measure are preferred.
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.vbs;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+public class CANFilterOptimizer {
+
+    private static final String TAG = "ATS-VBS-Filter"; // for logging
+
+    static final int ID_BITS = 29; // extended frames
+    static final int ID_MASK = (1 << ID_BITS) - 1;
+
+    // what we assume a combination could let through from IDs that were filtered out when the traffic was counted
+    static final int UNSEEN_MARGIN_PERCENT = 10;
+
+
+    // The optimized filters and what we expect them to let through
+    public static class Result {
+        public int[] ids;
+        public int[] masks;
+
+        // from the traffic that was seen (all 0 if there was none)
+        public int observedFps; // all frames that were seen
+        public int wantedFps; // frames that pass the requested filters
+        public int passFps; // frames that pass the optimized filters (wanted + extra)
+        public boolean passUnseen; // the filters also accept IDs that could not be seen, so passFps may be higher
+
+        public int getPassPermille() {
+            if (observedFps <= 0) return 1000;
+            return (int) (passFps * 1000L / observedFps);
+        }
+
+        public int getExtraFps() {
+            return passFps - wantedFps;
+        }
+    } // Result
+
+
+    static class Filter {
+        int id;
+        int mask;
+
+        Filter(int id, int mask) {
+            this.mask = mask & ID_MASK;
+            this.id = id & this.mask;
+        }
+
+        boolean matches(int frame_id) {
+            return ((frame_id & mask) == id);
+        }
+
+        // does this filter accept everything the other one does?
+        boolean covers(Filter other) {
+            return ((mask & ~other.mask) == 0) && (((id ^ other.id) & mask) == 0);
+        }
+
+        // how many IDs this filter accepts
+        long size() {
+            return 1L << (ID_BITS - Integer.bitCount(mask));
+        }
+
+        // how many IDs are accepted by either of the two filters
+        static long unionSize(Filter a, Filter b) {
+            long size = a.size() + b.size();
+            if (((a.id ^ b.id) & a.mask & b.mask) == 0) {
+                // they overlap, don't count those twice
+                size -= 1L << (ID_BITS - Integer.bitCount(a.mask | b.mask));
+            }
+            return size;
+        }
+
+        static Filter merge(Filter a, Filter b) {
+            int mask = a.mask & b.mask & ~(a.id ^ b.id);
+            return new Filter(a.id, mask);
+        }
+    } // Filter
+
+
+    ///////////////////////////////////////////////////////////////
+    // optimize()
+    //  ids, masks: the requested filters
+    //  max_filters: the number of filter slots
+    //  traffic: the frames seen on the bus, may be null
+    ///////////////////////////////////////////////////////////////
+    public static Result optimize(int[] ids, int[] masks, int max_filters, CANBusStats.Traffic traffic) {
+
+        int count = Math.min(ids.length, masks.length);
+
+        List<Filter> wanted = new ArrayList<Filter>(count);
+        for (int i = 0; i < count; i++) {
+            wanted.add(new Filter(ids[i], masks[i]));
+        }
+
+        // split the traffic we've seen into frames that were wanted or not, only the unwanted ones add cost
+        int[] unwantedIds = new int[0];
+        long[] unwantedCounts = new long[0];
+        long observed = 0, wantedFrames = 0;
+
+        if ((traffic != null) && (traffic.ids.length > 0)) {
+            unwantedIds = new int[traffic.ids.length];
+            unwantedCounts = new long[traffic.ids.length];
+            int unwanted = 0;
+            for (int i = 0; i < traffic.ids.length; i++) {
+                observed += traffic.counts[i];
+                if (matchesAny(wanted, traffic.ids[i])) {
+                    wantedFrames += traffic.counts[i];
+                } else {
+                    unwantedIds[unwanted] = traffic.ids[i];
+                    unwantedCounts[unwanted] = traffic.counts[i];
+                    unwanted++;
+                }
+            }
+            unwantedIds = Arrays.copyOf(unwantedIds, unwanted);
+            unwantedCounts = Arrays.copyOf(unwantedCounts, unwanted);
+        }
+
+        // the filters the traffic was counted through (if there were none, everything could be seen)
+        List<Filter> seen = null;
+        if ((observed > 0) && (traffic.filterIds != null) && (traffic.filterMasks != null)) {
+            seen = new ArrayList<Filter>();
+            for (int i = 0; i < Math.min(traffic.filterIds.length, traffic.filterMasks.length); i++) {
+                seen.add(new Filter(traffic.filterIds[i], traffic.filterMasks[i]));
+            }
+        }
+        long unseenMargin = observed * UNSEEN_MARGIN_PERCENT / 100;
+
+
+        List<Filter> filters = new ArrayList<Filter>(wanted);
+        removeCovered(filters);
+
+        while (filters.size() > 1) {
+
+            // find the cheapest pair to combine
+            int best_a = -1, best_b = -1;
+            long best_frames = Long.MAX_VALUE, best_ids = Long.MAX_VALUE;
+            Filter best = null;
+
+            for (int a = 0; a < filters.size(); a++) {
+                Filter fa = filters.get(a);
+                for (int b = a + 1; b < filters.size(); b++) {
+                    Filter fb = filters.get(b);
+                    Filter merged = Filter.merge(fa, fb);
+
+                    long extra_ids = merged.size() - Filter.unionSize(fa, fb);
+
+                    long extra_frames = 0;
+                    for (int i = 0; i < unwantedIds.length; i++) {
+                        int id = unwantedIds[i];
+                        if ((merged.matches(id)) && (!fa.matches(id)) && (!fb.matches(id))) {
+                            extra_frames += unwantedCounts[i];
+                        }
+                    }
+
+                    if ((extra_ids > 0) && (!isSeen(seen, merged))) {
+                        extra_frames += unseenMargin; // we can't know what else it lets through
+                    }
+
+                    if ((extra_frames < best_frames) ||
+                        ((extra_frames == best_frames) && (extra_ids < best_ids))) {
+                        best_frames = extra_frames;
+                        best_ids = extra_ids;
+                        best_a = a;
+                        best_b = b;
+                        best = merged;
+                    }
+                }
+            }
+
+            // stop once we fit, unless the combination is free
+            boolean free = ((best_frames == 0) && (best_ids == 0));
+            if ((filters.size() <= max_filters) && (!free)) break;
+
+            filters.set(best_a, best);
+            filters.remove(best_b);
+            removeCovered(filters);
+        }
+
+
+        Result result = new Result();
+        result.ids = new int[filters.size()];
+        result.masks = new int[filters.size()];
+        for (int i = 0; i < filters.size(); i++) {
+            result.ids[i] = filters.get(i).id;
+            result.masks[i] = filters.get(i).mask;
+        }
+
+        if (observed > 0) {
+            long passFrames = wantedFrames;
+            for (int i = 0; i < unwantedIds.length; i++) {
+                if (matchesAny(filters, unwantedIds[i])) passFrames += unwantedCounts[i];
+            }
+            result.observedFps = perSecond(observed, traffic.durationMs);
+            result.wantedFps = perSecond(wantedFrames, traffic.durationMs);
+            result.passFps = perSecond(passFrames, traffic.durationMs);
+
+            for (Filter f : filters) {
+                if (!isSeen(seen, f)) result.passUnseen = true;
+            }
+        }
+
+        Log.i(TAG, "CAN filters: " + count + " requested, " + filters.size() + " used (" + max_filters + " slots)" +
+                (observed > 0 ?
+                        ", expect " + (result.passUnseen ? "at least " : "") + result.passFps + " of " + result.observedFps + " fps to pass (" +
+                            result.getExtraFps() + " fps not requested)" :
+                        ", no traffic seen yet"));
+
+        return result;
+    } // optimize()
+
+
+    static boolean matchesAny(List<Filter> filters, int frame_id) {
+        for (Filter f : filters) {
+            if (f.matches(frame_id)) return true;
+        }
+        return false;
+    } // matchesAny()
+
+
+    ///////////////////////////////////////////////////////////////
+    // isSeen()
+    //  returns true if every ID the filter accepts could be seen when the traffic was counted
+    //  seen: the filters the traffic was counted through, null if there were none
+    ///////////////////////////////////////////////////////////////
+    static boolean isSeen(List<Filter> seen, Filter filter) {
+        if (seen == null) return true;
+        for (Filter f : seen) {
+            if (f.covers(filter)) return true;
+        }
+        return false;
+    } // isSeen()
+
+
+    ///////////////////////////////////////////////////////////////
+    // removeCovered()
+    //  removes filters that only accept frames another filter already accepts
+    ///////////////////////////////////////////////////////////////
+    static void removeCovered(List<Filter> filters) {
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            Filter f = filters.get(i);
+            for (int j = 0; j < filters.size(); j++) {
+                if ((j != i) && (filters.get(j).covers(f))) {
+                    filters.remove(i);
+                    break;
+                }
+            }
+        }
+    } // removeCovered()
+
+
+    static int perSecond(long count, long duration_ms) {
+        if (duration_ms <= 0) return 0;
+        return (int) ((count * 1000L + duration_ms / 2) / duration_ms);
+    }
+
+
+} // class CANFilterOptimizer
@@ -1,3 +1,12 @@
+/////////////////////////////////////////////////////////////
+// Log:
+//  Wraps android.util.Log so entries can be filtered by level and tag, and shown in the app (callbackInterface)
+//
+//  Code that logs for every frame, packet or message should check isEnabled() first so the message is only
+//      built when it will be recorded. Such classes resolve their tag once with tagId(), then the check is just
+//      a flag and a bit in a mask, with no locking, string compares or allocation.
+/////////////////////////////////////////////////////////////
+
 package com.micronet.dsc.vbs;
 
 
@@ -8,14 +17,29 @@ public class Log {
 
     // set which type of entries you want to record to the log
 
-    public static boolean LOGLEVEL_VERBOSE_VERBOSE = false;
-    public static boolean LOGLEVEL_VERBOSE = true;
-    public static boolean LOGLEVEL_DEBUG = true;
+    public static volatile boolean LOGLEVEL_VERBOSE_VERBOSE = false;
+    public static volatile boolean LOGLEVEL_VERBOSE = true;
+    public static volatile boolean LOGLEVEL_DEBUG = true;
 
     // Info, Warnings, and Errors are always recorded.
 
+    // levels for isEnabled()
+    public static final int LEVEL_VERBOSE_VERBOSE = 0;
+    public static final int LEVEL_VERBOSE = 1;
+    public static final int LEVEL_DEBUG = 2;
+    public static final int LEVEL_INFO = 3;
+    public static final int LEVEL_WARN = 4;
+    public static final int LEVEL_ERROR = 5;
+
     //public static String logTags[] = {"ATS-Service", "ATS-Power", "ATS-Queue", "ATS-Engine", "ATS-J1939", "ATS-CAN", "ATS-J1587", "ATS-J1708"};
+    // change these with setLogTags()
     public static String logTags[] = {"*"};
+    static volatile boolean allowAllTags = true;
+
+    // tags resolved with tagId(), each has a bit in allowedTagMask (after 63 tags, the rest share the last bit)
+    static final int MAX_TAG_ID = 63;
+    static String[] tagNames = new String[0]; // indexed by tag ID, guarded by Log.class
+    static volatile long allowedTagMask = -1L;
 
     public interface LogCallbackInterface {
         public void show(String tag, String text);
@@ -41,7 +65,7 @@ public class Log {
     }
 
 
-    public static synchronized void v(final String TAG, final String TEXT) {
+    public static void v(final String TAG, final String TEXT) {
 
         if (LOGLEVEL_VERBOSE) {
             if (!allowTag(TAG)) return;
@@ -106,14 +130,81 @@ public class Log {
     }
 
 
+    ////////////////////////////////////////////////////////////////////////
+    // isEnabled()
+    //  returns true if an entry at this level for this tag would be recorded
+    //  tag_id: from tagId()
+    ////////////////////////////////////////////////////////////////////////
+    public static boolean isEnabled(int tag_id, int level) {
+        if (!isLevelEnabled(level)) return false;
+        return ((allowedTagMask & (1L << tag_id)) != 0);
+    } // isEnabled()
+
+    public static boolean isEnabled(String tag, int level) {
+        if (!isLevelEnabled(level)) return false;
+        return allowTag(tag);
+    } // isEnabled()
+
+
+    static boolean isLevelEnabled(int level) {
+        switch (level) {
+            case LEVEL_VERBOSE_VERBOSE: return LOGLEVEL_VERBOSE_VERBOSE;
+            case LEVEL_VERBOSE: return LOGLEVEL_VERBOSE;
+            case LEVEL_DEBUG: return LOGLEVEL_DEBUG;
+            default: return true; // Info, Warnings, and Errors are always recorded.
+        }
+    } // isLevelEnabled()
+
+
+    ////////////////////////////////////////////////////////////////////////
+    // tagId()
+    //  returns the ID for a tag, to pass to isEnabled(). Call this once per tag and keep the result.
+    ////////////////////////////////////////////////////////////////////////
+    public static synchronized int tagId(String tag) {
+
+        for (int i = 0; i < tagNames.length; i++) {
+            if (tagNames[i].equalsIgnoreCase(tag)) return Math.min(i, MAX_TAG_ID);
+        }
+
+        tagNames = Arrays.copyOf(tagNames, tagNames.length + 1);
+        tagNames[tagNames.length - 1] = tag;
+        allowedTagMask = buildTagMask();
+
+        return Math.min(tagNames.length - 1, MAX_TAG_ID);
+    } // tagId()
+
+
+    ////////////////////////////////////////////////////////////////////////
+    // setLogTags()
+    //  records only entries with these tags ("*" for all of them)
+    ////////////////////////////////////////////////////////////////////////
+    public static synchronized void setLogTags(String[] tags) {
+        logTags = tags;
+        allowAllTags = Arrays.asList(tags).contains("*");
+        allowedTagMask = buildTagMask();
+    } // setLogTags()
+
+
+    static long buildTagMask() { // (call while holding the Log.class lock)
+        long mask = 0;
+        for (int i = 0; i < tagNames.length; i++) {
+            if (allowTag(tagNames[i])) mask |= (1L << Math.min(i, MAX_TAG_ID));
+        }
+        return mask;
+    } // buildTagMask()
+
+
     ////////////////////////////////////////////////////////////////////////
     // Tag checking
     ////////////////////////////////////////////////////////////////////////
     public static boolean allowTag(String tag) {
 
-        for(int i=0; i < logTags.length; i++) {
-            if (logTags[i].equals("*")) return true; // asterisk means accept all
-            if (logTags[i].equalsIgnoreCase(tag)) return true;
+        if (allowAllTags) return true;
+
+        String[] tags = logTags;
+        for(int i=0; i < tags.length; i++) {
+            if (tags[i].equals("*")) return true; // asterisk means accept all
+            if (tags[i].equalsIgnoreCase(tag)) return true;
         }
 
         //android.util.Log.e(tag, "Skipping Log (TAG match)");
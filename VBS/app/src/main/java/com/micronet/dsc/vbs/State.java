@@ -31,7 +31,10 @@ public class State {
 
     public static final int CAN_CONFIRMED_BITRATE = 207;    // prior bitrate that was confirmed (so we don't need listen only)
 
+    public static final int FLAG_CAN_CAPTURE = 208; // write received CAN frames to a capture file
+
     public static final int FLAG_J1708_ON = 210;
+    public static final int FLAG_J1708_CAPTURE = 211; // write received J1708 frames to a capture file
 
 
     Context context;
@@ -0,0 +1,210 @@
+/////////////////////////////////////////////////////////////
+// Trace:
+//  Records what happened recently (CAN frames sent and received) in a fixed-size ring in memory,
+//      cheaply enough to always be on. The ring is written to a file when ATS asks for it (SERVICE_ACTION_TRACE_DUMP,
+//      ATS does this when it dumps its own ring), and the ATS TraceDecoder turns the file into text.
+//
+//  record() does not lock or allocate: each entry claims the next slot with an atomic counter and overwrites
+//      the oldest entry. Each slot has a stamp that is odd while it is being written and even when it is done,
+//      so dump() can skip entries that are being (over)written while it copies them.
+//
+//  Memory: SLOTS entries of 8 (stamp) + 8 (time) + 4 (code) + 8 (args) + 4 (length) + MAX_DATA bytes (about 100 KB)
+//
+//  File format (all values big-endian, the same as the ATS Trace, must match the ATS TraceFormat):
+//      header:  magic (4 bytes "ATST"), version (2), reason (1), wall clock at dump (8), nano time at dump (8), count (4)
+//      records: sequence (8), nano time (8), code (2), arg1 (4), arg2 (4), length (4), stored length (1), data
+//          length is how many bytes there were, only the first MAX_DATA of them are stored
+/////////////////////////////////////////////////////////////
+
+package com.micronet.dsc.vbs;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+public class Trace {
+
+    private static final String TAG = "ATS-VBS-Trace";
+
+    public static final int SLOTS = 2048; // must be a power of 2
+    public static final int MAX_DATA = 16; // bytes of data kept for each entry
+
+    static final int FORMAT_MAGIC = 0x41545354; // "ATST"
+    static final int FORMAT_VERSION = 1;
+
+    // What an entry is (these start at 100 so they can't be mistaken for ATS entries)
+    public static final int CODE_CAN_RX = 101; // arg1 = CAN ID, arg2 = 0, data = the frame
+    public static final int CODE_CAN_TX = 102; // arg1 = CAN ID, arg2 = 0, data = the frame
+    public static final int CODE_DUMP = 103; // arg1 = reason
+
+    // Why the ring was dumped (also picks the file, so a later dump doesn't overwrite a different kind)
+    public static final int REASON_REQUEST = 0;
+    public static final int REASON_CRASH = 1;
+    public static final int REASON_WATCHDOG = 2;
+
+    static final String[] REASON_FILE_NAMES = {"vbs-trace-request.dat", "vbs-trace-crash.dat", "vbs-trace-watchdog.dat"};
+
+
+    static final AtomicLong nextSequence = new AtomicLong();
+    static final AtomicLongArray stamps = new AtomicLongArray(SLOTS); // 2 * sequence + 1 while writing, + 2 when done
+    static final long[] times = new long[SLOTS];
+    static final short[] codes = new short[SLOTS];
+    static final int[] args1 = new int[SLOTS];
+    static final int[] args2 = new int[SLOTS];
+    static final int[] lengths = new int[SLOTS];
+    static final byte[] data = new byte[SLOTS * MAX_DATA];
+
+    static volatile File directory = null; // where dumps are written (set by setDirectory())
+
+
+    ///////////////////////////////////////////////////
+    // setDirectory()
+    //  sets where dump() writes its files (call once when the process starts)
+    ///////////////////////////////////////////////////
+    public static void setDirectory(File dir) {
+        directory = dir;
+    }
+
+
+    ///////////////////////////////////////////////////
+    // record()
+    //  adds an entry, overwriting the oldest one if the ring is full
+    ///////////////////////////////////////////////////
+    public static void record(int code, int arg1, int arg2) {
+        record(code, arg1, arg2, null, 0, 0);
+    }
+
+    public static void record(int code, int arg1, int arg2, byte[] bytes, int offset, int length) {
+
+        long sequence = nextSequence.getAndIncrement();
+        int slot = (int) sequence & (SLOTS - 1);
+
+        stamps.set(slot, 2 * sequence + 1); // being written
+
+        times[slot] = System.nanoTime();
+        codes[slot] = (short) code;
+        args1[slot] = arg1;
+        args2[slot] = arg2;
+        lengths[slot] = length;
+        if (bytes != null) {
+            System.arraycopy(bytes, offset, data, slot * MAX_DATA, Math.min(length, MAX_DATA));
+        }
+
+        stamps.set(slot, 2 * sequence + 2); // done
+    } // record()
+
+
+    ///////////////////////////////////////////////////
+    // dump()
+    //  writes the entries in the ring to the file for this reason (oldest first), and waits until it is on disk
+    //  returns the file, or null if it could not be written
+    ///////////////////////////////////////////////////
+    public static synchronized File dump(int reason) {
+
+        File dir = directory;
+        if (dir == null) {
+            Log.e(TAG, "Unable to dump trace, no directory");
+            return null;
+        }
+
+        if ((reason < 0) || (reason >= REASON_FILE_NAMES.length)) reason = REASON_REQUEST;
+
+        record(CODE_DUMP, reason, 0);
+
+        File file = new File(dir, REASON_FILE_NAMES[reason]);
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 8192));
+
+            int count = write(out, reason);
+
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            fos = null;
+
+            Log.i(TAG, "Dumped " + count + " trace entries to " + file.getName());
+            return file;
+        } catch (Exception e) {
+            Log.e(TAG, "Exception: dump() " + e.toString(), e);
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (Exception e) {
+                    // Do Nothing
+                }
+            }
+        }
+        return null;
+    } // dump()
+
+
+    ///////////////////////////////////////////////////
+    // write()
+    //  writes the header and all complete entries, returns the number of entries
+    ///////////////////////////////////////////////////
+    static int write(DataOutputStream out, int reason) throws IOException {
+
+        long end = nextSequence.get();
+        long start = Math.max(0, end - SLOTS);
+
+        // copy the entries first, the header needs the count
+        long[] sequences = new long[(int) (end - start)];
+        long[] entryTimes = new long[sequences.length];
+        short[] entryCodes = new short[sequences.length];
+        int[] entryArgs1 = new int[sequences.length];
+        int[] entryArgs2 = new int[sequences.length];
+        int[] entryLengths = new int[sequences.length];
+        byte[] entryData = new byte[sequences.length * MAX_DATA];
+
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) sequence & (SLOTS - 1);
+
+            long stamp = stamps.get(slot);
+            if (stamp != 2 * sequence + 2) continue; // not finished, or already overwritten
+
+            entryTimes[count] = times[slot];
+            entryCodes[count] = codes[slot];
+            entryArgs1[count] = args1[slot];
+            entryArgs2[count] = args2[slot];
+            entryLengths[count] = lengths[slot];
+            System.arraycopy(data, slot * MAX_DATA, entryData, count * MAX_DATA, MAX_DATA);
+
+            if (stamps.get(slot) != stamp) continue; // it was overwritten while we copied it
+            sequences[count] = sequence;
+            count++;
+        }
+
+        out.writeInt(FORMAT_MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeByte(reason);
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(System.nanoTime());
+        out.writeInt(count);
+
+        for (int i = 0; i < count; i++) {
+            out.writeLong(sequences[i]);
+            out.writeLong(entryTimes[i]);
+            out.writeShort(entryCodes[i]);
+            out.writeInt(entryArgs1[i]);
+            out.writeInt(entryArgs2[i]);
+            out.writeInt(entryLengths[i]);
+            int stored = Math.min(Math.max(entryLengths[i], 0), MAX_DATA);
+            out.writeByte(stored);
+            out.write(entryData, i * MAX_DATA, stored);
+        }
+
+        return count;
+    } // write()
+
+
+} // class Trace
@@ -26,6 +26,7 @@ import java.util.List;
 public class VehicleBusCAN {
 
     private static final String TAG = "ATS-VBS-CAN"; // for logging
+    private static final int TAG_ID = Log.tagId(TAG); // for the checks before per-frame logging
 
 
     public static String BUS_NAME = "CAN";
@@ -57,6 +58,10 @@ public class VehicleBusCAN {
 
     int confirmedBusBitrate = 0; // set to a bitrate that we know is working so we can skip listen-only mode
 
+    volatile BusCapture capture = null; // if set, all received frames are also written to this capture
+
+    final CANBusStats stats = new CANBusStats(); // always counting, summarized in the status broadcast
+
 
 
     public VehicleBusCAN(Context context) {
@@ -94,6 +99,8 @@ public class VehicleBusCAN {
         // close any prior socket that still exists
         stop(); // stop any threads and sockets already running
 
+        stats.reset(SystemClock.elapsedRealtime());
+
 
         if (busWrapper.isUnitTesting) {
             // since we are unit testing and not on realy device, even creating the CanbusInterface will fail fatally,
@@ -447,6 +454,9 @@ public class VehicleBusCAN {
         synchronized (outgoingList) {
             if (outgoingList.size() < SAFETY_MAX_OUTGOING_QUEUE_SIZE) {
                 outgoingList.add(frame);
+                stats.recordTxQueue(outgoingList.size(), false);
+            } else {
+                stats.recordTxQueue(outgoingList.size(), true);
             }
         }
         Log.vv(TAG, "SendFrame() END");
@@ -526,7 +536,10 @@ public class VehicleBusCAN {
                     if (outFrame == null) {
                         android.os.SystemClock.sleep(5); // we can wait 5 ms if nothing to send.
                     } else {
-                        Log.v(TAG, "frame --> " + String.format("%02x", outFrame.getId()) + " : " + Log.bytesToHex(outFrame.getData(), outFrame.getData().length));
+                        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE)) { // don't build the string unless we will log it
+                            Log.v(TAG, "frame --> " + String.format("%02x", outFrame.getId()) + " : " + Log.bytesToHex(outFrame.getData(), outFrame.getData().length));
+                        }
+                        Trace.record(Trace.CODE_CAN_TX, outFrame.getId(), 0, outFrame.getData(), 0, outFrame.getData().length);
                         try {
                             canWriteSocket.write(outFrame);
                             //Log.d(TAG, "Write Returns");
@@ -613,9 +626,18 @@ public class VehicleBusCAN {
 
                     if (inFrame != null) {
 
-                        Log.v(TAG, "frame  <-- " + String.format("%02x", inFrame.getId()) +
-                                " : " +
-                                Log.bytesToHex(inFrame.getData(), inFrame.getData().length));
+                        if (Log.isEnabled(TAG_ID, Log.LEVEL_VERBOSE)) { // don't build the string unless we will log it
+                            Log.v(TAG, "frame  <-- " + String.format("%02x", inFrame.getId()) +
+                                    " : " +
+                                    Log.bytesToHex(inFrame.getData(), inFrame.getData().length));
+                        }
+
+                        Trace.record(Trace.CODE_CAN_RX, inFrame.getId(), 0, inFrame.getData(), 0, inFrame.getData().length);
+                        stats.record(inFrame.getId(), inFrame.getData().length);
+
+                        BusCapture c = capture;
+                        if (c != null)
+                            c.writeFrame(BusCapture.BUS_CAN, SystemClock.elapsedRealtime(), inFrame.getId(), 0, inFrame.getData());
 
                         receiveFrame(inFrame);
 
@@ -662,13 +684,38 @@ public class VehicleBusCAN {
 
         ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_TIMESTAMP, elapsedRealtime); // ms since boot
         //ibroadcast.putExtra("password", VehicleBusService.BROADCAST_PASSWORD);
+        byte[] data = frame.getData();
+
         ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_ID, frame.getId());
-        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_DATA, frame.getData());
+        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_DATA, data);
+        // also send the data packed into primitives so receivers don't need to un-parcel an array
+        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_PAYLOAD, packPayload(data));
+        ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_CAN_DLC, (data == null ? 0 : data.length));
 
         context.sendBroadcast(ibroadcast);
     } // broadcastRx
 
 
+    ///////////////////////////////////////////////
+    // packPayload()
+    //  packs up to 8 data bytes into a long, little-endian (first byte in the lowest 8 bits)
+    //  any bytes past the end of the data are filled with 0xFF
+    ///////////////////////////////////////////////
+    static long packPayload(byte[] data) {
+        long payload = 0xFFFFFFFFFFFFFFFFL;
+
+        if (data == null) return payload;
+
+        int length = (data.length > 8 ? 8 : data.length);
+        for (int i = length - 1; i >= 0; i--) {
+            payload <<= 8;
+            payload |= (data[i] & 0xFF);
+        }
+
+        return payload;
+    } // packPayload()
+
+
 
     ///////////////////////////////////////////////
     // TxReceiver()
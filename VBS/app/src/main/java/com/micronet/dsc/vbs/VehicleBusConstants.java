@@ -32,6 +32,10 @@ public final class VehicleBusConstants {
     // Action: STOP : STOP a particular bus (either J1708 or CAN)
     public static final String SERVICE_ACTION_STOP = "com.micronet.dsc.vbs.stop";
 
+    // Action: TRACE_DUMP : write the VBS trace ring to a file in the VBS files directory (see Trace)
+    //  does not start or stop any bus
+    public static final String SERVICE_ACTION_TRACE_DUMP = "com.micronet.dsc.vbs.tracedump";
+
 
     //////////////////////////////////////
     // Extras for the VBS service
@@ -62,6 +66,15 @@ public final class VehicleBusConstants {
     //      use with START action only
     public static final String SERVICE_EXTRA_HARDWAREFILTER_MASKS = "hardwareFilterMasks";
 
+    // Extra: "capture" (boolean): If true, then VBS will also write all frames received on this bus to a binary capture file.
+    //      If not given, then the capture setting from the last start of this bus is kept.
+    //      use with START action only
+    public static final String SERVICE_EXTRA_CAPTURE = "capture";
+
+    // Extra: "traceReason" (int): Why the trace is being dumped (Trace.REASON_*), this picks the file name
+    //      use with TRACE_DUMP action only
+    public static final String SERVICE_EXTRA_TRACE_REASON = "traceReason";
+
 
     //////////////////////////////////////
     // Broadcasts To or From the VBS Service
@@ -97,6 +110,32 @@ public final class VehicleBusConstants {
     // Extra "j1708tx" (boolean): are we able to transmit on J1708 yet?
     public static final String BROADCAST_EXTRA_STATUS_J1708TX = "j1708tx";
 
+    // CAN bus statistics, over the last status period:
+    // Extra "canFps" (int): frames received per second
+    public static final String BROADCAST_EXTRA_STATUS_CANFPS = "canFps";
+    // Extra "canBps" (int): data bytes received per second
+    public static final String BROADCAST_EXTRA_STATUS_CANBYTES = "canBps";
+    // Extra "canLoad" (int): estimated bus utilization in 1/10 % (not counting bit stuffing)
+    public static final String BROADCAST_EXTRA_STATUS_CANLOAD = "canLoad";
+    // Extra "canTopIds" (int array): the CAN IDs with the most frames, busiest first
+    public static final String BROADCAST_EXTRA_STATUS_CANTOPIDS = "canTopIds";
+    // Extra "canTopIdFps" (int array): frames per second of each of the canTopIds
+    public static final String BROADCAST_EXTRA_STATUS_CANTOPIDFPS = "canTopIdFps";
+    // Extra "canTopSources" (int array): the source addresses (low byte of the ID) with the most frames, busiest first
+    public static final String BROADCAST_EXTRA_STATUS_CANTOPSOURCES = "canTopSources";
+    // Extra "canTopSourceFps" (int array): frames per second of each of the canTopSources
+    public static final String BROADCAST_EXTRA_STATUS_CANTOPSOURCEFPS = "canTopSourceFps";
+    // Extra "canTxQueueMax" (int): the most frames that have been waiting to be transmitted since CAN was started
+    public static final String BROADCAST_EXTRA_STATUS_CANTXQUEUEMAX = "canTxQueueMax";
+    // Extra "canTxDropped" (long): frames that were not transmitted because the queue was full, since CAN was started
+    public static final String BROADCAST_EXTRA_STATUS_CANTXDROPPED = "canTxDropped";
+    // Extra "canFilters" (int): number of hardware filters in use (after combining them to fit the controller)
+    public static final String BROADCAST_EXTRA_STATUS_CANFILTERS = "canFilters";
+    // Extra "canFilterPass" (int): share of the traffic seen before CAN was started that the filters are expected to pass, in 1/10 %
+    public static final String BROADCAST_EXTRA_STATUS_CANFILTERPASS = "canFilterPass";
+    // Extra "canFilterExtraFps" (int): expected frames per second passed by the filters that were not requested (because filters were combined)
+    public static final String BROADCAST_EXTRA_STATUS_CANFILTEREXTRAFPS = "canFilterExtraFps";
+
 
     // Extra "elapsedRealtime" (long): contains the time that VBS received the packet
     public static final String BROADCAST_EXTRA_TIMESTAMP ="elapsedRealtime";
@@ -105,6 +144,10 @@ public final class VehicleBusConstants {
     public static final String BROADCAST_EXTRA_CAN_ID = "id";
     // Extra "data" (byte array): Contains the data for the frame rx/tx
     public static final String BROADCAST_EXTRA_CAN_DATA ="data";
+    // Extra "payload" (long): Contains the same data for a received frame, packed little-endian (first byte in lowest 8 bits, unused bytes 0xFF)
+    public static final String BROADCAST_EXTRA_CAN_PAYLOAD ="payload";
+    // Extra "dlc" (int): Contains the number of data bytes in the payload of a received frame
+    public static final String BROADCAST_EXTRA_CAN_DLC ="dlc";
 
     // Extra "id" (int): Contains the frame ID to rx/tx
     public static final String BROADCAST_EXTRA_J1708_ID = "id";
@@ -3,6 +3,11 @@
 //  Helps discover which CAN bitrate - if any -- is connected
 
 //  This is called from VehicleBusCAN and acts like an intermediary to control VehicleBusWrapper
+//
+//  Each bitrate is listened to for a short window, and the windows get longer each time both bitrates have been
+//      tried (in case the bus is quiet). While discovering, all frames are let through the hardware filters, so
+//      any traffic on the bus (not just frames we want) confirms the bitrate.
+//      (The CAN library does not report error frames, so a wrong bitrate just looks like a quiet bus.)
 
 /////////////////////////////////////////////////////////////
 
@@ -12,6 +17,7 @@ package com.micronet.dsc.vbs;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.SystemClock;
 
 
 
@@ -21,9 +27,12 @@ public class VehicleBusDiscovery {
     private static final String TAG = "ATS-VBS-Discover"; // for logging
 
 
-    public static final int DISCOVER_BUS_WAIT_MS = 5000; // wait 5 seconds on each bus  (must be > the 3+seconds it can take to switch bus speeds)
+    // the window starts once the bus has been restarted (the restart itself can take 3+ seconds)
+    public static final int DISCOVER_FIRST_WINDOW_MS = 1000; // J1939 ECUs broadcast every 10 - 100 ms, so an active bus shows up quickly
+    public static final int DISCOVER_MAX_WINDOW_MS = 5000; // double the window after each pair of bitrates, up to this
     public static final int DISCOVER_MAX_WINDOWS = 3; // We must limit the number of bitrate switches since each check creates threads that may not ever go away
                                                       // an odd number ensures we end up on bus we started on (most likely to be the correct bus
+                                                      // (1 s on each bitrate, then back to the starting one, where we stay and keep listening)
 
 
     // stages
@@ -50,6 +59,8 @@ public class VehicleBusDiscovery {
 
 
     int on_window_num = 0; // how many times we've checked across all buses (we need to limit this b/c it can create threads)
+    int window_ms = DISCOVER_FIRST_WINDOW_MS; // how long to listen on the current bitrate
+    long discovery_start_time; // elapsed realtime that discovery started, to log how long it took
 
 
     public VehicleBusDiscovery(Context context, VehicleBusWrapper busWrapper, String bus_name) {
@@ -93,6 +104,8 @@ public class VehicleBusDiscovery {
         Log.v(TAG, "Starting CAN bitrate Discovery");
 
         on_window_num = 0; // we haven't checked any so far
+        window_ms = DISCOVER_FIRST_WINDOW_MS;
+        discovery_start_time = SystemClock.elapsedRealtime();
 
         // remember what to call each time when a new discover socket is ready
         this.busDiscoverReadyCallback = busDiscoverReadyCallback;
@@ -102,7 +115,7 @@ public class VehicleBusDiscovery {
         busWrapper.start(BUS_NAME, busDiscoverReadyCallback, null);
 
         // and wait a certain amount of time on this socket before switching bitrates
-        mainHandler.postDelayed(discoverBusTask, DISCOVER_BUS_WAIT_MS); // try again in five seconds
+        mainHandler.postDelayed(discoverBusTask, window_ms);
 
         return true;
     } // discoverBus()
@@ -153,7 +166,8 @@ public class VehicleBusDiscovery {
 
         int discovered_bitrate = busWrapper.getCANBitrate();
 
-        Log.v(TAG, "Discovered CAN bitrate " + discovered_bitrate);
+        Log.i(TAG, "Discovered CAN bitrate " + discovered_bitrate + " in " +
+                (SystemClock.elapsedRealtime() - discovery_start_time) + " ms (" + (on_window_num + 1) + " windows)");
 
         if (mainHandler != null)
             mainHandler.removeCallbacks(discoverBusTask); // remove any pending timers
@@ -173,6 +187,9 @@ public class VehicleBusDiscovery {
         // remember we are not discovering
         discoveryStage = DISCOVERY_STAGE_OFF;
 
+        // put back the real filters for when the bus is restarted in normal mode
+        busWrapper.setCharacteristics(true, discovered_bitrate, hardwareFilters);
+
 
     } // markDiscovered()
 
@@ -201,10 +218,24 @@ public class VehicleBusDiscovery {
         }
 
         // restart on new bit rate, keep with discovery callbacks
-        busWrapper.setCharacteristics(true, new_bitrate, hardwareFilters);
+        // let everything through, any traffic at all means this is the right bitrate
+        busWrapper.setCharacteristics(true, new_bitrate, createAcceptAllFilters());
     }
 
 
+    ///////////////////////////////////////////////////////////////
+    // createAcceptAllFilters()
+    //  filters that let through every frame
+    ///////////////////////////////////////////////////////////////
+    static VehicleBusWrapper.CANHardwareFilter[] createAcceptAllFilters() {
+        int[] ids = new int[] {0};
+        return new VehicleBusWrapper.CANHardwareFilter[] {
+                new VehicleBusWrapper.CANHardwareFilter(ids, 0, VehicleBusWrapper.CANFrameType.EXTENDED),
+                new VehicleBusWrapper.CANHardwareFilter(ids, 0, VehicleBusWrapper.CANFrameType.STANDARD)
+        };
+    } // createAcceptAllFilters()
+
+
 
 
 
@@ -229,7 +260,12 @@ public class VehicleBusDiscovery {
                 }
 
 
-                Log.d(TAG, "Discover window # " + on_window_num + " expired, switching bitrate");
+                // listen longer once we've tried both bitrates
+                if ((on_window_num % 2) == 0) {
+                    window_ms = Math.min(window_ms * 2, DISCOVER_MAX_WINDOW_MS);
+                }
+
+                Log.d(TAG, "Discover window # " + on_window_num + " expired, switching bitrate (next window " + window_ms + " ms)");
                 switch (discoveryStage) {
                     case DISCOVERY_STAGE_250:
                         changeBitrate(500000); // change to 500kb next
@@ -247,7 +283,7 @@ public class VehicleBusDiscovery {
                 Log.e(TAG + ".discoverBusTask", "Exception: " + e.toString(), e);
             }
             if (discoveryStage != DISCOVERY_STAGE_OFF)
-                mainHandler.postDelayed(discoverBusTask, DISCOVER_BUS_WAIT_MS); // expire again in five seconds
+                mainHandler.postDelayed(discoverBusTask, window_ms); // expire again after the next window
         }
     }; // discoverBusTask()
 
@@ -44,6 +44,8 @@ public class VehicleBusJ1708 {
 
     Context context;
 
+    volatile BusCapture capture = null; // if set, all received frames are also written to this capture
+
     public VehicleBusJ1708(Context context) {
         busWrapper = VehicleBusWrapper.getInstance();
         busWrapper.isUnitTesting = false;
@@ -478,6 +480,10 @@ public class VehicleBusJ1708 {
                                 " : " +
                                 Log.bytesToHex(inFrame.getData(), inFrame.getData().length));
 
+                        BusCapture c = capture;
+                        if (c != null)
+                            c.writeFrame(BusCapture.BUS_J1708, SystemClock.elapsedRealtime(), inFrame.getId(), inFrame.getPriority(), inFrame.getData());
+
                         broadcastRx(inFrame);
 
                     }
@@ -17,6 +17,7 @@ import android.os.IBinder;
 import android.os.SystemClock;
 
 
+import java.io.File;
 import java.util.Arrays;
 
 
@@ -47,6 +48,13 @@ public class VehicleBusService extends Service {
     VehicleBusJ1708 my_j1708;
     VehicleBusCAN my_can;
 
+    BusCapture capture = null; // open while either bus is capturing
+
+    CANBusStats.Traffic canTraffic = null; // frames seen the last time CAN was running (for the filter optimizer)
+    CANFilterOptimizer.Result canFilters = null; // the filters CAN is using
+    boolean isCapturingCAN = false;
+    boolean isCapturingJ1708 = false;
+
 
     boolean isUnitTesting = false;
 
@@ -65,6 +73,7 @@ public class VehicleBusService extends Service {
         android.util.Log.i(TAG, "Service Created: VBS device=" + BuildConfig.BUILD_DEVICE + " version=" + BuildConfig.VERSION_NAME);
         processId = android.os.Process.myPid();
         mainHandler  = new Handler();
+        Trace.setDirectory(getFilesDir());
     }
 
 
@@ -93,6 +102,14 @@ public class VehicleBusService extends Service {
 
         }
 
+        if (action.equals(VehicleBusConstants.SERVICE_ACTION_TRACE_DUMP)) {
+            Trace.dump(intent.getIntExtra(VehicleBusConstants.SERVICE_EXTRA_TRACE_REASON, Trace.REASON_REQUEST));
+            if (!hasStartedCAN && !hasStartedJ1708) {
+                stopSelf(); // we were only started to dump, nothing is on
+            }
+            return START_NOT_STICKY;
+        }
+
 
         bus = intent.getStringExtra(VehicleBusConstants.SERVICE_EXTRA_BUS);
 
@@ -113,8 +130,11 @@ public class VehicleBusService extends Service {
                 // remember that this was our last request
                 saveJ1708(true);
 
+                boolean capture = readCaptureExtra(intent, State.FLAG_J1708_CAPTURE);
+
                 stopJ1708(false);
                 startJ1708();
+                setCapture(VBUS_J1708, capture);
             }
             else
             if (bus.equals("CAN")) {
@@ -127,10 +147,12 @@ public class VehicleBusService extends Service {
 
                 // remember that this was our last request
                 saveCAN(true, bitrate, auto_detect, ids, masks);
+                boolean capture = readCaptureExtra(intent, State.FLAG_CAN_CAPTURE);
 
                 // and do it
                 stopCAN(false);
                 startCAN(bitrate, skip_verify, auto_detect, ids, masks, false);
+                setCapture(VBUS_CAN, capture);
             }
 
 
@@ -228,10 +250,12 @@ public class VehicleBusService extends Service {
             }
 
             startCAN(bitrate, false, auto_detect, ids, masks, true);
+            setCapture(VBUS_CAN, state.readStateBool(State.FLAG_CAN_CAPTURE));
         }
 
         if (enJ1708) { // enable J1708 bus now b/c it can get tacked onto CAN.
             startJ1708();
+            setCapture(VBUS_J1708, state.readStateBool(State.FLAG_J1708_CAPTURE));
         }
 
         return true;
@@ -353,6 +377,16 @@ public class VehicleBusService extends Service {
             stopJ1708(false);
         }
 */
+        // remember what we saw on the bus so the filters can be chosen to let through as little extra as possible
+        if (my_can != null) {
+            CANBusStats.Traffic traffic = my_can.stats.getTraffic();
+            if (canFilters != null) {
+                traffic.filterIds = canFilters.ids;
+                traffic.filterMasks = canFilters.masks;
+            }
+            if (traffic.durationMs > 0) canTraffic = traffic;
+        }
+
         // create the combined filters
         VehicleBusWrapper.CANHardwareFilter[] canHardwareFilters = createCombinedFilters(ids, masks);
 
@@ -414,6 +448,7 @@ public class VehicleBusService extends Service {
         }
 
         hasStartedCAN = false;
+        setCapture(VBUS_CAN, false);
 
     } // stopCAN()
 
@@ -490,17 +525,72 @@ public class VehicleBusService extends Service {
         }
 
         hasStartedJ1708 = false;
+        setCapture(VBUS_J1708, false);
 
     } // stopJ1708()
 
 
 
+    ////////////////////////////////////////////////////////////////
+    // readCaptureExtra()
+    //  returns whether the bus being started should be captured
+    //  if the start request says, then this is remembered, otherwise we use what was remembered from before
+    ////////////////////////////////////////////////////////////////
+    boolean readCaptureExtra(Intent intent, int state_flag) {
+
+        State state = new State(getApplicationContext());
+
+        if (intent.hasExtra(VehicleBusConstants.SERVICE_EXTRA_CAPTURE)) {
+            boolean capture = intent.getBooleanExtra(VehicleBusConstants.SERVICE_EXTRA_CAPTURE, false);
+            state.writeState(state_flag, (capture ? 1 : 0));
+            return capture;
+        }
+
+        return state.readStateBool(state_flag);
+    } // readCaptureExtra()
+
+
+    ////////////////////////////////////////////////////////////////
+    // setCapture()
+    //  turns the capture of received frames on or off for a bus
+    //  both buses write to the same capture files, which are open while either one is capturing
+    ////////////////////////////////////////////////////////////////
+    void setCapture(int bus, boolean enabled) {
+
+        if (bus == VBUS_CAN)
+            isCapturingCAN = enabled;
+        else
+            isCapturingJ1708 = enabled;
+
+        if ((isCapturingCAN || isCapturingJ1708) && (capture == null)) {
+            File directory = new File(getApplicationContext().getFilesDir(), BusCapture.DIRECTORY_NAME);
+            capture = new BusCapture(directory, BusCapture.DEFAULT_MAX_FILE_BYTES, BusCapture.DEFAULT_MAX_FILES);
+            if (!capture.open(SystemClock.elapsedRealtime())) {
+                capture = null;
+            }
+        }
+
+        if (my_can != null)
+            my_can.capture = (isCapturingCAN ? capture : null);
+        if (my_j1708 != null)
+            my_j1708.capture = (isCapturingJ1708 ? capture : null);
+
+        if ((!isCapturingCAN) && (!isCapturingJ1708) && (capture != null)) {
+            capture.close();
+            capture = null;
+        }
+
+    } // setCapture()
+
+
     ///////////////////////////////////////////////////////////////
     // createCombinedFilters()
     //  take the ids and masks passed to this and combine into CanBusHardwareFilter
+    //  the filters are first reduced to fit in the hardware's filter slots (see CANFilterOptimizer)
     ///////////////////////////////////////////////////////////////
     VehicleBusWrapper.CANHardwareFilter[] createCombinedFilters(int[] ids, int[] masks) {
 
+        canFilters = null;
 
         if ((ids == null) || (masks == null) ||
                 (ids.length == 0) || (masks.length == 0)) {
@@ -508,6 +598,10 @@ public class VehicleBusService extends Service {
             return null;
         }
 
+        canFilters = CANFilterOptimizer.optimize(ids, masks, VehicleBusHW.MAX_CAN_HARDWARE_FILTERS, canTraffic);
+        ids = canFilters.ids;
+        masks = canFilters.masks;
+
         int count = ids.length;
         VehicleBusWrapper.CANHardwareFilter[] canHardwareFilters = new VehicleBusWrapper.CANHardwareFilter[count];
 
@@ -547,6 +641,27 @@ public class VehicleBusService extends Service {
             ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANRX, my_can.isReadReady());
             ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANTX, my_can.isWriteReady());
             ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANBITRATE, my_can.getBitrate());
+
+            CANBusStats.Sample stats = my_can.stats.sample(elapsedRealtime, my_can.getBitrate());
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANFPS, stats.framesPerSecond);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANBYTES, stats.bytesPerSecond);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANLOAD, stats.busLoadPermille);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANTOPIDS, stats.topIds);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANTOPIDFPS, stats.topIdFramesPerSecond);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANTOPSOURCES, stats.topSources);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANTOPSOURCEFPS, stats.topSourceFramesPerSecond);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANTXQUEUEMAX, stats.txQueueHighWater);
+            ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANTXDROPPED, stats.txDropped);
+
+            if (canFilters != null) {
+                ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANFILTERS, canFilters.ids.length);
+                ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANFILTERPASS, canFilters.getPassPermille());
+                ibroadcast.putExtra(VehicleBusConstants.BROADCAST_EXTRA_STATUS_CANFILTEREXTRAFPS, canFilters.getExtraFps());
+            }
+
+            if ((Log.LOGLEVEL_VERBOSE) && (stats.framesPerSecond > 0)) {
+                Log.v(TAG, "CAN " + stats.toString());
+            }
         }
 
         if (my_j1708 != null) { // safety
@@ -577,6 +692,8 @@ public class VehicleBusService extends Service {
 */
                 //Log.d(TAG, "statusTask()");
                 broadcastStatus();
+                if (capture != null)
+                    capture.flush(); // don't lose more than a second of frames if we crash
                 if (mainHandler != null)
                     mainHandler.postDelayed(statusTask, BROADCAST_STATUS_DELAY_MS); // broadcast a status every 1s
             } catch (Exception e) {
@@ -0,0 +1,133 @@
+package com.micronet.dsc.vbs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CANFilterOptimizerTest {
+
+    static final int EXACT = 0x1FFFFFFF; // mask for a single ID
+    static final int PGN_MASK = 0x00FFFF00; // mask for a PGN from any source
+
+
+    static CANBusStats.Traffic traffic(int[] ids, long[] counts) {
+        CANBusStats.Traffic traffic = new CANBusStats.Traffic();
+        traffic.ids = ids;
+        traffic.counts = counts;
+        traffic.durationMs = 1000;
+        return traffic;
+    }
+
+
+    @Test
+    public void test_exactFit() {
+
+        // no two of these can be combined for free, and there are enough slots
+        int[] ids = new int[] {0x00FEF100, 0x00FEEE00, 0x00FECA00};
+        int[] masks = new int[] {PGN_MASK, PGN_MASK, PGN_MASK};
+
+        CANFilterOptimizer.Result result = CANFilterOptimizer.optimize(ids, masks, 4, null);
+
+        assertArrayEquals(ids, result.ids);
+        assertArrayEquals(masks, result.masks);
+
+        // and when they fit exactly
+        result = CANFilterOptimizer.optimize(ids, masks, 3, null);
+
+        assertArrayEquals(ids, result.ids);
+        assertArrayEquals(masks, result.masks);
+
+    } // test_exactFit()
+
+
+    @Test
+    public void test_freeMerge() {
+
+        // these only differ in one bit, so one filter accepts exactly the same IDs
+        int[] ids = new int[] {0x00FEF100, 0x00FEF000};
+        int[] masks = new int[] {PGN_MASK, PGN_MASK};
+
+        CANFilterOptimizer.Result result = CANFilterOptimizer.optimize(ids, masks, 4, null);
+
+        assertArrayEquals(new int[] {0x00FEF000}, result.ids);
+        assertArrayEquals(new int[] {0x00FFFE00}, result.masks);
+
+    } // test_freeMerge()
+
+
+    @Test
+    public void test_forcedMergeLeastTraffic() {
+
+        // 0x100 + 0x103 also lets through 0x101 and 0x102, 0x100 + 0x10C lets through 0x104 and 0x108
+        // (the same number of extra IDs), 0x103 + 0x10C lets through many more
+        int[] ids = new int[] {0x100, 0x103, 0x10C};
+        int[] masks = new int[] {EXACT, EXACT, EXACT};
+
+        // 0x101 is busy, so combine 0x100 with 0x10C
+        CANFilterOptimizer.Result result = CANFilterOptimizer.optimize(ids, masks, 2,
+                traffic(new int[] {0x100, 0x103, 0x10C, 0x101, 0x104},
+                        new long[] {100, 100, 100, 500, 10}));
+
+        assertArrayEquals(new int[] {0x100, 0x103}, result.ids);
+        assertArrayEquals(new int[] {0x1FFFFFF3, EXACT}, result.masks);
+
+        assertEquals(810, result.observedFps);
+        assertEquals(300, result.wantedFps);
+        assertEquals(310, result.passFps);
+        assertEquals(10, result.getExtraFps());
+        assertFalse(result.passUnseen);
+
+        // 0x104 is busy, so combine 0x100 with 0x103
+        result = CANFilterOptimizer.optimize(ids, masks, 2,
+                traffic(new int[] {0x100, 0x103, 0x10C, 0x101, 0x104},
+                        new long[] {100, 100, 100, 10, 500}));
+
+        assertArrayEquals(new int[] {0x100, 0x10C}, result.ids);
+        assertArrayEquals(new int[] {0x1FFFFFFC, EXACT}, result.masks);
+        assertEquals(10, result.getExtraFps());
+
+    } // test_forcedMergeLeastTraffic()
+
+
+    @Test
+    public void test_noTraffic() {
+
+        // without traffic, combine the pair that lets through the fewest extra IDs (0x100 + 0x103)
+        int[] ids = new int[] {0x100, 0x103, 0x1F0};
+        int[] masks = new int[] {EXACT, EXACT, EXACT};
+
+        CANFilterOptimizer.Result result = CANFilterOptimizer.optimize(ids, masks, 2, null);
+
+        assertArrayEquals(new int[] {0x100, 0x1F0}, result.ids);
+        assertArrayEquals(new int[] {0x1FFFFFFC, EXACT}, result.masks);
+
+        assertEquals(0, result.observedFps);
+        assertEquals(0, result.passFps);
+        assertEquals(1000, result.getPassPermille());
+        assertFalse(result.passUnseen);
+
+        // traffic that was counted but has no frames is the same as none
+        result = CANFilterOptimizer.optimize(ids, masks, 2, traffic(new int[0], new long[0]));
+
+        assertArrayEquals(new int[] {0x100, 0x1F0}, result.ids);
+        assertArrayEquals(new int[] {0x1FFFFFFC, EXACT}, result.masks);
+        assertEquals(0, result.observedFps);
+
+    } // test_noTraffic()
+
+
+    @Test
+    public void test_identicalFilters() {
+
+        // the same filter more than once (the last one only differs in bits the mask ignores)
+        int[] ids = new int[] {0x18FEF100, 0x18FEF100, 0x18FEF1FF};
+        int[] masks = new int[] {0x1FFFFF00, 0x1FFFFF00, 0x1FFFFF00};
+
+        CANFilterOptimizer.Result result = CANFilterOptimizer.optimize(ids, masks, 1, null);
+
+        assertArrayEquals(new int[] {0x18FEF100}, result.ids);
+        assertArrayEquals(new int[] {0x1FFFFF00}, result.masks);
+
+    } // test_identicalFilters()
+
+} // class CANFilterOptimizerTest